@@ -9,9 +9,11 @@ import nl.sense_os.service.SenseService.SenseBinder;
 import nl.sense_os.service.SenseServiceStub;
 import nl.sense_os.service.commonsense.SenseApi;
 import nl.sense_os.service.commonsense.SensorRegistrator;
+import nl.sense_os.service.constants.SensePrefs.Main.Advanced;
 import nl.sense_os.service.constants.SensorData.DataPoint;
 import nl.sense_os.service.feedback.FeedbackManager;
 import nl.sense_os.service.storage.LocalStorage;
+import nl.sense_os.service.subscription.DataSubscription;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -322,7 +324,9 @@ public class SensePlatform {
     }
 
     /**
-     * @return The intent action for new sensor data. This can be used to subscribe to new data.
+     * @return The intent action for new sensor data. This can be used to subscribe to new data, but
+     *         the broadcast is only sent when the {@link Advanced#LEGACY_BROADCAST} preference is
+     *         enabled. Prefer {@link SenseServiceStub#subscribeData(DataSubscription)} instead.
      */
     public String getNewDataAction() {
         return context.getString(R.string.action_sense_new_data);
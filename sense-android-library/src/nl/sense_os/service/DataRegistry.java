@@ -0,0 +1,355 @@
+package nl.sense_os.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.sense_os.service.shared.BaseDataProducer;
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.DataProducer;
+import nl.sense_os.service.shared.OverflowPolicy;
+
+/**
+ * Registry of the DataProducers and DataProcessors of the SenseService.<br/>
+ * <br/>
+ * Producers are registered under a sensor name. Processors subscribe with a name pattern, which is
+ * either an exact sensor name or a pattern with '*' wildcards, e.g. "motion*" for all sensor names
+ * that start with "motion", or "*" for every producer.<br/>
+ * <br/>
+ * The registry is safe to use from any thread. The registrations are kept in an immutable
+ * snapshot that is replaced on every change, so lookups never lock. Changes are serialized, and
+ * the processors are subscribed to the producers while the change is made, so a processor never
+ * misses a producer that registers at the same time.
+ */
+class DataRegistry {
+
+    /**
+     * A processor that subscribed with a name pattern, with the settings of its queue
+     */
+    private static class Subscription {
+        final String pattern;
+        final DataProcessor processor;
+        final int queueSize;
+        final OverflowPolicy policy;
+
+        Subscription(String pattern, DataProcessor processor, int queueSize,
+                OverflowPolicy policy) {
+            this.pattern = pattern;
+            this.processor = processor;
+            this.queueSize = queueSize;
+            this.policy = policy;
+        }
+
+        /**
+         * Subscribes the processor to a producer, with a queue if the producer supports it.
+         * 
+         * @return true if the processor was not subscribed to the producer yet
+         */
+        boolean addTo(DataProducer producer) {
+            if (queueSize > 0 && producer instanceof BaseDataProducer) {
+                return ((BaseDataProducer) producer).addSubscriber(processor, queueSize, policy);
+            }
+            return producer.addSubscriber(processor);
+        }
+    }
+
+    /**
+     * Immutable state of the registry
+     */
+    private static class Snapshot {
+        final Map<String, DataProducer[]> producers;
+        final Subscription[] subscriptions;
+
+        Snapshot(Map<String, DataProducer[]> producers, Subscription[] subscriptions) {
+            this.producers = producers;
+            this.subscriptions = subscriptions;
+        }
+    }
+
+    /**
+     * Checks if a sensor name matches a subscription pattern.
+     * 
+     * @param pattern
+     *            Sensor name, or pattern where '*' matches any sequence of characters
+     * @param name
+     *            The sensor name
+     * @return true if the name matches the pattern
+     */
+    static boolean matches(String pattern, String name) {
+        int wildcard = pattern.indexOf('*');
+        if (wildcard < 0) {
+            return pattern.equals(name);
+        }
+        if (!name.startsWith(pattern.substring(0, wildcard))) {
+            return false;
+        }
+
+        // match the remaining parts between the wildcards in order
+        int position = wildcard;
+        int start = wildcard + 1;
+        while (start < pattern.length()) {
+            int end = pattern.indexOf('*', start);
+            if (end < 0) {
+                // last part must match the end of the name
+                String suffix = pattern.substring(start);
+                return name.length() - suffix.length() >= position && name.endsWith(suffix);
+            }
+            String part = pattern.substring(start, end);
+            int found = name.indexOf(part, position);
+            if (found < 0) {
+                return false;
+            }
+            position = found + part.length();
+            start = end + 1;
+        }
+        return true;
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(new HashMap<String, DataProducer[]>(),
+            new Subscription[0]);
+
+    /**
+     * @param name
+     *            Sensor name
+     * @return The producers that are registered under the given name, or null if there are none
+     */
+    List<DataProducer> getProducers(String name) {
+        DataProducer[] producers = snapshot.producers.get(name);
+        if (null == producers) {
+            return null;
+        }
+        return Collections.unmodifiableList(Arrays.asList(producers));
+    }
+
+    /**
+     * @param name
+     *            Sensor name
+     * @return The processors with a subscription that matches the given name, or null if there
+     *         are none
+     */
+    List<DataProcessor> getProcessors(String name) {
+        List<DataProcessor> result = null;
+        for (Subscription subscription : snapshot.subscriptions) {
+            if (matches(subscription.pattern, name)) {
+                if (null == result) {
+                    result = new ArrayList<DataProcessor>();
+                }
+                if (!result.contains(subscription.processor)) {
+                    result.add(subscription.processor);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param name
+     *            Sensor name
+     * @param producer
+     *            The producer, or null to check for any producer
+     * @return true if the producer is registered under the given name
+     */
+    boolean isRegistered(String name, DataProducer producer) {
+        DataProducer[] producers = snapshot.producers.get(name);
+        if (null == producers) {
+            return false;
+        }
+        if (null == producer) {
+            return true;
+        }
+        for (DataProducer registered : producers) {
+            if (registered.equals(producer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param pattern
+     *            Name pattern of the subscription
+     * @param processor
+     *            The processor
+     * @return true if the processor is subscribed with exactly this pattern
+     */
+    boolean isSubscribed(String pattern, DataProcessor processor) {
+        for (Subscription subscription : snapshot.subscriptions) {
+            if (subscription.pattern.equals(pattern) && subscription.processor.equals(processor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers a producer, and subscribes all processors with a matching pattern to it.
+     * 
+     * @param name
+     *            Sensor name
+     * @param producer
+     *            The producer
+     * @return false if the producer was already registered under this name
+     */
+    synchronized boolean register(String name, DataProducer producer) {
+        if (isRegistered(name, producer)) {
+            return false;
+        }
+
+        Snapshot current = snapshot;
+        DataProducer[] producers = current.producers.get(name);
+        DataProducer[] updated;
+        if (null == producers) {
+            updated = new DataProducer[] { producer };
+        } else {
+            updated = new DataProducer[producers.length + 1];
+            System.arraycopy(producers, 0, updated, 0, producers.length);
+            updated[producers.length] = producer;
+        }
+        Map<String, DataProducer[]> map = new HashMap<String, DataProducer[]>(current.producers);
+        map.put(name, updated);
+        snapshot = new Snapshot(map, current.subscriptions);
+
+        // subscribe the existing processors to the new producer
+        for (Subscription subscription : current.subscriptions) {
+            if (matches(subscription.pattern, name)) {
+                subscription.addTo(producer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Subscribes a processor to all current and future producers with a matching name.
+     * 
+     * @param pattern
+     *            Sensor name, or a pattern with '*' wildcards
+     * @param processor
+     *            The processor
+     * @return true if the processor was subscribed to at least one producer
+     */
+    boolean subscribe(String pattern, DataProcessor processor) {
+        return subscribe(pattern, processor, 0, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Subscribes a processor to all current and future producers with a matching name. The
+     * processor gets the data of {@link BaseDataProducer}s through a queue with the given
+     * settings; other producers deliver the data synchronously.
+     * 
+     * @param pattern
+     *            Sensor name, or a pattern with '*' wildcards
+     * @param processor
+     *            The processor
+     * @param queueSize
+     *            Maximum number of data points that can wait for the processor, or 0 to deliver
+     *            the data synchronously on the producer's thread
+     * @param policy
+     *            What to do with new data points when the queue is full
+     * @return true if the processor was subscribed to at least one producer
+     * @see BaseDataProducer#addSubscriber(DataProcessor, int, OverflowPolicy)
+     */
+    synchronized boolean subscribe(String pattern, DataProcessor processor, int queueSize,
+            OverflowPolicy policy) {
+        if (isSubscribed(pattern, processor)) {
+            return false;
+        }
+
+        Snapshot current = snapshot;
+        Subscription subscription = new Subscription(pattern, processor, queueSize, policy);
+        Subscription[] updated = new Subscription[current.subscriptions.length + 1];
+        System.arraycopy(current.subscriptions, 0, updated, 0, current.subscriptions.length);
+        updated[current.subscriptions.length] = subscription;
+        snapshot = new Snapshot(current.producers, updated);
+
+        // subscribe the new processor to the existing producers
+        boolean subscribed = false;
+        for (Map.Entry<String, DataProducer[]> entry : current.producers.entrySet()) {
+            if (matches(pattern, entry.getKey())) {
+                for (DataProducer producer : entry.getValue()) {
+                    subscribed |= subscription.addTo(producer);
+                }
+            }
+        }
+        return subscribed;
+    }
+
+    /**
+     * Removes a producer from the registry. The subscribers of the producer are not changed.
+     * 
+     * @param name
+     *            Sensor name
+     * @param producer
+     *            The producer
+     */
+    synchronized void unregister(String name, DataProducer producer) {
+        Snapshot current = snapshot;
+        DataProducer[] producers = current.producers.get(name);
+        if (null == producers) {
+            return;
+        }
+        List<DataProducer> remaining = new ArrayList<DataProducer>(producers.length);
+        for (DataProducer registered : producers) {
+            if (!registered.equals(producer)) {
+                remaining.add(registered);
+            }
+        }
+        if (remaining.size() == producers.length) {
+            return;
+        }
+        Map<String, DataProducer[]> map = new HashMap<String, DataProducer[]>(current.producers);
+        if (remaining.isEmpty()) {
+            map.remove(name);
+        } else {
+            map.put(name, remaining.toArray(new DataProducer[remaining.size()]));
+        }
+        snapshot = new Snapshot(map, current.subscriptions);
+    }
+
+    /**
+     * Removes a subscription, and unsubscribes the processor from the producers that matched it.
+     * Producers that still match another subscription of the same processor keep it.
+     * 
+     * @param pattern
+     *            The pattern that the processor subscribed with
+     * @param processor
+     *            The processor
+     */
+    synchronized void unsubscribe(String pattern, DataProcessor processor) {
+        Snapshot current = snapshot;
+        List<Subscription> remaining = new ArrayList<Subscription>(current.subscriptions.length);
+        for (Subscription subscription : current.subscriptions) {
+            if (!(subscription.pattern.equals(pattern) && subscription.processor
+                    .equals(processor))) {
+                remaining.add(subscription);
+            }
+        }
+        if (remaining.size() == current.subscriptions.length) {
+            return;
+        }
+        snapshot = new Snapshot(current.producers,
+                remaining.toArray(new Subscription[remaining.size()]));
+
+        for (Map.Entry<String, DataProducer[]> entry : current.producers.entrySet()) {
+            String name = entry.getKey();
+            if (!matches(pattern, name) || isStillSubscribed(remaining, processor, name)) {
+                continue;
+            }
+            for (DataProducer producer : entry.getValue()) {
+                producer.removeSubscriber(processor);
+            }
+        }
+    }
+
+    private static boolean isStillSubscribed(List<Subscription> subscriptions,
+            DataProcessor processor, String name) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.processor.equals(processor) && matches(subscription.pattern, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -4,6 +4,7 @@
 package nl.sense_os.service;
 
 import nl.sense_os.service.constants.SensePrefs.Main;
+import nl.sense_os.service.ctrl.SyncPolicy;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
@@ -22,7 +23,8 @@ import android.util.Log;
  * <br/>
  * The transmission frequency is based on the {@link Main#SYNC_RATE} preference. When the sync rate
  * is set to the real-time setting, we look at the and {@link Main#SAMPLE_RATE} to determine
- * periodic "just in case" transmissions.
+ * periodic "just in case" transmissions. The {@link SyncPolicy} adjusts the frequency to the
+ * network and battery conditions.
  * 
  * @author Steven Mulder <steven@sense-os.nl>
  */
@@ -44,6 +46,9 @@ public class DataTransmitter extends BroadcastReceiver {
 			if (null == service) {
 				Log.w(TAG, "Failed to start data sync service");
 			}
+
+			// adjust the alarm interval to the current network and battery conditions
+			SyncPolicy.getInstance(context).reschedule();
 		} else {
 			// skip transmission: Sense service is not logged in
 		}
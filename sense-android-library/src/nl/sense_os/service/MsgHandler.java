@@ -13,19 +13,26 @@ import nl.sense_os.service.commonsense.SenseApi;
 import nl.sense_os.service.commonsense.senddata.BufferTransmitHandler;
 import nl.sense_os.service.commonsense.senddata.DataTransmitHandler;
 import nl.sense_os.service.commonsense.senddata.FileTransmitHandler;
+import nl.sense_os.service.commonsense.senddata.MicroBatchTransmitHandler;
+import nl.sense_os.service.commonsense.senddata.UploadFragments;
 import nl.sense_os.service.constants.SenseDataTypes;
 import nl.sense_os.service.constants.SensePrefs;
 import nl.sense_os.service.constants.SensePrefs.Auth;
 import nl.sense_os.service.constants.SensePrefs.Main;
 import nl.sense_os.service.constants.SensorData.DataPoint;
+import nl.sense_os.service.ctrl.SyncPolicy;
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.metrics.Timer;
 import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.storage.LocalStorage;
+import nl.sense_os.service.subscription.SubscriptionManager;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.app.Service;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -35,6 +42,7 @@ import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
@@ -61,10 +69,38 @@ import android.util.Log;
  * startService(sensorData);
  * </pre>
  * 
+ * New data points are stored with the time at which they were measured, in time stamp order per
+ * sensor. Points are held back for at most a second in a {@link ReorderBuffer}, so points that
+ * arrive slightly out of order can be sorted before they are stored and sent to CommonSense.
+ * Points that arrive later than that are stored right away with their own time stamp, out of
+ * order.
+ * 
  * @author Steven Mulder <steven@sense-os.nl>
  */
 public class MsgHandler extends Service {
 
+	/**
+	 * Data point that waits in the reorder buffer before it is stored
+	 */
+	private static class PendingDataPoint {
+		final String sensorName;
+		final String displayName;
+		final String description;
+		final String dataType;
+		final String deviceUuid;
+		final String value;
+
+		PendingDataPoint(String sensorName, String displayName, String description,
+				String dataType, String deviceUuid, String value) {
+			this.sensorName = sensorName;
+			this.displayName = displayName;
+			this.description = description;
+			this.dataType = dataType;
+			this.deviceUuid = deviceUuid;
+			this.value = value;
+		}
+	}
+
 	private static final String TAG = "Sense MsgHandler";
     /**
      * Key for Intent extra that defines the buffer type to send data from. The value should be
@@ -76,8 +112,37 @@ public class MsgHandler extends Service {
 
 	private static FileTransmitHandler fileHandler;
 	private static DataTransmitHandler dataTransmitHandler;
+	private static MicroBatchTransmitHandler microBatchHandler;
     private static BufferTransmitHandler bufferHandler;
 	private static LocalStorage storage;
+	private static SubscriptionManager subscriptions;
+	private static final Timer ingestTimer = PipelineMetrics.getTimer(PipelineMetrics.INGEST);
+
+	/**
+	 * Slack of the reorder buffer: the maximum time that new data points are held back to put
+	 * them in time stamp order, in milliseconds
+	 */
+	private static final long REORDER_SLACK = 1000;
+
+	/**
+	 * Maximum number of data points per sensor in the reorder buffer
+	 */
+	private static final int REORDER_CAPACITY = 256;
+
+	private ReorderBuffer<PendingDataPoint> reorderBuffer;
+	private final Runnable expireTask = new Runnable() {
+
+		@Override
+		public void run() {
+			long next = reorderBuffer.expire();
+			isExpireScheduled = next >= 0;
+			if (isExpireScheduled) {
+				reorderHandler.postDelayed(this, Math.max(next, 1));
+			}
+		}
+	};
+	private Handler reorderHandler;
+	private boolean isExpireScheduled;
 
 	/**
 	 * Sends data points for one sensor to CommonSense.
@@ -150,9 +215,6 @@ public class MsgHandler extends Service {
 	private void handleNewMsgIntent(Intent intent) {
 		// Log.d(TAG, "handleNewMsgIntent");
 		try {
-			DecimalFormatSymbols otherSymbols = new DecimalFormatSymbols(Locale.ENGLISH);
-			NumberFormat formatter = new DecimalFormat("##########.###", otherSymbols);
-
 			// get data point details from Intent
 			String sensorName = intent.getStringExtra(DataPoint.SENSOR_NAME);
 			String displayName = intent.getStringExtra(DataPoint.DISPLAY_NAME);
@@ -160,7 +222,6 @@ public class MsgHandler extends Service {
 			String dataType = intent.getStringExtra(DataPoint.DATA_TYPE);
 			String deviceUuid = intent.getStringExtra(DataPoint.DEVICE_UUID);
 			long timestamp = intent.getLongExtra(DataPoint.TIMESTAMP, SNTP.getInstance().getTime());
-			String timeInSecs = formatter.format(timestamp / 1000.0d);
 
 			// defaults
 			description = description != null ? description : sensorName;
@@ -189,9 +250,53 @@ public class MsgHandler extends Service {
 				sensorValue += intent.getStringExtra(DataPoint.VALUE);
 			}
 
+			// pass the data point on to any subscribers
+			subscriptions.deliver(sensorName, description, dataType, timestamp, sensorValue);
+
+			// store the data point when it is in time stamp order with the other points
+			PendingDataPoint dataPoint = new PendingDataPoint(sensorName, displayName,
+					description, dataType, deviceUuid, sensorValue);
+			reorderBuffer.add(sensorName + '\u0000' + description + '\u0000' + deviceUuid,
+					timestamp, dataPoint);
+			if (!reorderBuffer.isEmpty() && !isExpireScheduled) {
+				isExpireScheduled = true;
+				reorderHandler.postDelayed(expireTask, REORDER_SLACK);
+			}
+
+		} catch (Exception e) {
+			Log.e(TAG, "Failed to handle new data point!", e);
+		}
+
+		// only broadcast every data point globally if an app still depends on it
+		SharedPreferences mainPrefs = getSharedPreferences(SensePrefs.MAIN_PREFS, MODE_PRIVATE);
+		if (mainPrefs.getBoolean(Main.Advanced.LEGACY_BROADCAST, false)) {
+			sendBroadcast(intent);
+		}
+	}
+
+	/**
+	 * Stores a data point that was released by the reorder buffer, and sends it to CommonSense
+	 * right away if the service is in real-time mode.
+	 * 
+	 * @param dataPoint
+	 *            The data point
+	 * @param timestamp
+	 *            Time stamp of the data point
+	 */
+	private void handleOrderedDataPoint(PendingDataPoint dataPoint, long timestamp) {
+		try {
+			String sensorName = dataPoint.sensorName;
+			String description = dataPoint.description;
+			String dataType = dataPoint.dataType;
+			String deviceUuid = dataPoint.deviceUuid;
+			String sensorValue = dataPoint.value;
+
 			// put the data point in the local storage
-			insertToLocalStorage(sensorName, displayName, description, dataType, deviceUuid,
-					timestamp, sensorValue);
+			long rowId = insertToLocalStorage(sensorName, dataPoint.displayName, description,
+					dataType, deviceUuid, timestamp, sensorValue);
+
+			// let the sync policy know, critical data is sent right away
+			SyncPolicy.getInstance(this).onNewData(sensorName);
 
 			/*
 			 * check if we can send the data point immediately
@@ -201,24 +306,31 @@ public class MsgHandler extends Service {
 			boolean isRealTimeMode = rate == -2;
 			if (isOnline() && isRealTimeMode) {
 
-				// create sensor data JSON object with only 1 data point
-				JSONObject sensorData = new JSONObject();
-				JSONArray dataArray = new JSONArray();
-				JSONObject data = new JSONObject();
-				data.put("value", sensorValue);
-				data.put("date", timeInSecs);
-				dataArray.put(data);
-				sensorData.put("data", dataArray);
-				
-				sendSensorData(this, sensorName, description, dataType, deviceUuid, sensorData);
+				if (dataType.equals(SenseDataTypes.FILE)) {
+					DecimalFormatSymbols otherSymbols = new DecimalFormatSymbols(Locale.ENGLISH);
+					NumberFormat formatter = new DecimalFormat("##########.###", otherSymbols);
+					String timeInSecs = formatter.format(timestamp / 1000.0d);
+
+					// create sensor data JSON object with only 1 data point
+					JSONObject sensorData = new JSONObject();
+					JSONArray dataArray = new JSONArray();
+					JSONObject data = new JSONObject();
+					data.put("value", sensorValue);
+					data.put("date", timeInSecs);
+					dataArray.put(data);
+					sensorData.put("data", dataArray);
+
+					sendSensorData(this, sensorName, description, dataType, deviceUuid, sensorData);
+				} else {
+					// collect the point with other recent points, to send them in one request
+					microBatchHandler.add(rowId, sensorName, description, dataType, deviceUuid,
+							timestamp, sensorValue);
+				}
 			}
 
 		} catch (Exception e) {
-			Log.e(TAG, "Failed to handle new data point!", e);
+			Log.e(TAG, "Failed to store new data point!", e);
 		}
-		
-		//broadcast this new data intent as well, so anybody can listen to data!
-		this.sendBroadcast(intent);
 	}
 
 	private void handleSendIntent(Intent intent) {
@@ -260,8 +372,9 @@ public class MsgHandler extends Service {
 	 *            Data point time stamp
 	 * @param value
 	 *            Data point value
+	 * @return The row ID of the new data point, or -1 if it could not be stored
 	 */
-	private void insertToLocalStorage(String name, String displayName, String description,
+	private long insertToLocalStorage(String name, String displayName, String description,
 			String dataType, String deviceUuid, long timestamp, String value) {
 
 		// new value
@@ -274,13 +387,18 @@ public class MsgHandler extends Service {
 		values.put(DataPoint.TIMESTAMP, timestamp);
 		values.put(DataPoint.VALUE, value);
 		values.put(DataPoint.TRANSMIT_STATE, 0);
+		if (!SenseDataTypes.FILE.equals(dataType)) {
+			// prepare the upload now, so the sync does not have to format anything
+			values.put(DataPoint.UPLOAD_FRAGMENT, UploadFragments.encode(timestamp, value));
+		}
 
 		try {
 			Uri contentUri = Uri.parse("content://" + getString(R.string.local_storage_authority)
 					+ DataPoint.CONTENT_URI_PATH);
-			storage.insert(contentUri, values);
+			return ContentUris.parseId(storage.insert(contentUri, values));
 		} catch (IllegalArgumentException e) {
 			Log.e(TAG, "Error inserting points in Local Storage!", e);
+			return -1;
 		}
 	}
 
@@ -321,6 +439,16 @@ public class MsgHandler extends Service {
 		super.onCreate();
 
 		storage = LocalStorage.getInstance(this);
+		subscriptions = SubscriptionManager.getInstance(this);
+		reorderHandler = new Handler();
+		reorderBuffer = new ReorderBuffer<PendingDataPoint>(REORDER_SLACK, REORDER_CAPACITY,
+				new ReorderBuffer.Sink<PendingDataPoint>() {
+
+					@Override
+					public void onRelease(PendingDataPoint dataPoint, long timestamp) {
+						handleOrderedDataPoint(dataPoint, timestamp);
+					}
+				});
 
 		{
 			HandlerThread handlerThread = new HandlerThread("TransmitRecentDataThread");
@@ -339,17 +467,33 @@ public class MsgHandler extends Service {
 			handlerThread.start();
 			dataTransmitHandler = new DataTransmitHandler(this, storage, handlerThread.getLooper());
 		}
+
+		{
+			HandlerThread handlerThread = new HandlerThread("TransmitRealTimeDataThread");
+			handlerThread.start();
+			microBatchHandler = new MicroBatchTransmitHandler(this, storage,
+					handlerThread.getLooper());
+		}
 	}
 
 	@Override
 	public void onDestroy() {
 		Log.v(TAG, "onDestroy");
+
+		// store the data points that are still waiting to be put in order
+		reorderHandler.removeCallbacks(expireTask);
+		isExpireScheduled = false;
+		reorderBuffer.flush();
+
 		emptyBufferToDb();
 
 		// stop buffered data transmission threads
 		bufferHandler.getLooper().quit();
+		bufferHandler.shutdown();
 		fileHandler.getLooper().quit();
+		fileHandler.shutdown();
 		dataTransmitHandler.getLooper().quit();
+		microBatchHandler.getLooper().quit();
 
 		super.onDestroy();
 	}
@@ -362,7 +506,9 @@ public class MsgHandler extends Service {
 	public int onStartCommand(Intent intent, int flags, int startId) {
 
 		if (getString(R.string.action_sense_new_data).equals(intent.getAction())) {
+			long start = ingestTimer.start();
 			handleNewMsgIntent(intent);
+			ingestTimer.stop(start);
 		} else if (getString(R.string.action_sense_send_data).equals(intent.getAction())) {
 			handleSendIntent(intent);
 		} else {
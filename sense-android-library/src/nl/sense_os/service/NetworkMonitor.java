@@ -1,5 +1,6 @@
 package nl.sense_os.service;
 
+import nl.sense_os.service.ctrl.SyncPolicy;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -41,6 +42,9 @@ public class NetworkMonitor extends BroadcastReceiver {
 			} else {
 				// still connected, stay logged in
 				// Log.v(TAG, "Still connected. Remain logged in");
+
+				// the new network might be a good moment to send the buffered data
+				SyncPolicy.getInstance(context).onConnectivityChanged();
 			}
 
 		} else {
@@ -0,0 +1,212 @@
+package nl.sense_os.service;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import nl.sense_os.service.metrics.Meter;
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.metrics.QueueStats;
+import android.os.SystemClock;
+
+/**
+ * <p>
+ * Bounded buffer that puts the data points of every sensor in time stamp order before they are
+ * stored. Sensors that collect data in batches (motion bursts, epilepsy windows, external devices)
+ * send their points with the time at which the data was measured, so points can arrive at the
+ * MsgHandler slightly out of order.
+ * </p>
+ * <p>
+ * Every sensor has a watermark: the newest time stamp of the sensor minus the slack. Points at or
+ * before the watermark are released in time stamp order. Points are also released when they have
+ * waited for the slack, or when the buffer of the sensor is full, and the watermark then moves up
+ * to the released point. Released points always keep their own time stamp. A point that arrives
+ * behind the watermark cannot be put in order anymore: it is released right away and counted in
+ * the {@link PipelineMetrics#LATE} meter.
+ * </p>
+ * <p>
+ * The buffer is not thread-safe: the MsgHandler only uses it on the main thread.
+ * </p>
+ * 
+ * @param <T>
+ *            Type of the buffered data points
+ */
+class ReorderBuffer<T> {
+
+    /**
+     * Receives the data points that are released by the buffer.
+     */
+    interface Sink<T> {
+
+        /**
+         * Called for every released point. The points of a sensor are released in time stamp
+         * order, except for the points that arrived behind the watermark.
+         * 
+         * @param item
+         *            The data point
+         * @param timestamp
+         *            The time stamp of the data point
+         */
+        void onRelease(T item, long timestamp);
+    }
+
+    /**
+     * Buffered data point
+     */
+    private static class Entry<T> implements Comparable<Entry<T>> {
+        final T item;
+        final long timestamp;
+        final long arrival;
+        final long sequence;
+
+        Entry(T item, long timestamp, long arrival, long sequence) {
+            this.item = item;
+            this.timestamp = timestamp;
+            this.arrival = arrival;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry<T> other) {
+            // keep points with equal time stamps in order of arrival
+            if (timestamp != other.timestamp) {
+                return timestamp < other.timestamp ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Buffered data points of one sensor
+     */
+    private static class Stream<T> {
+        final PriorityQueue<Entry<T>> queue = new PriorityQueue<Entry<T>>();
+        long watermark = Long.MIN_VALUE;
+    }
+
+    private final HashMap<String, Stream<T>> streams = new HashMap<String, Stream<T>>();
+    private final long slack;
+    private final int capacity;
+    private final Sink<T> sink;
+    private final QueueStats stats = PipelineMetrics.getQueueStats(PipelineMetrics.REORDER);
+    private final Meter late = PipelineMetrics.getMeter(PipelineMetrics.LATE);
+    private long sequence;
+    private int size;
+
+    /**
+     * @param slack
+     *            Maximum time that a point is held back, in milliseconds. This is also the
+     *            maximum difference between the time stamps of two points of the same sensor that
+     *            can still be put in order.
+     * @param capacity
+     *            Maximum number of buffered points per sensor
+     * @param sink
+     *            Receiver of the released points
+     */
+    ReorderBuffer(long slack, int capacity, Sink<T> sink) {
+        this.slack = slack;
+        this.capacity = capacity;
+        this.sink = sink;
+    }
+
+    /**
+     * Adds a new data point to the buffer, and releases the points of the same sensor that are
+     * behind the new watermark.
+     * 
+     * @param key
+     *            Identifies the sensor of the data point
+     * @param timestamp
+     *            Time stamp of the data point
+     * @param item
+     *            The data point
+     */
+    void add(String key, long timestamp, T item) {
+        Stream<T> stream = streams.get(key);
+        if (null == stream) {
+            stream = new Stream<T>();
+            streams.put(key, stream);
+        }
+
+        if (timestamp < stream.watermark) {
+            // too late to put in order, store it as it is
+            late.mark();
+            sink.onRelease(item, timestamp);
+            return;
+        }
+        stream.queue.add(new Entry<T>(item, timestamp, SystemClock.elapsedRealtime(), sequence++));
+        size++;
+        stats.onEnqueue();
+
+        // release the points that cannot be overtaken anymore
+        stream.watermark = Math.max(stream.watermark, timestamp - slack);
+        while (!stream.queue.isEmpty() && (stream.queue.size() > capacity
+                || stream.queue.peek().timestamp <= stream.watermark)) {
+            release(stream);
+        }
+    }
+
+    /**
+     * Releases the points that have waited for the slack, together with all points of the same
+     * sensor that have an earlier time stamp.
+     * 
+     * @return The time in milliseconds until the next point has waited long enough, or -1 if the
+     *         buffer is empty
+     */
+    long expire() {
+        return expire(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @see #expire()
+     * @param now
+     *            The current {@link SystemClock#elapsedRealtime()}
+     */
+    long expire(long now) {
+        long next = -1;
+        for (Stream<T> stream : streams.values()) {
+
+            // find the newest time stamp of the expired points
+            long limit = Long.MIN_VALUE;
+            for (Entry<T> entry : stream.queue) {
+                if (now - entry.arrival >= slack) {
+                    limit = Math.max(limit, entry.timestamp);
+                }
+            }
+            while (!stream.queue.isEmpty() && stream.queue.peek().timestamp <= limit) {
+                release(stream);
+            }
+
+            // the streams are kept, because the watermark is needed for late points
+            for (Entry<T> entry : stream.queue) {
+                long wait = slack - (now - entry.arrival);
+                next = next == -1 ? wait : Math.min(next, wait);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Releases all buffered points.
+     */
+    void flush() {
+        for (Stream<T> stream : streams.values()) {
+            while (!stream.queue.isEmpty()) {
+                release(stream);
+            }
+        }
+    }
+
+    /**
+     * @return true if there are no buffered points
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void release(Stream<T> stream) {
+        Entry<T> entry = stream.queue.poll();
+        size--;
+        stats.onDequeue();
+        stream.watermark = Math.max(stream.watermark, entry.timestamp);
+        sink.onRelease(entry.item, entry.timestamp);
+    }
+}
@@ -3,9 +3,8 @@
  *************************************************************************************************/
 package nl.sense_os.service;
 
+import java.io.File;
 import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,6 +16,7 @@ import nl.sense_os.service.ambience.PressureSensor;
 import nl.sense_os.service.ambience.TemperatureSensor;
 import nl.sense_os.service.commonsense.DefaultSensorRegistrationService;
 import nl.sense_os.service.commonsense.SenseApi;
+import nl.sense_os.service.commonsense.senddata.RetryScheduler;
 import nl.sense_os.service.constants.SensePrefs;
 import nl.sense_os.service.constants.SensePrefs.Auth;
 import nl.sense_os.service.constants.SensePrefs.Main.Advanced;
@@ -32,6 +32,7 @@ import nl.sense_os.service.external_sensors.NewOBD2DeviceConnector;
 import nl.sense_os.service.external_sensors.ZephyrBioHarness;
 import nl.sense_os.service.external_sensors.ZephyrHxM;
 import nl.sense_os.service.location.LocationSensor;
+import nl.sense_os.service.metrics.PipelineMetrics;
 import nl.sense_os.service.motion.MotionSensor;
 import nl.sense_os.service.phonestate.BatterySensor;
 import nl.sense_os.service.phonestate.PhoneActivitySensor;
@@ -39,9 +40,12 @@ import nl.sense_os.service.phonestate.ProximitySensor;
 import nl.sense_os.service.phonestate.SensePhoneState;
 import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.scheduler.ScheduleAlarmTool;
+import nl.sense_os.service.shared.BaseDataProducer;
 import nl.sense_os.service.shared.DataProcessor;
 import nl.sense_os.service.shared.DataProducer;
+import nl.sense_os.service.shared.OverflowPolicy;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.app.Activity;
@@ -103,6 +107,21 @@ public class SenseService extends Service {
      */
     public final static String ACTION_SERVICE_BROADCAST = "nl.sense_os.service.Broadcast";
 
+    /**
+     * Intent action to start the service with, to write a snapshot of the pipeline metrics to a
+     * file. The optional extra {@link #EXTRA_METRICS_FILE} sets the path of the file. If the service
+     * was not started otherwise, it stops again after writing the file.
+     * 
+     * @see #getPipelineMetrics()
+     */
+    public final static String ACTION_DUMP_METRICS = "nl.sense_os.service.DumpMetrics";
+
+    /**
+     * Intent extra with the path of the file for {@link #ACTION_DUMP_METRICS}. By default the
+     * snapshot is written to {@link PipelineMetrics#DUMP_FILE_NAME} in the app's files directory.
+     */
+    public static final String EXTRA_METRICS_FILE = "metrics_file";
+
     private IBinder binder = new SenseBinder();
 
     private ServiceStateHelper state;
@@ -126,13 +145,9 @@ public class SenseService extends Service {
     private MagneticFieldSensor magneticFieldSensor;
 
     /**
-     * All registered DataProducers, mapped by sensor name.
-     */
-    private Map<String, List<DataProducer>> registeredProducers = new HashMap<String, List<DataProducer>>();
-    /**
-     * All subscribed DataProcessors, mapped by the sensor name they are subscribed to.
+     * All registered DataProducers and subscribed DataProcessors.
      */
-    private Map<String, List<DataProcessor>> subscribedProcessors = new HashMap<String, List<DataProcessor>>();
+    private final DataRegistry registry = new DataRegistry();
     /**
      * Handler on main application thread to display toasts to the user.
      */
@@ -201,22 +216,52 @@ public class SenseService extends Service {
         }
     }
 
+    /**
+     * Writes a snapshot of the pipeline metrics to a file.
+     * 
+     * @param path
+     *            Path of the file, or null for the default location
+     */
+    private void dumpPipelineMetrics(String path) {
+        try {
+            PipelineMetrics.dump(this, null != path ? new File(path) : null);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to write pipeline metrics", e);
+        }
+    }
+
+    /**
+     * @return Snapshot of the metrics of the sensor data pipeline: data point rates of the
+     *         producers, callback latencies and queue depths of the processors, the durations of
+     *         the storage and transmission stages, and the upload batch sizes per network
+     * @see PipelineMetrics#getSnapshot(android.content.Context)
+     */
+    public JSONObject getPipelineMetrics() {
+        try {
+            return PipelineMetrics.getSnapshot(this);
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to create pipeline metrics snapshot", e);
+            return new JSONObject();
+        }
+    }
+
     /**
      * @param sensorName
      *            The name of the DataProducer
      * @return The list with DataProducers which are registered under the given sensor name
      */
     public List<DataProducer> getRegisteredDataProducers(String sensorName) {
-        return registeredProducers.get(sensorName);
+        return registry.getProducers(sensorName);
     }
 
     /**
      * @param sensorName
      *            The name of the DataProcessor
-     * @return The list with DataProcessors which are subscribed to the given sensor name
+     * @return The list with DataProcessors which are subscribed to the given sensor name, either
+     *         directly or via a wildcard pattern
      */
     public List<DataProcessor> getSubscribedDataProcessors(String sensorName) {
-        return subscribedProcessors.get(sensorName);
+        return registry.getProcessors(sensorName);
     }
 
     /**
@@ -227,20 +272,7 @@ public class SenseService extends Service {
      * @return true if this DataProducer is already registered under this sensor name
      */
     public boolean isDataProcessorSubscribed(String sensorName, DataProcessor dataProcessor) {
-
-        if (!subscribedProcessors.containsKey(sensorName)) {
-            // nothing is subscribed to this sensor name
-            return false;
-        }
-
-        // check if dataProcessor is in the list of subscribed processors
-        List<DataProcessor> processors = subscribedProcessors.get(sensorName);
-        for (DataProcessor registeredProcessor : processors) {
-            if (registeredProcessor.equals(dataProcessor)) {
-                return true;
-            }
-        }
-        return false;
+        return registry.isSubscribed(sensorName, dataProcessor);
     }
 
     /**
@@ -249,7 +281,7 @@ public class SenseService extends Service {
      * @return true if a data producer is already registered under this sensor name
      */
     public boolean isDataProducerRegistered(String sensorName) {
-        return registeredProducers.containsKey(sensorName);
+        return registry.isRegistered(sensorName, null);
     }
 
     /**
@@ -260,20 +292,7 @@ public class SenseService extends Service {
      * @return true if the data producer is already registered under this sensor name
      */
     public boolean isDataProducerRegistered(String sensorName, DataProducer dataProducer) {
-
-        if (!registeredProducers.containsKey(sensorName)) {
-            // nothing is registered under this sensor name
-            return false;
-        }
-
-        // check if dataProducer is already in the list of registered producers
-        List<DataProducer> producers = registeredProducers.get(sensorName);
-        for (DataProducer registeredProducer : producers) {
-            if (registeredProducer.equals(dataProducer)) {
-                return true;
-            }
-        }
-        return false;
+        return registry.isRegistered(sensorName, dataProducer);
     }
 
     /**
@@ -338,6 +357,9 @@ public class SenseService extends Service {
             onLogOut();
         }
 
+        // resume any uploads that were waiting for the login
+        RetryScheduler.getInstance(this).onLoginResult(0 == result);
+
         return result;
     }
 
@@ -455,14 +477,31 @@ public class SenseService extends Service {
      *            {@link #stopSelfResult(int)}.
      */
     @Override
-    public int onStartCommand(final Intent intent, int flags, int startId) {
-        Log.i(TAG, "Sense Platform service is being started");
+    public int onStartCommand(final Intent intent, int flags, final int startId) {
 
         if (null == initHandler) {
             HandlerThread startThread = new HandlerThread("Start thread");
             startThread.start();
             initHandler = new Handler(startThread.getLooper());
         }
+
+        if (null != intent && ACTION_DUMP_METRICS.equals(intent.getAction())) {
+            initHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    dumpPipelineMetrics(intent.getStringExtra(EXTRA_METRICS_FILE));
+                    if (!state.isStarted()) {
+                        // only started for the dump: do not keep the service running for it
+                        stopSelfResult(startId);
+                    }
+                }
+            });
+            // a lost dump request does not have to be redelivered
+            return START_NOT_STICKY;
+        }
+
+        Log.i(TAG, "Sense Platform service is being started");
         initHandler.post(new Runnable() {
 
             @Override
@@ -490,7 +529,11 @@ public class SenseService extends Service {
                     boolean relogin = !state.isLoggedIn();
                     relogin |= (null == intent); // intent is null when Service
                     // was killed
-                    relogin |= (null != intent) && intent.getBooleanExtra(EXTRA_RELOGIN, false);
+                    if ((null != intent) && intent.getBooleanExtra(EXTRA_RELOGIN, false)) {
+                        // the session was rejected by CommonSense: force a new login
+                        state.setLoggedIn(false);
+                        relogin = true;
+                    }
                     if (relogin) {
                         login();
                     } else {
@@ -606,30 +649,7 @@ public class SenseService extends Service {
      *            The data producer
      */
     public void registerDataProducer(String name, DataProducer producer) {
-
-        if (isDataProducerRegistered(name, producer)) {
-            // data producer is already registered
-            return;
-        }
-
-        // add the producer to the list of registered producers
-        List<DataProducer> producers = registeredProducers.get(name);
-        if (null == producers) {
-            producers = new ArrayList<DataProducer>();
-        }
-        producers.add(producer);
-        registeredProducers.put(name, producers);
-
-        // see if there are any data processors subscribed to this sensor name
-        if (!subscribedProcessors.containsKey(name)) {
-            return;
-        }
-
-        // subscribe existing DataProcessors to the new DataProducer
-        List<DataProcessor> subscribers = subscribedProcessors.get(name);
-        for (DataProcessor subscriber : subscribers) {
-            producer.addSubscriber(subscriber);
-        }
+        registry.register(name, producer);
     }
 
     /**
@@ -708,41 +728,44 @@ public class SenseService extends Service {
      * <br/>
      * This method subscribes a DataProcessor to receive SensorDataPoints from a DataProducer. If
      * the DataProducer with name to subscribe to is not registered yet then the data processor will
-     * be put in the queue and will be subscribed to the DataProducer when it is registered.
+     * be put in the queue and will be subscribed to the DataProducer when it is registered.<br/>
+     * <br/>
+     * The name can contain '*' wildcards to subscribe to several DataProducers at once, e.g.
+     * "motion*" for all producers with a name that starts with "motion". This method is
+     * thread-safe: producers that register at the same time are never missed.
      * 
      * @param name
-     *            The name of the registered DataProducer
+     *            The name of the registered DataProducer, or a pattern with '*' wildcards
      * @param processor
      *            The DataProcessor that receives the sensor data
      * @return true if the DataProcessor is successfully subscribed to the DataProducer.
      */
     public boolean subscribeDataProcessor(String name, DataProcessor processor) {
+        return registry.subscribe(name, processor);
+    }
 
-        if (isDataProcessorSubscribed(name, processor)) {
-            // processor is already subscribed
-            return false;
-        }
-
-        // add the processor to the list of subscribed processors
-        List<DataProcessor> processors = subscribedProcessors.get(name);
-        if (null == processors) {
-            processors = new ArrayList<DataProcessor>();
-        }
-        processors.add(processor);
-        subscribedProcessors.put(name, processors);
-
-        // see if there are any producers for this sensor name
-        List<DataProducer> producers = registeredProducers.get(name);
-        if (producers == null) {
-            return false;
-        }
-
-        // subscribe the new processor to the existing producers
-        boolean subscribed = false;
-        for (DataProducer producer : producers) {
-            subscribed |= producer.addSubscriber(processor);
-        }
-        return subscribed;
+    /**
+     * Subscribe to a DataProducer, and get its data asynchronously<br/>
+     * <br/>
+     * Same as {@link #subscribeDataProcessor(String, DataProcessor)}, but the DataProcessor gets
+     * the data of the producers through a queue, on its own thread, so a slow processor does not
+     * stall the sensors. The settings also apply to producers that are registered later.
+     * 
+     * @param name
+     *            The name of the registered DataProducer, or a pattern with '*' wildcards
+     * @param processor
+     *            The DataProcessor that receives the sensor data
+     * @param queueSize
+     *            Maximum number of data points that can wait for the processor, or 0 to deliver
+     *            the data synchronously
+     * @param policy
+     *            What to do with new data points when the queue is full
+     * @return true if the DataProcessor is successfully subscribed to the DataProducer.
+     * @see BaseDataProducer#addSubscriber(DataProcessor, int, OverflowPolicy)
+     */
+    public boolean subscribeDataProcessor(String name, DataProcessor processor, int queueSize,
+            OverflowPolicy policy) {
+        return registry.subscribe(name, processor, queueSize, policy);
     }
 
     synchronized void toggleAmbience(boolean active) {
@@ -1490,57 +1513,19 @@ public class SenseService extends Service {
      *            The DataProducer to unregister
      */
     public void unregisterDataProducer(String name, DataProducer dataProducer) {
-
-        if (!registeredProducers.containsKey(name)) {
-            // this producer is not registered under this name
-            return;
-        }
-
-        // remove the producer from the list of registered producers for this sensor name
-        List<DataProducer> dataProducers = registeredProducers.get(name);
-        dataProducers.remove(dataProducer);
-        if (dataProducers.size() == 0) {
-            registeredProducers.remove(name);
-        } else {
-            registeredProducers.put(name, dataProducers);
-        }
+        registry.unregister(name, dataProducer);
     }
 
     /**
      * Unsubscribes a DataProcessor from a DataProducer.
      * 
      * @param name
-     *            The name of the DataProducer that the processor registered for
+     *            The name or pattern that the processor subscribed with
      * @param dataProcessor
      *            The DataProcessor that receives the sensor data
      */
     public void unsubscribeProcessor(String name, DataProcessor dataProcessor) {
-
-        if (!registeredProducers.containsKey(name)) {
-            // there are no data producers to unsubscribe from
-            return;
-        }
-
-        if (!subscribedProcessors.containsKey(name)) {
-            // this processor is not registered (?)
-            return;
-        }
-
-        // remove the processor from the list of subscribed processors
-        List<DataProcessor> processors = subscribedProcessors.get(name);
-        processors.remove(dataProcessor);
-        if (processors.size() == 0) {
-            subscribedProcessors.remove(name);
-        } else {
-            subscribedProcessors.put(name, processors);
-        }
-
-        // unsubscribe the processor from the producers for this sensor name
-        List<DataProducer> producers = registeredProducers.get(name);
-        for (DataProducer registeredProducer : producers) {
-            registeredProducer.removeSubscriber(dataProcessor);
-        }
-        registeredProducers.remove(name);
+        registry.unsubscribe(name, dataProcessor);
     }
 
     private synchronized void verifySensorIds() {
@@ -6,6 +6,8 @@ import nl.sense_os.service.constants.SensePrefs.Auth;
 import nl.sense_os.service.constants.SensePrefs.Main.Advanced;
 import nl.sense_os.service.constants.SensePrefs.Main.Motion;
 import nl.sense_os.service.constants.SensePrefs.Status;
+import nl.sense_os.service.subscription.DataSubscription;
+import nl.sense_os.service.subscription.SubscriptionManager;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Binder;
@@ -137,6 +139,29 @@ public class SenseServiceStub extends Binder {
         callback.statusReport(ServiceStateHelper.getInstance(service).getStatusCode());
     }
 
+    /**
+     * Subscribes to new sensor data. The data is delivered via a callback or as batched local
+     * broadcasts, depending on the type of subscription.
+     * 
+     * @param subscription
+     *            Subscription with filters for the sensor data
+     * @return false if the subscription was already registered
+     * @see SubscriptionManager
+     */
+    public boolean subscribeData(DataSubscription subscription) {
+        return SubscriptionManager.getInstance(service).subscribe(subscription);
+    }
+
+    /**
+     * Removes a subscription for new sensor data.
+     * 
+     * @param subscription
+     *            Subscription to remove
+     */
+    public void unsubscribeData(DataSubscription subscription) {
+        SubscriptionManager.getInstance(service).unsubscribe(subscription);
+    }
+
     public void logout() {
         service.logout();
     }
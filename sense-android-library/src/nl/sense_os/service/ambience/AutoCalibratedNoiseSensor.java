@@ -8,6 +8,7 @@ import nl.sense_os.service.constants.SensorData.DataPoint;
 import nl.sense_os.service.constants.SensorData.SensorDescriptions;
 import nl.sense_os.service.constants.SensorData.SensorNames;
 import nl.sense_os.service.shared.BaseDataProducer;
+import nl.sense_os.service.shared.ScalarDataPoint;
 import nl.sense_os.service.shared.SensorDataPoint;
 import android.content.Context;
 import android.content.Intent;
@@ -94,7 +95,7 @@ public class AutoCalibratedNoiseSensor extends BaseDataProducer {
 	private void sendSensorValue(double value, long ms) {
 
 		this.notifySubscribers();
-		SensorDataPoint dataPoint = new SensorDataPoint(value);
+		SensorDataPoint dataPoint = new ScalarDataPoint(value);
 		dataPoint.sensorName = SensorNames.NOISE;
 		dataPoint.sensorDescription = SensorDescriptions.AUTO_CALIBRATED;
 		dataPoint.timeStamp = ms;        
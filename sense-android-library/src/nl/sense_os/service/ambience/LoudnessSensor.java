@@ -1,17 +1,19 @@
 package nl.sense_os.service.ambience;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-
 import nl.sense_os.service.R;
 import nl.sense_os.service.constants.SenseDataTypes;
 import nl.sense_os.service.constants.SensePrefs;
 import nl.sense_os.service.constants.SensePrefs.SensorSpecifics;
 import nl.sense_os.service.constants.SensorData.DataPoint;
 import nl.sense_os.service.constants.SensorData.SensorNames;
-import nl.sense_os.service.provider.SNTP;
-import nl.sense_os.service.shared.SensorDataPoint;
 import nl.sense_os.service.shared.BaseDataProducer;
+import nl.sense_os.service.shared.ScalarDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint;
+import nl.sense_os.service.stream.Aggregate;
+import nl.sense_os.service.stream.FilterOperator;
+import nl.sense_os.service.stream.MapOperator;
+import nl.sense_os.service.stream.StreamOperator;
+import nl.sense_os.service.stream.WindowOperator;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -20,38 +22,51 @@ import android.util.Log;
 
 /**
  * Helper class for {@link NoiseSensor}. Scales the measured sound level measurement according to
- * the highest and lowest sound levels that have been recorded.
+ * the highest and lowest sound levels that have been recorded.<br/>
+ * <br/>
+ * The sound level is averaged over a rolling window of {@link #AVERAGING_PERIOD}, built from
+ * stream operators: zero values are filtered out, the levels are averaged as amplitudes, and the
+ * mean is converted back to dB before it is scaled. The loudness is updated for every new sound
+ * level, once the first window is complete.
  * 
  * @author Pim Nijdam <pim@sense-os.nl>
  */
 public class LoudnessSensor extends BaseDataProducer {
-	private class TimestampValueTuple {
-		long timestamp;
-		double value;
 
-		TimestampValueTuple(long timestamp, double value) {
-			this.timestamp = timestamp;
-			this.value = value;
+	/**
+	 * Last operator of the pipeline: scales the average sound level and sends the loudness
+	 */
+	private class Scaling extends StreamOperator {
+
+		@Override
+		public boolean isSampleComplete() {
+			// the end of the pipeline, so it never has a complete sample
+			return false;
 		}
-	};
+
+		@Override
+		protected void onValue(SensorDataPoint dataPoint, double mean) {
+			double l = loudness(mean);
+			if (loudest - totalSilence > MIN_LOUDNESS_DYNAMIC)
+				sendSensorValue(l, dataPoint.timeStamp);
+		}
+	}
 
 	//private static final String TAG = "Loudness sensor";
 	private static final float DEFAULT_TOTAL_SILENCE = Float.MAX_VALUE;
 	private static final float DEFAULT_LOUDEST = Float.MIN_VALUE;
-	private final long AVERAGING_PERIOD;
-	private static final long DEFAULT_AVERAGING_PERIOD = 10 * 60 * 1000;
+	private static final long AVERAGING_PERIOD = 10 * 60 * 1000;
 	private static final double MIN_LOUDNESS_DYNAMIC = 10;
 
 	private Context context;
 
-	private ArrayList<TimestampValueTuple> window = new ArrayList<LoudnessSensor.TimestampValueTuple>();
+	/** First operator of the pipeline, gets the sound levels in dB */
+	private final StreamOperator input;
 	private double totalSilence;
 	private double loudest;
-	private boolean filled = false;
 
 	protected LoudnessSensor(Context context) {
 		this.context = context;
-		AVERAGING_PERIOD = DEFAULT_AVERAGING_PERIOD;
 		//restore silence
 		SharedPreferences sensorSpecifics = context.getSharedPreferences(SensePrefs.SENSOR_SPECIFICS,
 				Context.MODE_PRIVATE);
@@ -59,6 +74,29 @@ public class LoudnessSensor extends BaseDataProducer {
 		loudest = sensorSpecifics.getFloat(SensorSpecifics.Loudness.LOUDEST, DEFAULT_LOUDEST);
 		Log.v("Sense Loudness","Loudest " + loudest + ", total silence " + totalSilence);
 
+		// TODO: should we calculate something like phon or sone to better fit
+		// perceived volume by humans?
+		input = new FilterOperator(new FilterOperator.Predicate() {
+
+			@Override
+			public boolean accept(SensorDataPoint dataPoint, double dB) {
+				return dB != 0; //discard 0
+			}
+		});
+		WindowOperator window = input.then(new MapOperator(new MapOperator.ScalarFunction() {
+
+			@Override
+			public double apply(double dB) {
+				return Math.pow(10, dB / 20);
+			}
+		})).then(WindowOperator.rolling(AVERAGING_PERIOD, WindowOperator.DEFAULT_CAPACITY));
+		window.output(Aggregate.MEAN).then(new MapOperator(new MapOperator.ScalarFunction() {
+
+			@Override
+			public double apply(double mean) {
+				return 20 * Math.log(mean) / Math.log(10);
+			}
+		})).then(new Scaling());
 	}
 
 	private static LoudnessSensor instance = null;
@@ -71,46 +109,19 @@ public class LoudnessSensor extends BaseDataProducer {
 	}
 
 	public void onNewNoise(long ms, double dB) {
-		addNoiseInDb(ms, dB);
-		// double value = relativeLoudnessOf(dB);
-		// Log.v(TAG, "new noise value " + dB + ", loudness: " + value);
-		if (filled) {
-			double l = loudness();
-			if (loudest - totalSilence > MIN_LOUDNESS_DYNAMIC)
-				sendSensorValue(l, ms);
-		}
+		ScalarDataPoint dataPoint = new ScalarDataPoint(dB);
+		dataPoint.sensorName = SensorNames.NOISE;
+		dataPoint.sensorDescription = SensorNames.NOISE;
+		dataPoint.timeStamp = ms;
+		input.onNewScalar(dataPoint);
 	}
 
-	private void addNoiseInDb(long timestamp, double dB) {
-		// TODO: should we calculate something like phon or sone to better fit
-		// perceived volume by humans?
-		if (dB == 0)
-			return; //discard 0
-		window.add(new TimestampValueTuple(timestamp, dB));
-		if (timestamp - window.get(0).timestamp > AVERAGING_PERIOD)
-			filled = true;
-	}
-
-	private double loudness() {
-		long startTime = SNTP.getInstance().getTime() - AVERAGING_PERIOD;
-
-		// remove old values and average over past period
-		// average over past period
-		double meanSum = 0;
-		int values = 0;
-		Iterator<TimestampValueTuple> iter = window.iterator();
-		while (iter.hasNext()) {
-			TimestampValueTuple tuple = iter.next();
-			if (tuple.timestamp < startTime)
-				iter.remove();
-			else {
-				meanSum += Math.pow(10, tuple.value / 20);
-				values += 1;
-			}
-		}
-
-		double mean = 20 * Math.log(meanSum / values) / Math.log(10);
-
+	/**
+	 * @param mean
+	 *            Average sound level in dB
+	 * @return The loudness, relative to the lowest and highest average sound level ever
+	 */
+	private double loudness(double mean) {
 		if (mean < totalSilence)
 			setLowestEver(mean);
 		if (mean > loudest)
@@ -140,7 +151,7 @@ public class LoudnessSensor extends BaseDataProducer {
 	private void sendSensorValue(double value, long ms) {
 
 		this.notifySubscribers();
-		SensorDataPoint dataPoint = new SensorDataPoint(value);
+		SensorDataPoint dataPoint = new ScalarDataPoint(value);
 		dataPoint.sensorName = SensorNames.LOUDNESS;
 		dataPoint.sensorDescription = SensorNames.LOUDNESS;
 		dataPoint.timeStamp = ms;        
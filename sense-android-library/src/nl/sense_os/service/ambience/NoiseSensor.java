@@ -19,6 +19,7 @@ import nl.sense_os.service.shared.BaseSensor;
 import nl.sense_os.service.shared.DataProducer;
 import nl.sense_os.service.shared.PeriodicPollAlarmReceiver;
 import nl.sense_os.service.shared.PeriodicPollingSensor;
+import nl.sense_os.service.shared.ScalarDataPoint;
 import nl.sense_os.service.shared.SensorDataPoint;
 import nl.sense_os.service.shared.SensorDataPoint.DataType;
 
@@ -292,7 +293,7 @@ public class NoiseSensor extends BaseSensor implements PeriodicPollingSensor {
                             // Log.d(TAG, "Sampled noise level: " + dB);
 
                             notifySubscribers();
-                            SensorDataPoint dataPoint = new SensorDataPoint(dB);
+                            SensorDataPoint dataPoint = new ScalarDataPoint(dB);
                             dataPoint.sensorName = SensorNames.NOISE;
                             dataPoint.sensorDescription = SensorNames.NOISE;
                             dataPoint.timeStamp = startTimestamp;
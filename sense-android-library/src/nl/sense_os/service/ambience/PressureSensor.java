@@ -15,6 +15,7 @@ import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.shared.BaseSensor;
 import nl.sense_os.service.shared.PeriodicPollAlarmReceiver;
 import nl.sense_os.service.shared.PeriodicPollingSensor;
+import nl.sense_os.service.shared.ScalarDataPoint;
 import nl.sense_os.service.shared.SensorDataPoint;
 import android.content.Context;
 import android.content.Intent;
@@ -127,7 +128,7 @@ public class PressureSensor extends BaseSensor implements SensorEventListener,
             float value = BigDecimal.valueOf(pascal).setScale(3, 0).floatValue();
 
             this.notifySubscribers();
-            SensorDataPoint dataPoint = new SensorDataPoint(value);
+            SensorDataPoint dataPoint = new ScalarDataPoint(value);
             dataPoint.sensorName = sensorName;
             dataPoint.sensorDescription = sensor.getName();
             dataPoint.timeStamp = SNTP.getInstance().getTime();
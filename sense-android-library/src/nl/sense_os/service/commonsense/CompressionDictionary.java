@@ -0,0 +1,109 @@
+package nl.sense_os.service.commonsense;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Adler32;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Preset dictionary for compressing sensor data uploads with a {@link java.util.zip.Deflater}.
+ * Upload batches are small and very repetitive, but a fresh deflate stream has no history to find
+ * the repetitions in. The dictionary gives it that history: the JSON structure of an upload, the
+ * keys of the common sensor values, and the IDs and names of the sensors of this device.<br/>
+ * <br/>
+ * The dictionary is built from the sensor list in a fixed way, so the server can build the same
+ * dictionary from the same sensors. The {@link #getId() ID} of the dictionary is its Adler-32
+ * checksum, which is also what the zlib header of the compressed data refers to.
+ */
+class CompressionDictionary {
+
+    /**
+     * Maximum size of the dictionary. Deflate can only look back 32 KB.
+     */
+    private static final int MAX_SIZE = 32 * 1024;
+
+    /**
+     * Common fragments of the sensor values. Escaped, because the values are sent as JSON Strings.
+     */
+    private static final String[] VALUE_FRAGMENTS = new String[] { "\\\"latitude\\\":",
+            ",\\\"longitude\\\":", ",\\\"accuracy\\\":", ",\\\"altitude\\\":",
+            ",\\\"speed\\\":", ",\\\"bearing\\\":", ",\\\"provider\\\":\\\"",
+            "\\\"azimuth\\\":", ",\\\"pitch\\\":", ",\\\"roll\\\":", "\\\"x-axis\\\":",
+            ",\\\"y-axis\\\":", ",\\\"z-axis\\\":" };
+
+    /**
+     * Fragments of the JSON structure of an upload, see the SensorDataWriter. These are the most
+     * common, so they go at the end of the dictionary, where matches are cheapest.
+     */
+    private static final String[] STRUCTURE_FRAGMENTS = new String[] { "{\"sensors\":[",
+            "]}]}", "\"]},{\"sensor_id\":\"", "\",\"value\":\"{", "\"},{\"date\":\"",
+            "\",\"value\":\"", "}\"},{\"date\":\"" };
+
+    private final byte[] bytes;
+    private final String id;
+
+    /**
+     * Builds the dictionary for a sensor list.
+     * 
+     * @param sensorList
+     *            JSON String with the list of sensors, as it is cached by the SenseApi
+     * @throws JSONException
+     *             If the list could not be parsed
+     */
+    CompressionDictionary(String sensorList) throws JSONException {
+        StringBuilder tail = new StringBuilder();
+        for (String fragment : VALUE_FRAGMENTS) {
+            tail.append(fragment);
+        }
+        for (String fragment : STRUCTURE_FRAGMENTS) {
+            tail.append(fragment);
+        }
+
+        // the sensors go first, as far as they fit
+        StringBuilder dictionary = new StringBuilder();
+        Set<String> ids = new HashSet<String>();
+        JSONArray array = new JSONArray(sensorList);
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject sensor = array.getJSONObject(i);
+            String sensorId = sensor.getString("id");
+            if (!ids.add(sensorId)) {
+                continue;
+            }
+            String fragment = "{\"sensor_id\":\"" + sensorId + "\",\"sensor_name\":\""
+                    + sensor.getString("name") + "\",\"data\":[{\"date\":\"";
+            if (dictionary.length() + fragment.length() + tail.length() > MAX_SIZE) {
+                break;
+            }
+            dictionary.append(fragment);
+        }
+        dictionary.append(tail);
+
+        try {
+            bytes = dictionary.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // every Java platform supports UTF-8
+            throw new RuntimeException(e);
+        }
+        Adler32 checksum = new Adler32();
+        checksum.update(bytes, 0, bytes.length);
+        id = Long.toHexString(checksum.getValue());
+    }
+
+    /**
+     * @return The dictionary bytes, should not be modified
+     */
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The ID of the dictionary: the hexadecimal Adler-32 checksum of its bytes
+     */
+    String getId() {
+        return id;
+    }
+}
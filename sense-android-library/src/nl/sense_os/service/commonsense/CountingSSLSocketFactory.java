@@ -0,0 +1,76 @@
+package nl.sense_os.service.commonsense;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * SSLSocketFactory wrapper that counts how many sockets are created. Every new socket means a new
+ * TCP connection and TLS handshake, so the count shows how well connections are being reused by
+ * the HTTP layer.
+ *
+ * @see SenseApi#getConnectionCount()
+ */
+class CountingSSLSocketFactory extends SSLSocketFactory {
+
+    private final SSLSocketFactory delegate;
+    private final AtomicInteger count = new AtomicInteger();
+
+    CountingSSLSocketFactory(SSLSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        count.incrementAndGet();
+        return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+            int localPort) throws IOException {
+        count.incrementAndGet();
+        return delegate.createSocket(address, port, localAddress, localPort);
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose)
+            throws IOException {
+        count.incrementAndGet();
+        return delegate.createSocket(s, host, port, autoClose);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException, UnknownHostException {
+        count.incrementAndGet();
+        return delegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+            throws IOException, UnknownHostException {
+        count.incrementAndGet();
+        return delegate.createSocket(host, port, localHost, localPort);
+    }
+
+    /**
+     * @return The number of sockets that were created by this factory
+     */
+    int getCount() {
+        return count.get();
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+}
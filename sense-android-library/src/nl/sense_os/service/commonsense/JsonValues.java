@@ -0,0 +1,99 @@
+package nl.sense_os.service.commonsense;
+
+import java.io.IOException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+/**
+ * Helpers for reading JSON responses incrementally with a {@link JsonReader}, e.g. from
+ * {@link SenseResponse#getContentReader()}. JsonReader is only available from Honeycomb, callers
+ * should check {@link #isStreamingSupported()} and parse the complete content with
+ * {@link JSONObject} on older devices.
+ */
+public class JsonValues {
+
+    /**
+     * @return true if this device can read JSON responses as a stream
+     */
+    public static boolean isStreamingSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Reads the next value from the reader, including all nested values.
+     * 
+     * @param reader
+     *            JSON reader, positioned before a value
+     * @return JSONObject, JSONArray, String, Long, Double, Boolean or {@link JSONObject#NULL}
+     * @throws IOException
+     * @throws JSONException
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Object read(JsonReader reader) throws IOException, JSONException {
+        JsonToken token = reader.peek();
+        switch (token) {
+        case BEGIN_OBJECT:
+            JSONObject object = new JSONObject();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                object.put(name, read(reader));
+            }
+            reader.endObject();
+            return object;
+        case BEGIN_ARRAY:
+            JSONArray array = new JSONArray();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                array.put(read(reader));
+            }
+            reader.endArray();
+            return array;
+        case BOOLEAN:
+            return reader.nextBoolean();
+        case NULL:
+            reader.nextNull();
+            return JSONObject.NULL;
+        case NUMBER:
+            String number = reader.nextString();
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                return Double.parseDouble(number);
+            }
+        case STRING:
+            return reader.nextString();
+        default:
+            throw new JSONException("Unexpected JSON token: " + token);
+        }
+    }
+
+    /**
+     * Reads the next value from the reader as a String, the way {@link JSONObject#getString}
+     * would return it.
+     * 
+     * @param reader
+     *            JSON reader, positioned before a value
+     * @return String representation of the value
+     * @throws IOException
+     * @throws JSONException
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static String readString(JsonReader reader) throws IOException, JSONException {
+        if (reader.peek() == JsonToken.STRING) {
+            return reader.nextString();
+        }
+        return String.valueOf(read(reader));
+    }
+
+    private JsonValues() {
+        // class should not be instantiated
+    }
+}
@@ -0,0 +1,85 @@
+package nl.sense_os.service.commonsense;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * ZLIB output stream with a preset dictionary, that can be reused for multiple requests. Like the
+ * {@link ReusableGzipOutputStream}, it keeps one Deflater and one buffer and only resets them
+ * between uses.<br/>
+ * <br/>
+ * Not thread-safe: each thread should use its own instance.
+ * 
+ * @see CompressionDictionary
+ */
+class ReusableDeflaterOutputStream extends OutputStream {
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] buffer = new byte[8192];
+    private final byte[] single = new byte[1];
+    private OutputStream out;
+
+    private void deflate() throws IOException {
+        int length;
+        while ((length = deflater.deflate(buffer, 0, buffer.length)) > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Finishes the compressed data, including the ZLIB trailer. Does not close the underlying
+     * stream.
+     * 
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer, 0, buffer.length);
+            out.write(buffer, 0, length);
+        }
+        out.flush();
+        out = null;
+    }
+
+    /**
+     * @return Number of bytes written to the underlying stream for the last request, including
+     *         the ZLIB header and trailer
+     */
+    public int getCompressedSize() {
+        return deflater.getTotalOut();
+    }
+
+    /**
+     * Prepares the stream for a new request.
+     * 
+     * @param out
+     *            Stream to write the compressed data to
+     * @param dictionary
+     *            Preset dictionary for the compression
+     */
+    public void reset(OutputStream out, CompressionDictionary dictionary) {
+        this.out = out;
+        deflater.reset();
+        byte[] bytes = dictionary.getBytes();
+        deflater.setDictionary(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+}
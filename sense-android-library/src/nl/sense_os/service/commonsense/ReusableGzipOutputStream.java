@@ -0,0 +1,102 @@
+package nl.sense_os.service.commonsense;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * GZIP output stream that can be reused for multiple requests. The standard
+ * {@link java.util.zip.GZIPOutputStream} creates a new native Deflater and output buffer for every
+ * stream, this class keeps one Deflater and one buffer and only resets them between uses.<br/>
+ * <br/>
+ * Not thread-safe: each thread should use its own instance.
+ */
+class ReusableGzipOutputStream extends OutputStream {
+
+    /**
+     * GZIP header: magic number, deflate compression method, no flags, no time, no extra flags,
+     * unknown OS.
+     */
+    private static final byte[] HEADER = new byte[] { (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED,
+            0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[8192];
+    private final byte[] single = new byte[1];
+    private OutputStream out;
+
+    private void deflate() throws IOException {
+        int length;
+        while ((length = deflater.deflate(buffer, 0, buffer.length)) > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Finishes the compressed data and writes the GZIP trailer. Does not close the underlying
+     * stream.
+     * 
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer, 0, buffer.length);
+            out.write(buffer, 0, length);
+        }
+        writeInt((int) crc.getValue());
+        writeInt(deflater.getTotalIn());
+        out.flush();
+        out = null;
+    }
+
+    /**
+     * @return Number of bytes written to the underlying stream for the last request, including
+     *         the GZIP header and trailer
+     */
+    public int getCompressedSize() {
+        return HEADER.length + deflater.getTotalOut() + 8;
+    }
+
+    /**
+     * Prepares the stream for a new request and writes the GZIP header.
+     * 
+     * @param out
+     *            Stream to write the compressed data to
+     * @throws IOException
+     */
+    public void reset(OutputStream out) throws IOException {
+        this.out = out;
+        deflater.reset();
+        crc.reset();
+        out.write(HEADER);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    private void writeInt(int i) throws IOException {
+        // little endian
+        out.write(i & 0xff);
+        out.write((i >> 8) & 0xff);
+        out.write((i >> 16) & 0xff);
+        out.write((i >> 24) & 0xff);
+    }
+}
@@ -4,10 +4,10 @@
 package nl.sense_os.service.commonsense;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.security.MessageDigest;
@@ -20,7 +20,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
@@ -33,7 +32,6 @@ import nl.sense_os.service.constants.SensePrefs;
 import nl.sense_os.service.constants.SensePrefs.Auth;
 import nl.sense_os.service.constants.SensePrefs.Main.Advanced;
 import nl.sense_os.service.constants.SenseUrls;
-import nl.sense_os.service.constants.SensorData.SensorNames;
 import nl.sense_os.service.push.GCMReceiver;
 
 import org.apache.http.conn.ssl.SSLSocketFactory;
@@ -47,6 +45,7 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.Build;
 import android.telephony.TelephonyManager;
+import android.util.JsonReader;
 import android.util.Log;
 
 /**
@@ -61,6 +60,60 @@ public class SenseApi {
     private static SharedPreferences mainPrefs;
     private static SharedPreferences authPrefs;
     private static TelephonyManager telManager;
+    private static final SensorIdIndex sensorIndex = new SensorIdIndex();
+    /**
+     * Socket factory for HTTPS connections. Created only once, so that the TLS session cache of its
+     * SSLContext is shared by all requests.
+     */
+    private static CountingSSLSocketFactory sslSocketFactory;
+    /**
+     * GZIP streams for compressing request bodies, one per thread so their Deflater and buffers
+     * can be reused for every request.
+     */
+    private static final ThreadLocal<ReusableGzipOutputStream> gzipStreams = new ThreadLocal<ReusableGzipOutputStream>() {
+
+        @Override
+        protected ReusableGzipOutputStream initialValue() {
+            return new ReusableGzipOutputStream();
+        }
+    };
+
+    /**
+     * Header for negotiating dictionary compression of uploads. The client offers the ID of its
+     * current {@link CompressionDictionary} in every compressed request, and the server echoes
+     * the ID in its response if it can decode uploads that were compressed with that dictionary.
+     */
+    private static final String HEADER_DICTIONARY = "X-Compression-Dictionary";
+    /**
+     * Content encoding of uploads that are compressed with the dictionary
+     */
+    private static final String ENCODING_DICTIONARY = "x-deflate-dict";
+    private static CompressionDictionary dictionary;
+    private static String dictionarySource;
+    /**
+     * ID of the dictionary that the server accepted, or null to use plain GZIP
+     */
+    private static volatile String acceptedDictionary;
+    /**
+     * Dictionary compression streams, one per thread, like {@link #gzipStreams}
+     */
+    private static final ThreadLocal<ReusableDeflaterOutputStream> deflaterStreams = new ThreadLocal<ReusableDeflaterOutputStream>() {
+
+        @Override
+        protected ReusableDeflaterOutputStream initialValue() {
+            return new ReusableDeflaterOutputStream();
+        }
+    };
+
+    static {
+        // HttpURLConnection keep-alive is broken before Froyo, see
+        // http://android-developers.blogspot.com/2011/09/androids-http-clients.html
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO) {
+            System.setProperty("http.keepAlive", "false");
+        } else {
+            System.setProperty("http.keepAlive", "true");
+        }
+    }
 
     /**
      * Gets a list of all registered sensors for a user at the CommonSense API. Uses caching for
@@ -115,24 +168,22 @@ public class SenseApi {
             }
             String url = devMode ? SenseUrls.DEV_ALL_SENSORS : SenseUrls.ALL_SENSORS;
             url += "&page=" + page;
-            Map<String, String> response = SenseApi.request(context, url, null, cookie);
-
-            String responseCode = response.get("http response code");
-            if (!"200".equals(responseCode)) {
-                Log.w(TAG, "Failed to get list of sensors! Response code: " + responseCode);
-                throw new IOException("Incorrect response from CommonSense: " + responseCode);
-            }
-
-            // parse response and store the list
-            JSONObject content = new JSONObject(response.get("content"));
-            JSONArray sensorList = content.getJSONArray("sensors");
+            SenseResponse response = SenseApi.open(context, url, null, cookie);
 
-            // put the sensor list in the result array
-            for (int i = 0; i < sensorList.length(); i++) {
-                result.put(sensorList.getJSONObject(i));
+            // parse the response while it is downloaded, and put the sensors in the result array
+            int pageSize = 0;
+            try {
+                int responseCode = response.getStatusCode();
+                if (200 != responseCode) {
+                    Log.w(TAG, "Failed to get list of sensors! Response code: " + responseCode);
+                    throw new IOException("Incorrect response from CommonSense: " + responseCode);
+                }
+                pageSize = readSensorList(response, result);
+            } finally {
+                response.close();
             }
 
-            if (sensorList.length() < SenseUrls.PAGE_SIZE) {
+            if (pageSize < SenseUrls.PAGE_SIZE) {
                 // all sensors received
                 done = true;
             } else {
@@ -150,6 +201,47 @@ public class SenseApi {
         return result;
     }
 
+    /**
+     * Reads a page of the sensor list from a response.
+     * 
+     * @param response
+     *            Response with the sensor list
+     * @param result
+     *            Array to put the sensors in
+     * @return The number of sensors in the page
+     * @throws IOException
+     * @throws JSONException
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int readSensorList(SenseResponse response, JSONArray result)
+            throws IOException, JSONException {
+        if (!JsonValues.isStreamingSupported()) {
+            JSONArray sensorList = new JSONObject(response.readContent()).getJSONArray("sensors");
+            for (int i = 0; i < sensorList.length(); i++) {
+                result.put(sensorList.getJSONObject(i));
+            }
+            return sensorList.length();
+        }
+
+        int count = 0;
+        JsonReader reader = new JsonReader(response.getContentReader());
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("sensors".equals(reader.nextName())) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    result.put(JsonValues.read(reader));
+                    count++;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return count;
+    }
+
     /**
      * Gets the sensors that are connected to another sensor. Typically used
      * 
@@ -197,6 +289,15 @@ public class SenseApi {
         return result;
     }
 
+    /**
+     * @return The number of HTTPS connections (i.e. TCP connections with a TLS handshake) that have
+     *         been opened since the process started. Requests that reuse a kept-alive connection
+     *         do not increase this number.
+     */
+    public static int getConnectionCount() {
+        return null != sslSocketFactory ? sslSocketFactory.getCount() : 0;
+    }
+
     /**
      * @param context
      *            Context for accessing phone details
@@ -344,45 +445,10 @@ public class SenseApi {
         return device_id;
     }
 
-    private static List<JSONObject> getMatchingSensors(Context context, String name,
-            String description, String dataType) throws IOException, JSONException {
-
-        // get list of all registered sensors for this device
-        JSONArray sensors = getAllSensors(context);
-
-        // check sensors with similar names and descriptions in the list
-        List<JSONObject> result = new ArrayList<JSONObject>();
-        JSONObject sensor;
-        for (int i = 0; i < sensors.length(); i++) {
-            sensor = (JSONObject) sensors.get(i);
-
-            if (sensor.getString("name").equalsIgnoreCase(name)
-                    && ((null == description) || sensor.getString("device_type").equalsIgnoreCase(
-                            description))
-                    && ((null == dataType) || sensor.getString("data_type").equalsIgnoreCase(
-                            dataType))) {
-                result.add(sensor);
-
-            } else if (name.equals(SensorNames.ACCELEROMETER) || name.equals(SensorNames.ORIENT)
-                    || name.equals(SensorNames.GYRO) || name.equals(SensorNames.LIN_ACCELERATION)
-                    || name.equals(SensorNames.MAGNETIC_FIELD)
-                    || name.equals(SensorNames.ACCELEROMETER_EPI)
-                    || name.equals(SensorNames.ACCELEROMETER_BURST)
-                    || name.equals(SensorNames.GYRO_BURST) || name.equals(SensorNames.LINEAR_BURST)) {
-                // special case to take care of changed motion sensor descriptions since Gingerbread
-                if (name.equals(sensor.getString("name"))) {
-                    // use inexact match
-                    result.add(sensor);
-                }
-            }
-        }
-
-        return result;
-    }
-
     /**
      * Gets the sensor ID at CommonSense , which can be used to modify the sensor information and
-     * data.
+     * data. The ID is looked up in an in-memory index of the cached sensor list, so this method is
+     * cheap to call for every data point.
      * 
      * @param context
      *            Context for getting preferences
@@ -404,27 +470,45 @@ public class SenseApi {
     public static String getSensorId(Context context, String name, String description,
             String dataType, String deviceUuid) throws IOException, JSONException {
 
-        // get list of sensors with matching description
-        List<JSONObject> sensors = getMatchingSensors(context, name, description, dataType);
-
-        // check the devices that the sensors are connected to
-        String id = null;
-        JSONObject device;
-        for (JSONObject sensor : sensors) {
-            if (null != deviceUuid) {
-                // check if the device UUID matches
-                device = sensor.optJSONObject("device");
-                if (null != device && deviceUuid.equals(device.optString("uuid"))) {
-                    id = sensor.getString("id");
-                    break;
-                }
-            } else {
-                // we do not care about the device, just accept the first match we find
-                id = sensor.getString("id");
-                break;
+        if (null == authPrefs) {
+            authPrefs = context.getSharedPreferences(SensePrefs.AUTH_PREFS, Context.MODE_PRIVATE);
+        }
+
+        // make sure the cached list of sensors is up to date
+        String sensorList = authPrefs.getString(Auth.SENSOR_LIST_COMPLETE, null);
+        long cacheTime = authPrefs.getLong(Auth.SENSOR_LIST_COMPLETE_TIME, 0);
+        if (null == sensorList || System.currentTimeMillis() - cacheTime > CACHE_REFRESH) {
+            getAllSensors(context);
+            sensorList = authPrefs.getString(Auth.SENSOR_LIST_COMPLETE, null);
+        }
+
+        // look up the sensor in the index of the list, which is only rebuilt if the list changed
+        sensorIndex.update(sensorList);
+        return sensorIndex.getSensorId(name, description, dataType, deviceUuid);
+    }
+
+    /**
+     * @return The compression dictionary for the current list of sensors, or null if there is no
+     *         (valid) sensor list
+     */
+    private static synchronized CompressionDictionary getDictionary(Context context) {
+        if (null == authPrefs) {
+            authPrefs = context.getSharedPreferences(SensePrefs.AUTH_PREFS, Context.MODE_PRIVATE);
+        }
+        String sensorList = authPrefs.getString(Auth.SENSOR_LIST_COMPLETE, null);
+        if (null == sensorList) {
+            return null;
+        } else if (!sensorList.equals(dictionarySource)) {
+            // the sensors changed: the server has to accept the new dictionary again
+            dictionarySource = sensorList;
+            try {
+                dictionary = new CompressionDictionary(sensorList);
+            } catch (JSONException e) {
+                Log.w(TAG, "Failed to build compression dictionary: " + e);
+                dictionary = null;
             }
         }
-        return id;
+        return dictionary;
     }
 
     /**
@@ -948,7 +1032,10 @@ public class SenseApi {
     }
 
     /**
-     * Performs request at CommonSense API. Returns the response code, content, and headers.
+     * Performs request at CommonSense API. Returns the response code, content, and headers.<br/>
+     * <br/>
+     * The connection is not closed after the request, so that the next request to the same host
+     * can reuse it (HTTP keep-alive). For this to work the response is always read completely.
      * 
      * @param context
      *            Application context, used to read preferences.
@@ -966,8 +1053,187 @@ public class SenseApi {
     public static Map<String, String> request(Context context, String urlString,
             JSONObject content, String cookie) throws IOException {
 
+        if (null == content) {
+            return request(context, urlString, (StreamingContent) null, -1, null, cookie, null);
+        }
+
+        // convert the content only once: the same bytes are used for the length and the body
+        final byte[] bytes = content.toString().getBytes("UTF-8");
+        StreamingContent body = new StreamingContent() {
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(bytes);
+            }
+        };
+        return request(context, urlString, body, bytes.length, null, cookie, null);
+    }
+
+    /**
+     * Performs a POST request at CommonSense API, writing the content directly to the connection.
+     * Use this for large uploads, so the payload never has to be kept in memory as a whole.
+     * 
+     * @param context
+     *            Application context, used to read preferences.
+     * @param urlString
+     *            Complete URL to perform request to.
+     * @param content
+     *            Content for the request.
+     * @param cookie
+     *            (Optional) Cookie header for the request.
+     * @return Map with "content" and "http response code" fields, plus fields for all response
+     *         headers. If the size of the request body is known, it is put in the
+     *         "request length" field.
+     * @throws IOException
+     * @see #request(Context, String, JSONObject, String)
+     */
+    public static Map<String, String> requestStreaming(Context context, String urlString,
+            StreamingContent content, String cookie) throws IOException {
+        return request(context, urlString, content, -1, null, cookie, null);
+    }
+
+    /**
+     * Performs a POST request at CommonSense API, writing the content directly to the connection,
+     * with extra request headers.
+     * 
+     * @param context
+     *            Application context, used to read preferences.
+     * @param urlString
+     *            Complete URL to perform request to.
+     * @param content
+     *            Content for the request.
+     * @param cookie
+     *            (Optional) Cookie header for the request.
+     * @param headers
+     *            (Optional) Extra headers for the request, mapped by header name.
+     * @return Map with "content" and "http response code" fields, plus fields for all response
+     *         headers.
+     * @throws IOException
+     * @see #requestStreaming(Context, String, StreamingContent, String)
+     */
+    public static Map<String, String> requestStreaming(Context context, String urlString,
+            StreamingContent content, String cookie, Map<String, String> headers)
+            throws IOException {
+        return request(context, urlString, content, -1, null, cookie, headers);
+    }
+
+    /**
+     * Performs a POST request at CommonSense API, writing content of any type directly to the
+     * connection, e.g. a multipart form with a file. Unlike the JSON requests, the content is not
+     * compressed. The request uses the same kept-alive connections and TLS sessions as the other
+     * requests.
+     * 
+     * @param context
+     *            Application context, used to read preferences.
+     * @param urlString
+     *            Complete URL to perform request to.
+     * @param content
+     *            Content for the request.
+     * @param contentLength
+     *            Length of the content in bytes, or -1 if it is unknown
+     * @param contentType
+     *            Value for the Content-Type header of the request
+     * @param cookie
+     *            (Optional) Cookie header for the request.
+     * @return Map with "content" and "http response code" fields, plus fields for all response
+     *         headers.
+     * @throws IOException
+     * @see #requestStreaming(Context, String, StreamingContent, String)
+     */
+    public static Map<String, String> requestStreaming(Context context, String urlString,
+            StreamingContent content, long contentLength, String contentType, String cookie)
+            throws IOException {
+        return request(context, urlString, content, contentLength, contentType, cookie, null);
+    }
+
+    /**
+     * Performs request at CommonSense API, and returns the response with its content as a stream.
+     * Use this for large responses, e.g. long lists or sensor data, so they can be processed
+     * while they are downloaded. The response must always be closed.
+     * 
+     * @param context
+     *            Application context, used to read preferences.
+     * @param urlString
+     *            Complete URL to perform request to.
+     * @param content
+     *            (Optional) Content for the request. If the content is not null, the request method
+     *            is automatically POST. The default method is GET.
+     * @param cookie
+     *            (Optional) Cookie header for the request.
+     * @return The response
+     * @throws IOException
+     */
+    public static SenseResponse open(Context context, String urlString, StreamingContent content,
+            String cookie) throws IOException {
+        return execute(context, urlString, content, -1, null, cookie, null);
+    }
+
+    /**
+     * Performs request at CommonSense API.
+     * 
+     * @param context
+     *            Application context, used to read preferences.
+     * @param urlString
+     *            Complete URL to perform request to.
+     * @param content
+     *            (Optional) Content for the request.
+     * @param contentLength
+     *            Length of the content in bytes, or -1 if it is unknown
+     * @param contentType
+     *            (Optional) Content-Type of the content, which is then sent without compression.
+     *            By default the content is JSON, compressed according to the preferences.
+     * @param cookie
+     *            (Optional) Cookie header for the request.
+     * @param headers
+     *            (Optional) Extra headers for the request.
+     * @return Map with "content" and "http response code" fields, plus fields for all response
+     *         headers.
+     * @throws IOException
+     */
+    private static Map<String, String> request(Context context, String urlString,
+            StreamingContent content, long contentLength, String contentType, String cookie,
+            Map<String, String> headers) throws IOException {
+
+        SenseResponse response = execute(context, urlString, content, contentLength, contentType,
+                cookie, headers);
+        try {
+            HashMap<String, String> result = new HashMap<String, String>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    response.getContent()), 1024);
+            String line;
+            StringBuffer responseContent = new StringBuffer();
+            while ((line = reader.readLine()) != null) {
+                responseContent.append(line);
+                responseContent.append('\r');
+            }
+            result.put("content", responseContent.toString());
+            result.put("http response code", "" + response.getStatusCode());
+            if (response.getRequestLength() >= 0) {
+                result.put("request length", "" + response.getRequestLength());
+            }
+            result.putAll(response.getHeaders());
+            return result;
+
+        } finally {
+            // closing the fully read stream returns the connection to the pool
+            response.close();
+        }
+    }
+
+    /**
+     * Sends a request to CommonSense and waits for the response status.
+     * 
+     * @see #request(Context, String, StreamingContent, long, String, String, Map)
+     */
+    private static SenseResponse execute(Context context, String urlString,
+            StreamingContent content, long contentLength, String contentType, String cookie,
+            Map<String, String> headers) throws IOException {
+
         HttpURLConnection urlConnection = null;
-        HashMap<String, String> result = new HashMap<String, String>();
+        long requestLength = -1;
+        CompressionDictionary dict = null;
+        boolean useDictionary = false;
+        boolean success = false;
         try {
 
             // get compression preference
@@ -975,13 +1241,14 @@ public class SenseApi {
                 mainPrefs = context.getSharedPreferences(SensePrefs.MAIN_PREFS,
                         Context.MODE_PRIVATE);
             }
-            final boolean compress = mainPrefs.getBoolean(Advanced.COMPRESS, true);
+            final boolean compress = null == contentType
+                    && mainPrefs.getBoolean(Advanced.COMPRESS, true);
 
             // open new URL connection channel.
             URL url = new URL(urlString);
             if ("https".equals(url.getProtocol().toLowerCase(Locale.ENGLISH))) {
-                trustAllHosts();
                 HttpsURLConnection https = (HttpsURLConnection) url.openConnection();
+                https.setSSLSocketFactory(getSslSocketFactory());
                 https.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
                 urlConnection = https;
             } else {
@@ -996,6 +1263,11 @@ public class SenseApi {
             if (null != cookie) {
                 urlConnection.setRequestProperty("Cookie", cookie);
             }
+            if (null != headers) {
+                for (Entry<String, String> header : headers.entrySet()) {
+                    urlConnection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
 
             // send content (if available)
             if (null != content) {
@@ -1003,32 +1275,50 @@ public class SenseApi {
                 // When no charset is given in the Content-Type header "ISO-8859-1" should be
                 // assumed (see http://www.w3.org/Protocols/rfc2616/rfc2616-sec3.html#sec3.7.1).
                 // Because we're uploading UTF-8 the charset should be set to UTF-8.
-                urlConnection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+                urlConnection.setRequestProperty("Content-Type",
+                        null != contentType ? contentType : "application/json; charset=utf-8");
 
-                // send content
-                DataOutputStream printout;
                 if (compress) {
-                    // do not set content size
-                    urlConnection.setRequestProperty("Transfer-Encoding", "chunked");
-                    urlConnection.setRequestProperty("Content-Encoding", "gzip");
-                    GZIPOutputStream zipStream = new GZIPOutputStream(
-                            urlConnection.getOutputStream());
-                    printout = new DataOutputStream(zipStream);
+                    // offer the dictionary, and use it if the server accepted it before
+                    dict = getDictionary(context);
+                    if (null != dict) {
+                        urlConnection.setRequestProperty(HEADER_DICTIONARY, dict.getId());
+                        useDictionary = dict.getId().equals(acceptedDictionary);
+                    }
+
+                    // compressed size is unknown beforehand
+                    urlConnection.setChunkedStreamingMode(0);
+                    if (useDictionary) {
+                        urlConnection.setRequestProperty("Content-Encoding", ENCODING_DICTIONARY);
+                        OutputStream out = urlConnection.getOutputStream();
+                        ReusableDeflaterOutputStream zipStream = deflaterStreams.get();
+                        zipStream.reset(out, dict);
+                        content.writeTo(zipStream);
+                        zipStream.finish();
+                        out.close();
+                        requestLength = zipStream.getCompressedSize();
+                    } else {
+                        urlConnection.setRequestProperty("Content-Encoding", "gzip");
+                        OutputStream out = urlConnection.getOutputStream();
+                        ReusableGzipOutputStream zipStream = gzipStreams.get();
+                        zipStream.reset(out);
+                        content.writeTo(zipStream);
+                        zipStream.finish();
+                        out.close();
+                        requestLength = zipStream.getCompressedSize();
+                    }
                 } else {
-                    // set content size
-
-                    // The content length should be in bytes. We cannot use string length here
-                    // because that counts the number of chars while not accounting for multibyte
-                    // chars
-                    int contentLength = content.toString().getBytes("UTF-8").length;
-                    urlConnection.setFixedLengthStreamingMode(contentLength);
-                    urlConnection.setRequestProperty("Content-Length", "" + contentLength);
-                    printout = new DataOutputStream(urlConnection.getOutputStream());
+                    if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+                        urlConnection.setFixedLengthStreamingMode((int) contentLength);
+                    } else {
+                        urlConnection.setChunkedStreamingMode(0);
+                    }
+                    OutputStream out = urlConnection.getOutputStream();
+                    content.writeTo(out);
+                    out.flush();
+                    out.close();
+                    requestLength = contentLength;
                 }
-                // Write the string in UTF-8 encoding
-                printout.write(content.toString().getBytes("UTF-8"));
-                printout.flush();
-                printout.close();
             }
 
             // get response, or read error message
@@ -1041,41 +1331,25 @@ public class SenseApi {
             if (null == inputStream) {
                 throw new IOException("could not get InputStream");
             }
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream), 1024);
-            String line;
-            StringBuffer responseContent = new StringBuffer();
-            while ((line = reader.readLine()) != null) {
-                responseContent.append(line);
-                responseContent.append('\r');
-            }
-            result.put("content", responseContent.toString());
-            result.put("http response code", "" + urlConnection.getResponseCode());
-
-            // clean up
-            reader.close();
-            reader = null;
-            inputStream.close();
-            inputStream = null;
-
-            // get headers
-            Map<String, List<String>> headerFields = urlConnection.getHeaderFields();
-            String key, valueString;
-            List<String> value;
-            for (Entry<String, List<String>> entry : headerFields.entrySet()) {
-                key = entry.getKey();
-                value = entry.getValue();
-                if (null != key && null != value) {
-                    key = key.toLowerCase(Locale.ENGLISH);
-                    valueString = value.toString();
-                    valueString = valueString.substring(1, valueString.length() - 1);
-                    result.put(key, valueString);
+            int statusCode = urlConnection.getResponseCode();
+
+            // keep track of the dictionary negotiation
+            if (null != dict) {
+                if (useDictionary && statusCode == 415) {
+                    // the server no longer knows the dictionary: fall back to GZIP
+                    Log.w(TAG, "Dictionary compression was refused, falling back to gzip");
+                    acceptedDictionary = null;
+                } else if (dict.getId().equals(urlConnection.getHeaderField(HEADER_DICTIONARY))) {
+                    acceptedDictionary = dict.getId();
                 }
             }
 
-            return result;
+            success = true;
+            return new SenseResponse(urlConnection, statusCode, inputStream, requestLength);
 
         } finally {
-            if (urlConnection != null) {
+            if (urlConnection != null && !success) {
+                // the connection is in an unknown state: do not reuse it
                 urlConnection.disconnect();
             }
         }
@@ -1132,10 +1406,20 @@ public class SenseApi {
     }
 
     /**
-     * Trust every server - do not check for any certificate
+     * Trust every server - do not check for any certificate. The socket factory is created once and
+     * reused for every HTTPS request, so TLS sessions can be resumed and connections kept alive.
+     * 
+     * @return Socket factory that trusts all hosts
+     * @throws IOException
+     *             If the SSL context could not be initialized
      */
     // TODO Solve issue with security certificate for HTTPS.
-    private static void trustAllHosts() {
+    private static synchronized javax.net.ssl.SSLSocketFactory getSslSocketFactory()
+            throws IOException {
+        if (null != sslSocketFactory) {
+            return sslSocketFactory;
+        }
+
         // Create a trust manager that does not validate certificate chains
         TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
             @Override
@@ -1158,9 +1442,10 @@ public class SenseApi {
         try {
             SSLContext sc = SSLContext.getInstance("TLS");
             sc.init(null, trustAllCerts, new java.security.SecureRandom());
-            HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
+            sslSocketFactory = new CountingSSLSocketFactory(sc.getSocketFactory());
         } catch (Exception e) {
-            e.printStackTrace();
+            throw new IOException("Failed to initialize SSL context: " + e);
         }
+        return sslSocketFactory;
     }
 }
@@ -0,0 +1,164 @@
+package nl.sense_os.service.commonsense;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Response of a request at the CommonSense API, with the content as a stream. Use this instead of
+ * the Map returned by {@link SenseApi#request(android.content.Context, String,
+ * org.json.JSONObject, String)} for large responses, so they can be processed while they are
+ * downloaded instead of being copied into a String first.<br/>
+ * <br/>
+ * The response must always be {@link #close() closed}. If the content was read completely, the
+ * connection is kept for reuse by the next request. Otherwise it is disconnected.
+ * 
+ * @see SenseApi#open(android.content.Context, String, StreamingContent, String)
+ */
+public class SenseResponse {
+
+    /**
+     * Input stream that remembers if it was read until the end
+     */
+    private static class TrackingInputStream extends FilterInputStream {
+
+        boolean finished;
+
+        TrackingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            finished |= b < 0;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            finished |= read < 0;
+            return read;
+        }
+    }
+
+    private final HttpURLConnection connection;
+    private final int statusCode;
+    private final long requestLength;
+    private final TrackingInputStream content;
+    private Map<String, String> headers;
+    private boolean closed;
+
+    SenseResponse(HttpURLConnection connection, int statusCode, InputStream content,
+            long requestLength) {
+        this.connection = connection;
+        this.statusCode = statusCode;
+        this.content = new TrackingInputStream(content);
+        this.requestLength = requestLength;
+    }
+
+    /**
+     * Closes the response. Keeps the connection for reuse if the content was read completely,
+     * and disconnects it otherwise.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            content.close();
+        } catch (IOException e) {
+            // disconnect below
+            content.finished = false;
+        }
+        if (!content.finished) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return Stream with the response content. For error responses this is the error content.
+     */
+    public InputStream getContent() {
+        return content;
+    }
+
+    /**
+     * @return Reader for the response content, decoding the content as UTF-8
+     * @throws IOException
+     */
+    public Reader getContentReader() throws IOException {
+        return new InputStreamReader(content, "UTF-8");
+    }
+
+    /**
+     * @param name
+     *            Name of the header, case-insensitive
+     * @return The value of the response header, or null if it is not present
+     */
+    public String getHeader(String name) {
+        return getHeaders().get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return All response headers, with lower case names. Multiple values of the same header are
+     *         separated by commas.
+     */
+    public synchronized Map<String, String> getHeaders() {
+        if (null == headers) {
+            headers = new HashMap<String, String>();
+            for (Entry<String, List<String>> entry : connection.getHeaderFields().entrySet()) {
+                String key = entry.getKey();
+                List<String> value = entry.getValue();
+                if (null != key && null != value) {
+                    String valueString = value.toString();
+                    headers.put(key.toLowerCase(Locale.ENGLISH),
+                            valueString.substring(1, valueString.length() - 1));
+                }
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * @return Size of the request body as it was sent, or -1 if it is unknown
+     */
+    public long getRequestLength() {
+        return requestLength;
+    }
+
+    /**
+     * @return The HTTP status code of the response
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Reads the complete response content. Only use this for responses that are known to be
+     * small.
+     * 
+     * @return The response content
+     * @throws IOException
+     */
+    public String readContent() throws IOException {
+        Reader reader = getContentReader();
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[1024];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            result.append(buffer, 0, read);
+        }
+        return result.toString();
+    }
+}
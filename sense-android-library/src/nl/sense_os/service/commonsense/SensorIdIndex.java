@@ -0,0 +1,205 @@
+package nl.sense_os.service.commonsense;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import nl.sense_os.service.constants.SensorData.SensorNames;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * In-memory index of the cached list of sensors at CommonSense, used by
+ * {@link SenseApi#getSensorId(android.content.Context, String, String, String, String)}.<br/>
+ * <br/>
+ * The sensor list is only parsed when the cached list String changes. The sensors are grouped by
+ * lower case name, and the result of every lookup is remembered, including lookups that did not
+ * find a sensor (negative caching). Repeated lookups therefore are a hash lookup plus a scan of
+ * the few queries for the same name, and do not allocate any objects.
+ */
+class SensorIdIndex {
+
+    /**
+     * Parsed sensor from the sensor list
+     */
+    private static class Sensor {
+        String id;
+        String name;
+        String description;
+        String dataType;
+        String deviceUuid;
+    }
+
+    /**
+     * Remembered result of a lookup
+     */
+    private static class Query {
+        String description;
+        String dataType;
+        String deviceUuid;
+        String id;
+
+        boolean matches(String description, String dataType, String deviceUuid) {
+            return equals(this.description, description) && equals(this.dataType, dataType)
+                    && equals(this.deviceUuid, deviceUuid);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * Motion sensors changed their descriptions since Gingerbread, so for these sensors any sensor
+     * with exactly the same name matches.
+     */
+    private static final String[] INEXACT_NAMES = new String[] { SensorNames.ACCELEROMETER,
+            SensorNames.ORIENT, SensorNames.GYRO, SensorNames.LIN_ACCELERATION,
+            SensorNames.MAGNETIC_FIELD, SensorNames.ACCELEROMETER_EPI,
+            SensorNames.ACCELEROMETER_BURST, SensorNames.GYRO_BURST, SensorNames.LINEAR_BURST };
+
+    private static boolean isInexactName(String name) {
+        for (String inexact : INEXACT_NAMES) {
+            if (inexact.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String lowerCase(String s) {
+        return null == s ? null : s.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * The sensor list String that the index was built from
+     */
+    private String source;
+
+    /**
+     * Sensors in the original list order, grouped by lower case name
+     */
+    private final Map<String, List<Sensor>> sensorsByName = new HashMap<String, List<Sensor>>();
+
+    /**
+     * Results of previous lookups, grouped by the queried name
+     */
+    private final Map<String, List<Query>> queries = new HashMap<String, List<Query>>();
+
+    /**
+     * Looks up the ID of a sensor in the index.
+     * 
+     * @param name
+     *            Sensor name, matched case-insensitive
+     * @param description
+     *            Sensor description, matched case-insensitive, or null to match any description
+     * @param dataType
+     *            Sensor data type, matched case-insensitive, or null to match any type
+     * @param deviceUuid
+     *            UUID of the device of the sensor, or null to match any device
+     * @return The ID of the first matching sensor in the list, or null if there is none
+     */
+    synchronized String getSensorId(String name, String description, String dataType,
+            String deviceUuid) {
+        if (null == name) {
+            return null;
+        }
+
+        // check if we did this lookup before
+        List<Query> nameQueries = queries.get(name);
+        if (null != nameQueries) {
+            for (int i = 0; i < nameQueries.size(); i++) {
+                Query query = nameQueries.get(i);
+                if (query.matches(description, dataType, deviceUuid)) {
+                    return query.id;
+                }
+            }
+        } else {
+            nameQueries = new ArrayList<Query>();
+            queries.put(name, nameQueries);
+        }
+
+        // search the sensors with the same name
+        String id = null;
+        List<Sensor> candidates = sensorsByName.get(lowerCase(name));
+        if (null != candidates) {
+            boolean inexact = isInexactName(name);
+            String lowerDescription = lowerCase(description);
+            String lowerDataType = lowerCase(dataType);
+            for (Sensor sensor : candidates) {
+                boolean match = (null == description || lowerDescription
+                        .equals(sensor.description))
+                        && (null == dataType || lowerDataType.equals(sensor.dataType));
+                if (!match && inexact) {
+                    // use inexact match
+                    match = name.equals(sensor.name);
+                }
+                if (match && (null == deviceUuid || deviceUuid.equals(sensor.deviceUuid))) {
+                    id = sensor.id;
+                    break;
+                }
+            }
+        }
+
+        // remember the result, also if the sensor was not found
+        Query query = new Query();
+        query.description = description;
+        query.dataType = dataType;
+        query.deviceUuid = deviceUuid;
+        query.id = id;
+        nameQueries.add(query);
+        return id;
+    }
+
+    /**
+     * Rebuilds the index if the sensor list has changed. Cheap if the list is the same String
+     * instance as the last time.
+     * 
+     * @param sensorList
+     *            JSON String with the list of sensors
+     * @throws JSONException
+     *             If the list could not be parsed
+     */
+    synchronized void update(String sensorList) throws JSONException {
+        if (sensorList == source) {
+            // nothing changed
+            return;
+        } else if (null != sensorList && sensorList.equals(source)) {
+            // same list in a new String, remember it so the next check is quick again
+            source = sensorList;
+            return;
+        }
+
+        sensorsByName.clear();
+        queries.clear();
+        source = null;
+        if (null == sensorList) {
+            return;
+        }
+
+        JSONArray array = new JSONArray(sensorList);
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject json = array.getJSONObject(i);
+            Sensor sensor = new Sensor();
+            sensor.id = json.getString("id");
+            sensor.name = json.getString("name");
+            sensor.description = lowerCase(json.optString("device_type"));
+            sensor.dataType = lowerCase(json.optString("data_type"));
+            JSONObject device = json.optJSONObject("device");
+            sensor.deviceUuid = null != device ? device.optString("uuid") : null;
+
+            String key = lowerCase(sensor.name);
+            List<Sensor> sensors = sensorsByName.get(key);
+            if (null == sensors) {
+                sensors = new ArrayList<Sensor>();
+                sensorsByName.put(key, sensors);
+            }
+            sensors.add(sensor);
+        }
+        source = sensorList;
+    }
+}
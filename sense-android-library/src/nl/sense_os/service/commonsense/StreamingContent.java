@@ -0,0 +1,24 @@
+package nl.sense_os.service.commonsense;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Request body that is written directly to the connection, instead of being built in memory
+ * first. Used for large uploads, where the payload should not exist as one big String or
+ * JSONObject.
+ * 
+ * @see SenseApi#requestStreaming(android.content.Context, String, StreamingContent, String)
+ */
+public interface StreamingContent {
+
+    /**
+     * Writes the UTF-8 encoded request body. Compression is handled by the caller, so
+     * implementations should just write the raw content.
+     * 
+     * @param out
+     *            Stream to write the content to. Implementations should not close it.
+     * @throws IOException
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+}
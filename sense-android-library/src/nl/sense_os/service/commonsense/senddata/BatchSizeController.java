@@ -0,0 +1,252 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+/**
+ * Chooses the number of data points per upload of buffered data. The goal is one compressed
+ * request of about {@link #TARGET_REQUEST_TIME} milliseconds: large batches on fast networks to
+ * avoid many tiny requests, small batches on slow networks so a request does not time out.<br/>
+ * <br/>
+ * The batch size is adjusted like a TCP congestion window (AIMD): it grows by a fixed step after
+ * every fast successful upload, and it is halved after a failed upload. Additionally, it is capped
+ * by the observed throughput and compressed size per data point. The state is kept in memory for
+ * each type of network, so switching between Wi-Fi and mobile does not reset what was learned.
+ * 
+ * @see BufferTransmitHandler
+ */
+public class BatchSizeController {
+
+    /**
+     * Snapshot of the upload statistics for one type of network.
+     */
+    public static class NetworkStats {
+
+        private int batchSize = INITIAL_BATCH_SIZE;
+        private double bytesPerPoint;
+        private double throughput;
+        private double latency;
+        private int successes;
+        private int failures;
+
+        private NetworkStats() {
+            // only created by the controller
+        }
+
+        private NetworkStats(NetworkStats other) {
+            batchSize = other.batchSize;
+            bytesPerPoint = other.bytesPerPoint;
+            throughput = other.throughput;
+            latency = other.latency;
+            successes = other.successes;
+            failures = other.failures;
+        }
+
+        /**
+         * @return Current congestion window, in data points per request
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * @return Average compressed request size per data point, in bytes, or 0 if unknown
+         */
+        public double getBytesPerPoint() {
+            return bytesPerPoint;
+        }
+
+        /**
+         * @return Number of failed uploads
+         */
+        public int getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return Average request duration, in milliseconds
+         */
+        public double getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return Number of successful uploads
+         */
+        public int getSuccesses() {
+            return successes;
+        }
+
+        /**
+         * @return Average upload throughput, in bytes per second, or 0 if unknown
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        @Override
+        public String toString() {
+            return "batch size: " + batchSize + ", bytes/point: " + Math.round(bytesPerPoint)
+                    + ", throughput: " + Math.round(throughput) + " B/s, latency: "
+                    + Math.round(latency) + " ms, successes: " + successes + ", failures: "
+                    + failures;
+        }
+    }
+
+    private static final String TAG = "BatchSizeController";
+
+    /**
+     * Batch size for a network without history. Equal to the old fixed batch size.
+     */
+    private static final int INITIAL_BATCH_SIZE = 100;
+    private static final int MIN_BATCH_SIZE = 10;
+    private static final int MAX_BATCH_SIZE = 2500;
+
+    /**
+     * Number of points that is added to the batch size after a fast successful upload
+     */
+    private static final int ADDITIVE_INCREASE = 50;
+
+    /**
+     * Target duration of one upload request, in milliseconds
+     */
+    private static final long TARGET_REQUEST_TIME = 5000;
+
+    /**
+     * Minimum and maximum compressed request size, in bytes
+     */
+    private static final int MIN_PAYLOAD = 4 * 1024;
+    private static final int MAX_PAYLOAD = 1024 * 1024;
+
+    /**
+     * Weight of new measurements in the moving averages
+     */
+    private static final double ALPHA = 0.25;
+
+    private static BatchSizeController instance;
+
+    /**
+     * @param context
+     *            Context for lazy creating the controller
+     * @return Singleton instance of the BatchSizeController
+     */
+    public static synchronized BatchSizeController getInstance(Context context) {
+        if (null == instance) {
+            instance = new BatchSizeController(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final Context context;
+    private final Map<String, NetworkStats> stats = new HashMap<String, NetworkStats>();
+
+    BatchSizeController(Context context) {
+        this.context = context;
+    }
+
+    private static double average(double average, double value) {
+        return average == 0 ? value : (1 - ALPHA) * average + ALPHA * value;
+    }
+
+    /**
+     * @return Batch size for the next upload on the current network, in data points
+     */
+    public synchronized int getBatchSize() {
+        NetworkStats current = getStats(getNetworkKey());
+        int batchSize = current.batchSize;
+        if (current.bytesPerPoint > 0) {
+            // cap the batch by the payload size that can be sent within the target time
+            double targetPayload = current.throughput > 0 ? current.throughput
+                    * TARGET_REQUEST_TIME / 1000d : MIN_PAYLOAD;
+            targetPayload = Math.max(MIN_PAYLOAD, Math.min(MAX_PAYLOAD, targetPayload));
+            batchSize = Math.min(batchSize, (int) (targetPayload / current.bytesPerPoint));
+        }
+        return Math.max(MIN_BATCH_SIZE, batchSize);
+    }
+
+    /**
+     * @return Copy of the upload statistics for each type of network that was used
+     */
+    public synchronized Map<String, NetworkStats> getMetrics() {
+        Map<String, NetworkStats> copy = new HashMap<String, NetworkStats>();
+        for (Map.Entry<String, NetworkStats> entry : stats.entrySet()) {
+            copy.put(entry.getKey(), new NetworkStats(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * @return Key for the active network, e.g. "WIFI" or "MOBILE/EDGE"
+     */
+    private String getNetworkKey() {
+        ConnectivityManager cm = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = null != cm ? cm.getActiveNetworkInfo() : null;
+        if (null == info) {
+            return "NONE";
+        } else if (info.getType() == ConnectivityManager.TYPE_MOBILE) {
+            return info.getTypeName() + "/" + info.getSubtypeName();
+        } else {
+            return info.getTypeName();
+        }
+    }
+
+    private NetworkStats getStats(String network) {
+        NetworkStats result = stats.get(network);
+        if (null == result) {
+            result = new NetworkStats();
+            stats.put(network, result);
+        }
+        return result;
+    }
+
+    /**
+     * Registers a failed upload. Halves the batch size for the current network.
+     */
+    public synchronized void onFailure() {
+        String network = getNetworkKey();
+        NetworkStats current = getStats(network);
+        current.failures++;
+        current.batchSize = Math.max(MIN_BATCH_SIZE, current.batchSize / 2);
+        Log.v(TAG, "Upload failed on " + network + ": " + current);
+    }
+
+    /**
+     * Registers a successful upload and adjusts the batch size for the current network.
+     * 
+     * @param points
+     *            Number of data points in the request
+     * @param batchSize
+     *            Batch size that was used to prepare the request
+     * @param bytes
+     *            Size of the (compressed) request body in bytes, or -1 if unknown
+     * @param duration
+     *            Duration of the request in milliseconds
+     */
+    public synchronized void onSuccess(int points, int batchSize, long bytes, long duration) {
+        String network = getNetworkKey();
+        NetworkStats current = getStats(network);
+        current.successes++;
+        current.latency = average(current.latency, duration);
+        if (bytes > 0 && points > 0) {
+            current.bytesPerPoint = average(current.bytesPerPoint, (double) bytes / points);
+            if (duration > 0) {
+                current.throughput = average(current.throughput, bytes * 1000d / duration);
+            }
+        }
+
+        if (duration > 2 * TARGET_REQUEST_TIME) {
+            // too slow: back off before the requests start timing out
+            current.batchSize = Math.max(MIN_BATCH_SIZE, current.batchSize / 2);
+        } else if (duration <= TARGET_REQUEST_TIME && points >= batchSize) {
+            // only grow if the full batch was used
+            current.batchSize = Math.min(MAX_BATCH_SIZE, current.batchSize + ADDITIVE_INCREASE);
+        }
+        Log.v(TAG, "Upload succeeded on " + network + ": " + current);
+    }
+}
@@ -7,20 +7,33 @@ import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import nl.sense_os.service.MsgHandler;
 import nl.sense_os.service.R;
-import nl.sense_os.service.SenseService;
 import nl.sense_os.service.commonsense.SenseApi;
+import nl.sense_os.service.commonsense.StreamingContent;
+import nl.sense_os.service.commonsense.senddata.UploadManifests.Manifest;
+import nl.sense_os.service.commonsense.senddata.UploadManifests.SensorPoints;
 import nl.sense_os.service.constants.SenseDataTypes;
 import nl.sense_os.service.constants.SensePrefs;
 import nl.sense_os.service.constants.SensePrefs.Main;
+import nl.sense_os.service.constants.SensePrefs.Main.Advanced;
 import nl.sense_os.service.constants.SenseUrls;
 import nl.sense_os.service.constants.SensorData.DataPoint;
+import nl.sense_os.service.ctrl.SyncPolicy;
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.metrics.Timer;
 import nl.sense_os.service.storage.LocalStorage;
 
 import org.json.JSONArray;
@@ -29,7 +42,6 @@ import org.json.JSONObject;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
@@ -38,6 +50,7 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
@@ -50,26 +63,104 @@ import android.util.Log;
  */
 public class BufferTransmitHandler extends Handler {
 
-    class SensorDataEntry {
+    /**
+     * Data points of one sensor in the current upload. The points themselves are not copied, only
+     * their positions in the cursor, so the values can be streamed directly from the cursor by the
+     * {@link SensorDataWriter}. The row IDs identify the points when they are marked as sent.
+     */
+    static class SensorDataEntry {
         String sensorId;
         String sensorName;
         String sensorDescription;
-        JSONArray data;
+        int[] positions = new int[16];
+        long[] ids = new long[16];
+        long[] timestamps = new long[16];
+        int size;
+
+        void add(int position, long id, long timestamp) {
+            if (size == positions.length) {
+                int[] newPositions = new int[size * 2];
+                System.arraycopy(positions, 0, newPositions, 0, size);
+                positions = newPositions;
+                long[] newIds = new long[size * 2];
+                System.arraycopy(ids, 0, newIds, 0, size);
+                ids = newIds;
+                long[] newTimestamps = new long[size * 2];
+                System.arraycopy(timestamps, 0, newTimestamps, 0, size);
+                timestamps = newTimestamps;
+            }
+            positions[size] = position;
+            ids[size] = id;
+            timestamps[size] = timestamp;
+            size++;
+        }
+    }
+
+    /**
+     * Unsent data of one priority class. Each lane has its own cursor, so the data of a lane can
+     * be sent without waiting for the data of other lanes. The weight determines how many batches
+     * the lane gets relative to the other lanes (see {@link BufferTransmitHandler#nextLane}).
+     */
+    private static class Lane {
+        final int priority;
+        final int weight;
+        final String where;
+        Cursor cursor;
+        int credit;
+        long lastTimestamp;
+        long lastId;
+        long lastQuery;
+
+        Lane(int priority, int weight, String where) {
+            this.priority = priority;
+            this.weight = weight;
+            this.where = where;
+        }
+
+        boolean hasData() {
+            return null != cursor && !cursor.isAfterLast();
+        }
     }
 
 	private static final String TAG = "BatchDataTransmitHandler";
-	private static final int MAX_POST_DATA = 100;
     private final Uri contentUri;
     private final WeakReference<Context> ctxRef;
     private final WeakReference<LocalStorage> storageRef;
 	private final String url;
 	private final DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.ENGLISH);
 	private final NumberFormat dateFormatter = new DecimalFormat("##########.###", symbols);
+    private static final int DEFAULT_UPLOAD_CONCURRENCY = 3;
+
+    /**
+     * Number of batches of the critical, normal and bulk lanes in one scheduling round
+     */
+    private static final int[] LANE_WEIGHTS = new int[] { 8, 4, 1 };
+
+    /**
+     * Minimum time between two checks for new critical data during a sync cycle
+     */
+    private static final long CRITICAL_POLL_INTERVAL = 2000;
+
+    /**
+     * Maximum time that a sync cycle waits for its uploads in flight, in milliseconds
+     */
+    private static final long UPLOAD_WAIT_TIMEOUT = 1000l * 60 * 2;
+    private final SensorDataWriter writer = new SensorDataWriter();
+    private final BatchSizeController batchSizeController;
+    private final RetryScheduler retryScheduler;
+    private final Timer transmitTimer = PipelineMetrics.getTimer(PipelineMetrics.TRANSMIT_BUFFER);
+    private final UploadManifests manifests;
+    /** Upload threads for all sync cycles, created when the first cycle needs them */
+    private ThreadPoolExecutor uploads;
+    private boolean isShutdown;
 
 	public BufferTransmitHandler(Context context, LocalStorage storage, Looper looper) {
 		super(looper);
 		this.ctxRef = new WeakReference<Context>(context);
 		this.storageRef = new WeakReference<LocalStorage>(storage);
+        this.batchSizeController = BatchSizeController.getInstance(context);
+        this.retryScheduler = RetryScheduler.getInstance(context);
+        this.manifests = UploadManifests.getInstance(context);
 
         contentUri = Uri.parse("content://" + context.getString(R.string.local_storage_authority)
                 + DataPoint.CONTENT_URI_PATH);
@@ -82,15 +173,17 @@ public class BufferTransmitHandler extends Handler {
 	}
 
 	/**
-	 * Cleans up after transmission is over. Closes the Cursor with the data and releases the wake
+	 * Cleans up after transmission is over. Closes the Cursors with the data and releases the wake
 	 * lock. Should always be called after transmission, even if the attempt failed.
 	 * 
-	 * @param cursor
+	 * @param lanes
 	 */
-	private void cleanup(Cursor cursor, WakeLock wakeLock) {
-		if (null != cursor) {
-			cursor.close();
-			cursor = null;
+	private void cleanup(List<Lane> lanes, WakeLock wakeLock) {
+		for (Lane lane : lanes) {
+			if (null != lane.cursor) {
+				lane.cursor.close();
+				lane.cursor = null;
+			}
 		}
 		if (null != wakeLock) {
 			wakeLock.release();
@@ -98,25 +191,41 @@ public class BufferTransmitHandler extends Handler {
 		}
 	}
 
-    private List<SensorDataEntry> getSensorDataList(Cursor cursor) throws IOException,
-            JSONException {
+    /**
+     * Collects the next batch of data points from the cursor.
+     * 
+     * @param cursor
+     *            Cursor with unsent data points
+     * @param batchSize
+     *            Maximum number of data points in the batch
+     * @return List with the data points for each sensor
+     * @throws IOException
+     * @throws JSONException
+     */
+    private List<SensorDataEntry> getSensorDataList(Cursor cursor, int batchSize)
+            throws IOException, JSONException {
 
         // map of transmission entries, indexed by the sensor name and description
-        Map<String, SensorDataEntry> map = new HashMap<String, SensorDataEntry>();
+        Map<String, SensorDataEntry> map = new LinkedHashMap<String, SensorDataEntry>();
         String name, description, dataType, value, deviceUuid;
-        long timestamp;
+        long rowId, timestamp;
         int points = 0;
-        while ((points < MAX_POST_DATA) && !cursor.isAfterLast()) {
+        final int idColumn = cursor.getColumnIndexOrThrow(DataPoint._ID);
+        final int nameColumn = cursor.getColumnIndexOrThrow(DataPoint.SENSOR_NAME);
+        final int descriptionColumn = cursor.getColumnIndexOrThrow(DataPoint.SENSOR_DESCRIPTION);
+        final int dataTypeColumn = cursor.getColumnIndexOrThrow(DataPoint.DATA_TYPE);
+        final int timeColumn = cursor.getColumnIndexOrThrow(DataPoint.TIMESTAMP);
+        final int deviceColumn = cursor.getColumnIndexOrThrow(DataPoint.DEVICE_UUID);
+        while ((points < batchSize) && !cursor.isAfterLast()) {
 
             // get the data point details
             try {
-                name = cursor.getString(cursor.getColumnIndexOrThrow(DataPoint.SENSOR_NAME));
-                description = cursor.getString(cursor
-                        .getColumnIndexOrThrow(DataPoint.SENSOR_DESCRIPTION));
-                dataType = cursor.getString(cursor.getColumnIndexOrThrow(DataPoint.DATA_TYPE));
-                value = cursor.getString(cursor.getColumnIndexOrThrow(DataPoint.VALUE));
-                timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(DataPoint.TIMESTAMP));
-                deviceUuid = cursor.getString(cursor.getColumnIndexOrThrow(DataPoint.DEVICE_UUID));
+                rowId = cursor.getLong(idColumn);
+                name = cursor.getString(nameColumn);
+                description = cursor.getString(descriptionColumn);
+                dataType = cursor.getString(dataTypeColumn);
+                timestamp = cursor.getLong(timeColumn);
+                deviceUuid = cursor.getString(deviceColumn);
 
                 // set default sensor ID if it is missing
                 deviceUuid = deviceUuid != null ? deviceUuid : SenseApi.getDefaultDeviceUuid(ctxRef
@@ -135,15 +244,10 @@ public class BufferTransmitHandler extends Handler {
              */
             if (!dataType.equals(SenseDataTypes.FILE)) {
 
-                // construct JSON representation of the value
-                JSONObject jsonDataPoint = new JSONObject();
-                jsonDataPoint.put("date", dateFormatter.format(timestamp / 1000d));
-                jsonDataPoint.put("value", value);
-
-                // put the new value Object in the appropriate sensor's data
+                // put the position of the point in the appropriate sensor's entry, the value is
+                // read from the cursor again while it is written to the request
                 String key = name + description;
                 SensorDataEntry sensorEntry = map.get(key);
-                JSONArray data = null;
                 if (sensorEntry == null) {
                     sensorEntry = new SensorDataEntry();
                     String id = SenseApi.getSensorId(ctxRef.get(), name, description, dataType,
@@ -157,19 +261,16 @@ public class BufferTransmitHandler extends Handler {
                     sensorEntry.sensorId = id;
                     sensorEntry.sensorName = name;
                     sensorEntry.sensorDescription = description;
-                    data = new JSONArray();
-                } else {
-                    data = sensorEntry.data;
+                    map.put(key, sensorEntry);
                 }
-                data.put(jsonDataPoint);
-                sensorEntry.data = data;
-                map.put(key, sensorEntry);
+                sensorEntry.add(cursor.getPosition(), rowId, timestamp);
 
                 // count the added point to the total number of sensor data
                 points++;
 
             } else {
                 // if the data type is a "file", we need special handling
+                value = cursor.getString(cursor.getColumnIndexOrThrow(DataPoint.VALUE));
                 sendFile(name, description, dataType, deviceUuid, value, timestamp);
 
             }
@@ -180,17 +281,93 @@ public class BufferTransmitHandler extends Handler {
         return new ArrayList<BufferTransmitHandler.SensorDataEntry>(map.values());
     }
 
+    /**
+     * Creates the lanes for the unsent data, one for each priority class, and queries their data.
+     * The bulk lane is left out if the {@link SyncPolicy} wants to defer bulk data, which depends
+     * on the age of the oldest unsent bulk data point in the local storage.
+     * 
+     * @return List of lanes, ordered from critical to bulk
+     */
+    private List<Lane> getLanes() {
+        String critical = toSqlList(SyncPolicy.getCriticalSensors());
+        String bulk = toSqlList(SyncPolicy.getBulkSensors());
+
+        List<Lane> lanes = new ArrayList<Lane>();
+        lanes.add(new Lane(SyncPolicy.PRIORITY_CRITICAL,
+                LANE_WEIGHTS[SyncPolicy.PRIORITY_CRITICAL], DataPoint.SENSOR_NAME + " IN ("
+                        + critical + ")"));
+        lanes.add(new Lane(SyncPolicy.PRIORITY_NORMAL, LANE_WEIGHTS[SyncPolicy.PRIORITY_NORMAL],
+                DataPoint.SENSOR_NAME + " NOT IN (" + critical + "," + bulk + ")"));
+        SyncPolicy policy = SyncPolicy.getInstance(ctxRef.get());
+        if (!policy.shouldDeferBulk(getOldestUnsent(bulk))) {
+            lanes.add(new Lane(SyncPolicy.PRIORITY_BULK, LANE_WEIGHTS[SyncPolicy.PRIORITY_BULK],
+                    DataPoint.SENSOR_NAME + " IN (" + bulk + ")"));
+        } else {
+            // leave bulk data in the buffer until there is a cheap network or power
+        }
+
+        int backlog = 0;
+        long oldest = 0;
+        for (Lane lane : lanes) {
+            lane.cursor = getUnsentData(lane);
+            if (null != lane.cursor) {
+                backlog += lane.cursor.getCount();
+                if (lane.cursor.moveToFirst()) {
+                    long timestamp = lane.cursor.getLong(lane.cursor
+                            .getColumnIndexOrThrow(DataPoint.TIMESTAMP));
+                    oldest = oldest == 0 ? timestamp : Math.min(oldest, timestamp);
+                }
+            }
+        }
+        Log.v(TAG, "Found " + backlog + " unsent data points in local storage");
+        policy.onBacklog(backlog, oldest);
+        return lanes;
+    }
+
+    /**
+     * @param sensors
+     *            SQL list of sensor names
+     * @return Time stamp of the oldest unsent data point of the sensors in the local storage, or 0
+     *         if there are no unsent points
+     */
+    private long getOldestUnsent(String sensors) {
+        Cursor cursor = null;
+        try {
+            String where = DataPoint.TRANSMIT_STATE + "=0 AND " + DataPoint.SENSOR_NAME + " IN ("
+                    + sensors + ")";
+            cursor = storageRef.get().query(contentUri, new String[] { DataPoint.TIMESTAMP },
+                    where, null, DataPoint.TIMESTAMP + " ASC");
+            if (null != cursor && cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Error querying Local Storage!", e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+
 	/**
-	 * @return Cursor with the data points that have to be sent to CommonSense.
+	 * @param lane
+	 *            The lane to get the data for. Only points that were not read for the lane yet
+	 *            are selected: points after the last time stamp that was read, and points that
+	 *            were stored after the last query, whatever their time stamp.
+	 * @return Cursor with the data points of the lane that have to be sent to CommonSense.
 	 */
-    private Cursor getUnsentData() {
+    private Cursor getUnsentData(Lane lane) {
         try {
-            String where = DataPoint.TRANSMIT_STATE + "=0";
+            String where = DataPoint.TRANSMIT_STATE + "=0 AND " + lane.where;
+            if (lane.lastTimestamp > 0) {
+                where += " AND (" + DataPoint.TIMESTAMP + ">" + lane.lastTimestamp + " OR "
+                        + DataPoint._ID + ">" + lane.lastId + ")";
+            }
             String sortOrder = DataPoint.TIMESTAMP + " ASC";
+            lane.lastQuery = SystemClock.elapsedRealtime();
             Cursor unsent = storageRef.get().query(contentUri, null, where, null, sortOrder);
-            if (null != unsent) {
-                Log.v(TAG, "Found " + unsent.getCount() + " unsent data points in local storage");
-            } else {
+            if (null == unsent) {
                 Log.w(TAG, "Failed to get unsent recent data points from local storage");
             }
             return unsent;
@@ -211,8 +388,15 @@ public class BufferTransmitHandler extends Handler {
 			return;
 		}
 
+		// do not hammer the server after recent failures, a retry has been scheduled
+		if (!retryScheduler.isAllowed(url)) {
+			Log.v(TAG, "Skip transmission: backing off after failed uploads");
+			return;
+		}
+
+		long start = transmitTimer.start();
 		WakeLock wakeLock = null;
-		Cursor cursor = null;
+		List<Lane> lanes = new ArrayList<Lane>();
 		try {
 			// make sure the device stays awake while transmitting
 			PowerManager powerMgr = (PowerManager) ctxRef.get().getSystemService(
@@ -220,11 +404,10 @@ public class BufferTransmitHandler extends Handler {
 			wakeLock = powerMgr.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
 			wakeLock.acquire();
 
-			cursor = getUnsentData();
-            if (null != cursor && cursor.moveToFirst()) {
-				transmit(cursor, cookie);
-			} else {
-				// nothing to transmit
+			// first finish the uploads of earlier cycles that may or may not have arrived
+			if (resendPending(cookie)) {
+				lanes = getLanes();
+				transmit(lanes, cookie);
 			}
 
 		} catch (Exception e) {
@@ -236,7 +419,9 @@ public class BufferTransmitHandler extends Handler {
 			}
 
 		} finally {
-			cleanup(cursor, wakeLock);
+			cleanup(lanes, wakeLock);
+			retryScheduler.release(url);
+			transmitTimer.stop(start);
 		}
 	}
 
@@ -247,10 +432,11 @@ public class BufferTransmitHandler extends Handler {
      * @param sensorDatas
      *            List of data that was sent to CommonSense. Contains all the data points that were
      *            transmitted.
+     * @param manifest
+     *            Manifest of the upload, which is no longer needed afterwards
      * @throws Exception
      */
-    private void onTransmitSuccess(List<SensorDataEntry> sensorDatas)
-            throws JSONException{
+    private void onTransmitSuccess(List<SensorDataEntry> sensorDatas, Manifest manifest) {
         // log our great success
         Log.i(TAG, "Sent recent sensor data from the local storage!");
 
@@ -258,39 +444,28 @@ public class BufferTransmitHandler extends Handler {
         ContentValues values = new ContentValues();
         values.put(DataPoint.TRANSMIT_STATE, 1);
 
+        // select exactly the sent points: their time stamps need not be unique
+        StringBuilder ids = new StringBuilder();
+        int points = 0;
         for (SensorDataEntry sensorData : sensorDatas) {
+            for (int i = 0; i < sensorData.size; i++) {
+                ids.append(ids.length() > 0 ? "," : "").append(sensorData.ids[i]);
+            }
+            points += sensorData.size;
+        }
+        String where = DataPoint._ID + " IN (" + ids + ")";
 
-            // get the name of the sensor, to use in the ContentResolver query
-            String sensorName = sensorData.sensorName;
-            String description = sensorData.sensorDescription;
-
-            // select points for this sensor, between the first and the last time stamp
-            JSONArray dataPoints = sensorData.data;
-            String frstTimeStamp = dataPoints.getJSONObject(0).getString("date");
-            String lastTimeStamp = dataPoints.getJSONObject(dataPoints.length() - 1).getString(
-                    "date");
-            long min = Math.round(Double.parseDouble(frstTimeStamp) * 1000);
-            long max = Math.round(Double.parseDouble(lastTimeStamp) * 1000);
-            String where = DataPoint.SENSOR_NAME + "='" + sensorName + "'" + " AND "
-                    + DataPoint.SENSOR_DESCRIPTION + "='" + description + "'" + " AND "
-                    + DataPoint.TIMESTAMP + ">=" + min + " AND " + DataPoint.TIMESTAMP + " <="
-                    + max;
-
-            // update points in local storage
-            try {
-                int updated = storageRef.get().update(contentUri, values, where, null);
-                if (updated == dataPoints.length()) {
-                    // Log.v(TAG, "Updated all " + updated + " '" + sensorName
-                    // + "' data points in the local storage");
-                } else {
-                    Log.w(TAG, "Wrong number of '" + sensorName
-                            + "' data points updated after transmission! " + updated + " vs. "
-                            + dataPoints.length());
-                }
-            } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Error updating points in Local Storage!", e);
+        // update points in local storage
+        try {
+            int updated = storageRef.get().update(contentUri, values, where, null);
+            if (updated != points) {
+                Log.w(TAG, "Wrong number of data points updated after transmission! " + updated
+                        + " vs. " + points);
             }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Error updating points in Local Storage!", e);
         }
+        manifests.remove(manifest);
     }
 
     /**
@@ -299,26 +474,36 @@ public class BufferTransmitHandler extends Handler {
      * @param cookie
      * 
      * @param transmission
-     *            JSON Object with data points for transmission
+     *            Content with data points for transmission
+     * @param points
+     *            Number of data points in the transmission
+     * @param batchSize
+     *            Batch size that was used to prepare the transmission
+     * @param manifest
+     *            Manifest of the upload, identifies the batch at the server
      * @return true if successfully sent
-     * @throws JSONException
      * @throws MalformedURLException
      */
-    private boolean postData(String cookie, JSONObject transmission) throws JSONException,
-            MalformedURLException {
+    private boolean postData(String cookie, StreamingContent transmission, int points,
+            int batchSize, Manifest manifest) throws MalformedURLException {
 
         Map<String, String> response = null;
+        long start = SystemClock.elapsedRealtime();
         try {
-            response = SenseApi.request(ctxRef.get(), url, transmission, cookie);
+            response = SenseApi.requestStreaming(ctxRef.get(), url, transmission, cookie,
+                    manifest.getHeaders());
         } catch (IOException e) {
             // handle failure later
         }
+        long duration = SystemClock.elapsedRealtime() - start;
 
         boolean result = false;
 
         if (response == null) {
             // Error when sending
             Log.w(TAG, "Failed to send buffered data points.\nData will be retried later.");
+            batchSizeController.onFailure();
+            retryScheduler.onFailure(url);
             result = false;
 
         } else if (response.get("http response code").compareToIgnoreCase("201") != 0) {
@@ -327,10 +512,17 @@ public class BufferTransmitHandler extends Handler {
 
             // if un-authorized: relogin
             if (statusCode.compareToIgnoreCase("403") == 0) {
-                final Intent serviceIntent = new Intent(ctxRef.get().getString(
-                        R.string.action_sense_service));
-                serviceIntent.putExtra(SenseService.EXTRA_RELOGIN, true);
-                ctxRef.get().startService(serviceIntent);
+                retryScheduler.onUnauthorized();
+            } else if (RetryScheduler.isRetryable(statusCode)) {
+                retryScheduler.onFailure(url);
+            } else {
+                retryScheduler.onSuccess(url);
+                // the server refused this batch: do not insist on resending it as it is
+                manifests.remove(manifest);
+            }
+            if (statusCode.startsWith("5") || statusCode.equals("413")) {
+                // the server could not handle the request, maybe it was too large
+                batchSizeController.onFailure();
             }
 
             // Show the HTTP response Code
@@ -342,6 +534,10 @@ public class BufferTransmitHandler extends Handler {
 
         } else {
             // Data sent successfully
+            String length = response.get("request length");
+            batchSizeController.onSuccess(points, batchSize,
+                    null != length ? Long.parseLong(length) : -1, duration);
+            retryScheduler.onSuccess(url);
             result = true;
         }
 
@@ -366,51 +562,416 @@ public class BufferTransmitHandler extends Handler {
     }
 
     /**
-     * Transmits the data points from {@link #cursor} to CommonSense. Any "file" type data points
-     * will be sent separately via
-     * {@link MsgHandler#sendSensorData(String, String, String, JSONObject)}.
+     * Picks the lane for the next batch with smooth weighted round robin: every lane with data
+     * earns its weight in credits, and the lane with the most credits pays for the batch with the
+     * total weight. Over one round every lane gets a number of batches that matches its weight,
+     * and the batches of the different lanes are interleaved.<br/>
+     * <br/>
+     * The critical lane is checked for new data every few seconds, so critical points do not have
+     * to wait for the end of a long sync cycle.
+     * 
+     * @param lanes
+     * @return The next lane to send a batch from, or null if all lanes are done
+     */
+    private Lane nextLane(List<Lane> lanes) {
+        Lane critical = lanes.get(0);
+        if (!critical.hasData()
+                && SystemClock.elapsedRealtime() - critical.lastQuery > CRITICAL_POLL_INTERVAL) {
+            if (null != critical.cursor) {
+                critical.cursor.close();
+            }
+            critical.cursor = getUnsentData(critical);
+            if (null != critical.cursor) {
+                critical.cursor.moveToFirst();
+            }
+        }
+
+        Lane next = null;
+        int totalWeight = 0;
+        for (Lane lane : lanes) {
+            if (!lane.hasData()) {
+                lane.credit = 0;
+                continue;
+            }
+            lane.credit += lane.weight;
+            totalWeight += lane.weight;
+            if (null == next || lane.credit > next.credit) {
+                next = lane;
+            }
+        }
+        if (null != next) {
+            next.credit -= totalWeight;
+        }
+        return next;
+    }
+
+    /**
+     * Queries the unsent points of a batch, in a cursor of their own. The batch can then be written
+     * to a request on any thread, independent of the cursor that it was collected from.
+     * 
+     * @param manifest
+     *            Manifest of the batch
+     * @param entries
+     *            List that gets the points of the batch, per sensor in the order of the manifest
+     * @return Cursor with the points, or null if the query failed. The caller must close it.
+     */
+    private Cursor queryBatch(Manifest manifest, List<SensorDataEntry> entries) {
+
+        // select exactly the points of the manifest
+        StringBuilder ids = new StringBuilder();
+        for (SensorPoints sensor : manifest.sensors) {
+            for (long id : sensor.ids) {
+                ids.append(ids.length() > 0 ? "," : "").append(id);
+            }
+        }
+        String selection = DataPoint.TRANSMIT_STATE + "=0 AND " + DataPoint._ID + " IN (" + ids
+                + ")";
+        String sortOrder = DataPoint.TIMESTAMP + " ASC";
+
+        Cursor cursor = null;
+        try {
+            cursor = storageRef.get().query(contentUri, null, selection, null, sortOrder);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Error querying Local Storage!", e);
+        }
+        if (null == cursor) {
+            return null;
+        }
+
+        // rebuild the batch in the original order
+        Map<String, SensorDataEntry> map = new LinkedHashMap<String, SensorDataEntry>();
+        for (SensorPoints sensor : manifest.sensors) {
+            SensorDataEntry entry = new SensorDataEntry();
+            entry.sensorId = sensor.sensorId;
+            entry.sensorName = sensor.sensorName;
+            entry.sensorDescription = sensor.sensorDescription;
+            map.put(sensor.sensorName + sensor.sensorDescription, entry);
+        }
+        int idColumn = cursor.getColumnIndexOrThrow(DataPoint._ID);
+        int nameColumn = cursor.getColumnIndexOrThrow(DataPoint.SENSOR_NAME);
+        int descriptionColumn = cursor.getColumnIndexOrThrow(DataPoint.SENSOR_DESCRIPTION);
+        int timeColumn = cursor.getColumnIndexOrThrow(DataPoint.TIMESTAMP);
+        while (cursor.moveToNext()) {
+            SensorDataEntry entry = map.get(cursor.getString(nameColumn)
+                    + cursor.getString(descriptionColumn));
+            if (null == entry) {
+                // the point does not belong to this batch
+                continue;
+            }
+            entry.add(cursor.getPosition(), cursor.getLong(idColumn), cursor.getLong(timeColumn));
+        }
+        entries.addAll(map.values());
+        return cursor;
+    }
+
+    /**
+     * Resends the batches of earlier sync cycles that were not acknowledged, with the same batch
+     * ID and sequence numbers as before. The server may already have received some of them: it
+     * can recognize the duplicates by the batch ID.
      * 
      * @param cookie
-     * @param cursor
+     * @return true if all pending batches were handled, false if an upload failed
+     * @throws IOException
+     */
+    private boolean resendPending(String cookie) throws IOException {
+        for (Manifest manifest : manifests.getPending()) {
+            List<SensorDataEntry> entries = new ArrayList<SensorDataEntry>();
+            Cursor cursor = queryBatch(manifest, entries);
+            if (null == cursor) {
+                return false;
+            }
+            try {
+                int points = countPoints(entries);
+                if (points != manifest.points) {
+                    // the batch cannot be rebuilt exactly, its points are sent in a new batch
+                    Log.w(TAG, "Dropping upload manifest " + manifest.batchId + ": found " + points
+                            + " of " + manifest.points + " points");
+                    manifests.remove(manifest);
+                    continue;
+                }
+
+                Log.v(TAG, "Resend batch " + manifest.batchId + " with " + points + " points");
+                writer.set(cursor, cursor.getColumnIndexOrThrow(DataPoint.VALUE), entries);
+                if (postData(cookie, writer, points, points, manifest)) {
+                    onTransmitSuccess(entries, manifest);
+                } else {
+                    return false;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return true;
+    }
+
+    private static int countPoints(List<SensorDataEntry> entries) {
+        int points = 0;
+        for (SensorDataEntry entry : entries) {
+            points += entry.size;
+        }
+        return points;
+    }
+
+    /**
+     * @param concurrency
+     *            Number of uploads that can be in flight
+     * @return The upload threads, resized to the given concurrency, or null if the handler was
+     *         shut down
+     */
+    private synchronized ThreadPoolExecutor getUploads(int concurrency) {
+        if (isShutdown) {
+            return null;
+        }
+        if (null == uploads) {
+            uploads = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+        } else if (concurrency > uploads.getMaximumPoolSize()) {
+            uploads.setMaximumPoolSize(concurrency);
+            uploads.setCorePoolSize(concurrency);
+        } else if (concurrency < uploads.getMaximumPoolSize()) {
+            uploads.setCorePoolSize(concurrency);
+            uploads.setMaximumPoolSize(concurrency);
+        }
+        return uploads;
+    }
+
+    /**
+     * Stops the upload threads after the uploads that are already in flight. Later sync cycles
+     * send their batches one at a time on the handler thread.
+     */
+    public synchronized void shutdown() {
+        isShutdown = true;
+        if (null != uploads) {
+            uploads.shutdown();
+        }
+    }
+
+    private static String toSqlList(String[] names) {
+        StringBuilder list = new StringBuilder();
+        for (String name : names) {
+            list.append(list.length() > 0 ? "," : "").append('\'').append(name).append('\'');
+        }
+        return list.toString();
+    }
+
+    /**
+     * Transmits the data points from the lanes to CommonSense, in batches that are scheduled by
+     * {@link #nextLane(List)}. Any "file" type data points will be sent separately via
+     * {@link MsgHandler#sendSensorData(String, String, String, JSONObject)}.<br/>
+     * <br/>
+     * If more than one upload can be in flight (see {@link Advanced#UPLOAD_CONCURRENCY}), the
+     * batches are collected on this thread and streamed by a small pool of upload threads.
+     * 
+     * @param lanes
+     * @param cookie
      * 
      * @throws JSONException
      * @throws IOException
      */
-    private void transmit(Cursor cursor, String cookie) throws JSONException, IOException {
+    private void transmit(List<Lane> lanes, String cookie) throws JSONException, IOException {
 
-        // continue until all points in the cursor have been sent
-        List<SensorDataEntry> sensorDataList = null;
-        while (!cursor.isAfterLast()) {
+        // keep track of the number of new connections that are needed for this sync cycle
+        final int connectionsBefore = SenseApi.getConnectionCount();
+        int requests = 0;
 
-            // organize the data into a hash map sorted by sensor
-            sensorDataList = getSensorDataList(cursor);
+        SharedPreferences mainPrefs = ctxRef.get().getSharedPreferences(SensePrefs.MAIN_PREFS,
+                Context.MODE_PRIVATE);
+        int concurrency = Math.max(1,
+                mainPrefs.getInt(Advanced.UPLOAD_CONCURRENCY, DEFAULT_UPLOAD_CONCURRENCY));
+        ThreadPoolExecutor executor = concurrency > 1 ? getUploads(concurrency) : null;
+        UploadPipeline pipeline = null != executor ? new UploadPipeline(executor, concurrency)
+                : null;
 
-            if (sensorDataList.size() < 1) {
-                // nothing to transmit
-                continue;
+        try {
+            // continue until all points in all lanes have been sent
+            Lane lane;
+            while (null != (lane = nextLane(lanes))) {
+                Cursor cursor = lane.cursor;
+
+                // organize the data into a hash map sorted by sensor
+                int batchSize = batchSizeController.getBatchSize();
+                List<SensorDataEntry> sensorDataList = getSensorDataList(cursor, batchSize);
+
+                // remember where the lane is, to look for new points after it later
+                int points = 0;
+                for (SensorDataEntry entry : sensorDataList) {
+                    points += entry.size;
+                    for (int i = 0; i < entry.size; i++) {
+                        lane.lastTimestamp = Math.max(lane.lastTimestamp, entry.timestamps[i]);
+                        lane.lastId = Math.max(lane.lastId, entry.ids[i]);
+                    }
+                }
+
+                if (sensorDataList.size() < 1) {
+                    // nothing to transmit
+                    continue;
+                }
+
+                // prepare the data for transmission, it is written directly from the cursor
+                writer.set(cursor, cursor.getColumnIndexOrThrow(DataPoint.VALUE), sensorDataList);
+                requests++;
+
+                // store the manifest before sending, so a retry can send exactly the same batch
+                Manifest manifest = manifests.create(sensorDataList);
+
+                if (null == pipeline) {
+                    // perform the actual POST request
+                    boolean result = postData(cookie, writer, points, batchSize, manifest);
+
+                    if (result) {
+                        onTransmitSuccess(sensorDataList, manifest);
+                    } else {
+                        // abort! abort!
+                        break;
+                    }
+
+                } else {
+                    // hand the batch to the upload threads
+                    if (!pipeline.submit(cookie, manifest, points, batchSize)) {
+                        // an earlier batch failed: the rest will be retried later
+                        break;
+                    }
+                }
             }
+        } finally {
+            if (null != pipeline) {
+                pipeline.finish();
+            }
+        }
 
-            // prepare the main JSON object for transmission
-            JSONArray sensors = new JSONArray();
-            for (SensorDataEntry sensorDataEntry : sensorDataList) {
-                JSONObject transmissionEntry = new JSONObject();
-                transmissionEntry.put("sensor_id", sensorDataEntry.sensorId);
-                transmissionEntry.put("sensor_name", sensorDataEntry.sensorName);
-                transmissionEntry.put("data", sensorDataEntry.data);
-                sensors.put(transmissionEntry);
+        Log.v(TAG, "Sync cycle done: " + requests + " requests, "
+                + (SenseApi.getConnectionCount() - connectionsBefore) + " new connections");
+    }
+
+    /**
+     * Sends prepared batches with a fixed number of upload threads. Every upload thread queries
+     * the points of its batch in a cursor of its own, and streams them from that cursor to the
+     * request. Each batch is marked as sent as soon as it is acknowledged, because the points are
+     * selected by their row IDs and not by a range that could include points of other batches.
+     * After the first failure no new batches are accepted, but the batches that are still in
+     * flight are marked as sent when they succeed. The failed batch keeps its manifest and is
+     * resent in the next sync cycle. The upload threads are shared by all sync cycles of the
+     * handler.
+     */
+    private class UploadPipeline {
+
+        private final ThreadPoolExecutor executor;
+        private final int concurrency;
+        private final Semaphore slots;
+        private final Queue<SensorDataWriter> writers =
+                new ConcurrentLinkedQueue<SensorDataWriter>();
+        private volatile boolean failed;
+
+        UploadPipeline(ThreadPoolExecutor executor, int concurrency) {
+            this.executor = executor;
+            this.concurrency = concurrency;
+            slots = new Semaphore(concurrency);
+        }
+
+        /**
+         * Waits until all batches in flight are done, for at most {@link #UPLOAD_WAIT_TIMEOUT}.
+         * Batches that are still in flight after that are marked as sent if they succeed later,
+         * otherwise they are resent with their manifest.
+         */
+        void finish() {
+            try {
+                if (slots.tryAcquire(concurrency, UPLOAD_WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    slots.release(concurrency);
+                } else {
+                    Log.w(TAG, "Buffered data uploads are still in flight after "
+                            + UPLOAD_WAIT_TIMEOUT / 1000 + " s");
+                    failed = true;
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while waiting for buffered data uploads");
+                failed = true;
+            }
+        }
+
+        /**
+         * Sends a batch and marks its points as sent if the server accepted it.
+         * 
+         * @return false if the batch could not be sent
+         */
+        private boolean send(String cookie, Manifest manifest, int points, int batchSize)
+                throws IOException {
+            List<SensorDataEntry> entries = new ArrayList<SensorDataEntry>();
+            Cursor cursor = queryBatch(manifest, entries);
+            if (null == cursor) {
+                return false;
+            }
+            SensorDataWriter batchWriter = writers.poll();
+            if (null == batchWriter) {
+                batchWriter = new SensorDataWriter();
+            }
+            try {
+                if (countPoints(entries) != points) {
+                    // some points were removed or sent in the meantime, send the rest later
+                    Log.w(TAG, "Dropping batch " + manifest.batchId + ": its points changed");
+                    manifests.remove(manifest);
+                    return true;
+                }
+                batchWriter.set(cursor, cursor.getColumnIndexOrThrow(DataPoint.VALUE), entries);
+                if (postData(cookie, batchWriter, points, batchSize, manifest)) {
+                    onTransmitSuccess(entries, manifest);
+                    return true;
+                }
+                return false;
+            } finally {
+                cursor.close();
+                writers.offer(batchWriter);
             }
-            JSONObject transmission = new JSONObject();
-            transmission.put("sensors", sensors);
+        }
 
-            // perform the actual POST request
-            boolean result = postData(cookie, transmission);
+        /**
+         * Submits a batch for upload. Blocks while the maximum number of uploads is in flight,
+         * for at most {@link #UPLOAD_WAIT_TIMEOUT}.
+         * 
+         * @return false if an earlier batch failed or the uploads in flight did not finish in
+         *         time, and the batch was not submitted
+         */
+        boolean submit(final String cookie, final Manifest manifest, final int points,
+                final int batchSize) {
+            try {
+                if (!slots.tryAcquire(UPLOAD_WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "No upload slot available after " + UPLOAD_WAIT_TIMEOUT / 1000
+                            + " s");
+                    failed = true;
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                return false;
+            }
+            if (failed) {
+                slots.release();
+                return false;
+            }
 
-            if (result) {
-                onTransmitSuccess(sensorDataList);
-            } else {
-                // abort! abort!
-                break;
+            try {
+                executor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        boolean success = false;
+                        try {
+                            success = send(cookie, manifest, points, batchSize);
+                        } catch (Exception e) {
+                            Log.w(TAG, "Exception sending buffered data: " + e);
+                        } finally {
+                            if (!success) {
+                                failed = true;
+                            }
+                            slots.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the handler was shut down
+                failed = true;
+                slots.release();
+                return false;
             }
+            return true;
         }
     }
 }
@@ -1,12 +1,14 @@
 package nl.sense_os.service.commonsense.senddata;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.Map;
 
 import nl.sense_os.service.R;
-import nl.sense_os.service.SenseService;
 import nl.sense_os.service.commonsense.SenseApi;
 import nl.sense_os.service.constants.SensorData.DataPoint;
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.metrics.Timer;
 import nl.sense_os.service.storage.LocalStorage;
 
 import org.json.JSONArray;
@@ -15,7 +17,6 @@ import org.json.JSONObject;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -35,6 +36,7 @@ public class DataTransmitHandler extends Handler {
     private static final String TAG = "DataTransmitHandler";
     private final WeakReference<Context> ctxRef;
     private final WeakReference<LocalStorage> storageRef;
+    private final Timer transmitTimer = PipelineMetrics.getTimer(PipelineMetrics.TRANSMIT_DATA);
 
     public DataTransmitHandler(Context context, LocalStorage storage, Looper looper) {
         super(looper);
@@ -67,6 +69,9 @@ public class DataTransmitHandler extends Handler {
             return;
         }
 
+        RetryScheduler retryScheduler = RetryScheduler.getInstance(ctxRef.get());
+        String url = null;
+        long start = transmitTimer.start();
         WakeLock wakeLock = null;
         try {
             // make sure the device stays awake while transmitting
@@ -76,25 +81,39 @@ public class DataTransmitHandler extends Handler {
             wakeLock.acquire();
 
             // get sensor URL at CommonSense
-            String url = SenseApi.getSensorUrl(ctxRef.get(), name, description, dataType,
-                    deviceUuid);
+            url = SenseApi.getSensorUrl(ctxRef.get(), name, description, dataType, deviceUuid);
 
             if (url == null) {
                 Log.w(TAG, "No sensor ID for '" + name + "' (yet): data will be retried.");
                 return;
             }
 
-            Map<String, String> response = SenseApi.request(ctxRef.get(), url, json, cookie);
+            // do not hammer the server after recent failures, the point stays in the buffer
+            if (!retryScheduler.isAllowed(url)) {
+                Log.v(TAG, "Skip '" + name + "' data: backing off after failed uploads");
+                return;
+            }
+
+            Map<String, String> response = null;
+            try {
+                response = SenseApi.request(ctxRef.get(), url, json, cookie);
+            } catch (IOException e) {
+                retryScheduler.onFailure(url);
+                throw e;
+            }
+            String statusCode = null != response ? response.get("http response code") : null;
 
             // Error when sending
-            if ((response == null) || !response.get("http response code").equals("201")) {
+            if ((response == null) || !statusCode.equals("201")) {
 
                 // if un-authorized: relogin
-                if ((response != null) && response.get("http response code").equals("403")) {
-                    final Intent serviceIntent = new Intent(ctxRef.get().getString(
-                            R.string.action_sense_service));
-                    serviceIntent.putExtra(SenseService.EXTRA_RELOGIN, true);
-                    ctxRef.get().startService(serviceIntent);
+                if ("403".equals(statusCode)) {
+                    retryScheduler.onUnauthorized();
+                } else if (RetryScheduler.isRetryable(statusCode)) {
+                    // the buffered data transmission will retry the point
+                    retryScheduler.onFailure(url);
+                } else {
+                    retryScheduler.onSuccess(url);
                 }
 
                 // Show the HTTP response Code
@@ -110,6 +129,7 @@ public class DataTransmitHandler extends Handler {
 
             // Data sent successfully
             else {
+                retryScheduler.onSuccess(url);
                 int bytes = json.toString().getBytes().length;
                 Log.i(TAG, "Sent '" + name + "' data! Raw data size: " + bytes + " bytes");
 
@@ -127,6 +147,10 @@ public class DataTransmitHandler extends Handler {
 
         } finally {
             cleanup(wakeLock);
+            if (null != url) {
+                retryScheduler.release(url);
+            }
+            transmitTimer.stop(start);
         }
     }
 
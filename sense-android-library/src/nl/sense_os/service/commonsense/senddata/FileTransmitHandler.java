@@ -1,15 +1,20 @@
 package nl.sense_os.service.commonsense.senddata;
 
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import nl.sense_os.service.R;
 import nl.sense_os.service.commonsense.SenseApi;
 import nl.sense_os.service.constants.SensorData.DataPoint;
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.metrics.Timer;
 import nl.sense_os.service.storage.LocalStorage;
 
 import org.json.JSONArray;
@@ -27,15 +32,31 @@ import android.os.PowerManager.WakeLock;
 import android.util.Log;
 
 /**
- * Handler for transmission of a file as sensor data to CommonSense.
+ * Handler for transmission of a file as sensor data to CommonSense. The files are streamed
+ * directly from disk to the connection (see {@link MultipartFileContent}), and several queued
+ * files are uploaded at the same time by a small pool of upload threads.<br/>
+ * <br/>
+ * A file that is still queued or uploading is not submitted again. Files that can never be
+ * uploaded, because they no longer exist or because CommonSense rejects them permanently, are
+ * marked as sent, so they are not retried forever.
  * 
  * @author Steven Mulder <steven@sense-os.nl>
  */
 public class FileTransmitHandler extends Handler {
 
 	private static final String TAG = "FileTransmitHandler";
+
+	/**
+	 * Number of files that can be uploaded at the same time
+	 */
+	private static final int UPLOAD_THREADS = 2;
+
 	private final WeakReference<Context> ctxRef;
 	private final WeakReference<LocalStorage> storageRef;
+	private final ExecutorService uploads = Executors.newFixedThreadPool(UPLOAD_THREADS);
+	private final Timer uploadTimer = PipelineMetrics.getTimer(PipelineMetrics.TRANSMIT_FILE);
+	/** Names of the files that are queued or uploading */
+	private final Set<String> inFlight = Collections.synchronizedSet(new HashSet<String>());
 
 	public FileTransmitHandler(Context context, LocalStorage storage, Looper looper) {
 		super(looper);
@@ -43,13 +64,6 @@ public class FileTransmitHandler extends Handler {
 		storageRef = new WeakReference<LocalStorage>(storage);
 	}
 
-	private void cleanup(WakeLock wakeLock) {
-		if (null != wakeLock) {
-			wakeLock.release();
-			wakeLock = null;
-		}
-	}
-
 	@Override
 	public void handleMessage(Message message) {
 
@@ -68,21 +82,14 @@ public class FileTransmitHandler extends Handler {
 			return;
 		}
 
-		WakeLock wakeLock = null;
 		try {
-			// make sure the device stays awake while transmitting
-			PowerManager powerMgr = (PowerManager) ctxRef.get().getSystemService(
-					Context.POWER_SERVICE);
-			wakeLock = powerMgr.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
-			wakeLock.acquire();
-
 			// get sensor URL from CommonSense
 			description = description != null ? description : name;
-			String urlStr = SenseApi.getSensorUrl(ctxRef.get(), name, description, dataType,
+			String url = SenseApi.getSensorUrl(ctxRef.get(), name, description, dataType,
 					deviceUuid);
 
-			if (urlStr == null) {
-				Log.w(TAG, "No sensor ID for '" + name + "' (yet). Data is lost.");
+			if (url == null) {
+				Log.w(TAG, "No sensor ID for '" + name + "' (yet): data will be retried.");
 				return;
 			}
 
@@ -90,92 +97,128 @@ public class FileTransmitHandler extends Handler {
 			JSONArray data = json.getJSONArray("data");
 			for (int i = 0; i < data.length(); i++) {
 				JSONObject object = (JSONObject) data.get(i);
-				String fileName = (String) object.get("value");
-
-				HttpURLConnection conn = null;
-				DataOutputStream dos = null;
-
-				String lineEnd = "\r\n";
-				String twoHyphens = "--";
-				String boundary = "----FormBoundary6bYQOdhfGEj4oCSv";
-
-				int bytesRead, bytesAvailable, bufferSize;
-				byte[] buffer;
-				int maxBufferSize = 1 * 1024 * 1024;
-
-				// ------------------ CLIENT REQUEST
-
-				FileInputStream fileInputStream = new FileInputStream(new File(fileName));
-
-				// open a URL connection to the Servlet
-				URL url = new URL(urlStr);
-
-				// Open a HTTP connection to the URL
-				conn = (HttpURLConnection) url.openConnection();
-
-				// Allow Inputs
-				conn.setDoInput(true);
+				submit(name, url, cookie, object.getString("value"), object.getString("date"));
+			}
+		} catch (Exception e) {
+			Log.e(TAG, "Sending '" + name + "' sensor file failed, data will be retried.", e);
+		}
+	}
 
-				// Allow Outputs
-				conn.setDoOutput(true);
+	/**
+	 * Stops the upload threads after the uploads that are already queued.
+	 */
+	public void shutdown() {
+		uploads.shutdown();
+	}
 
-				// Don't use a cached copy.
-				conn.setUseCaches(false);
+	private void submit(final String name, final String url, final String cookie,
+			final String fileName, final String date) {
+		if (!inFlight.add(fileName)) {
+			Log.v(TAG, "Skip '" + name + "' file: it is still being uploaded");
+			return;
+		}
+		uploads.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					transmit(ctxRef.get());
+				} finally {
+					inFlight.remove(fileName);
+				}
+			}
 
-				// Use a post method.
-				conn.setRequestMethod("POST");
-				conn.setRequestProperty("Cookie", cookie);
-				conn.setRequestProperty("Connection", "Keep-Alive");
+			private void transmit(Context context) {
+				if (null == context || null == storageRef.get()) {
+					// parent service has died
+					return;
+				}
 
-				conn.setRequestProperty("Content-Type", "multipart/form-data;boundary=" + boundary);
+				// do not hammer the server after recent failures, the file stays in the buffer.
+				// checked on the upload thread, which also ends the attempt (see release below)
+				RetryScheduler retryScheduler = RetryScheduler.getInstance(context);
+				if (!retryScheduler.isAllowed(url)) {
+					Log.v(TAG, "Skip '" + name + "' file: backing off after failed uploads");
+					return;
+				}
 
-				dos = new DataOutputStream(conn.getOutputStream());
+				// make sure the device stays awake while transmitting
+				PowerManager powerMgr = (PowerManager) context
+						.getSystemService(Context.POWER_SERVICE);
+				WakeLock wakeLock = powerMgr.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+				wakeLock.acquire();
+				long start = uploadTimer.start();
+				try {
+					upload(context, name, url, cookie, fileName, date);
+				} catch (Exception e) {
+					Log.e(TAG, "Sending '" + name + "' sensor file failed, data will be retried.",
+							e);
+				} finally {
+					retryScheduler.release(url);
+					uploadTimer.stop(start);
+					wakeLock.release();
+				}
+			}
+		});
+	}
 
-				dos.writeBytes(twoHyphens + boundary + lineEnd);
-				dos.writeBytes("Content-Disposition: form-data; name=\"file\"; filename=\""
-						+ fileName + "\"" + lineEnd);
-				dos.writeBytes(lineEnd);
-				// create a buffer of maximum size
-				bytesAvailable = fileInputStream.available();
-				bufferSize = Math.min(bytesAvailable, maxBufferSize);
-				buffer = new byte[bufferSize];
+	/**
+	 * Uploads one file as a multipart form POST. The request body is streamed from the file with
+	 * a known Content-Length, so the connection does not have to buffer it. The upload goes
+	 * through {@link SenseApi}, so it reuses the kept-alive connections and TLS sessions of the
+	 * other requests.
+	 */
+	private void upload(Context context, String name, String urlStr, String cookie,
+			String fileName, String date) throws IOException {
+
+		if (!new File(fileName).isFile()) {
+			// retrying will not bring the file back
+			Log.e(TAG, "'" + name + "' value file " + fileName + " does not exist. Discarding it.");
+			markSent(name, date);
+			return;
+		}
 
-				// read file and write it into form...
-				bytesRead = fileInputStream.read(buffer, 0, bufferSize);
+		MultipartFileContent content = new MultipartFileContent(fileName);
+		RetryScheduler retryScheduler = RetryScheduler.getInstance(context);
 
-				while (bytesRead > 0) {
-					dos.write(buffer, 0, bufferSize);
-					bytesAvailable = fileInputStream.available();
-					bufferSize = Math.min(bytesAvailable, maxBufferSize);
-					bytesRead = fileInputStream.read(buffer, 0, bufferSize);
-				}
+		Map<String, String> response;
+		try {
+			response = SenseApi.requestStreaming(context, urlStr, content,
+					content.getContentLength(), content.getContentType(), cookie);
+		} catch (IOException e) {
+			retryScheduler.onFailure(urlStr);
+			throw e;
+		}
 
-				// send multipart form data necesssary after file data...
-				dos.writeBytes(lineEnd);
-				dos.writeBytes(twoHyphens + boundary + twoHyphens + lineEnd);
-
-				// close streams
-				fileInputStream.close();
-				dos.flush();
-				dos.close();
-
-				if (conn.getResponseCode() != 201) {
-					Log.e(TAG, "Failed to send '" + name
-							+ "' value file. Data lost. Response code:" + conn.getResponseCode());
-				} else {
-					Log.i(TAG, "Sent '" + name + "' sensor value file OK!");
-					String date = (String) object.get("date");
-					onTransmitSuccess(name, date);
-				}
+		String responseCode = response.get("http response code");
+		if (!"201".equals(responseCode)) {
+			if ("403".equals(responseCode)) {
+				retryScheduler.onUnauthorized();
+			} else if (RetryScheduler.isRetryable(responseCode)) {
+				retryScheduler.onFailure(urlStr);
+			} else {
+				// the server rejects this file, sending it again will not help
+				retryScheduler.onSuccess(urlStr);
+				Log.e(TAG, "CommonSense rejected '" + name + "' value file. Response code: "
+						+ responseCode + ". Discarding it.");
+				markSent(name, date);
+				return;
 			}
-		} catch (Exception e) {
-			Log.e(TAG, "Sending '" + name + "' sensor file failed. Data lost.", e);
-		} finally {
-			cleanup(wakeLock);
+			Log.w(TAG, "Failed to send '" + name + "' value file. Response code: "
+					+ responseCode + ". Data will be retried.");
+		} else {
+			retryScheduler.onSuccess(urlStr);
+			Log.i(TAG, "Sent '" + name + "' sensor value file OK! " + content.getContentLength()
+					+ " bytes");
+			markSent(name, date);
 		}
 	}
 
-	private void onTransmitSuccess(String sensorName, String timeInSecs) {
+	/**
+	 * Marks the data point of a file as sent, so it is not uploaded again. Used after a successful
+	 * upload, and to discard files that can never be uploaded.
+	 */
+	private void markSent(String sensorName, String timeInSecs) {
 
 		// new content values with updated transmit state
 		ContentValues values = new ContentValues();
@@ -0,0 +1,299 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import java.lang.ref.WeakReference;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import nl.sense_os.service.R;
+import nl.sense_os.service.commonsense.SenseApi;
+import nl.sense_os.service.constants.SensePrefs;
+import nl.sense_os.service.constants.SensePrefs.Auth;
+import nl.sense_os.service.constants.SensePrefs.Main;
+import nl.sense_os.service.constants.SenseUrls;
+import nl.sense_os.service.constants.SensorData.DataPoint;
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.metrics.Timer;
+import nl.sense_os.service.storage.LocalStorage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.PowerManager;
+import android.os.PowerManager.WakeLock;
+import android.util.Log;
+
+/**
+ * Handler for the real-time sync mode. Instead of sending every new data point in its own request,
+ * the points are collected for a short time (see {@link Main.Advanced#REALTIME_WINDOW}) and then
+ * sent together in one request to the multi-sensor data URL. This keeps the latency low, while the
+ * number of requests goes down from one per data point to one per window.<br/>
+ * <br/>
+ * Points that could not be sent stay in the local storage, and are sent with the next
+ * transmission of buffered data.
+ */
+public class MicroBatchTransmitHandler extends Handler {
+
+    private static class PendingPoint {
+        long rowId;
+        String name;
+        String description;
+        String dataType;
+        String deviceUuid;
+        long timestamp;
+        String value;
+    }
+
+    private static class SensorEntry {
+        String id;
+        String name;
+        String description;
+        JSONArray data = new JSONArray();
+        List<Long> rowIds = new ArrayList<Long>();
+    }
+
+    private static final String TAG = "MicroBatchTransmitHandler";
+    private static final int MSG_ADD = 1;
+    private static final int MSG_FLUSH = 2;
+
+    /**
+     * Default, minimum and maximum length of the batching window, in milliseconds
+     */
+    private static final int DEFAULT_WINDOW = 1000;
+    private static final int MIN_WINDOW = 250;
+    private static final int MAX_WINDOW = 2000;
+
+    /**
+     * Maximum number of data points per request. The batch is sent immediately when it is full.
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private final WeakReference<Context> ctxRef;
+    private final WeakReference<LocalStorage> storageRef;
+    private final List<PendingPoint> pending = new ArrayList<PendingPoint>();
+    private final Timer transmitTimer = PipelineMetrics.getTimer(PipelineMetrics.TRANSMIT_REALTIME);
+    private final DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.ENGLISH);
+    private final NumberFormat dateFormatter = new DecimalFormat("##########.###", symbols);
+
+    public MicroBatchTransmitHandler(Context context, LocalStorage storage, Looper looper) {
+        super(looper);
+        ctxRef = new WeakReference<Context>(context);
+        storageRef = new WeakReference<LocalStorage>(storage);
+    }
+
+    /**
+     * Adds a new data point to the current batch. The batch is sent when the window that started
+     * with the first point of the batch has passed.
+     * 
+     * @param rowId
+     *            ID of the data point in the local storage, to mark it as sent afterwards
+     * @param name
+     *            Sensor name
+     * @param description
+     *            Sensor description
+     * @param dataType
+     *            Sensor data type
+     * @param deviceUuid
+     *            UUID of the sensor's device
+     * @param timestamp
+     *            Data point time stamp
+     * @param value
+     *            Data point value
+     */
+    public void add(long rowId, String name, String description, String dataType,
+            String deviceUuid, long timestamp, String value) {
+        PendingPoint point = new PendingPoint();
+        point.rowId = rowId;
+        point.name = name;
+        point.description = description;
+        point.dataType = dataType;
+        point.deviceUuid = deviceUuid;
+        point.timestamp = timestamp;
+        point.value = value;
+        sendMessage(obtainMessage(MSG_ADD, point));
+    }
+
+    private int getWindow(Context context) {
+        SharedPreferences mainPrefs = context.getSharedPreferences(SensePrefs.MAIN_PREFS,
+                Context.MODE_PRIVATE);
+        int window = mainPrefs.getInt(Main.Advanced.REALTIME_WINDOW, DEFAULT_WINDOW);
+        return Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, window));
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+
+        // check if our references are still valid
+        Context context = ctxRef.get();
+        if (null == context || null == storageRef.get()) {
+            // parent service has died
+            return;
+        }
+
+        switch (msg.what) {
+        case MSG_ADD:
+            pending.add((PendingPoint) msg.obj);
+            if (pending.size() == 1) {
+                // first point of a new batch: start the window
+                sendEmptyMessageDelayed(MSG_FLUSH, getWindow(context));
+            } else if (pending.size() >= MAX_BATCH_SIZE) {
+                removeMessages(MSG_FLUSH);
+                sendEmptyMessage(MSG_FLUSH);
+            }
+            break;
+        case MSG_FLUSH:
+            if (!pending.isEmpty()) {
+                List<PendingPoint> batch = new ArrayList<PendingPoint>(pending);
+                pending.clear();
+                long start = transmitTimer.start();
+                transmit(context, batch);
+                transmitTimer.stop(start);
+            }
+            break;
+        default:
+            Log.w(TAG, "Unexpected message: " + msg.what);
+        }
+    }
+
+    private void onTransmitSuccess(Map<String, SensorEntry> entries) {
+        ContentValues values = new ContentValues();
+        values.put(DataPoint.TRANSMIT_STATE, 1);
+
+        Uri contentUri = Uri.parse("content://"
+                + ctxRef.get().getString(R.string.local_storage_authority)
+                + DataPoint.CONTENT_URI_PATH);
+        // select exactly the sent points: their time stamps need not be unique
+        StringBuilder ids = new StringBuilder();
+        for (SensorEntry entry : entries.values()) {
+            for (Long rowId : entry.rowIds) {
+                ids.append(ids.length() > 0 ? "," : "").append(rowId);
+            }
+        }
+        if (ids.length() == 0) {
+            return;
+        }
+        String where = DataPoint._ID + " IN (" + ids + ")";
+        try {
+            storageRef.get().update(contentUri, values, where, null);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Error updating points in Local Storage!", e);
+        }
+    }
+
+    private void transmit(Context context, List<PendingPoint> batch) {
+        RetryScheduler retryScheduler = RetryScheduler.getInstance(context);
+        String url = null;
+        WakeLock wakeLock = null;
+        try {
+            // make sure the device stays awake while transmitting
+            PowerManager powerMgr = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            wakeLock = powerMgr.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+            wakeLock.acquire();
+
+            SharedPreferences mainPrefs = context.getSharedPreferences(SensePrefs.MAIN_PREFS,
+                    Context.MODE_PRIVATE);
+            boolean devMode = mainPrefs.getBoolean(Main.Advanced.DEV_MODE, false);
+            url = devMode ? SenseUrls.DEV_SENSOR_DATA.replace("/<id>/", "/")
+                    : SenseUrls.SENSOR_DATA.replace("/<id>/", "/");
+            SharedPreferences authPrefs = context.getSharedPreferences(SensePrefs.AUTH_PREFS,
+                    Context.MODE_PRIVATE);
+            String cookie = authPrefs.getString(Auth.LOGIN_COOKIE, null);
+
+            // do not hammer the server after recent failures, the points stay in the buffer
+            if (!retryScheduler.isAllowed(url)) {
+                Log.v(TAG, "Skip real-time data: backing off after failed uploads");
+                return;
+            }
+
+            // group the points per sensor
+            Map<String, SensorEntry> entries = new LinkedHashMap<String, SensorEntry>();
+            for (PendingPoint point : batch) {
+                String key = point.name + point.description;
+                SensorEntry entry = entries.get(key);
+                if (null == entry) {
+                    String id = SenseApi.getSensorId(context, point.name, point.description,
+                            point.dataType, point.deviceUuid);
+                    if (null == id) {
+                        // the buffered data transmission will send it when the sensor exists
+                        Log.w(TAG, "No sensor ID for '" + point.name + "' (yet)");
+                        continue;
+                    }
+                    entry = new SensorEntry();
+                    entry.id = id;
+                    entry.name = point.name;
+                    entry.description = point.description;
+                    entries.put(key, entry);
+                }
+                JSONObject data = new JSONObject();
+                data.put("date", dateFormatter.format(point.timestamp / 1000d));
+                data.put("value", point.value);
+                entry.data.put(data);
+                if (point.rowId >= 0) {
+                    entry.rowIds.add(point.rowId);
+                }
+            }
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            JSONArray sensors = new JSONArray();
+            for (SensorEntry entry : entries.values()) {
+                JSONObject sensor = new JSONObject();
+                sensor.put("sensor_id", entry.id);
+                sensor.put("sensor_name", entry.name);
+                sensor.put("data", entry.data);
+                sensors.put(sensor);
+            }
+            JSONObject transmission = new JSONObject();
+            transmission.put("sensors", sensors);
+
+            Map<String, String> response = null;
+            try {
+                response = SenseApi.request(context, url, transmission, cookie);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to send real-time data: " + e);
+            }
+            String statusCode = null != response ? response.get("http response code") : null;
+
+            if ("201".equals(statusCode)) {
+                retryScheduler.onSuccess(url);
+                onTransmitSuccess(entries);
+            } else {
+                if ("403".equals(statusCode)) {
+                    retryScheduler.onUnauthorized();
+                } else if (RetryScheduler.isRetryable(statusCode)) {
+                    retryScheduler.onFailure(url);
+                } else {
+                    retryScheduler.onSuccess(url);
+                }
+                Log.w(TAG, "Failed to send " + batch.size() + " real-time data points: "
+                        + statusCode + ". Data will be retried later.");
+            }
+
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to prepare real-time data: " + e.getMessage());
+        } catch (Exception e) {
+            Log.e(TAG, "Exception sending real-time data, data will be retried: " + e);
+        } finally {
+            if (null != url) {
+                retryScheduler.release(url);
+            }
+            if (null != wakeLock) {
+                wakeLock.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import nl.sense_os.service.commonsense.StreamingContent;
+
+/**
+ * Multipart form request body with a single file. The length of the body is known before it is
+ * written, so the connection can use fixed length streaming instead of buffering the whole file in
+ * memory. The file is read through a {@link FileChannel} into a direct buffer that is reused for
+ * every upload on the same thread.
+ */
+class MultipartFileContent implements StreamingContent {
+
+    private static final String BOUNDARY = "----FormBoundary6bYQOdhfGEj4oCSv";
+    private static final String LINE_END = "\r\n";
+    private static final String TWO_HYPHENS = "--";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    };
+
+    private final File file;
+    private final long fileLength;
+    private final byte[] head;
+    private final byte[] tail;
+
+    /**
+     * @param fileName
+     *            Path of the file to upload
+     * @throws IOException
+     *             If the file does not exist
+     */
+    MultipartFileContent(String fileName) throws IOException {
+        file = new File(fileName);
+        if (!file.isFile()) {
+            throw new IOException("File not found: " + fileName);
+        }
+        fileLength = file.length();
+        head = (TWO_HYPHENS + BOUNDARY + LINE_END
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\""
+                + LINE_END + LINE_END).getBytes("UTF-8");
+        tail = (LINE_END + TWO_HYPHENS + BOUNDARY + TWO_HYPHENS + LINE_END).getBytes("UTF-8");
+    }
+
+    /**
+     * @return Total length of the request body in bytes
+     */
+    long getContentLength() {
+        return head.length + fileLength + tail.length;
+    }
+
+    /**
+     * @return Value for the Content-Type header of the request
+     */
+    String getContentType() {
+        return "multipart/form-data;boundary=" + BOUNDARY;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(head);
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            WritableByteChannel target = Channels.newChannel(out);
+            ByteBuffer buffer = buffers.get();
+
+            // write exactly the announced number of bytes, even if the file changes meanwhile
+            long remaining = fileLength;
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    throw new IOException("File was truncated during upload: " + file);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                remaining -= read;
+            }
+        } finally {
+            in.close();
+        }
+
+        out.write(tail);
+    }
+}
@@ -0,0 +1,375 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import nl.sense_os.service.R;
+import nl.sense_os.service.SenseService;
+import nl.sense_os.service.constants.SensePrefs;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Decides when failed uploads to CommonSense are retried.<br/>
+ * <br/>
+ * Every endpoint (URL) has its own exponential backoff with jitter: after a failure, the endpoint
+ * is not used again until the backoff time has passed, and a retry alarm is set for that time.
+ * Additionally, every host has a circuit breaker: after {@link #CIRCUIT_THRESHOLD} consecutive
+ * failures the circuit opens and no uploads to that host are attempted at all during a cool down
+ * period. After the cool down a single trial upload is let through; if it succeeds the circuit
+ * closes again, otherwise the cool down period is doubled.<br/>
+ * <br/>
+ * The state is persisted in the {@link SensePrefs#RETRY_PREFS} preferences, so it survives process
+ * restarts.<br/>
+ * <br/>
+ * Callers must call {@link #release(String)} when an attempt ends, also when it ends without a
+ * result (e.g. because there was nothing to send), or the trial of a half open circuit stays in
+ * flight until {@link #TRIAL_TIMEOUT} has passed.<br/>
+ * <br/>
+ * Unauthorized responses are handled separately with {@link #onUnauthorized()}: only one re-login
+ * is requested at a time, no matter how many uploads fail with a 403, and the queued data is sent
+ * as soon as the login succeeded.
+ */
+public class RetryScheduler {
+
+    /**
+     * Backoff state of one endpoint
+     */
+    private static class Backoff {
+        int failures;
+        long nextAttempt;
+    }
+
+    /**
+     * Circuit breaker state of one host
+     */
+    private static class Circuit {
+        int failures;
+        long openUntil;
+        long coolDown;
+        boolean trialInFlight;
+        /** Thread that got permission for the trial upload */
+        Thread trialThread;
+        long trialStarted;
+    }
+
+    /**
+     * Request code for the retry alarm. Different from
+     * {@link nl.sense_os.service.DataTransmitter#REQ_CODE}, so the retry alarm does not replace the
+     * periodic transmission alarm.
+     */
+    public static final int REQ_CODE = 0x05E2DDA7B;
+
+    private static final String TAG = "RetryScheduler";
+    private static final String KEY_BACKOFFS = "backoffs";
+    private static final String KEY_CIRCUITS = "circuits";
+
+    private static final long MIN_BACKOFF = 1000l * 15;
+    private static final long MAX_BACKOFF = 1000l * 60 * 30;
+    private static final int CIRCUIT_THRESHOLD = 5;
+    private static final long MIN_COOL_DOWN = 1000l * 60;
+    private static final long MAX_COOL_DOWN = 1000l * 60 * 60;
+
+    /**
+     * Time after which a trial upload that was never released is considered lost, and a new trial
+     * may be made
+     */
+    private static final long TRIAL_TIMEOUT = 1000l * 60 * 5;
+
+    /**
+     * Time after which a re-login request is considered lost, and a new one may be made
+     */
+    private static final long RELOGIN_TIMEOUT = 1000l * 60 * 2;
+
+    private static RetryScheduler instance;
+
+    /**
+     * @param context
+     *            Context for lazy creating the scheduler
+     * @return Singleton instance of the RetryScheduler
+     */
+    public static synchronized RetryScheduler getInstance(Context context) {
+        if (null == instance) {
+            instance = new RetryScheduler(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /**
+     * @param statusCode
+     *            HTTP response code, or null if there was no response at all
+     * @return true if the failure is temporary and the upload should be retried later
+     */
+    public static boolean isRetryable(String statusCode) {
+        return null == statusCode || statusCode.startsWith("5") || "408".equals(statusCode)
+                || "429".equals(statusCode);
+    }
+
+    private final Context context;
+    private final Map<String, Backoff> backoffs = new HashMap<String, Backoff>();
+    private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+    private final Random random = new Random();
+    private long reloginRequested;
+
+    RetryScheduler(Context context) {
+        this.context = context;
+        load();
+    }
+
+    private long jitter(long delay) {
+        // "equal jitter": half of the delay is fixed, the other half is random
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * Checks if an upload to an endpoint may be attempted now. If the circuit of the host is in
+     * the half open state, only the first caller gets permission for a trial upload. The attempt
+     * must be ended with {@link #release(String)}, on the same thread.
+     * 
+     * @param url
+     *            The URL of the endpoint
+     * @return true if the upload may be attempted
+     */
+    public synchronized boolean isAllowed(String url) {
+        long now = System.currentTimeMillis();
+        Backoff backoff = backoffs.get(url);
+        if (null != backoff && now < backoff.nextAttempt) {
+            return false;
+        }
+        Circuit circuit = circuits.get(getHost(url));
+        if (null != circuit && circuit.openUntil > 0) {
+            if (now < circuit.openUntil
+                    || (circuit.trialInFlight && now - circuit.trialStarted < TRIAL_TIMEOUT)) {
+                // open, or half open with a trial already in flight
+                return false;
+            }
+            circuit.trialInFlight = true;
+            circuit.trialThread = Thread.currentThread();
+            circuit.trialStarted = now;
+        }
+        return true;
+    }
+
+    private void load() {
+        SharedPreferences prefs = context.getSharedPreferences(SensePrefs.RETRY_PREFS,
+                Context.MODE_PRIVATE);
+        try {
+            JSONObject json = new JSONObject(prefs.getString(KEY_BACKOFFS, "{}"));
+            for (Iterator<?> keys = json.keys(); keys.hasNext();) {
+                String url = (String) keys.next();
+                JSONObject state = json.getJSONObject(url);
+                Backoff backoff = new Backoff();
+                backoff.failures = state.getInt("failures");
+                backoff.nextAttempt = state.getLong("next_attempt");
+                backoffs.put(url, backoff);
+            }
+            json = new JSONObject(prefs.getString(KEY_CIRCUITS, "{}"));
+            for (Iterator<?> keys = json.keys(); keys.hasNext();) {
+                String host = (String) keys.next();
+                JSONObject state = json.getJSONObject(host);
+                Circuit circuit = new Circuit();
+                circuit.failures = state.getInt("failures");
+                circuit.openUntil = state.getLong("open_until");
+                circuit.coolDown = state.getLong("cool_down");
+                circuits.put(host, circuit);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to load the retry state, starting fresh: " + e);
+            backoffs.clear();
+            circuits.clear();
+        }
+
+        // make sure a retry alarm is set if one was pending when the process died
+        long next = 0;
+        for (Backoff backoff : backoffs.values()) {
+            next = next == 0 ? backoff.nextAttempt : Math.min(next, backoff.nextAttempt);
+        }
+        for (Circuit circuit : circuits.values()) {
+            if (circuit.openUntil > 0) {
+                next = next == 0 ? circuit.openUntil : Math.min(next, circuit.openUntil);
+            }
+        }
+        if (next > 0) {
+            scheduleRetry(next);
+        }
+    }
+
+    /**
+     * Registers a failed upload. Increases the backoff of the endpoint and the failure count of
+     * the host's circuit, and schedules a retry.
+     * 
+     * @param url
+     *            The URL of the endpoint
+     */
+    public synchronized void onFailure(String url) {
+        long now = System.currentTimeMillis();
+
+        Backoff backoff = backoffs.get(url);
+        if (null == backoff) {
+            backoff = new Backoff();
+            backoffs.put(url, backoff);
+        }
+        backoff.failures++;
+        long delay = MIN_BACKOFF << Math.min(backoff.failures - 1, 16);
+        backoff.nextAttempt = now + jitter(Math.min(MAX_BACKOFF, delay));
+        long retry = backoff.nextAttempt;
+
+        String host = getHost(url);
+        Circuit circuit = circuits.get(host);
+        if (null == circuit) {
+            circuit = new Circuit();
+            circuits.put(host, circuit);
+        }
+        circuit.failures++;
+        if (circuit.trialInFlight || circuit.failures >= CIRCUIT_THRESHOLD) {
+            // (re)open the circuit
+            circuit.coolDown = circuit.trialInFlight ? Math.min(MAX_COOL_DOWN,
+                    circuit.coolDown * 2) : MIN_COOL_DOWN;
+            circuit.openUntil = now + jitter(circuit.coolDown);
+            circuit.trialInFlight = false;
+            circuit.trialThread = null;
+            retry = Math.max(retry, circuit.openUntil);
+            Log.w(TAG, "Circuit for " + host + " is open for "
+                    + (circuit.openUntil - now) / 1000 + " s");
+        }
+
+        Log.v(TAG, "Upload to " + url + " failed " + backoff.failures + " times. Retry in "
+                + (retry - now) / 1000 + " s");
+        save();
+        scheduleRetry(retry);
+    }
+
+    /**
+     * Registers the result of a login attempt. If a re-login was requested because of
+     * unauthorized uploads, the queued data is sent right away after a successful login.
+     * 
+     * @param success
+     *            true if the login succeeded
+     */
+    public void onLoginResult(boolean success) {
+        boolean requested;
+        synchronized (this) {
+            requested = reloginRequested > 0;
+            reloginRequested = 0;
+        }
+        if (requested && success) {
+            Log.v(TAG, "Re-login succeeded, resume uploads");
+            context.startService(new Intent(context.getString(R.string.action_sense_send_data)));
+        }
+    }
+
+    /**
+     * Ends an attempt that got permission from {@link #isAllowed(String)}. If the attempt was the
+     * trial upload of a half open circuit and it ended without {@link #onSuccess(String)} or
+     * {@link #onFailure(String)}, e.g. because there was nothing to send or because of an
+     * unexpected exception, the next caller may make a new trial. Does nothing if the current
+     * thread has no trial in flight, so it is safe to call in a finally block.
+     * 
+     * @param url
+     *            The URL of the endpoint
+     */
+    public synchronized void release(String url) {
+        Circuit circuit = circuits.get(getHost(url));
+        if (null != circuit && circuit.trialInFlight
+                && circuit.trialThread == Thread.currentThread()) {
+            circuit.trialInFlight = false;
+            circuit.trialThread = null;
+        }
+    }
+
+    /**
+     * Registers an upload that reached the server, i.e. that did not fail with a temporary error.
+     * Resets the backoff of the endpoint and closes the circuit of the host.
+     * 
+     * @param url
+     *            The URL of the endpoint
+     */
+    public synchronized void onSuccess(String url) {
+        boolean changed = null != backoffs.remove(url);
+        changed |= null != circuits.remove(getHost(url));
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Registers an unauthorized (403) response. Requests a re-login from the Sense service, unless
+     * there is already a re-login in progress.
+     */
+    public void onUnauthorized() {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (reloginRequested > 0 && now - reloginRequested < RELOGIN_TIMEOUT) {
+                // someone else already asked for it
+                return;
+            }
+            reloginRequested = now;
+        }
+        Log.v(TAG, "Unauthorized upload, request re-login");
+        final Intent serviceIntent = new Intent(context.getString(R.string.action_sense_service));
+        serviceIntent.putExtra(SenseService.EXTRA_RELOGIN, true);
+        context.startService(serviceIntent);
+    }
+
+    private void save() {
+        try {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, Backoff> entry : backoffs.entrySet()) {
+                JSONObject state = new JSONObject();
+                state.put("failures", entry.getValue().failures);
+                state.put("next_attempt", entry.getValue().nextAttempt);
+                json.put(entry.getKey(), state);
+            }
+            String backoffState = json.toString();
+
+            json = new JSONObject();
+            for (Map.Entry<String, Circuit> entry : circuits.entrySet()) {
+                JSONObject state = new JSONObject();
+                state.put("failures", entry.getValue().failures);
+                state.put("open_until", entry.getValue().openUntil);
+                state.put("cool_down", entry.getValue().coolDown);
+                json.put(entry.getKey(), state);
+            }
+            String circuitState = json.toString();
+
+            context.getSharedPreferences(SensePrefs.RETRY_PREFS, Context.MODE_PRIVATE).edit()
+                    .putString(KEY_BACKOFFS, backoffState).putString(KEY_CIRCUITS, circuitState)
+                    .commit();
+        } catch (JSONException e) {
+            Log.w(TAG, "Failed to store the retry state: " + e);
+        }
+    }
+
+    /**
+     * Sets a one-shot alarm for the transmission of buffered data.
+     * 
+     * @param time
+     *            Time of the retry
+     */
+    private void scheduleRetry(long time) {
+        Intent intent = new Intent(context.getString(R.string.action_sense_data_transmit_alarm));
+        PendingIntent operation = PendingIntent.getBroadcast(context, REQ_CODE, intent, 0);
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        am.set(AlarmManager.RTC_WAKEUP, time, operation);
+    }
+}
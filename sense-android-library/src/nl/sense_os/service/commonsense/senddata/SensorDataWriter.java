@@ -0,0 +1,254 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import nl.sense_os.service.commonsense.StreamingContent;
+import nl.sense_os.service.commonsense.senddata.BufferTransmitHandler.SensorDataEntry;
+
+import nl.sense_os.service.constants.SensorData.DataPoint;
+
+import android.database.Cursor;
+
+/**
+ * Writes the JSON for a sensor data upload directly from the local storage cursor to the request
+ * stream. The output has the same format as the JSON Object that used to be built for the upload:
+ * 
+ * <pre>
+ * {"sensors":[{"sensor_id":"1","sensor_name":"name","data":[{"date":"1234.567","value":"x"}]}]}
+ * </pre>
+ * 
+ * Characters are encoded to UTF-8 in a reusable byte buffer, so the payload never exists as a
+ * JSONObject or String. Points that have an {@link DataPoint#UPLOAD_FRAGMENT} are not encoded at
+ * all: their prepared bytes are copied as they are. Instances are not thread-safe, but can be
+ * reused for every upload.
+ */
+class SensorDataWriter implements StreamingContent {
+
+    private final byte[] buffer = new byte[8192];
+    private int count;
+    private OutputStream out;
+    private Cursor cursor;
+    private List<SensorDataEntry> entries;
+    private int valueColumn;
+    private int fragmentColumn;
+
+    /**
+     * Sets the data for the next upload.
+     * 
+     * @param cursor
+     *            Cursor with the data points. The cursor position is restored after writing.
+     * @param valueColumn
+     *            Index of the value column in the cursor
+     * @param entries
+     *            Data points to upload, with their cursor positions
+     */
+    void set(Cursor cursor, int valueColumn, List<SensorDataEntry> entries) {
+        this.cursor = cursor;
+        this.valueColumn = valueColumn;
+        this.fragmentColumn = cursor.getColumnIndex(DataPoint.UPLOAD_FRAGMENT);
+        this.entries = entries;
+    }
+
+    /**
+     * Encodes a single data point the way it appears in an upload.
+     * 
+     * @param timestamp
+     *            Time stamp of the data point, in milliseconds
+     * @param value
+     *            Value of the data point
+     * @return UTF-8 encoded JSON object with the date and value
+     * @see DataPoint#UPLOAD_FRAGMENT
+     */
+    byte[] encodeFragment(long timestamp, String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        this.out = bytes;
+        this.count = 0;
+        try {
+            writePoint(timestamp, value);
+            flushBuffer();
+        } catch (IOException e) {
+            // cannot happen when writing to memory
+            throw new RuntimeException(e);
+        } finally {
+            this.out = null;
+        }
+        return bytes.toByteArray();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - count) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    /**
+     * Writes a String that only contains ASCII characters, without escaping.
+     */
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes a time stamp in seconds, with at most three decimals and without trailing zeros.
+     * 
+     * @param timestamp
+     *            Time stamp in milliseconds
+     */
+    private void writeDate(long timestamp) throws IOException {
+        write('"');
+        if (timestamp < 0) {
+            write('-');
+            timestamp = -timestamp;
+        }
+        writeAscii(Long.toString(timestamp / 1000));
+        int millis = (int) (timestamp % 1000);
+        if (millis != 0) {
+            write('.');
+            int divisor = 100;
+            while (millis != 0) {
+                write('0' + millis / divisor);
+                millis %= divisor;
+                divisor /= 10;
+            }
+        }
+        write('"');
+    }
+
+    private void writePoint(long timestamp, String value) throws IOException {
+        writeAscii("{\"date\":");
+        writeDate(timestamp);
+        writeAscii(",\"value\":");
+        writeString(value);
+        write('}');
+    }
+
+    /**
+     * Writes a quoted and escaped JSON String, encoded as UTF-8.
+     */
+    private void writeString(String s) throws IOException {
+        if (null == s) {
+            writeAscii("null");
+            return;
+        }
+        write('"');
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                write('\\');
+                write(c);
+                break;
+            case '\b':
+                writeAscii("\\b");
+                break;
+            case '\f':
+                writeAscii("\\f");
+                break;
+            case '\n':
+                writeAscii("\\n");
+                break;
+            case '\r':
+                writeAscii("\\r");
+                break;
+            case '\t':
+                writeAscii("\\t");
+                break;
+            default:
+                if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                    writeAscii("\\u");
+                    String hex = Integer.toHexString(c);
+                    for (int j = hex.length(); j < 4; j++) {
+                        write('0');
+                    }
+                    writeAscii(hex);
+                } else if (c < 0x80) {
+                    write(c);
+                } else if (c < 0x800) {
+                    write(0xc0 | (c >> 6));
+                    write(0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    write(0xf0 | (codePoint >> 18));
+                    write(0x80 | ((codePoint >> 12) & 0x3f));
+                    write(0x80 | ((codePoint >> 6) & 0x3f));
+                    write(0x80 | (codePoint & 0x3f));
+                } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    // unpaired surrogate cannot be encoded
+                    write('?');
+                } else {
+                    write(0xe0 | (c >> 12));
+                    write(0x80 | ((c >> 6) & 0x3f));
+                    write(0x80 | (c & 0x3f));
+                }
+            }
+        }
+        write('"');
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        this.out = out;
+        this.count = 0;
+        final int position = cursor.getPosition();
+        try {
+            writeAscii("{\"sensors\":[");
+            for (int i = 0; i < entries.size(); i++) {
+                SensorDataEntry entry = entries.get(i);
+                if (i > 0) {
+                    write(',');
+                }
+                writeAscii("{\"sensor_id\":");
+                writeString(entry.sensorId);
+                writeAscii(",\"sensor_name\":");
+                writeString(entry.sensorName);
+                writeAscii(",\"data\":[");
+                for (int j = 0; j < entry.size; j++) {
+                    if (j > 0) {
+                        write(',');
+                    }
+                    cursor.moveToPosition(entry.positions[j]);
+                    byte[] fragment = fragmentColumn >= 0 ? cursor.getBlob(fragmentColumn) : null;
+                    if (null != fragment) {
+                        write(fragment);
+                    } else {
+                        writePoint(entry.timestamps[j], cursor.getString(valueColumn));
+                    }
+                }
+                writeAscii("]}");
+            }
+            writeAscii("]}");
+            flushBuffer();
+        } finally {
+            cursor.moveToPosition(position);
+            this.out = null;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import nl.sense_os.service.constants.SensorData.DataPoint;
+
+/**
+ * Prepares data points for upload when they are stored, see {@link DataPoint#UPLOAD_FRAGMENT}.
+ */
+public class UploadFragments {
+
+    private static final ThreadLocal<SensorDataWriter> writers = new ThreadLocal<SensorDataWriter>() {
+
+        @Override
+        protected SensorDataWriter initialValue() {
+            return new SensorDataWriter();
+        }
+    };
+
+    /**
+     * Encodes a data point the way it is sent to CommonSense.
+     * 
+     * @param timestamp
+     *            Time stamp of the data point, in milliseconds
+     * @param value
+     *            Value of the data point
+     * @return UTF-8 encoded JSON object with the formatted date and escaped value
+     */
+    public static byte[] encode(long timestamp, String value) {
+        return writers.get().encodeFragment(timestamp, value);
+    }
+
+    private UploadFragments() {
+        // class should not be instantiated
+    }
+}
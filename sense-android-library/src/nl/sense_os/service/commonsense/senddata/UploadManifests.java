@@ -0,0 +1,235 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import nl.sense_os.service.commonsense.senddata.BufferTransmitHandler.SensorDataEntry;
+import nl.sense_os.service.constants.SensePrefs;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Keeps track of the buffered data uploads that are in flight, so that uploads can be made
+ * idempotent. Every batch gets a client-generated batch ID, and every point in the batch gets a
+ * sequence number from a counter that never goes back. The manifest of a batch (its ID, first
+ * sequence number and the row IDs of its points) is stored before the batch is sent, and only
+ * removed when the points are marked as sent, or when the server rejected the batch for good.<br/>
+ * <br/>
+ * If an upload times out after the server already accepted it, the manifest is still there in
+ * the next sync cycle. The batch is then sent again with the same batch ID and sequence numbers,
+ * so the server can recognize it as a duplicate (see {@link #HEADER_BATCH_ID} and
+ * {@link #HEADER_SEQUENCE}).<br/>
+ * <br/>
+ * Manifests are written to disk in the background where the platform allows it
+ * ({@link SharedPreferences.Editor#apply()}), so creating one does not wait for the disk in every
+ * sync cycle. A manifest that is lost when the process is killed before the write finished only
+ * means that its batch is not resent with the same ID: the points stay in the buffer and are
+ * sent again in a new batch. Sequence numbers are only meaningful together with their batch ID.
+ */
+class UploadManifests {
+
+    /**
+     * Points of one sensor in a manifest
+     */
+    static class SensorPoints {
+        String sensorId;
+        String sensorName;
+        String sensorDescription;
+        long[] ids;
+    }
+
+    /**
+     * Describes one batch upload
+     */
+    static class Manifest {
+        String batchId;
+        long firstSequence;
+        int points;
+        List<SensorPoints> sensors = new ArrayList<SensorPoints>();
+
+        /**
+         * @return Extra request headers that identify the batch and its points
+         */
+        Map<String, String> getHeaders() {
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put(HEADER_BATCH_ID, batchId);
+            headers.put(HEADER_SEQUENCE, firstSequence + "-" + (firstSequence + points - 1));
+            return headers;
+        }
+    }
+
+    /**
+     * Request header with the client-generated batch ID
+     */
+    static final String HEADER_BATCH_ID = "X-Client-Batch-Id";
+
+    /**
+     * Request header with the sequence numbers of the first and last point in the batch, e.g.
+     * "100-149". The points are numbered in the order they appear in the request body.
+     */
+    static final String HEADER_SEQUENCE = "X-Client-Sequence";
+
+    private static final String TAG = "UploadManifests";
+    private static final String KEY_NEXT_SEQUENCE = "next_sequence";
+    private static final String KEY_PREFIX = "batch_";
+
+    private static UploadManifests instance;
+
+    /**
+     * @param context
+     *            Context for lazy creating the manifest store
+     * @return Singleton instance of the UploadManifests
+     */
+    static synchronized UploadManifests getInstance(Context context) {
+        if (null == instance) {
+            instance = new UploadManifests(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final SharedPreferences prefs;
+
+    UploadManifests(Context context) {
+        prefs = context.getSharedPreferences(SensePrefs.UPLOAD_MANIFEST_PREFS,
+                Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Creates and stores the manifest for a new batch. Assigns a new batch ID and reserves the
+     * sequence numbers for the points.
+     * 
+     * @param entries
+     *            The data points in the batch, in the order they are written to the request
+     * @return The new manifest
+     */
+    synchronized Manifest create(List<SensorDataEntry> entries) {
+        Manifest manifest = new Manifest();
+        manifest.batchId = UUID.randomUUID().toString();
+        manifest.firstSequence = prefs.getLong(KEY_NEXT_SEQUENCE, 0);
+        for (SensorDataEntry entry : entries) {
+            SensorPoints sensor = new SensorPoints();
+            sensor.sensorId = entry.sensorId;
+            sensor.sensorName = entry.sensorName;
+            sensor.sensorDescription = entry.sensorDescription;
+            sensor.ids = new long[entry.size];
+            System.arraycopy(entry.ids, 0, sensor.ids, 0, entry.size);
+            manifest.sensors.add(sensor);
+            manifest.points += entry.size;
+        }
+
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putLong(KEY_NEXT_SEQUENCE, manifest.firstSequence + manifest.points);
+        try {
+            editor.putString(KEY_PREFIX + manifest.batchId, toJson(manifest).toString());
+        } catch (JSONException e) {
+            // the batch can still be sent, it just cannot be resent with the same ID
+            Log.w(TAG, "Failed to store upload manifest: " + e);
+        }
+        save(editor);
+        return manifest;
+    }
+
+    /**
+     * @return All stored manifests, ordered by sequence number
+     */
+    synchronized List<Manifest> getPending() {
+        List<Manifest> manifests = new ArrayList<Manifest>();
+        for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+            if (!entry.getKey().startsWith(KEY_PREFIX)) {
+                continue;
+            }
+            try {
+                manifests.add(fromJson(new JSONObject((String) entry.getValue())));
+            } catch (Exception e) {
+                Log.w(TAG, "Dropping unreadable upload manifest: " + e);
+                save(prefs.edit().remove(entry.getKey()));
+            }
+        }
+        Collections.sort(manifests, new Comparator<Manifest>() {
+
+            @Override
+            public int compare(Manifest lhs, Manifest rhs) {
+                return lhs.firstSequence < rhs.firstSequence ? -1
+                        : (lhs.firstSequence == rhs.firstSequence ? 0 : 1);
+            }
+        });
+        return manifests;
+    }
+
+    /**
+     * Removes the manifest of a batch that does not have to be resent.
+     * 
+     * @param manifest
+     */
+    synchronized void remove(Manifest manifest) {
+        save(prefs.edit().remove(KEY_PREFIX + manifest.batchId));
+    }
+
+    /**
+     * Stores the changes without waiting for the disk, if the platform supports it.
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
+    private static void save(SharedPreferences.Editor editor) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            editor.apply();
+        } else {
+            editor.commit();
+        }
+    }
+
+    private static Manifest fromJson(JSONObject json) throws JSONException {
+        Manifest manifest = new Manifest();
+        manifest.batchId = json.getString("batch_id");
+        manifest.firstSequence = json.getLong("first_sequence");
+        JSONArray sensors = json.getJSONArray("sensors");
+        for (int i = 0; i < sensors.length(); i++) {
+            JSONObject sensorJson = sensors.getJSONObject(i);
+            SensorPoints sensor = new SensorPoints();
+            sensor.sensorId = sensorJson.getString("sensor_id");
+            sensor.sensorName = sensorJson.getString("sensor_name");
+            sensor.sensorDescription = sensorJson.optString("sensor_description", null);
+            JSONArray ids = sensorJson.getJSONArray("ids");
+            sensor.ids = new long[ids.length()];
+            for (int j = 0; j < sensor.ids.length; j++) {
+                sensor.ids[j] = ids.getLong(j);
+            }
+            manifest.sensors.add(sensor);
+            manifest.points += sensor.ids.length;
+        }
+        return manifest;
+    }
+
+    private static JSONObject toJson(Manifest manifest) throws JSONException {
+        JSONArray sensors = new JSONArray();
+        for (SensorPoints sensor : manifest.sensors) {
+            JSONArray ids = new JSONArray();
+            for (long id : sensor.ids) {
+                ids.put(id);
+            }
+            JSONObject sensorJson = new JSONObject();
+            sensorJson.put("sensor_id", sensor.sensorId);
+            sensorJson.put("sensor_name", sensor.sensorName);
+            sensorJson.put("sensor_description", sensor.sensorDescription);
+            sensorJson.put("ids", ids);
+            sensors.put(sensorJson);
+        }
+        JSONObject json = new JSONObject();
+        json.put("batch_id", manifest.batchId);
+        json.put("first_sequence", manifest.firstSequence);
+        json.put("sensors", sensors);
+        return json;
+    }
+}
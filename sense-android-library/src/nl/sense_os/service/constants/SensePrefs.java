@@ -160,6 +160,28 @@ public class SensePrefs {
 			 * Agostino's saliency test. Default is false.
 			 */
 			public static final String AGOSTINO = "agostino_mode";
+			/**
+			 * Key for preference that enables the legacy global broadcast of every new data point.
+			 * Disabled by default: use the SubscriptionManager to receive new sensor data instead.
+			 * 
+			 * @see SensePrefs#MAIN_PREFS
+			 */
+			public static final String LEGACY_BROADCAST = "legacy_new_data_broadcast";
+			/**
+			 * Key for preference with the maximum number of buffered data uploads that can be in
+			 * flight at the same time. Set to 1 to send one batch at a time. Default is 3.
+			 * 
+			 * @see SensePrefs#MAIN_PREFS
+			 */
+			public static final String UPLOAD_CONCURRENCY = "upload_concurrency";
+			/**
+			 * Key for preference with the time that new data points are collected before they are
+			 * sent together in real-time sync mode, in milliseconds. Values are kept between 250
+			 * and 2000. Default is 1000.
+			 * 
+			 * @see SensePrefs#MAIN_PREFS
+			 */
+			public static final String REALTIME_WINDOW = "realtime_window";
 		}
 
 		public static class Ambience {
@@ -655,6 +677,20 @@ public class SensePrefs {
 	 * @see #STATUS_PREFS
 	 */
 	public static final String SENSOR_SPECIFICS = "sensor_specifics";
+	/**
+	 * Name of the shared preferences file holding the retry state of failed uploads. Use
+	 * {@link Context#MODE_PRIVATE}.
+	 * 
+	 * @see nl.sense_os.service.commonsense.senddata.RetryScheduler
+	 */
+	public static final String RETRY_PREFS = "transmission_retry";
+	/**
+	 * Name of the shared preferences file holding the manifests of buffered data uploads that are
+	 * in flight. Use {@link Context#MODE_PRIVATE}.
+	 * 
+	 * @see nl.sense_os.service.commonsense.senddata.UploadManifests
+	 */
+	public static final String UPLOAD_MANIFEST_PREFS = "upload_manifests";
 
 	private SensePrefs() {
 		// private constructor to prevent instantiation
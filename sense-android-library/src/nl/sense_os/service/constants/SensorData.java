@@ -78,7 +78,8 @@ public class SensorData {
          */
         public static final String DISPLAY_NAME = "display_name";
         /**
-         * Time stamp for the data point, in milliseconds. <br>
+         * Time stamp for the data point, in milliseconds. This is the time at which the data was
+         * measured, not the time at which it was processed. <br>
          * <br>
          * TYPE: long
          */
@@ -103,6 +104,15 @@ public class SensorData {
          * TYPE: String
          */
         public static final String DEVICE_UUID = "device_uuid";
+        /**
+         * The data point as it is uploaded to CommonSense: the UTF-8 encoded JSON object with the
+         * formatted date and the escaped value, prepared when the point is stored so that
+         * uploading is just a matter of copying bytes. Can be <code>null</code> for points that
+         * were stored without it.<br>
+         * <br>
+         * TYPE: byte[]
+         */
+        public static final String UPLOAD_FRAGMENT = "upload_fragment";
 
         private DataPoint() {
             // class should not be instantiated
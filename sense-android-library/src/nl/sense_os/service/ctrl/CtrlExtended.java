@@ -2,10 +2,7 @@ package nl.sense_os.service.ctrl;
 
 import java.util.List;
 
-import nl.sense_os.service.DataTransmitter;
 import nl.sense_os.service.R;
-import nl.sense_os.service.constants.SensePrefs;
-import nl.sense_os.service.constants.SensePrefs.Main;
 import nl.sense_os.service.constants.SensorData.DataPoint;
 import nl.sense_os.service.constants.SensorData.SensorNames;
 import nl.sense_os.service.location.LocationSensor;
@@ -16,11 +13,7 @@ import nl.sense_os.service.storage.LocalStorage;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.hardware.Sensor;
 import android.location.Location;
@@ -40,12 +33,6 @@ public class CtrlExtended extends Controller {
         NOT_READY, READY, RECHECK;
     }
 
-    private class Intervals {
-        static final long ECO = AlarmManager.INTERVAL_HALF_HOUR;
-        static final long NORMAL = 1000 * 60 * 5;
-        static final long OFTEN = 1000 * 60 * 1;
-    }
-
     private static final String TAG = "Sense Controller";
     private static final String NOMODE = "nomode";
     private static final String IDLE = "idle";
@@ -679,54 +666,6 @@ public class CtrlExtended extends Controller {
      */
     public void scheduleTransmissions() {
         Log.v(TAG, "Schedule transmissions");
-
-        Intent intent = new Intent(context.getString(R.string.action_sense_data_transmit_alarm));
-        PendingIntent operation = PendingIntent.getBroadcast(context, DataTransmitter.REQ_CODE,
-                intent, 0);
-        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-
-        SharedPreferences mainPrefs = context.getSharedPreferences(SensePrefs.MAIN_PREFS,
-                Context.MODE_PRIVATE);
-        int syncRate = Integer.parseInt(mainPrefs.getString(Main.SYNC_RATE, "0"));
-
-        // pick interval
-        long interval;
-        switch (syncRate) {
-        case 1: // eco-mode
-            interval = Intervals.ECO;
-            break;
-        case 0: // 5 minute
-            interval = Intervals.NORMAL;
-            break;
-        case -1: // 60 seconds
-            interval = Intervals.OFTEN;
-            break;
-        case -2: // real-time: schedule transmission based on sample time
-            int sampleRate = Integer.parseInt(mainPrefs.getString(Main.SAMPLE_RATE, "0"));
-            switch (sampleRate) {
-            case 1: // rarely
-                interval = Intervals.ECO * 3;
-                break;
-            case 0: // normal
-                interval = Intervals.NORMAL * 3;
-                break;
-            case -1: // often
-                interval = Intervals.OFTEN * 3;
-                break;
-            case -2: // real time
-                interval = Intervals.OFTEN;
-                break;
-            default:
-                Log.e(TAG, "Unexpected sample rate value: " + sampleRate);
-                return;
-            }
-            break;
-        default:
-            Log.e(TAG, "Unexpected sync rate value: " + syncRate);
-            return;
-        }
-        am.cancel(operation);
-        am.setInexactRepeating(AlarmManager.RTC_WAKEUP, System.currentTimeMillis(), interval,
-                operation);
+        SyncPolicy.getInstance(context).scheduleTransmissions();
     }
 }
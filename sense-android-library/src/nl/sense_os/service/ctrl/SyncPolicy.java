@@ -0,0 +1,375 @@
+package nl.sense_os.service.ctrl;
+
+import nl.sense_os.service.DataTransmitter;
+import nl.sense_os.service.R;
+import nl.sense_os.service.ServiceStateHelper;
+import nl.sense_os.service.constants.SensePrefs;
+import nl.sense_os.service.constants.SensePrefs.Main;
+import nl.sense_os.service.constants.SensorData.SensorNames;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Decides when the buffered sensor data is sent to CommonSense. The base sync interval still
+ * comes from the {@link Main#SYNC_RATE} preference, but it is adjusted for the current conditions:
+ * <ul>
+ * <li>unmetered network (Wi-Fi) while charging: sync twice as often;</li>
+ * <li>low battery while not charging: sync three times less often;</li>
+ * <li>large backlog or old unsent data: sync twice as often to catch up, unless the battery is
+ * low.</li>
+ * </ul>
+ * Additionally, bulk data from the burst-mode motion sensors is deferred while the phone is on a
+ * metered network and not charging, and data from critical sensors (e.g. the fall detector) is
+ * flushed right away. When a good network becomes available, {@link #onConnectivityChanged()}
+ * flushes the backlog opportunistically.
+ */
+public class SyncPolicy {
+
+    private static class Intervals {
+        static final long ECO = AlarmManager.INTERVAL_HALF_HOUR;
+        static final long NORMAL = 1000 * 60 * 5;
+        static final long OFTEN = 1000 * 60 * 1;
+    }
+
+    private static final String TAG = "SyncPolicy";
+
+    /**
+     * Names of sensors that produce large amounts of data that can wait for a cheap network
+     */
+    private static final String[] BULK_SENSORS = new String[] { SensorNames.ACCELEROMETER_BURST,
+            SensorNames.GYRO_BURST, SensorNames.LINEAR_BURST };
+
+    /**
+     * Names of sensors whose data should be sent as soon as possible
+     */
+    private static final String[] CRITICAL_SENSORS = new String[] { SensorNames.FALL_DETECTOR,
+            SensorNames.LOCATION_FEEDBACK };
+
+    /**
+     * Upload priority of data from critical sensors
+     */
+    public static final int PRIORITY_CRITICAL = 0;
+
+    /**
+     * Upload priority of data from regular sensors
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * Upload priority of data from bulk sensors
+     */
+    public static final int PRIORITY_BULK = 2;
+
+    private static final int LOW_BATTERY = 15;
+    private static final int LARGE_BACKLOG = 5000;
+
+    /**
+     * Maximum time that bulk data is deferred
+     */
+    private static final long MAX_BULK_DEFERRAL = 1000l * 60 * 60 * 12;
+
+    /**
+     * Minimum time between two flushes that are not triggered by the periodic alarm
+     */
+    private static final long MIN_FLUSH_GAP = 1000l * 10;
+
+    private static SyncPolicy instance;
+
+    /**
+     * @param context
+     *            Context for lazy creating the policy
+     * @return Singleton instance of the SyncPolicy
+     */
+    public static synchronized SyncPolicy getInstance(Context context) {
+        if (null == instance) {
+            instance = new SyncPolicy(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for (String candidate : names) {
+            if (candidate.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param sensorName
+     *            Name of the sensor
+     * @return true if the sensor produces bulk data that may be deferred
+     */
+    public static boolean isBulk(String sensorName) {
+        return contains(BULK_SENSORS, sensorName);
+    }
+
+    /**
+     * @param sensorName
+     *            Name of the sensor
+     * @return true if the sensor data should be sent immediately
+     */
+    public static boolean isCritical(String sensorName) {
+        return contains(CRITICAL_SENSORS, sensorName);
+    }
+
+    /**
+     * @param sensorName
+     *            Name of the sensor
+     * @return The upload priority of the sensor: {@link #PRIORITY_CRITICAL},
+     *         {@link #PRIORITY_NORMAL} or {@link #PRIORITY_BULK}
+     */
+    public static int getPriority(String sensorName) {
+        if (isCritical(sensorName)) {
+            return PRIORITY_CRITICAL;
+        } else if (isBulk(sensorName)) {
+            return PRIORITY_BULK;
+        }
+        return PRIORITY_NORMAL;
+    }
+
+    private final Context context;
+    private long scheduledInterval;
+    private long lastFlush;
+    private int backlog;
+    private long oldestUnsent;
+
+    private SyncPolicy(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return Battery level in percent, and -1 if unknown
+     */
+    private int getBatteryLevel() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(
+                Intent.ACTION_BATTERY_CHANGED));
+        if (null == battery) {
+            return -1;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        return level < 0 || scale <= 0 ? -1 : level * 100 / scale;
+    }
+
+    /**
+     * @return The base sync interval from the sync rate preference, or -1 if it is invalid
+     */
+    private long getBaseInterval() {
+        SharedPreferences mainPrefs = context.getSharedPreferences(SensePrefs.MAIN_PREFS,
+                Context.MODE_PRIVATE);
+        int syncRate = Integer.parseInt(mainPrefs.getString(Main.SYNC_RATE, "0"));
+        switch (syncRate) {
+        case 1: // eco-mode
+            return Intervals.ECO;
+        case 0: // 5 minute
+            return Intervals.NORMAL;
+        case -1: // 60 seconds
+            return Intervals.OFTEN;
+        case -2: // real-time: schedule transmission based on sample time
+            int sampleRate = Integer.parseInt(mainPrefs.getString(Main.SAMPLE_RATE, "0"));
+            switch (sampleRate) {
+            case 1: // rarely
+                return Intervals.ECO * 3;
+            case 0: // normal
+                return Intervals.NORMAL * 3;
+            case -1: // often
+                return Intervals.OFTEN * 3;
+            case -2: // real time
+                return Intervals.OFTEN;
+            default:
+                Log.w(TAG, "Unexpected sample rate value: " + sampleRate);
+                return -1;
+            }
+        default:
+            Log.w(TAG, "Unexpected sync rate value: " + syncRate);
+            return -1;
+        }
+    }
+
+    /**
+     * @return The sync interval for the current conditions, or -1 if the sync rate is invalid
+     */
+    public synchronized long getSyncInterval() {
+        long base = getBaseInterval();
+        if (base < 0) {
+            return base;
+        }
+
+        boolean charging = isCharging();
+        int battery = getBatteryLevel();
+        boolean lowBattery = !charging && battery >= 0 && battery < LOW_BATTERY;
+        boolean behind = backlog > LARGE_BACKLOG
+                || (oldestUnsent > 0 && System.currentTimeMillis() - oldestUnsent > 2 * base);
+
+        long interval = base;
+        if (lowBattery) {
+            interval = base * 3;
+        } else if (behind || (charging && !isMetered())) {
+            interval = base / 2;
+        }
+        return Math.max(Intervals.OFTEN / 2, interval);
+    }
+
+    private boolean isCharging() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(
+                Intent.ACTION_BATTERY_CHANGED));
+        return null != battery && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    /**
+     * @return true if the active network costs money per byte, or if there is no network
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private boolean isMetered() {
+        ConnectivityManager cm = (ConnectivityManager) context
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        if (null == info || !info.isConnected()) {
+            return true;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return cm.isActiveNetworkMetered();
+        }
+        return info.getType() != ConnectivityManager.TYPE_WIFI
+                && info.getType() != ConnectivityManager.TYPE_ETHERNET;
+    }
+
+    /**
+     * Registers the size of the backlog, as found by the buffered data transmission.
+     * 
+     * @param unsent
+     *            Number of unsent data points
+     * @param oldest
+     *            Time stamp of the oldest unsent data point, or 0 if there are no unsent points
+     */
+    public synchronized void onBacklog(int unsent, long oldest) {
+        backlog = unsent;
+        oldestUnsent = oldest;
+    }
+
+    /**
+     * Called when the connectivity changes. Flushes the backlog if a cheap network (or power)
+     * became available, and updates the sync interval.
+     */
+    public void onConnectivityChanged() {
+        synchronized (this) {
+            if (!isMetered() || (isCharging() && backlog > 0)) {
+                Log.v(TAG, "Good network available, flush buffered data");
+                flush();
+            }
+        }
+        reschedule();
+    }
+
+    /**
+     * Called for every new data point. Flushes the buffer right away for critical sensors.
+     * 
+     * @param sensorName
+     *            Name of the sensor that produced the data point
+     */
+    public synchronized void onNewData(String sensorName) {
+        backlog++;
+        if (isCritical(sensorName)) {
+            flush();
+        }
+    }
+
+    /**
+     * Starts the transmission of buffered data, unless that was already done very recently.
+     */
+    private void flush() {
+        long now = SystemClock.elapsedRealtime();
+        if (lastFlush > 0 && now - lastFlush < MIN_FLUSH_GAP) {
+            return;
+        }
+        lastFlush = now;
+        context.startService(new Intent(context.getString(R.string.action_sense_send_data)));
+    }
+
+    /**
+     * Updates the interval of the periodic transmission alarm if the conditions have changed. Does
+     * nothing if the transmissions were not scheduled, or the service is not logged in.
+     */
+    public void reschedule() {
+        if (!ServiceStateHelper.getInstance(context).isLoggedIn()) {
+            return;
+        }
+        long interval = getSyncInterval();
+        synchronized (this) {
+            if (interval < 0 || scheduledInterval == 0 || interval == scheduledInterval) {
+                return;
+            }
+        }
+        setAlarm(interval, System.currentTimeMillis() + interval);
+    }
+
+    /**
+     * Starts periodic transmission of the buffered sensor data. The first transmission is started
+     * right away.
+     */
+    public void scheduleTransmissions() {
+        long interval = getSyncInterval();
+        if (interval < 0) {
+            return;
+        }
+        setAlarm(interval, System.currentTimeMillis());
+    }
+
+    private void setAlarm(long interval, long start) {
+        synchronized (this) {
+            scheduledInterval = interval;
+        }
+        Log.v(TAG, "Schedule transmissions every " + interval / 1000 + " s");
+
+        Intent intent = new Intent(context.getString(R.string.action_sense_data_transmit_alarm));
+        PendingIntent operation = PendingIntent.getBroadcast(context, DataTransmitter.REQ_CODE,
+                intent, 0);
+        AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        am.cancel(operation);
+        am.setInexactRepeating(AlarmManager.RTC_WAKEUP, start, interval, operation);
+    }
+
+    /**
+     * Checks if bulk data should be left in the buffer for now. Bulk data is never deferred for
+     * longer than {@link #MAX_BULK_DEFERRAL}, counted from the time stamp of the oldest unsent
+     * bulk data point in the local storage, so the deferral also ends for a backlog that was left
+     * from before a restart.
+     * 
+     * @param oldestBulk
+     *            Time stamp of the oldest unsent bulk data point, or 0 if there is no bulk data
+     * @return true if bulk data should not be sent now
+     */
+    public boolean shouldDeferBulk(long oldestBulk) {
+        boolean tooOld = oldestBulk > 0
+                && System.currentTimeMillis() - oldestBulk > MAX_BULK_DEFERRAL;
+        return !tooOld && isMetered() && !isCharging();
+    }
+
+    /**
+     * @return Names of the bulk sensors, for use in queries
+     */
+    public static String[] getBulkSensors() {
+        return BULK_SENSORS.clone();
+    }
+
+    /**
+     * @return Names of the critical sensors, for use in queries
+     */
+    public static String[] getCriticalSensors() {
+        return CRITICAL_SENSORS.clone();
+    }
+}
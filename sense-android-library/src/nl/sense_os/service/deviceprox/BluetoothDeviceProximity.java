@@ -13,6 +13,7 @@ import nl.sense_os.service.constants.SensorData.DataPoint;
 import nl.sense_os.service.constants.SensorData.SensorNames;
 import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.shared.BaseDataProducer;
+import nl.sense_os.service.shared.ScalarDataPoint;
 import nl.sense_os.service.shared.SensorDataPoint;
 
 import org.json.JSONException;
@@ -213,7 +214,7 @@ public class BluetoothDeviceProximity extends BaseDataProducer{
 			int nrBluetoothNeighbours = scanThread.deviceArray.size();
 
 			this.notifySubscribers();
-			SensorDataPoint dataPoint = new SensorDataPoint(nrBluetoothNeighbours);
+			SensorDataPoint dataPoint = new ScalarDataPoint(nrBluetoothNeighbours);
 			dataPoint.sensorName = SensorNames.BLUETOOTH_NEIGHBOURS_COUNT;
 			dataPoint.sensorDescription = SensorNames.BLUETOOTH_NEIGHBOURS_COUNT;
 			dataPoint.timeStamp = SNTP.getInstance().getTime();        
@@ -124,6 +124,9 @@ public class NewOBD2DeviceConnector extends BaseDataProducer implements Runnable
 		private ArrayList<String> verifiedsensors = new ArrayList<String>();
 		private EmptyRegistrator registrator = new EmptyRegistrator();
 
+		// time at which the last valid response arrived, the values in it were measured then
+		private long responseTime;
+
 		// OBD timer variables
 		private final int timeout = 20000;
 		private final int sleeptime = 500;
@@ -471,6 +474,7 @@ public class NewOBD2DeviceConnector extends BaseDataProducer implements Runnable
 			while (System.currentTimeMillis() < deadline) {
 				readUntilPrompt();
 				if (databuffer.contains(validresponse)) {
+					responseTime = SNTP.getInstance().getTime();
 					databuffer = databuffer.substring(databuffer.indexOf(validresponse));
 					return true;
 				}
@@ -634,6 +638,9 @@ public class NewOBD2DeviceConnector extends BaseDataProducer implements Runnable
 				}
 			}
 
+			// the data point and the intent get the time of the response, registering the sensor
+			// above can take a while
+			long timestamp = responseTime;
 			SensorDataPoint dataPoint = new SensorDataPoint(0);
 			if (dataType.equals(SenseDataTypes.BOOL)) {
 				dataPoint =  new  SensorDataPoint((Boolean) value);
@@ -653,7 +660,7 @@ public class NewOBD2DeviceConnector extends BaseDataProducer implements Runnable
 				notifySubscribers();
 				dataPoint.sensorName = sensorName;
 				dataPoint.sensorDescription = sensorDescription;
-				dataPoint.timeStamp = SNTP.getInstance().getTime();        
+				dataPoint.timeStamp = timestamp;
 				sendToSubscribers(dataPoint);
 			}
 			// build the intent and send it to commonsense
@@ -675,7 +682,7 @@ public class NewOBD2DeviceConnector extends BaseDataProducer implements Runnable
 			} else {
 				Log.w(TAG, "Error sending data point: unexpected data type! '" + dataType + "'");
 			}
-			intent.putExtra(DataPoint.TIMESTAMP, SNTP.getInstance().getTime());
+			intent.putExtra(DataPoint.TIMESTAMP, timestamp);
 
 			boolean itemsent = (context.startService(intent) != null);
 			if (!itemsent)
@@ -5,6 +5,7 @@ package nl.sense_os.service.external_sensors;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Calendar;
 import java.util.Set;
 import java.util.UUID;
 
@@ -161,6 +162,11 @@ public class ZephyrBioHarness extends BaseDataProducer {
 	 * Process message class
 	 */
 	private class ProcessZephyrBioHarnessMessage {
+		/**
+		 * Maximum difference between the packet time stamp and the time of arrival. The time
+		 * stamp of a packet is not used if the clock of the BioHarness was never set.
+		 */
+		private static final long MAX_CLOCK_OFFSET = 60000;
 		private String deviceType;
 		private String deviceUuid;
 		private SharedPreferences prefs = null;
@@ -171,9 +177,19 @@ public class ZephyrBioHarness extends BaseDataProducer {
 			prefs = context.getSharedPreferences(SensePrefs.MAIN_PREFS, Context.MODE_PRIVATE);
 		}
 
-		public boolean processMessage(byte[] buffer) throws Exception {
+		/**
+		 * @param buffer
+		 *            The packet
+		 * @param receiveTime
+		 *            Time at which the packet was read from the Bluetooth socket
+		 * @return true if the packet contained general data
+		 */
+		public boolean processMessage(byte[] buffer, long receiveTime) throws Exception {
 			// received general data
 			if (buffer[0] == 0x02 && buffer[1] == 0x20 && buffer[2] == 53) {
+				// all values of the packet were measured at the time in the packet
+				long timestamp = getPacketTime(buffer, receiveTime);
+
 				// check that payload is not completely empty
 				boolean hasPayload = false;
 				for (int i = 12; i < 58; i++) {
@@ -207,7 +223,7 @@ public class ZephyrBioHarness extends BaseDataProducer {
 					json.put("y-axis", y);
 					json.put("z-axis", z);
 					sendDataPoint(SensorNames.ACCELEROMETER, "BioHarness " + deviceType,
-							json.toString(), SenseDataTypes.JSON);
+							json.toString(), SenseDataTypes.JSON, timestamp);
 				}
 
 				// send heart rate
@@ -218,7 +234,7 @@ public class ZephyrBioHarness extends BaseDataProducer {
 
 					// Log.v(TAG, "Heart rate:" + heartRate);
 					sendDataPoint(SensorNames.HEART_RATE, "BioHarness " + deviceType,
-							heartRate.intValue(), SenseDataTypes.INT);
+							heartRate.intValue(), SenseDataTypes.INT, timestamp);
 				}
 
 				// send respiration rate
@@ -231,7 +247,7 @@ public class ZephyrBioHarness extends BaseDataProducer {
 
 					// Log.v(TAG, "Respiration rate:" + respirationRateF);
 					sendDataPoint(SensorNames.RESPIRATION, "BioHarness " + deviceType,
-							respirationRateF, SenseDataTypes.FLOAT);
+							respirationRateF, SenseDataTypes.FLOAT, timestamp);
 				}
 
 				// send skin temperature
@@ -244,7 +260,7 @@ public class ZephyrBioHarness extends BaseDataProducer {
 
 					// Log.v(TAG, "Skin temperature:" + skinTemperatureF);
 					sendDataPoint(SensorNames.TEMPERATURE, "BioHarness " + deviceType,
-							skinTemperatureF, SenseDataTypes.FLOAT);
+							skinTemperatureF, SenseDataTypes.FLOAT, timestamp);
 				}
 
 				// send battery level
@@ -252,7 +268,7 @@ public class ZephyrBioHarness extends BaseDataProducer {
 					int batteryLevel = buffer[54];
 					// Log.v(TAG, "Battery level:" + batteryLevel);
 					sendDataPoint(SensorNames.BATTERY_LEVEL, "BioHarness " + deviceType,
-							batteryLevel, SenseDataTypes.INT);
+							batteryLevel, SenseDataTypes.INT, timestamp);
 				}
 
 				// send worn status
@@ -261,7 +277,7 @@ public class ZephyrBioHarness extends BaseDataProducer {
 
 					// Log.v(TAG, "Worn status:" + wornStatusB);
 					sendDataPoint(SensorNames.WORN_STATUS, "BioHarness " + deviceType, wornStatusB,
-							SenseDataTypes.BOOL);
+							SenseDataTypes.BOOL, timestamp);
 				}
 
 				return true;
@@ -271,7 +287,36 @@ public class ZephyrBioHarness extends BaseDataProducer {
 			}
 		}
 
-		private void sendDataPoint(String sensorName, String description, Object value, String dataType) 
+		/**
+		 * Gets the time at which the values of a general data packet were measured. The packet
+		 * starts with the date and the milliseconds since midnight of the BioHarness clock, which
+		 * runs in local time.
+		 * 
+		 * @param buffer
+		 *            The packet
+		 * @param receiveTime
+		 *            Time at which the packet was read, used if the packet time is not plausible
+		 * @return The time stamp for the values in the packet
+		 */
+		private long getPacketTime(byte[] buffer, long receiveTime) {
+			int year = (buffer[3] & 0xFF) | (buffer[4] & 0xFF) << 8;
+			int month = buffer[5] & 0xFF;
+			int day = buffer[6] & 0xFF;
+			int msOfDay = (buffer[7] & 0xFF) | (buffer[8] & 0xFF) << 8 | (buffer[9] & 0xFF) << 16
+					| (buffer[10] & 0xFF) << 24;
+			Calendar packetTime = Calendar.getInstance();
+			packetTime.clear();
+			packetTime.set(year, month - 1, day);
+			packetTime.add(Calendar.MILLISECOND, msOfDay);
+			long timestamp = packetTime.getTimeInMillis();
+			if (Math.abs(timestamp - receiveTime) > MAX_CLOCK_OFFSET) {
+				return receiveTime;
+			}
+			return timestamp;
+		}
+
+		private void sendDataPoint(String sensorName, String description, Object value,
+				String dataType, long timestamp) 
 		{
 			try
 			{
@@ -294,7 +339,7 @@ public class ZephyrBioHarness extends BaseDataProducer {
 					notifySubscribers();
 					dataPoint.sensorName = sensorName;
 					dataPoint.sensorDescription = description;
-					dataPoint.timeStamp = SNTP.getInstance().getTime();        
+					dataPoint.timeStamp = timestamp;        
 					sendToSubscribers(dataPoint);
 				}
 			}catch(Exception e)
@@ -319,7 +364,7 @@ public class ZephyrBioHarness extends BaseDataProducer {
 			} else {
 				Log.w(TAG, "Error sending data point: unexpected data type! '" + dataType + "'");
 			}
-			intent.putExtra(DataPoint.TIMESTAMP, SNTP.getInstance().getTime());
+			intent.putExtra(DataPoint.TIMESTAMP, timestamp);
 			context.startService(intent);
 		}
 	}
@@ -394,7 +439,9 @@ public class ZephyrBioHarness extends BaseDataProducer {
 							}
 							bytes = mmInStream.read(buffer);
 							if (bytes > 0) {
-								readMessage = processZBHMessage.processMessage(buffer);
+								long receiveTime = SNTP.getInstance().getTime();
+								readMessage = processZBHMessage.processMessage(buffer,
+										receiveTime);
 							}
 							buffer = null;
 						}
@@ -278,7 +278,17 @@ public class ZephyrHxM extends BaseDataProducer {
             return new byte[0];
         }
 
-        public boolean processMessage(byte[] inputBuffer, boolean useBuffer) {
+        /**
+         * @param inputBuffer
+         *            The bytes that were read
+         * @param useBuffer
+         *            true to append the bytes to the bytes of earlier reads
+         * @param receiveTime
+         *            Time at which the bytes were read from the Bluetooth socket. The HxM packets
+         *            do not have a time stamp of their own.
+         * @return true if a complete general data packet was processed
+         */
+        public boolean processMessage(byte[] inputBuffer, boolean useBuffer, long receiveTime) {
             try {
                 byte[] buffer = getMessage(inputBuffer, useBuffer);
 
@@ -287,6 +297,9 @@ public class ZephyrHxM extends BaseDataProducer {
                 }
                 // received general data
                 if (buffer[0] == 0x02 && buffer[1] == 0x26 && buffer[2] == 55) {
+                    // all values of the packet were measured when it was sent
+                    long timestamp = receiveTime;
+
                     // found start of message
 
                     // send heart rate
@@ -298,7 +311,7 @@ public class ZephyrHxM extends BaseDataProducer {
 
                         // Log.v(TAG, "Heart rate:" + heartRate);
                         sendDataPoint(SensorNames.HEART_RATE, "HxM " + deviceType, heartRate,
-                                SenseDataTypes.INT);
+                                SenseDataTypes.INT, timestamp);
 
                     }
                     // send speed
@@ -308,7 +321,7 @@ public class ZephyrHxM extends BaseDataProducer {
 
                         // Log.v(TAG, "Speed:" + speedF);
                         sendDataPoint(SensorNames.SPEED, "HxM " + deviceType, speedF,
-                                SenseDataTypes.FLOAT);
+                                SenseDataTypes.FLOAT, timestamp);
                     }
                     // send distance
                     if (prefs.getBoolean(External.ZephyrHxM.DISTANCE, true)) {
@@ -317,7 +330,7 @@ public class ZephyrHxM extends BaseDataProducer {
 
                         // Log.v(TAG, "Distance:" + distanceF);
                         sendDataPoint(SensorNames.DISTANCE, "HxM " + deviceType, distanceF,
-                                SenseDataTypes.FLOAT);
+                                SenseDataTypes.FLOAT, timestamp);
                     }
                     // send battery charge
                     if (prefs.getBoolean(External.ZephyrHxM.BATTERY, true)) {
@@ -325,7 +338,7 @@ public class ZephyrHxM extends BaseDataProducer {
 
                         // Log.v(TAG, "Battery charge:" + battery.intValue());
                         sendDataPoint(SensorNames.BATTERY_CHARGE, "HxM " + deviceType, battery,
-                                SenseDataTypes.INT);
+                                SenseDataTypes.INT, timestamp);
 
                         if (notifyOnEmptyBattery && battery < 5 && battery != 0
                                 && System.currentTimeMillis() - lastEmptyBatteryNotify > 300000) {
@@ -347,7 +360,7 @@ public class ZephyrHxM extends BaseDataProducer {
 
                         // Log.v(TAG, "Battery charge:" + battery.intValue());
                         sendDataPoint(SensorNames.STRIDES, "HxM " + deviceType, strides,
-                                SenseDataTypes.INT);
+                                SenseDataTypes.INT, timestamp);
                     }
                     return true;
 
@@ -371,7 +384,7 @@ public class ZephyrHxM extends BaseDataProducer {
 
                 }
                 if (bufferBuffer.size() >= msgSize) {
-                    return processMessage(new byte[0], true);
+                    return processMessage(new byte[0], true, receiveTime);
                 }
 
             } catch (Exception e) {
@@ -382,7 +395,7 @@ public class ZephyrHxM extends BaseDataProducer {
         }
 
         private void sendDataPoint(String sensorName, String description, Object value,
-                String dataType) {
+                String dataType, long timestamp) {
             try {
                 SensorDataPoint dataPoint = new SensorDataPoint(0);
                 if (dataType.equals(SenseDataTypes.BOOL)) {
@@ -402,7 +415,7 @@ public class ZephyrHxM extends BaseDataProducer {
                     notifySubscribers();
                     dataPoint.sensorName = sensorName;
                     dataPoint.sensorDescription = description;
-                    dataPoint.timeStamp = SNTP.getInstance().getTime();
+                    dataPoint.timeStamp = timestamp;
                     sendToSubscribers(dataPoint);
                 }
             } catch (Exception e) {
@@ -427,7 +440,7 @@ public class ZephyrHxM extends BaseDataProducer {
             } else {
                 Log.w(TAG, "Error sending data point: unexpected data type! '" + dataType + "'");
             }
-            intent.putExtra(DataPoint.TIMESTAMP, SNTP.getInstance().getTime());
+            intent.putExtra(DataPoint.TIMESTAMP, timestamp);
             context.startService(intent);
         }
     }
@@ -482,6 +495,7 @@ public class ZephyrHxM extends BaseDataProducer {
                         int bytes; // bytes returned from read()
                         bytes = mmInStream.read(buffer);
                         if (bytes > 0) {
+                            long receiveTime = SNTP.getInstance().getTime();
                             // Log.d(TAG, "Read " + bytes + " bytes from Bluetooth input stream");
 
                             // copy the buffer
@@ -493,7 +507,8 @@ public class ZephyrHxM extends BaseDataProducer {
                                 newBuffer[i] = buffer[i];
                             }
 
-                            done = processZHxMMessage.processMessage(newBuffer, !firstRun);
+                            done = processZHxMMessage.processMessage(newBuffer, !firstRun,
+                                    receiveTime);
                             firstRun = false;
                         } else {
                             // no bytes read from Bluetooth input stream
@@ -14,6 +14,7 @@ import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.shared.BaseSensor;
 import nl.sense_os.service.shared.PeriodicPollAlarmReceiver;
 import nl.sense_os.service.shared.PeriodicPollingSensor;
+import nl.sense_os.service.shared.ScalarDataPoint;
 import nl.sense_os.service.shared.SensorDataPoint;
 
 import org.json.JSONException;
@@ -157,7 +158,7 @@ public class LocationSensor extends BaseSensor implements PeriodicPollingSensor
             double distance = distanceEstimator.getTraveledDistance();
 
             notifySubscribers();
-            SensorDataPoint dataPoint = new SensorDataPoint(distance);
+            SensorDataPoint dataPoint = new ScalarDataPoint(distance);
             dataPoint.sensorName = SensorNames.TRAVELED_DISTANCE_1H;
             dataPoint.sensorDescription = SensorNames.TRAVELED_DISTANCE_1H;
             dataPoint.timeStamp = SNTP.getInstance().getTime();
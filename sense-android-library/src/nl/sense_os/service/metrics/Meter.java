@@ -0,0 +1,51 @@
+package nl.sense_os.service.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Counts events, e.g. the data points that are sent by a producer, and reports their rate.
+ */
+public class Meter {
+
+    private final AtomicLong count = new AtomicLong();
+    private volatile long startTime = System.nanoTime();
+
+    /**
+     * @return The number of events since the last reset
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The mean number of events per second since the last reset
+     */
+    public double getRate() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? count.get() / seconds : 0;
+    }
+
+    /**
+     * Counts one event.
+     */
+    public void mark() {
+        if (PipelineMetrics.isEnabled()) {
+            count.incrementAndGet();
+        }
+    }
+
+    void reset() {
+        count.set(0);
+        startTime = System.nanoTime();
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("count", getCount());
+        json.put("rate", getRate());
+        return json;
+    }
+}
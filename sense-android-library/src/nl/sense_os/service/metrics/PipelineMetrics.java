@@ -0,0 +1,355 @@
+package nl.sense_os.service.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nl.sense_os.service.commonsense.senddata.BatchSizeController;
+import nl.sense_os.service.commonsense.senddata.BatchSizeController.NetworkStats;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * <p>
+ * Registry of the metrics of the sensor data pipeline, from the data producers to the
+ * transmission of the data to CommonSense:
+ * <ul>
+ * <li>a {@link Meter} with the number and rate of data points of every producer,</li>
+ * <li>a {@link Timer} with the callback latency of every data processor, and a {@link QueueStats}
+ * with the depth and drops of its delivery queues,</li>
+ * <li>a Timer for the stages of the pipeline: MsgHandler ingest, local storage insert and flush,
+ * and the transmissions.</li>
+ * </ul>
+ * The snapshot also contains the upload statistics of the {@link BatchSizeController} for every
+ * type of network, so the chosen batch sizes can be compared with the transmission timers.
+ * The metrics of the pipeline stages are created on first use and live as long as the process.
+ * The metrics of producers and processors live as long as the component takes part in the
+ * pipeline: a producer has a meter while it has subscribers, and a processor has a timer and queue
+ * stats while it is subscribed to a producer. Components keep a reference to their metrics, so
+ * recording is only a few atomic operations.
+ * </p>
+ * <p>
+ * A snapshot of all metrics is available via
+ * {@link nl.sense_os.service.SenseService#getPipelineMetrics()}, or can be written to a file by
+ * starting the SenseService with {@link nl.sense_os.service.SenseService#ACTION_DUMP_METRICS}.
+ * </p>
+ */
+public class PipelineMetrics {
+
+    /**
+     * Timer for handling a new data point in the MsgHandler
+     */
+    public static final String INGEST = "msghandler.ingest";
+    /**
+     * Queue statistics of the buffer that puts new data points in time stamp order before storage
+     */
+    public static final String REORDER = "msghandler.reorder";
+    /**
+     * Meter for data points that arrived too late to be put in time stamp order, and were stored
+     * out of order
+     */
+    public static final String LATE = "msghandler.late";
+    /**
+     * Timer for inserting a data point in the local storage
+     */
+    public static final String STORAGE_INSERT = "storage.insert";
+    /**
+     * Timer for flushing the in-memory storage to the persistent database
+     */
+    public static final String STORAGE_FLUSH = "storage.flush";
+    /**
+     * Timer for transmitting the buffered data
+     */
+    public static final String TRANSMIT_BUFFER = "transmit.buffer";
+    /**
+     * Timer for transmitting the data of a single sensor
+     */
+    public static final String TRANSMIT_DATA = "transmit.data";
+    /**
+     * Timer for uploading a file
+     */
+    public static final String TRANSMIT_FILE = "transmit.file";
+    /**
+     * Timer for transmitting a real-time batch
+     */
+    public static final String TRANSMIT_REALTIME = "transmit.realtime";
+
+    /**
+     * Name of the file with the metrics snapshot in the app's files directory
+     */
+    public static final String DUMP_FILE_NAME = "pipeline_metrics.json";
+
+    private static final String TAG = "PipelineMetrics";
+    private static final ConcurrentMap<String, Meter> meters = new ConcurrentHashMap<String, Meter>();
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private static final ConcurrentMap<String, QueueStats> queues = new ConcurrentHashMap<String, QueueStats>();
+    /** Number of subscriptions that use each processor timer */
+    private static final Map<String, Integer> timerUsers = new HashMap<String, Integer>();
+    /** Metric names of the producers and processors */
+    private static final Map<Object, String> names = new WeakHashMap<Object, String>();
+    private static int nextId;
+    private static volatile boolean enabled = true;
+
+    /**
+     * Gets the timer of a processor, or creates it. Every call must be matched by a call to
+     * {@link #releaseTimer(String)}, so the timer is removed when it is no longer used.
+     * 
+     * @param name
+     *            Name of the timer
+     * @return The timer with the given name
+     */
+    public static Timer acquireTimer(String name) {
+        synchronized (timerUsers) {
+            Integer users = timerUsers.get(name);
+            timerUsers.put(name, null == users ? 1 : users + 1);
+            return getTimer(name);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the metrics to a file.
+     * 
+     * @param context
+     *            Context for the default file location
+     * @param file
+     *            The file to write, or null for {@link #DUMP_FILE_NAME} in the app's files
+     *            directory
+     * @return The file that was written
+     * @throws IOException
+     * @throws JSONException
+     */
+    public static File dump(Context context, File file) throws IOException, JSONException {
+        if (null == file) {
+            file = new File(context.getFilesDir(), DUMP_FILE_NAME);
+        }
+        String snapshot = getSnapshot(context).toString(2);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(snapshot);
+        } finally {
+            if (null != writer) {
+                writer.close();
+            }
+        }
+        Log.i(TAG, "Wrote pipeline metrics to " + file.getAbsolutePath());
+        return file;
+    }
+
+    /**
+     * @param name
+     *            Name of the meter
+     * @return The meter with the given name
+     */
+    public static Meter getMeter(String name) {
+        Meter meter = meters.get(name);
+        if (null == meter) {
+            Meter created = new Meter();
+            meter = meters.putIfAbsent(name, created);
+            if (null == meter) {
+                meter = created;
+            }
+        }
+        return meter;
+    }
+
+    /**
+     * @param name
+     *            Name of the queue stats, usually the processor name
+     * @return The queue stats with the given name
+     */
+    public static QueueStats getQueueStats(String name) {
+        QueueStats stats = queues.get(name);
+        if (null == stats) {
+            QueueStats created = new QueueStats();
+            stats = queues.putIfAbsent(name, created);
+            if (null == stats) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return JSON object with all meters, timers and queue stats, sorted by name
+     * @throws JSONException
+     */
+    public static JSONObject getSnapshot() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("enabled", enabled);
+
+        JSONObject meterJson = new JSONObject();
+        for (Map.Entry<String, Meter> entry : new TreeMap<String, Meter>(meters).entrySet()) {
+            meterJson.put(entry.getKey(), entry.getValue().toJson());
+        }
+        json.put("meters", meterJson);
+
+        JSONObject timerJson = new JSONObject();
+        for (Map.Entry<String, Timer> entry : new TreeMap<String, Timer>(timers).entrySet()) {
+            timerJson.put(entry.getKey(), entry.getValue().toJson());
+        }
+        json.put("timers", timerJson);
+
+        JSONObject queueJson = new JSONObject();
+        for (Map.Entry<String, QueueStats> entry : new TreeMap<String, QueueStats>(queues)
+                .entrySet()) {
+            queueJson.put(entry.getKey(), entry.getValue().toJson());
+        }
+        json.put("queues", queueJson);
+        return json;
+    }
+
+    /**
+     * @param context
+     *            Context for the upload statistics
+     * @return JSON object with all meters, timers and queue stats, and the upload statistics of
+     *         every type of network, sorted by name
+     * @throws JSONException
+     * @see BatchSizeController#getMetrics()
+     */
+    public static JSONObject getSnapshot(Context context) throws JSONException {
+        JSONObject json = getSnapshot();
+
+        JSONObject batchJson = new JSONObject();
+        Map<String, NetworkStats> batchStats = BatchSizeController.getInstance(context)
+                .getMetrics();
+        for (Map.Entry<String, NetworkStats> entry : new TreeMap<String, NetworkStats>(
+                batchStats).entrySet()) {
+            NetworkStats stats = entry.getValue();
+            JSONObject statsJson = new JSONObject();
+            statsJson.put("batch_size", stats.getBatchSize());
+            statsJson.put("bytes_per_point", stats.getBytesPerPoint());
+            statsJson.put("throughput", stats.getThroughput());
+            statsJson.put("latency", stats.getLatency());
+            statsJson.put("successes", stats.getSuccesses());
+            statsJson.put("failures", stats.getFailures());
+            batchJson.put(entry.getKey(), statsJson);
+        }
+        json.put("batch_sizes", batchJson);
+        return json;
+    }
+
+    /**
+     * @param name
+     *            Name of the timer
+     * @return The timer with the given name
+     */
+    public static Timer getTimer(String name) {
+        Timer timer = timers.get(name);
+        if (null == timer) {
+            Timer created = new Timer();
+            timer = timers.putIfAbsent(name, created);
+            if (null == timer) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * @return true if metrics are recorded
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param component
+     *            A data producer or processor
+     * @return Name for the metrics of the component: its class and a number that is unique for
+     *         the instance, so that two instances of the same class do not share their metrics
+     */
+    public static String nameOf(Object component) {
+        synchronized (names) {
+            String name = names.get(component);
+            if (null == name) {
+                Class<?> cls = component.getClass();
+                name = cls.getSimpleName();
+                name = (name.length() > 0 ? name : cls.getName()) + "#" + ++nextId;
+                names.put(component, name);
+            }
+            return name;
+        }
+    }
+
+    /**
+     * Releases a timer that was obtained with {@link #acquireTimer(String)}. The timer is removed
+     * when the last user has released it.
+     * 
+     * @param name
+     *            Name of the timer
+     */
+    public static void releaseTimer(String name) {
+        synchronized (timerUsers) {
+            Integer users = timerUsers.get(name);
+            if (null == users) {
+                return;
+            } else if (users > 1) {
+                timerUsers.put(name, users - 1);
+            } else {
+                timerUsers.remove(name);
+                timers.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Removes a meter, e.g. when the producer that it belongs to is stopped.
+     * 
+     * @param name
+     *            Name of the meter
+     */
+    public static void removeMeter(String name) {
+        meters.remove(name);
+    }
+
+    /**
+     * Removes queue stats, e.g. when the queue that they belong to is closed.
+     * 
+     * @param name
+     *            Name of the queue stats
+     */
+    public static void removeQueueStats(String name) {
+        queues.remove(name);
+    }
+
+    /**
+     * Clears all recorded values. The current queue depths are kept.
+     */
+    public static void reset() {
+        for (Meter meter : meters.values()) {
+            meter.reset();
+        }
+        for (Timer timer : timers.values()) {
+            timer.reset();
+        }
+        for (QueueStats stats : queues.values()) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * Turns the recording of metrics on or off. Recording is on by default.
+     * 
+     * @param enable
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    private PipelineMetrics() {
+        // private constructor to prevent instantiation
+    }
+}
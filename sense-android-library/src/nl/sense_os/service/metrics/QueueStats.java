@@ -0,0 +1,76 @@
+package nl.sense_os.service.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Depth and drop count of the delivery queues of a data processor.
+ */
+public class QueueStats {
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @return The number of items that are currently queued
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * @return The number of data points that were dropped because a queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return The largest number of queued items since the last reset
+     */
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Called when an item is taken from a queue.
+     */
+    public void onDequeue() {
+        depth.decrementAndGet();
+    }
+
+    /**
+     * Called when a data point is dropped from a queue.
+     */
+    public void onDrop() {
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Called when an item is added to a queue.
+     */
+    public void onEnqueue() {
+        int current = depth.incrementAndGet();
+        int max = maxDepth.get();
+        while (current > max && !maxDepth.compareAndSet(max, current)) {
+            max = maxDepth.get();
+        }
+    }
+
+    void reset() {
+        maxDepth.set(depth.get());
+        dropped.set(0);
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("depth", getDepth());
+        json.put("max_depth", getMaxDepth());
+        json.put("dropped", getDropped());
+        return json;
+    }
+}
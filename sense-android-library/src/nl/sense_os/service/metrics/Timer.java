@@ -0,0 +1,55 @@
+package nl.sense_os.service.metrics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Measures the duration of a pipeline stage or a data processor callback.
+ * 
+ * <pre>
+ * long start = timer.start();
+ * try {
+ *     // work
+ * } finally {
+ *     timer.stop(start);
+ * }
+ * </pre>
+ */
+public class Timer {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /**
+     * @return The histogram with the measured durations
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    void reset() {
+        histogram.reset();
+    }
+
+    /**
+     * @return Start time for {@link #stop(long)}, or 0 if metrics are disabled
+     */
+    public long start() {
+        return PipelineMetrics.isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since the start.
+     * 
+     * @param start
+     *            The value that was returned by {@link #start()}
+     */
+    public void stop(long start) {
+        if (start != 0) {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    JSONObject toJson() throws JSONException {
+        return histogram.toJson();
+    }
+}
@@ -8,8 +8,6 @@ import nl.sense_os.service.constants.SensorData.SensorNames;
 import nl.sense_os.service.shared.BaseDataProducer;
 import nl.sense_os.service.shared.DataProcessor;
 import nl.sense_os.service.shared.SensorDataPoint;
-import nl.sense_os.service.shared.SensorDataPoint.DataType;
-import nl.sense_os.service.provider.SNTP;
 
 
 import org.json.JSONArray;
@@ -18,8 +16,6 @@ import org.json.JSONObject;
 import android.content.Context;
 import android.content.Intent;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.os.SystemClock;
 import android.util.Log;
 
 public class EpilepsySensor extends BaseDataProducer implements DataProcessor {
@@ -28,6 +24,7 @@ public class EpilepsySensor extends BaseDataProducer implements DataProcessor {
     private static final long LOCAL_BUFFER_TIME = 15 * 1000;
 
     private long[] lastLocalSampleTimes = new long[50];
+    private long[] windowStartTimes = new long[10];
     private long firstTimeSend = 0;
     private JSONArray[] dataBuffer = new JSONArray[10];
     private Context context;
@@ -45,37 +42,41 @@ public class EpilepsySensor extends BaseDataProducer implements DataProcessor {
     @Override
     public void onNewData(SensorDataPoint dataPoint) {
 
-    	if(dataPoint.getDataType() != DataType.SENSOREVENT)
+    	if (!(dataPoint instanceof MotionSample))
         	return;
         
-        SensorEvent event = dataPoint.getSensorEventValue(); 
+        MotionSample sample = (MotionSample) dataPoint;
         // check if this is useful data
-        Sensor sensor = event.sensor;
+        Sensor sensor = sample.getSensor();
         if (sensor.getType() != Sensor.TYPE_ACCELEROMETER) {
             return;
         }
         Log.v(TAG, "New data from " + MotionSensorUtils.getSensorName(sensor));
 
-        JSONObject json = MotionSensorUtils.createJsonValue(event);
+        JSONObject json = MotionSensorUtils.createJsonValue(sample);
 
         if (dataBuffer[sensor.getType()] == null) {
             dataBuffer[sensor.getType()] = new JSONArray();
         }
+        if (dataBuffer[sensor.getType()].length() == 0) {
+            // the window is stored with the time of its first measurement
+            windowStartTimes[sensor.getType()] = sample.timeStamp;
+        }
         dataBuffer[sensor.getType()].put(json);
         if (lastLocalSampleTimes[sensor.getType()] == 0) {
-            lastLocalSampleTimes[sensor.getType()] = SystemClock.elapsedRealtime();
+            lastLocalSampleTimes[sensor.getType()] = getClock().elapsedRealtime();
         }
 
-        if (SystemClock.elapsedRealtime() > lastLocalSampleTimes[sensor.getType()]
+        if (getClock().elapsedRealtime() > lastLocalSampleTimes[sensor.getType()]
                 + LOCAL_BUFFER_TIME) {
             // send the stuff
             sendData(sensor);
 
             // reset data buffer
             dataBuffer[sensor.getType()] = new JSONArray();
-            lastLocalSampleTimes[sensor.getType()] = SystemClock.elapsedRealtime();
+            lastLocalSampleTimes[sensor.getType()] = getClock().elapsedRealtime();
             if (firstTimeSend == 0) {
-                firstTimeSend = SystemClock.elapsedRealtime();
+                firstTimeSend = getClock().elapsedRealtime();
             }
         }
     }
@@ -92,7 +93,7 @@ public class EpilepsySensor extends BaseDataProducer implements DataProcessor {
         	SensorDataPoint dataPoint = new SensorDataPoint(new JSONObject(value));
         	dataPoint.sensorName = SensorNames.ACCELEROMETER_EPI;
         	dataPoint.sensorDescription = sensor.getName();
-        	dataPoint.timeStamp = lastLocalSampleTimes[sensor.getType()];        	
+        	dataPoint.timeStamp = windowStartTimes[sensor.getType()];
         	this.sendToSubscribers(dataPoint);
         }
         catch(Exception e)
@@ -107,7 +108,7 @@ public class EpilepsySensor extends BaseDataProducer implements DataProcessor {
         i.putExtra(DataPoint.SENSOR_DESCRIPTION, sensor.getName());
         i.putExtra(DataPoint.VALUE, value);
         i.putExtra(DataPoint.DATA_TYPE, SenseDataTypes.JSON_TIME_SERIES);
-        i.putExtra(DataPoint.TIMESTAMP, SNTP.getInstance().getTime() - LOCAL_BUFFER_TIME);
+        i.putExtra(DataPoint.TIMESTAMP, windowStartTimes[sensor.getType()]);
         context.startService(i);
     }
 
@@ -7,16 +7,14 @@ import nl.sense_os.service.R;
 import nl.sense_os.service.constants.SenseDataTypes;
 import nl.sense_os.service.constants.SensorData.DataPoint;
 import nl.sense_os.service.constants.SensorData.SensorNames;
-import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.shared.BaseDataProducer;
 import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.ScalarDataPoint;
 import nl.sense_os.service.shared.SensorDataPoint;
-import nl.sense_os.service.shared.SensorDataPoint.DataType;
+import nl.sense_os.service.shared.SynchronousDelivery;
 import android.content.Context;
 import android.content.Intent;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.os.SystemClock;
 import android.util.FloatMath;
 import android.util.Log;
 
@@ -28,7 +26,7 @@ import android.util.Log;
  * 
  * @see MotionSensor
  */
-public class FallDetector extends BaseDataProducer implements DataProcessor {
+public class FallDetector extends BaseDataProducer implements DataProcessor, SynchronousDelivery {
 
 	private class Interrupt {
 		boolean FREE_FALL = false;
@@ -81,22 +79,22 @@ public class FallDetector extends BaseDataProducer implements DataProcessor {
 		// and if it is within the time frame after a fall
 		// then there is activity
 		if (accVecSum >= THRESH_ACT) {
-			if (SystemClock.elapsedRealtime() - interrupt.stopFreeFall < TIME_FF_ACT) {
-				startInterrupt = SystemClock.elapsedRealtime();
+			if (getClock().elapsedRealtime() - interrupt.stopFreeFall < TIME_FF_ACT) {
+				startInterrupt = getClock().elapsedRealtime();
 				interrupt.ACTIVITY = true;
 			}
 		}
 		// If the activity is over
 		// note the stop time of this activity
 		else if (interrupt.ACTIVITY) {
-			interrupt.stopActivity = SystemClock.elapsedRealtime();
+			interrupt.stopActivity = getClock().elapsedRealtime();
 			startInterrupt = 0;
 			interrupt.ACTIVITY = false;
 		}
 
 		// The time for an activity has passed and there was never an activity interrupt
 		// reset;
-		if (SystemClock.elapsedRealtime() - interrupt.stopFreeFall > TIME_FF_ACT)
+		if (getClock().elapsedRealtime() - interrupt.stopFreeFall > TIME_FF_ACT)
 			if (interrupt.stopActivity == 0)
 				reset();
 
@@ -106,8 +104,8 @@ public class FallDetector extends BaseDataProducer implements DataProcessor {
 	}
 
 	private boolean fallDetected(float accVecSum) {
-		// Log.d("Fall detection:", "time:"+(SystemClock.elapsedRealtime()-time));
-		time = SystemClock.elapsedRealtime();
+		// Log.d("Fall detection:", "time:"+(getClock().elapsedRealtime()-time));
+		time = getClock().elapsedRealtime();
 
 		if (interrupt.FALL || (demo && interrupt.FREE_FALL))
 			reset();
@@ -139,15 +137,15 @@ public class FallDetector extends BaseDataProducer implements DataProcessor {
 	private void freeFall(float accVecSum) {
 		if (accVecSum < THRESH_FF) {
 			if (startInterrupt == 0)
-				startInterrupt = SystemClock.elapsedRealtime();
-			else if ((SystemClock.elapsedRealtime() - startInterrupt > TIME_FF && !demo)
-					|| (SystemClock.elapsedRealtime() - startInterrupt > TIME_FF_DEMO && demo)) {
-				// Log.v("Fall detection", "FF time:" + (SystemClock.elapsedRealtime() -
+				startInterrupt = getClock().elapsedRealtime();
+			else if ((getClock().elapsedRealtime() - startInterrupt > TIME_FF && !demo)
+					|| (getClock().elapsedRealtime() - startInterrupt > TIME_FF_DEMO && demo)) {
+				// Log.v("Fall detection", "FF time:" + (getClock().elapsedRealtime() -
 				// startInterrupt));
 				interrupt.FREE_FALL = true;
 			}
 		} else if (interrupt.FREE_FALL) {
-			interrupt.stopFreeFall = SystemClock.elapsedRealtime();
+			interrupt.stopFreeFall = getClock().elapsedRealtime();
 			interrupt.FREE_FALL = false;
 			startInterrupt = 0;
 		} else
@@ -163,16 +161,16 @@ public class FallDetector extends BaseDataProducer implements DataProcessor {
 			return;
 
 		if (accVecSum < THRESH_INACT) {
-			if (SystemClock.elapsedRealtime() - interrupt.stopActivity < TIME_ACT_INACT)
+			if (getClock().elapsedRealtime() - interrupt.stopActivity < TIME_ACT_INACT)
 				if (startInterrupt == 0)
-					startInterrupt = SystemClock.elapsedRealtime();
+					startInterrupt = getClock().elapsedRealtime();
 
-			if (startInterrupt != 0 && SystemClock.elapsedRealtime() - startInterrupt > TIME_INACT)
+			if (startInterrupt != 0 && getClock().elapsedRealtime() - startInterrupt > TIME_INACT)
 				interrupt.INACTIVITY = true;
 		} else if (startInterrupt != 0 && !interrupt.INACTIVITY)
 			reset();
 
-		if (SystemClock.elapsedRealtime() - interrupt.stopActivity >= TIME_ACT_INACT
+		if (getClock().elapsedRealtime() - interrupt.stopActivity >= TIME_ACT_INACT
 				&& startInterrupt == 0)
 			reset();
 
@@ -192,19 +190,19 @@ public class FallDetector extends BaseDataProducer implements DataProcessor {
     @Override
 	public void onNewData(SensorDataPoint dataPoint) {
 
-		if(dataPoint.getDataType() != DataType.SENSOREVENT)
+		if (!(dataPoint instanceof MotionSample))
 			return;
 
-		SensorEvent event = dataPoint.getSensorEventValue(); 
+		MotionSample sample = (MotionSample) dataPoint;
 		// check if this is useful data point
-		Sensor sensor = event.sensor;
+		Sensor sensor = sample.getSensor();
 		if (sensor.getType() != Sensor.TYPE_ACCELEROMETER) {
 			return;
 		}
 
-		float aX = event.values[1];
-		float aY = event.values[0];
-		float aZ = event.values[2];
+		float aX = sample.get(1);
+		float aY = sample.get(0);
+		float aZ = sample.get(2);
 		float accVecSum = FloatMath.sqrt(aX * aX + aY * aY + aZ * aZ);
 
 		if (fallDetected(accVecSum)) {
@@ -221,10 +219,10 @@ public class FallDetector extends BaseDataProducer implements DataProcessor {
 	public void sendFallMessage(boolean fall) {
 
 		this.notifySubscribers();
-		SensorDataPoint dataPoint = new SensorDataPoint(fall);
+		SensorDataPoint dataPoint = new ScalarDataPoint(fall);
 		dataPoint.sensorName = SensorNames.FALL_DETECTOR;
 		dataPoint.sensorDescription = demo ? "demo fall" : "human fall";
-		dataPoint.timeStamp = SNTP.getInstance().getTime();        
+		dataPoint.timeStamp = getClock().getTime();        
 		this.sendToSubscribers(dataPoint);
 
 		//TODO: implement MsgHandler as data processor
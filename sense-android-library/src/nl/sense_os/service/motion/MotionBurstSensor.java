@@ -7,7 +7,6 @@ import nl.sense_os.service.R;
 import nl.sense_os.service.constants.SenseDataTypes;
 import nl.sense_os.service.constants.SensorData.DataPoint;
 import nl.sense_os.service.ctrl.Controller;
-import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.shared.BaseDataProducer;
 import nl.sense_os.service.shared.DataProcessor;
 import nl.sense_os.service.shared.SensorDataPoint;
@@ -18,8 +17,6 @@ import org.json.JSONObject;
 import android.content.Context;
 import android.content.Intent;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.os.SystemClock;
 import android.util.Log;
 
 public class MotionBurstSensor extends BaseDataProducer implements DataProcessor {
@@ -34,6 +31,7 @@ public class MotionBurstSensor extends BaseDataProducer implements DataProcessor
 	private Context context;
 	private boolean sampleComplete = false;
 	private long timeAtStartOfBurst = -1;
+	private long burstStartTime;
 
 	public MotionBurstSensor(Context context, int sensorType, String sensorName) {
 		this.context = context;
@@ -69,8 +67,11 @@ public class MotionBurstSensor extends BaseDataProducer implements DataProcessor
 	public void onNewData(SensorDataPoint dataPoint) {
 
 		sampleComplete = false;
-		SensorEvent event =  dataPoint.getSensorEventValue();
-		Sensor sensor = event.sensor;
+		if (!(dataPoint instanceof MotionSample)) {
+			return;
+		}
+		MotionSample sample = (MotionSample) dataPoint;
+		Sensor sensor = sample.getSensor();
 		if (sensor.getType() != SENSOR_TYPE) {
 			return;
 		}
@@ -78,12 +79,14 @@ public class MotionBurstSensor extends BaseDataProducer implements DataProcessor
 		if (dataBuffer == null) {
 			dataBuffer = new ArrayList<double[]>();
 		}
-		dataBuffer.add(MotionSensorUtils.getVector(event));
+		dataBuffer.add(MotionSensorUtils.getVector(sample));
 
 		if (timeAtStartOfBurst == -1) {
-			timeAtStartOfBurst = SystemClock.elapsedRealtime();
+			timeAtStartOfBurst = getClock().elapsedRealtime();
+			// the burst is stored with the time of its first measurement
+			burstStartTime = sample.timeStamp;
 		}
-		sampleComplete = SystemClock.elapsedRealtime() > timeAtStartOfBurst + LOCAL_BUFFER_TIME;
+		sampleComplete = getClock().elapsedRealtime() > timeAtStartOfBurst + LOCAL_BUFFER_TIME;
 		if (sampleComplete == true) {
 			sendData(sensor);
 
@@ -109,7 +112,7 @@ public class MotionBurstSensor extends BaseDataProducer implements DataProcessor
 
 			dataPoint.sensorName = SENSOR_NAME;
 			dataPoint.sensorDescription = sensor.getName();
-            dataPoint.timeStamp = SNTP.getInstance().getTime() - LOCAL_BUFFER_TIME;
+            dataPoint.timeStamp = burstStartTime;
 			this.sendToSubscribers(dataPoint);
 
 		} catch (JSONException e) {
@@ -124,7 +127,7 @@ public class MotionBurstSensor extends BaseDataProducer implements DataProcessor
 		i.putExtra(DataPoint.SENSOR_DESCRIPTION, sensor.getName());
 		i.putExtra(DataPoint.VALUE, value);
 		i.putExtra(DataPoint.DATA_TYPE, SenseDataTypes.JSON_TIME_SERIES);
-		i.putExtra(DataPoint.TIMESTAMP, SNTP.getInstance().getTime() - LOCAL_BUFFER_TIME);
+		i.putExtra(DataPoint.TIMESTAMP, burstStartTime);
 		context.startService(i);
 
         // TODO: Let controller get the values instead of the sensor notifying the controller
@@ -6,17 +6,14 @@ import nl.sense_os.service.R;
 import nl.sense_os.service.constants.SenseDataTypes;
 import nl.sense_os.service.constants.SensorData.DataPoint;
 import nl.sense_os.service.constants.SensorData.SensorNames;
-import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.shared.BaseDataProducer;
 import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.ScalarDataPoint;
 import nl.sense_os.service.shared.SensorDataPoint;
-import nl.sense_os.service.shared.SensorDataPoint.DataType;
 import android.content.Context;
 import android.content.Intent;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
 import android.hardware.SensorManager;
-import android.os.SystemClock;
 import android.util.FloatMath;
 import android.util.Log;
 
@@ -64,7 +61,8 @@ public class MotionEnergySensor extends BaseDataProducer implements DataProcesso
     }
 
     private boolean isEnoughDatapoints() {
-        return (sampleStartTime != 0 && SystemClock.elapsedRealtime() - sampleStartTime > ENERGY_SAMPLE_LENGTH);
+        return (sampleStartTime != 0
+                && getClock().elapsedRealtime() - sampleStartTime > ENERGY_SAMPLE_LENGTH);
     }
 
     @Override
@@ -75,21 +73,21 @@ public class MotionEnergySensor extends BaseDataProducer implements DataProcesso
     /**
      * Measures the speed change and determines the average, for the motion energy sensor.
      * 
-     * @param event
-     *            The sensor change event with accelerometer or linear acceleration data.
+     * @param dataPoint
+     *            The motion sample with accelerometer or linear acceleration data.
      */
     @Override
     public void onNewData(SensorDataPoint dataPoint) {
 
         float[] linAcc = null;
 
-        if(dataPoint.getDataType() != DataType.SENSOREVENT)
+        if (!(dataPoint instanceof MotionSample))
         	return;
         
-        SensorEvent event = dataPoint.getSensorEventValue(); 
+        MotionSample sample = (MotionSample) dataPoint;
         	
         // check if this is a useful data point
-        Sensor sensor = event.sensor;
+        Sensor sensor = sample.getSensor();
         boolean isEnergySample = !hasLinAccSensor && Sensor.TYPE_ACCELEROMETER == sensor.getType()
                 || hasLinAccSensor && Sensor.TYPE_LINEAR_ACCELERATION == sensor.getType();
         if (!isEnergySample) {
@@ -97,10 +95,10 @@ public class MotionEnergySensor extends BaseDataProducer implements DataProcesso
         }
 
         // approximate linear acceleration if we have no special sensor for it
-        if (!hasLinAccSensor && Sensor.TYPE_ACCELEROMETER == event.sensor.getType()) {
-            linAcc = calcLinAcc(event.values);
-        } else if (hasLinAccSensor && Sensor.TYPE_LINEAR_ACCELERATION == event.sensor.getType()) {
-            linAcc = event.values;
+        if (!hasLinAccSensor && Sensor.TYPE_ACCELEROMETER == sensor.getType()) {
+            linAcc = calcLinAcc(sample.getValues());
+        } else if (hasLinAccSensor && Sensor.TYPE_LINEAR_ACCELERATION == sensor.getType()) {
+            linAcc = sample.getValues();
         } else {
             // sensor is not the right type
             return;
@@ -111,11 +109,11 @@ public class MotionEnergySensor extends BaseDataProducer implements DataProcesso
 
             // record the start of the motion sample
             if (avgSpeedCount == 0) {
-                sampleStartTime = SystemClock.elapsedRealtime();
+                sampleStartTime = getClock().elapsedRealtime();
             }
 
-            float timeStep = (SystemClock.elapsedRealtime() - prevSampleTime) / 1000f;
-            prevSampleTime = SystemClock.elapsedRealtime();
+            float timeStep = (getClock().elapsedRealtime() - prevSampleTime) / 1000f;
+            prevSampleTime = getClock().elapsedRealtime();
             if (timeStep > 0 && timeStep < 1) {
                 float accLength = FloatMath.sqrt((float) (Math.pow(linAcc[0], 2)
                         + Math.pow(linAcc[1], 2) + Math.pow(linAcc[2], 2)));
@@ -143,10 +141,10 @@ public class MotionEnergySensor extends BaseDataProducer implements DataProcesso
         float value = BigDecimal.valueOf(avgSpeedChange).setScale(3, 0).floatValue();
         
         this.notifySubscribers();
-        SensorDataPoint dataPoint = new SensorDataPoint(value);
+        SensorDataPoint dataPoint = new ScalarDataPoint(value);
         dataPoint.sensorName = SensorNames.MOTION_ENERGY;
         dataPoint.sensorDescription = SensorNames.MOTION_ENERGY;
-        dataPoint.timeStamp = SNTP.getInstance().getTime();        
+        dataPoint.timeStamp = getClock().getTime();        
         this.sendToSubscribers(dataPoint);
         
         //TODO: add the MsgHandler as data processor
@@ -0,0 +1,99 @@
+package nl.sense_os.service.motion;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.sense_os.service.shared.SensorDataPoint;
+import nl.sense_os.service.shared.VectorDataPoint;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+
+/**
+ * Data point with a copy of a motion {@link SensorEvent}. Android reuses its SensorEvent objects,
+ * so the MotionSensor copies the sensor, accuracy, hardware time stamp and values out of every
+ * event into a MotionSample, which is safe to hand off to other threads.<br/>
+ * <br/>
+ * Samples are recycled via a {@link MotionSamplePool}. A sample is only valid during the call to
+ * {@link nl.sense_os.service.shared.DataProcessor#onNewData(SensorDataPoint)}; processors that
+ * need it for longer must {@link #retain()} it and {@link #release()} it when they are done.
+ */
+public class MotionSample extends VectorDataPoint {
+
+    /**
+     * Maximum number of values that is copied from an event
+     */
+    static final int MAX_VALUES = 6;
+
+    private final MotionSamplePool pool;
+    private final AtomicInteger refCount = new AtomicInteger();
+    private Sensor sensor;
+    private int accuracy;
+    private long eventTimestamp;
+
+    MotionSample(MotionSamplePool pool) {
+        super(MAX_VALUES);
+        this.pool = pool;
+    }
+
+    /**
+     * @return The accuracy of the sensor event
+     */
+    public int getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @return The hardware time stamp of the sensor event, in nanoseconds
+     */
+    public long getEventTimestamp() {
+        return eventTimestamp;
+    }
+
+    /**
+     * @return The sensor that produced the event
+     */
+    public Sensor getSensor() {
+        return sensor;
+    }
+
+    @Override
+    public void release() {
+        int references = refCount.decrementAndGet();
+        if (references == 0) {
+            sensor = null;
+            pool.recycle(this);
+        } else if (references < 0) {
+            throw new IllegalStateException("Motion sample was released too often");
+        }
+    }
+
+    @Override
+    public MotionSample retain() {
+        refCount.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Copies the contents of a sensor event into this sample. The caller owns the only reference
+     * to the sample afterwards.
+     * 
+     * @param event
+     *            The sensor event to copy
+     */
+    void set(SensorEvent event) {
+        set(event.sensor, event.accuracy, event.timestamp, event.values, event.values.length);
+    }
+
+    /**
+     * Sets the contents of this sample. The caller owns the only reference to the sample
+     * afterwards.
+     * 
+     * @see #set(SensorEvent)
+     */
+    void set(Sensor sensor, int accuracy, long eventTimestamp, float[] values, int length) {
+        this.sensor = sensor;
+        this.accuracy = accuracy;
+        this.eventTimestamp = eventTimestamp;
+        setValues(values, Math.min(length, MAX_VALUES));
+        refCount.set(1);
+    }
+}
@@ -0,0 +1,78 @@
+package nl.sense_os.service.motion;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+
+/**
+ * Pool of recycled {@link MotionSample} objects for one motion data producer, so that the motion
+ * sensor does not allocate a new data point for every sensor event.
+ */
+public class MotionSamplePool {
+
+    /**
+     * Maximum number of idle samples that are kept in the pool
+     */
+    private static final int MAX_POOLED = 64;
+
+    private final MotionSample[] idle = new MotionSample[MAX_POOLED];
+    private int count;
+
+    /**
+     * Gets a sample from the pool, or creates a new one if the pool is empty, and copies the
+     * contents of the sensor event into it.
+     * 
+     * @param event
+     *            The sensor event to copy
+     * @return A sample with a single reference, which belongs to the caller
+     */
+    public MotionSample obtain(SensorEvent event) {
+        MotionSample sample = take();
+        sample.set(event);
+        return sample;
+    }
+
+    /**
+     * Gets a sample from the pool, or creates a new one if the pool is empty, and fills it with
+     * the given values. Used to replay recorded motion data.
+     * 
+     * @param sensor
+     *            The sensor that produced the values
+     * @param accuracy
+     *            Accuracy of the values
+     * @param eventTimestamp
+     *            Hardware time stamp, in nanoseconds
+     * @param values
+     *            The values
+     * @param length
+     *            Number of values
+     * @return A sample with a single reference, which belongs to the caller
+     */
+    public MotionSample obtain(Sensor sensor, int accuracy, long eventTimestamp, float[] values,
+            int length) {
+        MotionSample sample = take();
+        sample.set(sensor, accuracy, eventTimestamp, values, length);
+        return sample;
+    }
+
+    private MotionSample take() {
+        synchronized (this) {
+            if (count > 0) {
+                MotionSample sample = idle[--count];
+                idle[count] = null;
+                return sample;
+            }
+        }
+        return new MotionSample(this);
+    }
+
+    /**
+     * Returns a sample to the pool. Called when the last reference to the sample is released.
+     * 
+     * @param sample
+     */
+    synchronized void recycle(MotionSample sample) {
+        if (count < MAX_POOLED) {
+            idle[count++] = sample;
+        }
+    }
+}
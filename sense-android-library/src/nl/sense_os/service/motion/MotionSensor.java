@@ -10,11 +10,10 @@ import nl.sense_os.service.SenseService;
 import nl.sense_os.service.constants.SensePrefs;
 import nl.sense_os.service.constants.SensePrefs.Main.Motion;
 import nl.sense_os.service.constants.SensorData.SensorNames;
-import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.shared.BaseSensor;
+import nl.sense_os.service.shared.OverflowPolicy;
 import nl.sense_os.service.shared.PeriodicPollAlarmReceiver;
 import nl.sense_os.service.shared.PeriodicPollingSensor;
-import nl.sense_os.service.shared.SensorDataPoint;
 import nl.sense_os.service.states.EpiStateMonitor;
 import android.annotation.TargetApi;
 import android.content.BroadcastReceiver;
@@ -128,6 +127,7 @@ public class MotionSensor extends BaseSensor implements SensorEventListener, Per
     private MotionBurstSensor accelerometerBurstSensor;
     private MotionBurstSensor gyroBurstSensor;
     private MotionBurstSensor linearBurstSensor;
+    private final MotionSamplePool samplePool = new MotionSamplePool();
 
     /**
      * Constructor.
@@ -188,21 +188,21 @@ public class MotionSensor extends BaseSensor implements SensorEventListener, Per
         if (mainPrefs.getBoolean(Motion.ACCELEROMETER, true)) {
             accelerometerBurstSensor = new MotionBurstSensor(context, Sensor.TYPE_ACCELEROMETER,
                     SensorNames.ACCELEROMETER_BURST);
-            addSubscriber(this.accelerometerBurstSensor);
+            addSubscriber(this.accelerometerBurstSensor, DEFAULT_QUEUE_SIZE, OverflowPolicy.BLOCK);
             ((SenseService) context).registerDataProducer(SensorNames.ACCELEROMETER_BURST,
                     accelerometerBurstSensor);
         }
         if (mainPrefs.getBoolean(Motion.GYROSCOPE, true)) {
             gyroBurstSensor = new MotionBurstSensor(context, Sensor.TYPE_GYROSCOPE,
                     SensorNames.GYRO_BURST);
-            addSubscriber(this.gyroBurstSensor);
+            addSubscriber(this.gyroBurstSensor, DEFAULT_QUEUE_SIZE, OverflowPolicy.BLOCK);
             ((SenseService) context).registerDataProducer(SensorNames.GYRO_BURST, gyroBurstSensor);
         }
         if (mainPrefs.getBoolean(Motion.LINEAR_ACCELERATION, true)) {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
                 linearBurstSensor = new MotionBurstSensor(context, Sensor.TYPE_LINEAR_ACCELERATION,
                         SensorNames.LINEAR_BURST);
-                addSubscriber(this.linearBurstSensor);
+                addSubscriber(this.linearBurstSensor, DEFAULT_QUEUE_SIZE, OverflowPolicy.BLOCK);
                 ((SenseService) context).registerDataProducer(SensorNames.LINEAR_BURST,
                         linearBurstSensor);
             }
@@ -231,7 +231,7 @@ public class MotionSensor extends BaseSensor implements SensorEventListener, Per
         // register the sensor at the sense Service
         // TODO: connect to the service in a different manner
         ((SenseService) context).registerDataProducer(SensorNames.ACCELEROMETER_EPI, epi);
-        addSubscriber(this.epi);
+        addSubscriber(this.epi, DEFAULT_QUEUE_SIZE, OverflowPolicy.BLOCK);
     }
 
     /**
@@ -310,11 +310,13 @@ public class MotionSensor extends BaseSensor implements SensorEventListener, Per
             return;
         }
 
-        SensorDataPoint dataPoint = new SensorDataPoint(event);
+        // copy the event: Android reuses it as soon as this method returns
+        MotionSample dataPoint = samplePool.obtain(event);
         dataPoint.sensorName = SensorNames.MOTION;
         dataPoint.sensorDescription = SensorNames.MOTION;
-        dataPoint.timeStamp = SNTP.getInstance().getTime();
+        dataPoint.timeStamp = MotionSensorUtils.getEventTime(event.timestamp);
         this.sendToSubscribers(dataPoint);
+        dataPoint.release();
 
         // unregister sensor listener when we can
         if (isTimeToUnregister()) {
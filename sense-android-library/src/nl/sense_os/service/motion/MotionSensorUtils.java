@@ -7,6 +7,7 @@ import java.util.List;
 import nl.sense_os.service.constants.SensePrefs;
 import nl.sense_os.service.constants.SensePrefs.Main.Motion;
 import nl.sense_os.service.constants.SensorData.SensorNames;
+import nl.sense_os.service.provider.SNTP;
 
 import org.json.JSONObject;
 
@@ -17,21 +18,36 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorManager;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class MotionSensorUtils {
 
     private static final String TAG = "MotionHelper";
 
-    @SuppressWarnings("deprecation")
+    /**
+     * Maximum age of a sensor event for which the measurement time can be determined, in
+     * nanoseconds
+     */
+    private static final long MAX_EVENT_AGE = 5000000000L;
+
+    public static JSONObject createJsonValue(MotionSample sample) {
+        return createJsonValue(sample.getSensor(), sample.getValues(), sample.getLength());
+    }
+
     public static JSONObject createJsonValue(SensorEvent event) {
+        return createJsonValue(event.sensor, event.values, event.values.length);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static JSONObject createJsonValue(Sensor sensor, float[] values, int length) {
 
-        final Sensor sensor = event.sensor;
         final JSONObject json = new JSONObject();
 
         int axis = 0;
         try {
-            for (double value : event.values) {
+            for (int i = 0; i < length; i++) {
+                double value = values[i];
                 // scale to three decimal precision
                 if (Double.isNaN(value))
                     continue;
@@ -131,6 +147,30 @@ public class MotionSensorUtils {
         return sensors;
     }
 
+    /**
+     * Converts the hardware time stamp of a sensor event to the time at which the event was
+     * measured, in the time base of {@link SNTP#getTime()}. Android does not define the clock of
+     * the event time stamps: depending on the device it is the uptime or the elapsed real time,
+     * in nanoseconds. If the time stamp does not match either clock, the current time is used.
+     * 
+     * @param eventTimestamp
+     *            Time stamp of the sensor event, in nanoseconds
+     * @return Time at which the event was measured, in milliseconds
+     */
+    public static long getEventTime(long eventTimestamp) {
+        long now = SNTP.getInstance().getTime();
+        long age = System.nanoTime() - eventTimestamp;
+        if (age < 0 || age > MAX_EVENT_AGE) {
+            // elapsed real time only has millisecond resolution
+            age = SystemClock.elapsedRealtime() * 1000000L - eventTimestamp;
+            if (age < -1000000L || age > MAX_EVENT_AGE) {
+                // unknown clock
+                return now;
+            }
+        }
+        return now - Math.max(age, 0) / 1000000L;
+    }
+
     public static String getSensorHeader(Sensor sensor) {
         String header = "";
         switch (sensor.getType()) {
@@ -176,15 +216,23 @@ public class MotionSensorUtils {
         return sensorName;
     }
 
+    public static double[] getVector(MotionSample sample) {
+        return getVector(sample.getValues(), sample.getLength());
+    }
+
     public static double[] getVector(SensorEvent event) {
+        return getVector(event.values, event.values.length);
+    }
+
+    private static double[] getVector(float[] input, int length) {
 
         final double[] values = new double[3];
 
         int axis = 0;
 
-        for (double value : event.values) {
+        for (int i = 0; i < length; i++) {
             // scale to three decimal precision
-            value = BigDecimal.valueOf(value).setScale(3, 0).doubleValue();
+            double value = BigDecimal.valueOf(input[i]).setScale(3, 0).doubleValue();
             values[axis] = value;
             axis++;
         }
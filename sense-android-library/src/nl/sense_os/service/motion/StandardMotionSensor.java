@@ -5,19 +5,15 @@ import java.util.List;
 import nl.sense_os.service.R;
 import nl.sense_os.service.constants.SenseDataTypes;
 import nl.sense_os.service.constants.SensorData.DataPoint;
-import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.shared.BaseDataProducer;
 import nl.sense_os.service.shared.DataProcessor;
 import nl.sense_os.service.shared.SensorDataPoint;
-import nl.sense_os.service.shared.SensorDataPoint.DataType;
 
 import org.json.JSONObject;
 
 import android.content.Context;
 import android.content.Intent;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.os.SystemClock;
 import android.util.Log;
 
 public class StandardMotionSensor extends BaseDataProducer implements DataProcessor {
@@ -55,34 +51,34 @@ public class StandardMotionSensor extends BaseDataProducer implements DataProces
     @Override
 	public void onNewData(SensorDataPoint dataPoint) {
     	
-		if(dataPoint.getDataType() != DataType.SENSOREVENT)
+		if (!(dataPoint instanceof MotionSample))
 			return;
 
-		SensorEvent event = dataPoint.getSensorEventValue(); 
+		MotionSample sample = (MotionSample) dataPoint;
         // check if the data point is not too soon
-        Sensor sensor = event.sensor;
+        Sensor sensor = sample.getSensor();
         if (lastSampleTimes[sensor.getType()] != 0) {
             // we already have a sample for this sensor
             return;
         }
 
         // store the sample time
-        lastSampleTimes[sensor.getType()] = SystemClock.elapsedRealtime();
+        lastSampleTimes[sensor.getType()] = getClock().elapsedRealtime();
 
         // send data point
         String sensorName = MotionSensorUtils.getSensorName(sensor);
-        JSONObject json = MotionSensorUtils.createJsonValue(event);
-        sendData(sensor, sensorName, json);
+        JSONObject json = MotionSensorUtils.createJsonValue(sample);
+        sendData(sensor, sensorName, json, sample.timeStamp);
     }
 
-    private void sendData(Sensor sensor, String sensorName, JSONObject json) {
+    private void sendData(Sensor sensor, String sensorName, JSONObject json, long timestamp) {
 		try
 		{
 			this.notifySubscribers();
 			SensorDataPoint dataPoint = new SensorDataPoint(json);
 			dataPoint.sensorName = sensorName;
 			dataPoint.sensorDescription = sensor.getName();
-			dataPoint.timeStamp = SNTP.getInstance().getTime();        
+			dataPoint.timeStamp = timestamp;
 			this.sendToSubscribers(dataPoint);
 
 			// TODO: implement MsgHandler as data processor
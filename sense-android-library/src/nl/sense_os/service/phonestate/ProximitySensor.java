@@ -14,6 +14,7 @@ import nl.sense_os.service.provider.SNTP;
 import nl.sense_os.service.shared.BaseSensor;
 import nl.sense_os.service.shared.PeriodicPollAlarmReceiver;
 import nl.sense_os.service.shared.PeriodicPollingSensor;
+import nl.sense_os.service.shared.ScalarDataPoint;
 import nl.sense_os.service.shared.SensorDataPoint;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
@@ -137,7 +138,7 @@ public class ProximitySensor extends BaseSensor implements SensorEventListener,
 
         try {
             notifySubscribers();
-            SensorDataPoint dataPoint = new SensorDataPoint(value);
+            SensorDataPoint dataPoint = new ScalarDataPoint(value);
             dataPoint.sensorName = SensorNames.PROXIMITY;
             dataPoint.sensorDescription = sensor.getName();
             dataPoint.timeStamp = SNTP.getInstance().getTime();
@@ -1,7 +1,8 @@
 package nl.sense_os.service.shared;
 
-import java.util.Vector;
-import java.util.concurrent.atomic.AtomicReference;
+import nl.sense_os.service.metrics.Meter;
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.metrics.Timer;
 
 /**
  * <p>
@@ -19,25 +20,103 @@ import java.util.concurrent.atomic.AtomicReference;
  * </p>
  * <p>
  * Sensor data is passed to the subscribers via their
- * {@link DataProcessor#onNewData(SensorDataPoint)} method.
+ * {@link DataProcessor#onNewData(SensorDataPoint)} method, or via the typed callbacks of a
+ * {@link TypedDataProcessor} for numeric data. By default the data is delivered synchronously,
+ * on the producer's thread. Slow subscribers can ask for a bounded queue with
+ * {@link #addSubscriber(DataProcessor, int, OverflowPolicy)}, so they get the data asynchronously
+ * and cannot stall the producer; the overflow policy decides whether data may be dropped when the
+ * queue is full. Latency-critical subscribers that implement {@link SynchronousDelivery} always get
+ * the data directly. Queued data points are retained until they are delivered, so producers can
+ * recycle pooled points (see {@link SensorDataPoint#retain()}). Data points with a
+ * {@link android.hardware.SensorEvent} are always delivered directly, because Android reuses the
+ * event objects.
  * </p>
  * 
  * @author Ted Schmidt <ted@sense-os.nl>
  */
 public abstract class BaseDataProducer implements DataProducer {
 
-    /** The DataProcessors which are subscribed to this sensor for sensor data */
-    protected Vector<AtomicReference<DataProcessor>> subscribers = new Vector<AtomicReference<DataProcessor>>();
+    /**
+     * A subscribed DataProcessor, with the queue for asynchronous delivery
+     */
+    private static class Subscriber {
+        final DataProcessor processor;
+        final SubscriberQueue queue;
+        final Timer timer;
+
+        Subscriber(DataProcessor processor, SubscriberQueue queue, Timer timer) {
+            this.processor = processor;
+            this.queue = queue;
+            this.timer = timer;
+        }
+    }
+
+    /**
+     * Suggested size of the queue of asynchronous subscribers
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 128;
+
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+    /**
+     * The DataProcessors which are subscribed to this sensor for sensor data. The array is never
+     * modified: subscribing and unsubscribing publish a new copy, so the data can be dispatched by
+     * simply looping over the current array, without any locking.
+     */
+    private volatile Subscriber[] subscribers = NO_SUBSCRIBERS;
 
+    private volatile Clock clock = Clock.SYSTEM;
+
+    /**
+     * Number and rate of the data points that were sent to the subscribers. The meter only exists
+     * while the producer has subscribers, so stopped producers do not keep their metrics.
+     */
+    private volatile Meter produced;
+
+    /**
+     * Adds a DataProcessor as subscriber. The data is delivered synchronously, on the producer's
+     * thread.
+     * 
+     * @see #addSubscriber(DataProcessor, int, OverflowPolicy)
+     */
     @Override
     public boolean addSubscriber(DataProcessor dataProcessor) {
-        if (!hasSubscriber(dataProcessor)) {
-            AtomicReference<DataProcessor> subscriber = new AtomicReference<DataProcessor>(
-                    dataProcessor);
-            subscribers.add(subscriber);
-        } else {
+        return addSubscriber(dataProcessor, 0, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Adds a DataProcessor as subscriber, with explicit settings for its queue. Processors that
+     * implement {@link SynchronousDelivery} do not get a queue. A processor that subscribes to
+     * several producers has one queue for all of them, with the settings of its first
+     * subscription, so its asynchronous callbacks never run concurrently.
+     * 
+     * @param dataProcessor
+     *            The DataProcessor that wants the sensor data as input
+     * @param queueSize
+     *            Maximum number of data points that can wait for the subscriber, or 0 to deliver
+     *            the data synchronously on the producer's thread
+     * @param policy
+     *            What to do with new data points when the queue is full
+     * @return True if the DataProcessor could subscribe, false if it was already subscribed
+     */
+    public synchronized boolean addSubscriber(DataProcessor dataProcessor, int queueSize,
+            OverflowPolicy policy) {
+        if (hasSubscriber(dataProcessor)) {
             return false;
         }
+        Timer timer = PipelineMetrics.acquireTimer(getTimerName(dataProcessor));
+        SubscriberQueue queue = null;
+        if (queueSize > 0 && !(dataProcessor instanceof SynchronousDelivery)) {
+            queue = SubscriberQueue.obtain(dataProcessor, timer, queueSize, policy);
+        }
+        Subscriber[] current = subscribers;
+        Subscriber[] updated = new Subscriber[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = new Subscriber(dataProcessor, queue, timer);
+        subscribers = updated;
+        if (null == produced) {
+            produced = PipelineMetrics.getMeter(getMeterName());
+        }
         return true;
     }
 
@@ -50,23 +129,32 @@ public abstract class BaseDataProducer implements DataProducer {
      */
     protected boolean checkSubscribers() {
         boolean isComplete = true;
-        for (int i = 0; i < subscribers.size(); i++) {
-            DataProcessor dp = subscribers.get(i).get();
-            if (dp != null) {
-                isComplete &= dp.isSampleComplete();
-            }
+        for (Subscriber subscriber : subscribers) {
+            isComplete &= subscriber.processor.isSampleComplete();
         }
         return isComplete;
     }
 
+    /**
+     * @return The clock that this producer uses for time stamps and time intervals
+     * @see #setClock(Clock)
+     */
+    protected Clock getClock() {
+        return clock;
+    }
+
+    private String getMeterName() {
+        return "producer." + PipelineMetrics.nameOf(this);
+    }
+
+    private static String getTimerName(DataProcessor dataProcessor) {
+        return "processor." + PipelineMetrics.nameOf(dataProcessor);
+    }
+
     @Override
     public boolean hasSubscriber(DataProcessor dataProcessor) {
-        AtomicReference<DataProcessor> subscriber = new AtomicReference<DataProcessor>(
-                dataProcessor);
-
-        for (int i = 0; i < subscribers.size(); i++) {
-            AtomicReference<DataProcessor> item = subscribers.elementAt(i);
-            if (item.get() == subscriber.get())
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.processor == dataProcessor)
                 return true;
         }
         return false;
@@ -74,36 +162,52 @@ public abstract class BaseDataProducer implements DataProducer {
 
     @Override
     public boolean hasSubscribers() {
-        return !subscribers.isEmpty();
+        return subscribers.length > 0;
     }
 
     /**
      * Notifies subscribers that a new sample is starting. This method calls
-     * {@link DataProcessor#startNewSample()} on each subscriber.
+     * {@link DataProcessor#startNewSample()} on each subscriber, or queues the call for
+     * asynchronous subscribers.
      */
     protected void notifySubscribers() {
-        for (int i = 0; i < subscribers.size(); i++) {
-            DataProcessor dp = subscribers.get(i).get();
-            if (dp != null) {
-                dp.startNewSample();
+        for (Subscriber subscriber : subscribers) {
+            if (null != subscriber.queue) {
+                subscriber.queue.postNewSample();
+            } else {
+                subscriber.processor.startNewSample();
             }
         }
     }
 
     @Override
-    public void removeSubscriber(DataProcessor dataProcessor) {
-        AtomicReference<DataProcessor> subscriber = new AtomicReference<DataProcessor>(
-                dataProcessor);
-
-        for (int i = 0; i < subscribers.size(); i++) {
-            AtomicReference<DataProcessor> item = subscribers.elementAt(i);
-            if (item.get() == subscriber.get()) {
-                subscribers.removeElementAt(i);
-                --i;
+    public synchronized void removeSubscriber(DataProcessor dataProcessor) {
+        Subscriber[] current = subscribers;
+        int index = -1;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].processor == dataProcessor) {
+                index = i;
+                break;
             }
         }
-        if (subscribers.contains(subscriber)) {
-            subscribers.remove(subscriber);
+        if (index < 0) {
+            return;
+        }
+        Subscriber[] updated = NO_SUBSCRIBERS;
+        if (current.length > 1) {
+            updated = new Subscriber[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        }
+        subscribers = updated;
+        if (null != current[index].queue) {
+            current[index].queue.close();
+        }
+        PipelineMetrics.releaseTimer(getTimerName(dataProcessor));
+        if (0 == updated.length) {
+            // the producer is stopped
+            produced = null;
+            PipelineMetrics.removeMeter(getMeterName());
         }
     }
 
@@ -114,12 +218,37 @@ public abstract class BaseDataProducer implements DataProducer {
      *            The SensorDataPoint to send
      */
     protected void sendToSubscribers(SensorDataPoint dataPoint) {
-        // TODO: do a-sync
-        for (int i = 0; i < subscribers.size(); i++) {
-            DataProcessor dp = subscribers.get(i).get();
-            if (dp != null && !dp.isSampleComplete()) {
-                dp.onNewData(dataPoint);
+        Meter meter = produced;
+        if (null != meter) {
+            meter.mark();
+        }
+        // sensor events are reused by Android, so they cannot wait in a queue
+        boolean direct = dataPoint.getDataType() == SensorDataPoint.DataType.SENSOREVENT;
+        final Subscriber[] snapshot = subscribers;
+        for (int i = 0; i < snapshot.length; i++) {
+            Subscriber subscriber = snapshot[i];
+            DataProcessor dp = subscriber.processor;
+            if (dp.isSampleComplete()) {
+                continue;
+            }
+            if (null != subscriber.queue && !direct) {
+                subscriber.queue.post(dataPoint.retain());
+            } else {
+                long start = subscriber.timer.start();
+                dataPoint.deliverTo(dp);
+                subscriber.timer.stop(start);
             }
         }
     }
+
+    /**
+     * Sets the clock that this producer uses for time stamps and time intervals, e.g. to process
+     * replayed data in the time of the trace. The default is {@link Clock#SYSTEM}.
+     * 
+     * @param clock
+     *            The clock
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
 }
@@ -0,0 +1,42 @@
+package nl.sense_os.service.shared;
+
+import nl.sense_os.service.provider.SNTP;
+import android.os.SystemClock;
+
+/**
+ * Source of the current time for data producers and processors. By default they use
+ * {@link #SYSTEM}, the NTP time and the device's elapsed real time. Another clock can be set with
+ * {@link BaseDataProducer#setClock(Clock)}, e.g. the clock of a
+ * {@link nl.sense_os.service.trace.TraceReplayer}, so that replayed data is processed in the time
+ * of the trace without changing the time of the rest of the service.
+ */
+public interface Clock {
+
+    /**
+     * Clock with the NTP time and the elapsed real time of the device
+     */
+    public static final Clock SYSTEM = new Clock() {
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public long getTime() {
+            return SNTP.getInstance().getTime();
+        }
+    };
+
+    /**
+     * @return Monotonic time in milliseconds, for measuring intervals
+     * @see SystemClock#elapsedRealtime()
+     */
+    public abstract long elapsedRealtime();
+
+    /**
+     * @return The current time in milliseconds since the epoch, for time stamps
+     * @see SNTP#getTime()
+     */
+    public abstract long getTime();
+}
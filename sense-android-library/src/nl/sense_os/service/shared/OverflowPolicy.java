@@ -0,0 +1,27 @@
+package nl.sense_os.service.shared;
+
+/**
+ * What a {@link BaseDataProducer} does with a new data point when the queue of an asynchronous
+ * subscriber is full.
+ * 
+ * @see BaseDataProducer#addSubscriber(DataProcessor, int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Remove the oldest point from the queue to make room for the new point. Keeps the subscriber
+     * close to real time.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new point. Keeps the points that the subscriber already got in the queue.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Wait until the subscriber has made room in the queue. The producer's thread is stalled by a
+     * slow subscriber, so only use this if no data may be lost.
+     */
+    BLOCK
+}
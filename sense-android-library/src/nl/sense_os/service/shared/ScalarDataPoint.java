@@ -0,0 +1,109 @@
+package nl.sense_os.service.shared;
+
+/**
+ * Sensor data point with a single numeric value. The value is kept in a primitive double field,
+ * so numeric sensors do not have to box their samples. Processors that implement
+ * {@link TypedDataProcessor} receive these points via
+ * {@link TypedDataProcessor#onNewScalar(ScalarDataPoint)}; other processors can still read the
+ * value with the regular getters of {@link SensorDataPoint}.
+ */
+public class ScalarDataPoint extends SensorDataPoint {
+
+    private double value;
+
+    /**
+     * @see #ScalarDataPoint(double)
+     */
+    public ScalarDataPoint(boolean value) {
+        super(DataType.BOOL);
+        this.value = value ? 1 : 0;
+    }
+
+    /**
+     * Creates a new data point with the given value. The data type of the point depends on the
+     * type of the input value.
+     * 
+     * @param value
+     *            The input value which is stored in the data point
+     */
+    public ScalarDataPoint(double value) {
+        super(DataType.DOUBLE);
+        this.value = value;
+    }
+
+    /**
+     * @see #ScalarDataPoint(double)
+     */
+    public ScalarDataPoint(float value) {
+        super(DataType.FLOAT);
+        this.value = value;
+    }
+
+    /**
+     * @see #ScalarDataPoint(double)
+     */
+    public ScalarDataPoint(int value) {
+        super(DataType.INT);
+        this.value = value;
+    }
+
+    @Override
+    public Boolean getBoolValue() {
+        return value != 0;
+    }
+
+    @Override
+    public double getDoubleValue() {
+        return value;
+    }
+
+    @Override
+    public float getFloatValue() {
+        return (float) value;
+    }
+
+    @Override
+    public int getIntValue() {
+        return (int) value;
+    }
+
+    @Override
+    public String getStringValue() {
+        switch (getDataType()) {
+        case BOOL:
+            return String.valueOf(value != 0);
+        case INT:
+            return String.valueOf((int) value);
+        case FLOAT:
+            return String.valueOf((float) value);
+        default:
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * @return The value of the data point, without boxing
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Sets the value of the data point. Does not change the data type.
+     * 
+     * @param value
+     *            The new value
+     */
+    public void setValue(double value) {
+        this.value = value;
+    }
+
+    @Override
+    void deliverTo(DataProcessor processor) {
+        if (processor instanceof TypedDataProcessor) {
+            ((TypedDataProcessor) processor).onNewScalar(this);
+        } else {
+            processor.onNewData(this);
+        }
+    }
+}
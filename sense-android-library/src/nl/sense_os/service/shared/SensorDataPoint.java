@@ -7,14 +7,17 @@ import org.json.JSONObject;
 import android.hardware.SensorEvent;
 
 /**
- * Generic holder for sensor data.
+ * Generic holder for sensor data. The value is stored as an Object, which is fine for JSON, String
+ * and other object values. Numeric data can use the specialized subclasses
+ * {@link ScalarDataPoint} and {@link VectorDataPoint}, which keep their values in primitive
+ * fields; the getters of this class still work for them.
  * 
  * @author Ted Schmidt <ted@sense-os.nl>
  */
 public class SensorDataPoint {
 
     public enum DataType {
-        INT, FLOAT, BOOL, DOUBLE, STRING, ARRAYLIST, JSON, JSONSTRING, FILE, SENSOREVENT
+        INT, FLOAT, BOOL, DOUBLE, STRING, ARRAYLIST, JSON, JSONSTRING, FILE, SENSOREVENT, VECTOR
     };
 
     /**
@@ -33,6 +36,16 @@ public class SensorDataPoint {
     private DataType dataType;
     private Object value;
 
+    /**
+     * Constructor for the specialized subclasses, which store their own value.
+     * 
+     * @param dataType
+     *            The data type of the point
+     */
+    protected SensorDataPoint(DataType dataType) {
+        this.dataType = dataType;
+    }
+
     /**
      * @see #SensorDataPoint(int)
      */
@@ -169,6 +182,37 @@ public class SensorDataPoint {
         return (String) value;
     }
 
+    /**
+     * Releases a reference to this data point that was claimed with {@link #retain()}. Pooled data
+     * points are returned to their pool when the last reference is released.
+     */
+    public void release() {
+        // plain data points are garbage collected
+    }
+
+    /**
+     * Claims a reference to this data point. Data points are only guaranteed to be valid during
+     * the call to {@link DataProcessor#onNewData(SensorDataPoint)}, because pooled points are
+     * recycled by their producer afterwards. Processors that keep a data point for later must call
+     * this method, and call {@link #release()} when they are done with it.
+     * 
+     * @return This data point
+     */
+    public SensorDataPoint retain() {
+        return this;
+    }
+
+    /**
+     * Passes this data point to the right callback of the processor. Subclasses override this to
+     * use the typed callbacks of {@link TypedDataProcessor}.
+     * 
+     * @param processor
+     *            The processor that should handle the data point
+     */
+    void deliverTo(DataProcessor processor) {
+        processor.onNewData(this);
+    }
+
     /**
      * Sets the data type.
      * 
@@ -0,0 +1,294 @@
+package nl.sense_os.service.shared;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.metrics.QueueStats;
+import nl.sense_os.service.metrics.Timer;
+import android.util.Log;
+
+/**
+ * <p>
+ * Bounded queue of data for one asynchronous subscriber of one or more {@link BaseDataProducer}s.
+ * The data is delivered in order on a thread from a small shared pool, so a slow subscriber does
+ * not hold up the producers or the other subscribers.
+ * </p>
+ * <p>
+ * There is one queue per subscriber, shared by all producers that deliver to it asynchronously
+ * (see {@link #obtain(DataProcessor, Timer, int, OverflowPolicy)}). Only one pool thread works
+ * for a queue at a time, so the asynchronous callbacks of a subscriber never run concurrently.
+ * </p>
+ * <p>
+ * Sample markers ({@link DataProcessor#startNewSample()}) are never dropped. When the queue is
+ * full, a new marker takes the place of the oldest data point, and a marker right after another
+ * marker is merged with it.
+ * </p>
+ */
+class SubscriberQueue implements Runnable {
+
+    private static final String TAG = "SubscriberQueue";
+
+    /**
+     * Queue item that stands for a call to {@link DataProcessor#startNewSample()}, so that it is
+     * delivered in order with the data
+     */
+    private static final Object NEW_SAMPLE = new Object();
+
+    /**
+     * Maximum number of items that a pool thread delivers before it gives the other queues a turn
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Number of threads in the delivery pool
+     */
+    private static final int POOL_SIZE = Math.max(2,
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** The queues of the asynchronous subscribers, so producers can share them */
+    private static final IdentityHashMap<DataProcessor, SubscriberQueue> queues =
+            new IdentityHashMap<DataProcessor, SubscriberQueue>();
+
+    private static ExecutorService executor;
+
+    private static synchronized ExecutorService getExecutor() {
+        if (null == executor) {
+            executor = Executors.newFixedThreadPool(POOL_SIZE, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SubscriberQueue-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Gets the queue of a subscriber, or creates it if the subscriber has no queue yet. Every call
+     * must be matched by a call to {@link #close()}.
+     * 
+     * @param processor
+     *            The subscriber
+     * @param timer
+     *            Timer for the callback latency of the subscriber
+     * @param capacity
+     *            Maximum number of queued items, if a new queue is created
+     * @param policy
+     *            What to do with new data when the queue is full, if a new queue is created
+     * @return The queue of the subscriber
+     */
+    static SubscriberQueue obtain(DataProcessor processor, Timer timer, int capacity,
+            OverflowPolicy policy) {
+        synchronized (queues) {
+            SubscriberQueue queue = queues.get(processor);
+            if (null == queue) {
+                queue = new SubscriberQueue(processor, timer, capacity, policy);
+                queues.put(processor, queue);
+            }
+            queue.producers++;
+            return queue;
+        }
+    }
+
+    private final DataProcessor processor;
+    private final Timer timer;
+    private final String statsName;
+    private final QueueStats stats;
+    private final OverflowPolicy policy;
+    private final Object[] items;
+    /** Number of producers that use the queue, guarded by the lock of {@link #queues} */
+    private int producers;
+    private int head;
+    private int size;
+    private int dropped;
+    private boolean scheduled;
+    private boolean closed;
+
+    private SubscriberQueue(DataProcessor processor, Timer timer, int capacity,
+            OverflowPolicy policy) {
+        this.processor = processor;
+        this.timer = timer;
+        this.statsName = PipelineMetrics.nameOf(processor);
+        this.stats = PipelineMetrics.getQueueStats(statsName);
+        this.policy = policy;
+        this.items = new Object[Math.max(1, capacity)];
+    }
+
+    /**
+     * Releases the queue for one producer. When the last producer has released it, delivery to the
+     * subscriber stops, any queued data is discarded and the queue stats are removed.
+     */
+    void close() {
+        synchronized (queues) {
+            if (--producers > 0) {
+                return;
+            }
+            queues.remove(processor);
+        }
+        PipelineMetrics.removeQueueStats(statsName);
+        synchronized (this) {
+            closed = true;
+            while (size > 0) {
+                release(poll());
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Drops the data point that has been in the queue the longest. Sample markers are skipped.
+     * 
+     * @return true if a data point was dropped, false if the queue only has markers
+     */
+    private boolean dropOldestData() {
+        int length = items.length;
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % length;
+            if (items[index] != NEW_SAMPLE) {
+                release(items[index]);
+                // move the items before it one place up
+                for (int j = i; j > 0; j--) {
+                    items[(head + j) % length] = items[(head + j - 1) % length];
+                }
+                items[head] = null;
+                head = (head + 1) % length;
+                size--;
+                stats.onDequeue();
+                dropped++;
+                stats.onDrop();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void enqueue(Object item, boolean isData) {
+        if (!isData && size > 0 && items[(head + size - 1) % items.length] == NEW_SAMPLE) {
+            // the subscriber starts a new sample already
+            return;
+        }
+        while (size == items.length && !closed) {
+            if (policy == OverflowPolicy.BLOCK) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    release(item);
+                    return;
+                }
+            } else if (isData && (policy == OverflowPolicy.DROP_NEWEST || !dropOldestData())) {
+                release(item);
+                dropped++;
+                stats.onDrop();
+                return;
+            } else if (!isData && !dropOldestData()) {
+                // only markers in the queue, so the subscriber starts a new sample already
+                return;
+            }
+        }
+        if (closed) {
+            release(item);
+            return;
+        }
+        items[(head + size) % items.length] = item;
+        size++;
+        stats.onEnqueue();
+        if (!scheduled) {
+            scheduled = true;
+            getExecutor().execute(this);
+        }
+    }
+
+    /**
+     * @return The number of data points that were dropped because the queue was full
+     */
+    synchronized int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return The subscriber
+     */
+    DataProcessor getProcessor() {
+        return processor;
+    }
+
+    /**
+     * @return The number of queued items
+     */
+    synchronized int getSize() {
+        return size;
+    }
+
+    private Object poll() {
+        Object item = items[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        size--;
+        stats.onDequeue();
+        return item;
+    }
+
+    /**
+     * Queues a data point for the subscriber. The queue takes over the caller's reference to the
+     * data point, and releases it after delivery or when the point is dropped.
+     * 
+     * @param dataPoint
+     */
+    void post(SensorDataPoint dataPoint) {
+        enqueue(dataPoint, true);
+    }
+
+    /**
+     * Queues the start of a new sample for the subscriber.
+     */
+    void postNewSample() {
+        enqueue(NEW_SAMPLE, false);
+    }
+
+    private static void release(Object item) {
+        if (item instanceof SensorDataPoint) {
+            ((SensorDataPoint) item).release();
+        }
+    }
+
+    @Override
+    public void run() {
+        for (int delivered = 0; delivered < BATCH_SIZE; delivered++) {
+            Object item;
+            synchronized (this) {
+                if (size == 0) {
+                    scheduled = false;
+                    return;
+                }
+                item = poll();
+                notifyAll();
+            }
+            try {
+                if (item == NEW_SAMPLE) {
+                    processor.startNewSample();
+                } else if (!processor.isSampleComplete()) {
+                    long start = timer.start();
+                    ((SensorDataPoint) item).deliverTo(processor);
+                    timer.stop(start);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Exception in data processor " + processor.getClass().getSimpleName(),
+                        e);
+            } finally {
+                release(item);
+            }
+        }
+
+        // give the other subscribers a turn; still scheduled, so no one else runs this queue
+        getExecutor().execute(this);
+    }
+}
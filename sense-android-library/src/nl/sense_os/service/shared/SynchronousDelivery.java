@@ -0,0 +1,11 @@
+package nl.sense_os.service.shared;
+
+/**
+ * Marker interface for latency-critical data processors. A {@link BaseDataProducer} delivers data
+ * to processors that implement this interface directly on the producer's thread, instead of via a
+ * queue. Implementations must handle new data quickly, because they hold up the producer and all
+ * its other subscribers.
+ */
+public interface SynchronousDelivery {
+    // marker interface
+}
@@ -0,0 +1,24 @@
+package nl.sense_os.service.shared;
+
+/**
+ * Data processor with typed callbacks for the primitive data point variants. Numeric data is
+ * passed as {@link ScalarDataPoint} or {@link VectorDataPoint}, so the processor can read the
+ * values without casting or unboxing. All other data points are still passed to
+ * {@link #onNewData(SensorDataPoint)}.
+ */
+public interface TypedDataProcessor extends DataProcessor {
+
+    /**
+     * Handles a new data point with a single numeric value.
+     * 
+     * @param dataPoint
+     */
+    public abstract void onNewScalar(ScalarDataPoint dataPoint);
+
+    /**
+     * Handles a new data point with a vector of float values.
+     * 
+     * @param dataPoint
+     */
+    public abstract void onNewVector(VectorDataPoint dataPoint);
+}
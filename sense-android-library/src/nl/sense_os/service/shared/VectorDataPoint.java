@@ -0,0 +1,110 @@
+package nl.sense_os.service.shared;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Sensor data point with a fixed-size vector of float values, e.g. the x, y and z axes of a motion
+ * sensor. The values are kept in a primitive float array, so they are never boxed. Processors that
+ * implement {@link TypedDataProcessor} receive these points via
+ * {@link TypedDataProcessor#onNewVector(VectorDataPoint)}.
+ */
+public class VectorDataPoint extends SensorDataPoint {
+
+    private final float[] values;
+    private int length;
+
+    /**
+     * Creates a new data point with room for a vector of the given size. The length of the vector
+     * is initially equal to the size.
+     * 
+     * @param size
+     *            Maximum number of values in the vector
+     */
+    public VectorDataPoint(int size) {
+        super(DataType.VECTOR);
+        values = new float[size];
+        length = size;
+    }
+
+    /**
+     * Creates a new data point with a copy of the given values.
+     * 
+     * @param values
+     *            The vector values
+     */
+    public VectorDataPoint(float[] values) {
+        this(values.length);
+        System.arraycopy(values, 0, this.values, 0, values.length);
+    }
+
+    /**
+     * @param index
+     *            Index of the value
+     * @return The value at the given index
+     */
+    public float get(int index) {
+        if (index >= length) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return values[index];
+    }
+
+    /**
+     * @return The number of values in the vector
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the vector values as a JSON array, for processors that do not use the typed getters.
+     */
+    @Override
+    public String getStringValue() {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < length; i++) {
+            try {
+                array.put(values[i]);
+            } catch (JSONException e) {
+                // NaN or infinite value
+                array.put(String.valueOf(values[i]));
+            }
+        }
+        return array.toString();
+    }
+
+    /**
+     * @return The backing array of the vector. Only the first {@link #getLength()} values are
+     *         valid. The array must not be modified by data processors.
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * Copies the given values into the vector.
+     * 
+     * @param src
+     *            Array with the new values
+     * @param count
+     *            Number of values to copy, at most the size of the vector
+     */
+    public void setValues(float[] src, int count) {
+        if (count > values.length) {
+            throw new IllegalArgumentException("Vector can hold at most " + values.length
+                    + " values");
+        }
+        System.arraycopy(src, 0, values, 0, count);
+        length = count;
+    }
+
+    @Override
+    void deliverTo(DataProcessor processor) {
+        if (processor instanceof TypedDataProcessor) {
+            ((TypedDataProcessor) processor).onNewVector(this);
+        } else {
+            processor.onNewData(this);
+        }
+    }
+}
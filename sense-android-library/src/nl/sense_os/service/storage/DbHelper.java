@@ -20,7 +20,7 @@ public class DbHelper extends SQLiteOpenHelper {
     /**
      * Version of the database. Increment this when the database structure is changed.
      */
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 5;
 
     /**
      * Name of the table with the data points.
@@ -55,12 +55,22 @@ public class DbHelper extends SQLiteOpenHelper {
         sb.append(", " + DataPoint.VALUE + " TEXT");
         sb.append(", " + DataPoint.DEVICE_UUID + " TEXT");
         sb.append(", " + DataPoint.TRANSMIT_STATE + " INTEGER");
+        sb.append(", " + DataPoint.UPLOAD_FRAGMENT + " BLOB");
         sb.append(");");
         db.execSQL(sb.toString());
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVers, int newVers) {
+        if (oldVers == 4) {
+            // version 5 only added the upload fragment column, old points simply do not have it
+            Log.v(TAG, "Upgrading '" + DATABASE_NAME + "' database from version " + oldVers
+                    + " to " + newVers);
+            db.execSQL("ALTER TABLE " + DbHelper.TABLE + " ADD COLUMN " + DataPoint.UPLOAD_FRAGMENT
+                    + " BLOB");
+            return;
+        }
+
         Log.w(TAG, "Upgrading '" + DATABASE_NAME + "' database from version " + oldVers
                 + " to " + newVers + ", which will destroy all old data");
 
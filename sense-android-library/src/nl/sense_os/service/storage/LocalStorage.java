@@ -10,6 +10,8 @@ import nl.sense_os.service.R;
 import nl.sense_os.service.constants.SensePrefs;
 import nl.sense_os.service.constants.SensePrefs.Main;
 import nl.sense_os.service.constants.SensorData.DataPoint;
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.metrics.Timer;
 import nl.sense_os.service.provider.SNTP;
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -46,7 +48,7 @@ public class LocalStorage {
     private static final String[] DEFAULT_PROJECTION = new String[] { BaseColumns._ID,
             DataPoint.SENSOR_NAME, DataPoint.DISPLAY_NAME, DataPoint.SENSOR_DESCRIPTION,
             DataPoint.DATA_TYPE, DataPoint.VALUE, DataPoint.TIMESTAMP, DataPoint.DEVICE_UUID,
-            DataPoint.TRANSMIT_STATE };
+            DataPoint.TRANSMIT_STATE, DataPoint.UPLOAD_FRAGMENT };
 
     private static final int LOCAL_VALUES_URI = 1;
     private static final int REMOTE_VALUES_URI = 2;
@@ -73,6 +75,8 @@ public class LocalStorage {
     private final RemoteStorage commonSense;
     private final SQLiteStorage inMemory;
     private final SQLiteStorage persisted;
+    private final Timer insertTimer = PipelineMetrics.getTimer(PipelineMetrics.STORAGE_INSERT);
+    private final Timer flushTimer = PipelineMetrics.getTimer(PipelineMetrics.STORAGE_FLUSH);
 
     private Context context;
 
@@ -81,6 +85,9 @@ public class LocalStorage {
         this.context = context;
         persisted = new SQLiteStorage(context, true);
         inMemory = new SQLiteStorage(context, false);
+
+        // row IDs identify a data point until it is sent, also after it was persisted
+        inMemory.reserveRowIds(persisted.getLastRowId());
         commonSense = new RemoteStorage(context);
     }
 
@@ -152,6 +159,7 @@ public class LocalStorage {
         }
 
         // insert in the in-memory database
+        long start = insertTimer.start();
         long rowId = 0;
         try {
             rowId = inMemory.insert(values);
@@ -163,6 +171,7 @@ public class LocalStorage {
             // try again
             rowId = inMemory.insert(values);
         }
+        insertTimer.stop(start);
 
         // notify any listeners (does this work properly?)
         Uri contentUri = Uri.parse("content://"
@@ -186,6 +195,7 @@ public class LocalStorage {
     private int persistRecentData() {
         Log.i(TAG, "Persist recent data points from in-memory storage");
 
+        long start = flushTimer.start();
         Cursor recentPoints = null;
         int nrRecentPoints = 0;
         try {
@@ -208,6 +218,7 @@ public class LocalStorage {
                 recentPoints.close();
                 recentPoints = null;
             }
+            flushTimer.stop(start);
         }
         return nrRecentPoints;
     }
@@ -5,9 +5,10 @@ import java.net.URISyntaxException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 
+import nl.sense_os.service.commonsense.JsonValues;
 import nl.sense_os.service.commonsense.SenseApi;
+import nl.sense_os.service.commonsense.SenseResponse;
 import nl.sense_os.service.constants.SensePrefs;
 import nl.sense_os.service.constants.SensePrefs.Auth;
 import nl.sense_os.service.constants.SenseUrls;
@@ -17,10 +18,13 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Build;
+import android.util.JsonReader;
 import android.util.Log;
 
 /**
@@ -79,37 +83,81 @@ class RemoteStorage {
 
         String cookie = context.getSharedPreferences(SensePrefs.AUTH_PREFS, Context.MODE_PRIVATE)
                 .getString(Auth.LOGIN_COOKIE, null);
-        Map<String, String> response = SenseApi.request(context, url, null, cookie);
-
-        // parse response
-        JSONArray data;
-        if (response.get("http response code").equals("200")) {
-            String content = response.get("content");
-            JSONObject json = new JSONObject(content);
-            data = json.getJSONArray("data");
-        } else {
-            Log.w(TAG, "Error retrieving sensor data: " + response.get("http response code"));
-            return null;
-        }
+        SenseResponse response = SenseApi.open(context, url, null, cookie);
+        try {
+            if (200 != response.getStatusCode()) {
+                Log.w(TAG, "Error retrieving sensor data: " + response.getStatusCode());
+                return null;
+            }
 
-        // fill the result Cursor with sensor data
-        MatrixCursor result = new MatrixCursor(projection, data.length());
-        for (int i = 0; i < data.length(); i++) {
-            Object[] row = new Object[projection.length];
-            JSONObject jsonDataPoint = data.getJSONObject(i);
-            for (int j = 0; j < projection.length; j++) {
-                if (projection[j].equals(DataPoint.VALUE)) {
-                    row[j] = jsonDataPoint.getString("value");
-                } else if (projection[j].equals(DataPoint.TIMESTAMP)) {
-                    double rawDate = jsonDataPoint.getDouble("date");
-                    row[j] = Math.round(rawDate * 1000d);
-                } else if (projection[j].equals(DataPoint.SENSOR_NAME)) {
-                    row[j] = sensorNames.get(0);
+            // fill the result Cursor with sensor data
+            MatrixCursor result = new MatrixCursor(projection, Math.min(limit, 1000));
+            if (JsonValues.isStreamingSupported()) {
+                readData(response, projection, sensorNames.get(0), result);
+            } else {
+                JSONArray data = new JSONObject(response.readContent()).getJSONArray("data");
+                for (int i = 0; i < data.length(); i++) {
+                    JSONObject jsonDataPoint = data.getJSONObject(i);
+                    result.addRow(getRow(projection, sensorNames.get(0),
+                            jsonDataPoint.getString("value"), jsonDataPoint.getDouble("date")));
                 }
             }
-            result.addRow(row);
+            return result;
+
+        } finally {
+            response.close();
+        }
+    }
+
+    private static Object[] getRow(String[] projection, String sensorName, String value,
+            double date) {
+        Object[] row = new Object[projection.length];
+        for (int j = 0; j < projection.length; j++) {
+            if (projection[j].equals(DataPoint.VALUE)) {
+                row[j] = value;
+            } else if (projection[j].equals(DataPoint.TIMESTAMP)) {
+                row[j] = Math.round(date * 1000d);
+            } else if (projection[j].equals(DataPoint.SENSOR_NAME)) {
+                row[j] = sensorName;
+            }
         }
+        return row;
+    }
 
-        return result;
+    /**
+     * Reads the data points from the response while it is downloaded, so the response content
+     * never has to be in memory as a whole.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readData(SenseResponse response, String[] projection, String sensorName,
+            MatrixCursor result) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(response.getContentReader());
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"data".equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String value = null;
+                double date = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ("value".equals(name)) {
+                        value = JsonValues.readString(reader);
+                    } else if ("date".equals(name)) {
+                        date = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                result.addRow(getRow(projection, sensorName, value, date));
+            }
+            reader.endArray();
+        }
+        reader.endObject();
     }
 }
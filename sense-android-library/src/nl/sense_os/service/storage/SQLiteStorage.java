@@ -9,8 +9,10 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
 
 /**
  * Class that manages a store for sensor data points in a persistent SQLite database. Helper class
@@ -59,7 +61,9 @@ class SQLiteStorage {
     }
 
     /**
-     * Efficiently inserts a collection of rows in the database
+     * Efficiently inserts a collection of rows in the database. The rows keep their row ID, so a
+     * data point can be identified by its ID after it moved from the in-memory database to the
+     * persistent one.
      * 
      * @param c
      *            Cursor with rows of data points
@@ -69,15 +73,17 @@ class SQLiteStorage {
 
         // prepare SQL insert statement
         StringBuilder sb = new StringBuilder("INSERT INTO " + DbHelper.TABLE + " ");
-        sb.append("(" + DataPoint.SENSOR_NAME);
+        sb.append("(" + BaseColumns._ID);
+        sb.append(", " + DataPoint.SENSOR_NAME);
         sb.append(", " + DataPoint.DISPLAY_NAME);
         sb.append(", " + DataPoint.SENSOR_DESCRIPTION);
         sb.append(", " + DataPoint.DATA_TYPE);
         sb.append(", " + DataPoint.TIMESTAMP);
         sb.append(", " + DataPoint.VALUE);
         sb.append(", " + DataPoint.DEVICE_UUID);
-        sb.append(", " + DataPoint.TRANSMIT_STATE + ")");
-        sb.append(" VALUES (?,?,?,?,?,?,?,?);");
+        sb.append(", " + DataPoint.TRANSMIT_STATE);
+        sb.append(", " + DataPoint.UPLOAD_FRAGMENT + ")");
+        sb.append(" VALUES (?,?,?,?,?,?,?,?,?,?);");
 
         // get database
         SQLiteDatabase db = dbHelper.getWritableDatabase();
@@ -89,17 +95,25 @@ class SQLiteStorage {
 
             // execute an insert statement for each row
             c.moveToFirst();
+            int fragmentColumn = c.getColumnIndex(DataPoint.UPLOAD_FRAGMENT);
             SQLiteStatement statement = db.compileStatement(sb.toString());
             while (!c.isAfterLast()) {
-                statement.bindString(1, c.getString(c.getColumnIndex(DataPoint.SENSOR_NAME)));
-                statement.bindString(2, c.getString(c.getColumnIndex(DataPoint.DISPLAY_NAME)));
+                statement.bindLong(1, c.getLong(c.getColumnIndex(BaseColumns._ID)));
+                statement.bindString(2, c.getString(c.getColumnIndex(DataPoint.SENSOR_NAME)));
+                statement.bindString(3, c.getString(c.getColumnIndex(DataPoint.DISPLAY_NAME)));
                 statement
-                        .bindString(3, c.getString(c.getColumnIndex(DataPoint.SENSOR_DESCRIPTION)));
-                statement.bindString(4, c.getString(c.getColumnIndex(DataPoint.DATA_TYPE)));
-                statement.bindLong(5, c.getLong(c.getColumnIndex(DataPoint.TIMESTAMP)));
-                statement.bindString(6, c.getString(c.getColumnIndex(DataPoint.VALUE)));
-                statement.bindString(7, c.getString(c.getColumnIndex(DataPoint.DEVICE_UUID)));
-                statement.bindLong(8, c.getInt(c.getColumnIndex(DataPoint.TRANSMIT_STATE)));
+                        .bindString(4, c.getString(c.getColumnIndex(DataPoint.SENSOR_DESCRIPTION)));
+                statement.bindString(5, c.getString(c.getColumnIndex(DataPoint.DATA_TYPE)));
+                statement.bindLong(6, c.getLong(c.getColumnIndex(DataPoint.TIMESTAMP)));
+                statement.bindString(7, c.getString(c.getColumnIndex(DataPoint.VALUE)));
+                statement.bindString(8, c.getString(c.getColumnIndex(DataPoint.DEVICE_UUID)));
+                statement.bindLong(9, c.getInt(c.getColumnIndex(DataPoint.TRANSMIT_STATE)));
+                byte[] fragment = fragmentColumn >= 0 ? c.getBlob(fragmentColumn) : null;
+                if (null != fragment) {
+                    statement.bindBlob(10, fragment);
+                } else {
+                    statement.bindNull(10);
+                }
                 statement.execute();
 
                 insertCount++;
@@ -138,6 +152,20 @@ class SQLiteStorage {
         return result;
     }
 
+    /**
+     * @return The highest row ID that was ever used in the database, including the IDs of rows
+     *         that were deleted
+     */
+    public long getLastRowId() {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        long sequence = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(seq),0) FROM sqlite_sequence WHERE name=?",
+                new String[] { DbHelper.TABLE });
+        long max = DatabaseUtils.longForQuery(db, "SELECT IFNULL(MAX(" + BaseColumns._ID
+                + "),0) FROM " + DbHelper.TABLE, null);
+        return Math.max(sequence, max);
+    }
+
     /**
      * Inserts a row into the database.
      * 
@@ -197,6 +225,25 @@ class SQLiteStorage {
         return cursor;
     }
 
+    /**
+     * Makes sure that new rows get an ID above the given ID, so they do not get the ID of a row in
+     * another database.
+     * 
+     * @param lastRowId
+     *            Highest row ID that is in use elsewhere
+     */
+    public void reserveRowIds(long lastRowId) {
+        if (lastRowId <= getLastRowId()) {
+            return;
+        }
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues sequence = new ContentValues();
+        sequence.put("name", DbHelper.TABLE);
+        sequence.put("seq", lastRowId);
+        db.delete("sqlite_sequence", "name=?", new String[] { DbHelper.TABLE });
+        db.insert("sqlite_sequence", null, sequence);
+    }
+
     /**
      * Updates rows in the database
      * 
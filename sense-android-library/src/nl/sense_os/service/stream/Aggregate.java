@@ -0,0 +1,94 @@
+package nl.sense_os.service.stream;
+
+/**
+ * Aggregate functions that reduce the contents of a window to a single value.
+ * 
+ * @see WindowOperator#output(Aggregate)
+ */
+public enum Aggregate {
+
+    /**
+     * Arithmetic mean of the values
+     */
+    MEAN {
+        @Override
+        public double compute(DoubleRingBuffer buffer) {
+            int size = buffer.size();
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += buffer.get(i);
+            }
+            return sum / size;
+        }
+    },
+
+    /**
+     * Population variance of the values
+     */
+    VARIANCE {
+        @Override
+        public double compute(DoubleRingBuffer buffer) {
+            int size = buffer.size();
+            double mean = MEAN.compute(buffer);
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                double diff = buffer.get(i) - mean;
+                sum += diff * diff;
+            }
+            return sum / size;
+        }
+    },
+
+    /**
+     * Smallest value
+     */
+    MIN {
+        @Override
+        public double compute(DoubleRingBuffer buffer) {
+            int size = buffer.size();
+            double min = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                min = Math.min(min, buffer.get(i));
+            }
+            return min;
+        }
+    },
+
+    /**
+     * Largest value
+     */
+    MAX {
+        @Override
+        public double compute(DoubleRingBuffer buffer) {
+            int size = buffer.size();
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, buffer.get(i));
+            }
+            return max;
+        }
+    },
+
+    /**
+     * Root mean square of the values
+     */
+    RMS {
+        @Override
+        public double compute(DoubleRingBuffer buffer) {
+            int size = buffer.size();
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                double value = buffer.get(i);
+                sum += value * value;
+            }
+            return Math.sqrt(sum / size);
+        }
+    };
+
+    /**
+     * @param buffer
+     *            Buffer with the values of the window. Should not be empty.
+     * @return The aggregated value
+     */
+    public abstract double compute(DoubleRingBuffer buffer);
+}
@@ -0,0 +1,111 @@
+package nl.sense_os.service.stream;
+
+/**
+ * Fixed-size ring buffer of time stamped double values. The values and time stamps are kept in
+ * primitive arrays, so adding a value never allocates. When the buffer is full, adding a value
+ * overwrites the oldest one.
+ */
+public class DoubleRingBuffer {
+
+    private final double[] values;
+    private final long[] timestamps;
+    private int head;
+    private int size;
+
+    /**
+     * @param capacity
+     *            Maximum number of values in the buffer
+     */
+    public DoubleRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        values = new double[capacity];
+        timestamps = new long[capacity];
+    }
+
+    /**
+     * Adds a value to the buffer. Overwrites the oldest value if the buffer is full.
+     * 
+     * @param timestamp
+     *            Time stamp of the value
+     * @param value
+     *            The value
+     */
+    public void add(long timestamp, double value) {
+        int index = (head + size) % values.length;
+        values[index] = value;
+        timestamps[index] = timestamp;
+        if (size < values.length) {
+            size++;
+        } else {
+            head = (head + 1) % values.length;
+        }
+    }
+
+    /**
+     * @return The maximum number of values in the buffer
+     */
+    public int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Removes all values from the buffer.
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * @param i
+     *            Index of the value, where 0 is the oldest value in the buffer
+     * @return The value at the given index
+     */
+    public double get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        }
+        return values[(head + i) % values.length];
+    }
+
+    /**
+     * @param i
+     *            Index of the value, where 0 is the oldest value in the buffer
+     * @return The time stamp of the value at the given index
+     */
+    public long getTimestamp(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        }
+        return timestamps[(head + i) % values.length];
+    }
+
+    /**
+     * @return true if the buffer is full
+     */
+    public boolean isFull() {
+        return size == values.length;
+    }
+
+    /**
+     * Removes all values with a time stamp before the given time.
+     * 
+     * @param timestamp
+     *            The oldest time stamp to keep
+     */
+    public void removeBefore(long timestamp) {
+        while (size > 0 && timestamps[head] < timestamp) {
+            head = (head + 1) % values.length;
+            size--;
+        }
+    }
+
+    /**
+     * @return The number of values in the buffer
+     */
+    public int size() {
+        return size;
+    }
+}
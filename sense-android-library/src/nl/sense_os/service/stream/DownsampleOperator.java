@@ -0,0 +1,30 @@
+package nl.sense_os.service.stream;
+
+import nl.sense_os.service.shared.SensorDataPoint;
+
+/**
+ * Operator that passes on at most one value per interval. Values that arrive sooner than the
+ * interval after the last passed value are dropped.
+ */
+public class DownsampleOperator extends StreamOperator {
+
+    private final long interval;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * @param interval
+     *            Minimum time between two values, in milliseconds
+     */
+    public DownsampleOperator(long interval) {
+        this.interval = interval;
+    }
+
+    @Override
+    protected void onValue(SensorDataPoint dataPoint, double value) {
+        if (lastTimestamp != Long.MIN_VALUE && dataPoint.timeStamp - lastTimestamp < interval) {
+            return;
+        }
+        lastTimestamp = dataPoint.timeStamp;
+        forward(dataPoint);
+    }
+}
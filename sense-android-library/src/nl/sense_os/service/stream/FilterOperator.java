@@ -0,0 +1,51 @@
+package nl.sense_os.service.stream;
+
+import nl.sense_os.service.shared.SensorDataPoint;
+import nl.sense_os.service.shared.VectorDataPoint;
+
+/**
+ * Operator that only passes on the data points that are accepted by a {@link Predicate}. Both
+ * scalar and vector data are filtered, so a filter can be used in front of a {@link MapOperator},
+ * e.g. to select the events of a single motion sensor.
+ */
+public class FilterOperator extends StreamOperator {
+
+    /**
+     * Condition for data points that should pass the filter.
+     */
+    public interface Predicate {
+
+        /**
+         * @param dataPoint
+         *            The data point. Must not be modified.
+         * @param value
+         *            Numeric value of the data point, or NaN for vector data
+         * @return true if the data point should pass the filter
+         */
+        public abstract boolean accept(SensorDataPoint dataPoint, double value);
+    }
+
+    private final Predicate predicate;
+
+    /**
+     * @param predicate
+     *            The condition for data points that pass the filter
+     */
+    public FilterOperator(Predicate predicate) {
+        this.predicate = predicate;
+    }
+
+    @Override
+    public void onNewVector(VectorDataPoint dataPoint) {
+        if (predicate.accept(dataPoint, Double.NaN)) {
+            forward(dataPoint);
+        }
+    }
+
+    @Override
+    protected void onValue(SensorDataPoint dataPoint, double value) {
+        if (predicate.accept(dataPoint, value)) {
+            forward(dataPoint);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package nl.sense_os.service.stream;
+
+import nl.sense_os.service.shared.SensorDataPoint;
+import nl.sense_os.service.shared.VectorDataPoint;
+
+/**
+ * Operator that applies a function to every value. Vector data can be mapped to a single value
+ * with a {@link VectorFunction}, e.g. {@link #MAGNITUDE}.
+ */
+public class MapOperator extends StreamOperator {
+
+    /**
+     * Function of a single value.
+     */
+    public interface ScalarFunction {
+
+        /**
+         * @param value
+         *            The input value
+         * @return The mapped value
+         */
+        public abstract double apply(double value);
+    }
+
+    /**
+     * Function that reduces a vector to a single value.
+     */
+    public interface VectorFunction {
+
+        /**
+         * @param values
+         *            The vector values. Must not be modified.
+         * @param length
+         *            Number of values in the vector
+         * @return The mapped value
+         */
+        public abstract double apply(float[] values, int length);
+    }
+
+    /**
+     * Euclidean length of a vector
+     */
+    public static final VectorFunction MAGNITUDE = new VectorFunction() {
+
+        @Override
+        public double apply(float[] values, int length) {
+            double sum = 0;
+            for (int i = 0; i < length; i++) {
+                sum += values[i] * values[i];
+            }
+            return Math.sqrt(sum);
+        }
+    };
+
+    /**
+     * @param index
+     *            Index of the vector value
+     * @return Function that selects one value of a vector, e.g. a single axis of a motion sensor
+     */
+    public static VectorFunction component(final int index) {
+        return new VectorFunction() {
+
+            @Override
+            public double apply(float[] values, int length) {
+                return index < length ? values[index] : Double.NaN;
+            }
+        };
+    }
+
+    private final ScalarFunction scalarFunction;
+    private final VectorFunction vectorFunction;
+
+    /**
+     * @param function
+     *            Function that is applied to scalar data
+     */
+    public MapOperator(ScalarFunction function) {
+        scalarFunction = function;
+        vectorFunction = null;
+    }
+
+    /**
+     * @param function
+     *            Function that turns vector data into a single value
+     */
+    public MapOperator(VectorFunction function) {
+        scalarFunction = null;
+        vectorFunction = function;
+    }
+
+    @Override
+    public void onNewVector(VectorDataPoint dataPoint) {
+        if (null != vectorFunction) {
+            double value = vectorFunction.apply(dataPoint.getValues(), dataPoint.getLength());
+            emit(dataPoint.sensorName, dataPoint.sensorDescription, dataPoint.timeStamp, value);
+        }
+    }
+
+    @Override
+    protected void onValue(SensorDataPoint dataPoint, double value) {
+        if (null != scalarFunction) {
+            emit(dataPoint.sensorName, dataPoint.sensorDescription, dataPoint.timeStamp,
+                    scalarFunction.apply(value));
+        }
+    }
+}
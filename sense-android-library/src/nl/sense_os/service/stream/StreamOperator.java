@@ -0,0 +1,164 @@
+package nl.sense_os.service.stream;
+
+import nl.sense_os.service.shared.BaseDataProducer;
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.ScalarDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint;
+import nl.sense_os.service.shared.SynchronousDelivery;
+import nl.sense_os.service.shared.TypedDataProcessor;
+import nl.sense_os.service.shared.VectorDataPoint;
+
+/**
+ * <p>
+ * Base class for stream operators. An operator is a DataProcessor that transforms the numeric
+ * data it receives and passes the result on to its own subscribers, so operators can be chained
+ * into a pipeline that is subscribed to a sensor via
+ * {@link nl.sense_os.service.SenseService#subscribeDataProcessor(String, DataProcessor)}.
+ * </p>
+ * <p>
+ * Example: derived sensors with the mean and the maximum noise level of the last minute, updated
+ * every 10 seconds. Both outputs share the buffer of the window.
+ * 
+ * <pre>
+ * WindowOperator window = WindowOperator.sliding(60000L, 10000L, 1024);
+ * window.output(Aggregate.MEAN).named(&quot;noise mean&quot;, &quot;1 minute&quot;).to(processor);
+ * window.output(Aggregate.MAX).named(&quot;noise max&quot;, &quot;1 minute&quot;).to(processor);
+ * senseService.subscribeDataProcessor(SensorNames.NOISE, window);
+ * </pre>
+ * 
+ * </p>
+ * <p>
+ * Operators receive their data synchronously from the producer, and they are not thread-safe: an
+ * operator should only be subscribed to a single source. Subscribers at the end of the pipeline
+ * get the data via their normal queue.
+ * </p>
+ */
+public abstract class StreamOperator extends BaseDataProducer implements TypedDataProcessor,
+        SynchronousDelivery {
+
+    private String outputName;
+    private String outputDescription;
+
+    /**
+     * Sends a new value to the subscribers of this operator.
+     * 
+     * @param name
+     *            Sensor name of the input data, used unless the operator has an output name
+     * @param description
+     *            Sensor description of the input data, used unless the operator has an output name
+     * @param timestamp
+     *            Time stamp of the value
+     * @param value
+     *            The value
+     */
+    protected void emit(String name, String description, long timestamp, double value) {
+        if (!hasSubscribers()) {
+            return;
+        }
+        ScalarDataPoint dataPoint = new ScalarDataPoint(value);
+        dataPoint.sensorName = null != outputName ? outputName : name;
+        dataPoint.sensorDescription = null != outputName ? outputDescription : description;
+        dataPoint.timeStamp = timestamp;
+        sendToSubscribers(dataPoint);
+    }
+
+    /**
+     * Passes an input data point on to the subscribers of this operator without changing it.
+     * 
+     * @param dataPoint
+     *            The input data point
+     */
+    protected void forward(SensorDataPoint dataPoint) {
+        if (null == outputName) {
+            sendToSubscribers(dataPoint);
+        } else if (dataPoint instanceof ScalarDataPoint) {
+            emit(null, null, dataPoint.timeStamp, ((ScalarDataPoint) dataPoint).getValue());
+        } else {
+            // cannot rename other data points without changing them for the other subscribers
+            sendToSubscribers(dataPoint);
+        }
+    }
+
+    /**
+     * @return true if all subscribers of the operator have a complete sample
+     */
+    @Override
+    public boolean isSampleComplete() {
+        return checkSubscribers();
+    }
+
+    /**
+     * Sets the sensor name and description of the data that is produced by this operator. By
+     * default the operator keeps the name and description of the input data.
+     * 
+     * @param name
+     *            Sensor name of the output
+     * @param description
+     *            Sensor description of the output
+     * @return This operator, for chaining
+     */
+    public StreamOperator named(String name, String description) {
+        outputName = name;
+        outputDescription = description;
+        return this;
+    }
+
+    /**
+     * Handles data that is not numeric. Operators ignore it by default.
+     */
+    @Override
+    public void onNewData(SensorDataPoint dataPoint) {
+        // not numeric
+    }
+
+    @Override
+    public void onNewScalar(ScalarDataPoint dataPoint) {
+        onValue(dataPoint, dataPoint.getValue());
+    }
+
+    /**
+     * Handles vector data. Operators ignore it by default: use a {@link MapOperator} to turn the
+     * vector into a single value first.
+     */
+    @Override
+    public void onNewVector(VectorDataPoint dataPoint) {
+        // operators work on scalar values
+    }
+
+    /**
+     * Handles a new value.
+     * 
+     * @param dataPoint
+     *            The data point that contained the value
+     * @param value
+     *            The numeric value of the data point
+     */
+    protected abstract void onValue(SensorDataPoint dataPoint, double value);
+
+    @Override
+    public void startNewSample() {
+        notifySubscribers();
+    }
+
+    /**
+     * Subscribes the next operator of the pipeline to this operator.
+     * 
+     * @param next
+     *            The next operator
+     * @return The next operator, for chaining
+     */
+    public <T extends StreamOperator> T then(T next) {
+        addSubscriber(next);
+        return next;
+    }
+
+    /**
+     * Subscribes a DataProcessor to the output of this operator.
+     * 
+     * @param processor
+     *            The DataProcessor at the end of the pipeline
+     */
+    public void to(DataProcessor processor) {
+        addSubscriber(processor);
+    }
+}
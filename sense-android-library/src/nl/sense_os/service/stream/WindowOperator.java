@@ -0,0 +1,223 @@
+package nl.sense_os.service.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.SensorDataPoint;
+
+/**
+ * <p>
+ * Operator that collects values in a window and emits aggregates of the window contents. Windows
+ * are either based on a number of values ({@link #tumbling(int)}, {@link #sliding(int, int)}) or on
+ * time ({@link #tumbling(long, int)}, {@link #sliding(long, long, int)},
+ * {@link #rolling(long, int)}). A tumbling window starts fresh every time it is emitted, a sliding
+ * window is emitted every step and overlaps with the previous window, and a rolling window is
+ * emitted for every new value. Time based windows are emitted when the first value after their
+ * end arrives; after a gap in the data, every window that still has values is emitted, and the
+ * windows without values are skipped.
+ * </p>
+ * <p>
+ * The window itself does not produce data: each {@link #output(Aggregate)} is a separate operator
+ * that emits one aggregate. All outputs share the ring buffer of the window, so derived sensors
+ * that need several statistics of the same source only buffer the data once.
+ * </p>
+ */
+public class WindowOperator extends StreamOperator {
+
+    /**
+     * Operator that emits one aggregate of the window contents.
+     */
+    private static class Output extends StreamOperator {
+
+        private final Aggregate aggregate;
+
+        Output(Aggregate aggregate) {
+            this.aggregate = aggregate;
+        }
+
+        @Override
+        protected void onValue(SensorDataPoint dataPoint, double value) {
+            // outputs are fed by their window
+        }
+    }
+
+    /**
+     * Default number of values that a time based window can hold
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * @param duration
+     *            Length of the window, in milliseconds
+     * @param capacity
+     *            Maximum number of values in the window. Older values are dropped when the window
+     *            is full.
+     * @return Window of the last <code>duration</code> milliseconds up to and including the new
+     *         value, emitted after every value once the first <code>duration</code> has passed
+     */
+    public static WindowOperator rolling(long duration, int capacity) {
+        if (duration < 1) {
+            throw new IllegalArgumentException("Duration must be positive");
+        }
+        return new WindowOperator(capacity, 0, duration, 0);
+    }
+
+    /**
+     * @param size
+     *            Number of values in the window
+     * @return Window that is emitted after every <code>size</code> values
+     */
+    public static WindowOperator tumbling(int size) {
+        return new WindowOperator(size, size, 0, 0);
+    }
+
+    /**
+     * @param duration
+     *            Length of the window, in milliseconds
+     * @param capacity
+     *            Maximum number of values in the window. Older values are dropped when the window
+     *            is full.
+     * @return Window that is emitted every <code>duration</code> milliseconds
+     */
+    public static WindowOperator tumbling(long duration, int capacity) {
+        return new WindowOperator(capacity, 0, duration, duration);
+    }
+
+    /**
+     * @param size
+     *            Number of values in the window
+     * @param step
+     *            Number of new values between two emitted windows
+     * @return Window of the last <code>size</code> values, emitted after every <code>step</code>
+     *         values
+     */
+    public static WindowOperator sliding(int size, int step) {
+        if (step < 1 || step > size) {
+            throw new IllegalArgumentException("Step must be between 1 and the window size");
+        }
+        return new WindowOperator(size, step, 0, 0);
+    }
+
+    /**
+     * @param duration
+     *            Length of the window, in milliseconds
+     * @param step
+     *            Time between two emitted windows, in milliseconds
+     * @param capacity
+     *            Maximum number of values in the window. Older values are dropped when the window
+     *            is full.
+     * @return Window of the last <code>duration</code> milliseconds, emitted every
+     *         <code>step</code> milliseconds
+     */
+    public static WindowOperator sliding(long duration, long step, int capacity) {
+        if (step < 1 || step > duration) {
+            throw new IllegalArgumentException("Step must be between 1 and the window duration");
+        }
+        return new WindowOperator(capacity, 0, duration, step);
+    }
+
+    private final DoubleRingBuffer buffer;
+    private final List<Output> outputs = new ArrayList<Output>();
+    private final int countStep;
+    private final long duration;
+    private final long timeStep;
+    private int count;
+    private long nextEnd = Long.MIN_VALUE;
+    private String lastName;
+    private String lastDescription;
+
+    private WindowOperator(int capacity, int countStep, long duration, long timeStep) {
+        buffer = new DoubleRingBuffer(capacity);
+        this.countStep = countStep;
+        this.duration = duration;
+        this.timeStep = timeStep;
+    }
+
+    private void emitWindow(long timestamp) {
+        if (buffer.size() == 0) {
+            return;
+        }
+        for (int i = 0; i < outputs.size(); i++) {
+            Output output = outputs.get(i);
+            output.emit(lastName, lastDescription, timestamp, output.aggregate.compute(buffer));
+        }
+    }
+
+    /**
+     * @return true if all outputs of the window have a complete sample
+     */
+    @Override
+    public boolean isSampleComplete() {
+        for (int i = 0; i < outputs.size(); i++) {
+            if (!outputs.get(i).isSampleComplete()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void onValue(SensorDataPoint dataPoint, double value) {
+        lastName = dataPoint.sensorName;
+        lastDescription = dataPoint.sensorDescription;
+        long timestamp = dataPoint.timeStamp;
+        if (duration > 0 && timeStep == 0) {
+            // rolling window: emit the last duration with every value, once it has been filled
+            if (nextEnd == Long.MIN_VALUE) {
+                nextEnd = timestamp + duration;
+            }
+            buffer.removeBefore(timestamp - duration);
+            buffer.add(timestamp, value);
+            if (timestamp >= nextEnd) {
+                emitWindow(timestamp);
+            }
+        } else if (duration > 0) {
+            // time based window: emit the windows that ended before this value
+            if (nextEnd == Long.MIN_VALUE) {
+                nextEnd = timestamp + duration;
+            }
+            while (timestamp >= nextEnd) {
+                // a sliding window overlaps with the next ones, so they may still have data
+                buffer.removeBefore(nextEnd - duration);
+                if (buffer.size() == 0) {
+                    // skip the windows without data
+                    long behind = (timestamp - nextEnd) / timeStep + 1;
+                    nextEnd += behind * timeStep;
+                    break;
+                }
+                emitWindow(nextEnd);
+                nextEnd += timeStep;
+            }
+            buffer.removeBefore(nextEnd - duration);
+            buffer.add(timestamp, value);
+        } else {
+            buffer.add(timestamp, value);
+            count++;
+            if (buffer.isFull() && count >= countStep) {
+                emitWindow(timestamp);
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Creates an output that emits an aggregate of the window contents.
+     * 
+     * @param aggregate
+     *            The aggregate function
+     * @return The output operator, to subscribe further operators or a {@link DataProcessor} to
+     */
+    public StreamOperator output(Aggregate aggregate) {
+        Output output = new Output(aggregate);
+        outputs.add(output);
+        return output;
+    }
+
+    @Override
+    public void startNewSample() {
+        for (int i = 0; i < outputs.size(); i++) {
+            outputs.get(i).startNewSample();
+        }
+    }
+}
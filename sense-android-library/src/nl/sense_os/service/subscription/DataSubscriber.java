@@ -0,0 +1,28 @@
+package nl.sense_os.service.subscription;
+
+/**
+ * Callback interface for components that want to receive new sensor data points from the
+ * {@link SubscriptionManager}. Callbacks are delivered on the subscription delivery thread, so
+ * implementations should not block for a long time.
+ *
+ * @see DataSubscription
+ */
+public interface DataSubscriber {
+
+    /**
+     * Called when a new data point has been stored that matches the subscription filter.
+     *
+     * @param sensorName
+     *            Name of the sensor that produced the data point
+     * @param description
+     *            Sensor description (previously 'device_type')
+     * @param dataType
+     *            Sensor data type
+     * @param timestamp
+     *            Time stamp of the data point, in milliseconds
+     * @param value
+     *            String representation of the data point value
+     */
+    public abstract void onNewData(String sensorName, String description, String dataType,
+            long timestamp, String value);
+}
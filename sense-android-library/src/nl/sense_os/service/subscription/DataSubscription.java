@@ -0,0 +1,145 @@
+package nl.sense_os.service.subscription;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes a subscription for new sensor data at the {@link SubscriptionManager}. A subscription
+ * filters the data points on sensor name, sensor description and a minimum interval between two
+ * delivered points of the same sensor.<br/>
+ * <br/>
+ * The data is delivered either via a {@link DataSubscriber} callback (for components that are bound
+ * to the Sense service), or as batched local broadcasts with the given action (see
+ * {@link SubscriptionManager#EXTRA_SENSOR_NAMES} for the contents of the broadcast Intent).
+ *
+ * @see SubscriptionManager
+ */
+public class DataSubscription {
+
+    private final String sensorName;
+    private final String description;
+    private final long minInterval;
+    private final DataSubscriber subscriber;
+    private final String action;
+
+    /**
+     * Time of the last delivered data point for each sensor, mapped by name and description. Only
+     * accessed from the thread that handles new data in the MsgHandler.
+     */
+    private final Map<String, Long> lastDelivered = new HashMap<String, Long>();
+
+    /**
+     * Creates a subscription that delivers the data via a callback.
+     *
+     * @param sensorName
+     *            Name of the sensor to subscribe to, or null for all sensors
+     * @param description
+     *            Description of the sensor to subscribe to, or null for any description
+     * @param minInterval
+     *            Minimum time between two delivered data points of the same sensor, in
+     *            milliseconds. Points that arrive sooner are skipped. Set 0 to receive all points.
+     * @param subscriber
+     *            Callback for the new data points
+     */
+    public DataSubscription(String sensorName, String description, long minInterval,
+            DataSubscriber subscriber) {
+        if (null == subscriber) {
+            throw new IllegalArgumentException("Subscriber cannot be null");
+        }
+        this.sensorName = sensorName;
+        this.description = description;
+        this.minInterval = minInterval;
+        this.subscriber = subscriber;
+        this.action = null;
+    }
+
+    /**
+     * Creates a subscription that delivers the data as batched local broadcasts.
+     *
+     * @param sensorName
+     *            Name of the sensor to subscribe to, or null for all sensors
+     * @param description
+     *            Description of the sensor to subscribe to, or null for any description
+     * @param minInterval
+     *            Minimum time between two delivered data points of the same sensor, in
+     *            milliseconds. Points that arrive sooner are skipped. Set 0 to receive all points.
+     * @param action
+     *            Intent action of the local broadcasts with the data
+     */
+    public DataSubscription(String sensorName, String description, long minInterval,
+            String action) {
+        if (null == action) {
+            throw new IllegalArgumentException("Broadcast action cannot be null");
+        }
+        this.sensorName = sensorName;
+        this.description = description;
+        this.minInterval = minInterval;
+        this.subscriber = null;
+        this.action = action;
+    }
+
+    /**
+     * @return The local broadcast action, or null if this subscription uses a callback
+     */
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * @return The sensor description filter, or null if any description matches
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return The minimum interval between delivered points of the same sensor, in milliseconds
+     */
+    public long getMinInterval() {
+        return minInterval;
+    }
+
+    /**
+     * @return The sensor name filter, or null if any sensor matches
+     */
+    public String getSensorName() {
+        return sensorName;
+    }
+
+    /**
+     * @return The callback subscriber, or null if this subscription uses local broadcasts
+     */
+    public DataSubscriber getSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * Checks if a data point passes the filters of this subscription. Updates the last delivery
+     * time of the sensor if it does.
+     *
+     * @param name
+     *            Sensor name of the data point
+     * @param description
+     *            Sensor description of the data point
+     * @param timestamp
+     *            Time stamp of the data point
+     * @return true if the data point should be delivered
+     */
+    boolean accept(String name, String description, long timestamp) {
+        if (null != this.sensorName && !this.sensorName.equals(name)) {
+            return false;
+        }
+        if (null != this.description && !this.description.equals(description)) {
+            return false;
+        }
+        if (minInterval > 0) {
+            String key = name + description;
+            Long last = lastDelivered.get(key);
+            if (null != last && timestamp - last < minInterval) {
+                return false;
+            }
+            lastDelivered.put(key, timestamp);
+        }
+        return true;
+    }
+}
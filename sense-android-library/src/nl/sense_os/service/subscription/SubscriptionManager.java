@@ -0,0 +1,288 @@
+package nl.sense_os.service.subscription;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import nl.sense_os.service.constants.SensePrefs.Main.Advanced;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+
+/**
+ * Registry for subscriptions to new sensor data. The MsgHandler passes every new data point to
+ * {@link #deliver(String, String, String, long, String)}, and the manager forwards it to the
+ * subscriptions that match the point's sensor name and description.<br/>
+ * <br/>
+ * Matching points are collected for a short time and then delivered in one go on a separate
+ * thread: {@link DataSubscriber} callbacks receive the points one by one, broadcast subscriptions
+ * receive one local broadcast containing many points. The broadcast Intent contains the parallel
+ * arrays {@link #EXTRA_SENSOR_NAMES}, {@link #EXTRA_DESCRIPTIONS}, {@link #EXTRA_DATA_TYPES},
+ * {@link #EXTRA_TIMESTAMPS} and {@link #EXTRA_VALUES}.<br/>
+ * <br/>
+ * This replaces the old behavior of sending a global broadcast for every single data point. Apps
+ * that still rely on that broadcast can enable {@link Advanced#LEGACY_BROADCAST}.
+ *
+ * @see DataSubscription
+ */
+public class SubscriptionManager {
+
+    private static class PendingPoint {
+        final String name;
+        final String description;
+        final String dataType;
+        final long timestamp;
+        final String value;
+
+        PendingPoint(String name, String description, String dataType, long timestamp,
+                String value) {
+            this.name = name;
+            this.description = description;
+            this.dataType = dataType;
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Key for broadcast extra with String array of sensor names
+     */
+    public static final String EXTRA_SENSOR_NAMES = "sensor_names";
+    /**
+     * Key for broadcast extra with String array of sensor descriptions
+     */
+    public static final String EXTRA_DESCRIPTIONS = "sensor_descriptions";
+    /**
+     * Key for broadcast extra with String array of sensor data types
+     */
+    public static final String EXTRA_DATA_TYPES = "data_types";
+    /**
+     * Key for broadcast extra with long array of data point time stamps
+     */
+    public static final String EXTRA_TIMESTAMPS = "timestamps";
+    /**
+     * Key for broadcast extra with String array of data point values
+     */
+    public static final String EXTRA_VALUES = "values";
+
+    private static final String TAG = "SubscriptionManager";
+
+    /**
+     * Time to collect data points before they are delivered, in milliseconds
+     */
+    private static final long BATCH_DELAY = 1000;
+
+    /**
+     * Maximum number of data points per delivery. The pending points are delivered immediately
+     * when this limit is reached.
+     */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static SubscriptionManager instance;
+
+    /**
+     * @param context
+     *            Context for lazy creating the SubscriptionManager
+     * @return Singleton instance of the SubscriptionManager
+     */
+    public static synchronized SubscriptionManager getInstance(Context context) {
+        if (null == instance) {
+            instance = new SubscriptionManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final Context context;
+    private final CopyOnWriteArrayList<DataSubscription> subscriptions =
+            new CopyOnWriteArrayList<DataSubscription>();
+    private final Map<DataSubscription, List<PendingPoint>> pending = new HashMap<DataSubscription, List<PendingPoint>>();
+    private Handler deliveryHandler;
+    private boolean flushScheduled;
+
+    private final Runnable flushTask = new Runnable() {
+
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private SubscriptionManager(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Passes a new data point to all matching subscriptions. Called by the MsgHandler for every new
+     * data point, when it arrives.
+     *
+     * @param name
+     *            Sensor name
+     * @param description
+     *            Sensor description
+     * @param dataType
+     *            Sensor data type
+     * @param timestamp
+     *            Data point time stamp
+     * @param value
+     *            Data point value
+     */
+    public void deliver(String name, String description, String dataType, long timestamp,
+            String value) {
+
+        if (subscriptions.isEmpty()) {
+            // nobody is listening
+            return;
+        }
+
+        PendingPoint point = null;
+        boolean full = false;
+        for (DataSubscription subscription : subscriptions) {
+            if (!subscription.accept(name, description, timestamp)) {
+                continue;
+            }
+            if (null == point) {
+                point = new PendingPoint(name, description, dataType, timestamp, value);
+            }
+            synchronized (pending) {
+                List<PendingPoint> points = pending.get(subscription);
+                if (null == points) {
+                    points = new ArrayList<PendingPoint>();
+                    pending.put(subscription, points);
+                }
+                points.add(point);
+                full |= points.size() >= MAX_BATCH_SIZE;
+            }
+        }
+
+        if (null != point) {
+            scheduleFlush(full);
+        }
+    }
+
+    /**
+     * Delivers all pending data points to the subscriptions. Runs on the delivery thread.
+     */
+    private void flush() {
+
+        Map<DataSubscription, List<PendingPoint>> batch;
+        synchronized (pending) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new HashMap<DataSubscription, List<PendingPoint>>(pending);
+            pending.clear();
+        }
+
+        for (Map.Entry<DataSubscription, List<PendingPoint>> entry : batch.entrySet()) {
+            DataSubscription subscription = entry.getKey();
+            List<PendingPoint> points = entry.getValue();
+            if (!subscriptions.contains(subscription)) {
+                // unsubscribed in the mean time
+                continue;
+            }
+            try {
+                if (null != subscription.getSubscriber()) {
+                    DataSubscriber subscriber = subscription.getSubscriber();
+                    for (PendingPoint point : points) {
+                        subscriber.onNewData(point.name, point.description, point.dataType,
+                                point.timestamp, point.value);
+                    }
+                } else {
+                    sendBroadcast(subscription.getAction(), points);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to deliver data to subscriber", e);
+            }
+        }
+    }
+
+    private synchronized Handler getDeliveryHandler() {
+        if (null == deliveryHandler) {
+            HandlerThread handlerThread = new HandlerThread("SubscriptionDeliveryThread");
+            handlerThread.start();
+            deliveryHandler = new Handler(handlerThread.getLooper());
+        }
+        return deliveryHandler;
+    }
+
+    /**
+     * @return true if there is at least one subscription
+     */
+    public boolean hasSubscriptions() {
+        return !subscriptions.isEmpty();
+    }
+
+    private void scheduleFlush(boolean immediately) {
+        Handler handler = getDeliveryHandler();
+        synchronized (pending) {
+            if (immediately) {
+                handler.removeCallbacks(flushTask);
+                handler.post(flushTask);
+                flushScheduled = true;
+            } else if (!flushScheduled) {
+                handler.postDelayed(flushTask, BATCH_DELAY);
+                flushScheduled = true;
+            }
+        }
+    }
+
+    private void sendBroadcast(String action, List<PendingPoint> points) {
+        int size = points.size();
+        String[] names = new String[size];
+        String[] descriptions = new String[size];
+        String[] dataTypes = new String[size];
+        long[] timestamps = new long[size];
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            PendingPoint point = points.get(i);
+            names[i] = point.name;
+            descriptions[i] = point.description;
+            dataTypes[i] = point.dataType;
+            timestamps[i] = point.timestamp;
+            values[i] = point.value;
+        }
+
+        Intent intent = new Intent(action);
+        intent.putExtra(EXTRA_SENSOR_NAMES, names);
+        intent.putExtra(EXTRA_DESCRIPTIONS, descriptions);
+        intent.putExtra(EXTRA_DATA_TYPES, dataTypes);
+        intent.putExtra(EXTRA_TIMESTAMPS, timestamps);
+        intent.putExtra(EXTRA_VALUES, values);
+        LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+    }
+
+    /**
+     * Adds a subscription for new sensor data.
+     *
+     * @param subscription
+     *            The subscription
+     * @return false if the subscription was already registered
+     */
+    public boolean subscribe(DataSubscription subscription) {
+        if (!subscriptions.addIfAbsent(subscription)) {
+            return false;
+        }
+        Log.v(TAG, "Add subscription for sensor '" + subscription.getSensorName() + "'");
+        return true;
+    }
+
+    /**
+     * Removes a subscription. Pending data points for the subscription are discarded.
+     *
+     * @param subscription
+     *            The subscription to remove
+     */
+    public void unsubscribe(DataSubscription subscription) {
+        subscriptions.remove(subscription);
+        synchronized (pending) {
+            pending.remove(subscription);
+        }
+    }
+}
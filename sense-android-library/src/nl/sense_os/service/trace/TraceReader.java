@@ -0,0 +1,257 @@
+package nl.sense_os.service.trace;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import nl.sense_os.service.shared.SensorDataPoint.DataType;
+
+/**
+ * Reads the records of a trace that was written by a {@link TraceWriter}. The reader does not
+ * create a new object per record: {@link #next()} moves to the next record, and the getters return
+ * the fields of the current record.
+ * 
+ * @see TraceReplayer
+ */
+public class TraceReader implements Closeable {
+
+    /** Record with a single numeric value */
+    public static final int SCALAR = 1;
+    /** Record with a vector of float values */
+    public static final int VECTOR = 2;
+    /** Record with a copy of a motion sensor event */
+    public static final int MOTION = 3;
+    /** Record with a String, JSON or file value */
+    public static final int TEXT = 4;
+
+    static final int MAGIC = 0x53545243;
+    static final short VERSION = 1;
+
+    private static final DataType[] DATA_TYPES = DataType.values();
+
+    private final DataInputStream in;
+    private final ArrayList<String> strings = new ArrayList<String>();
+    private int kind;
+    private String sensorName;
+    private String sensorDescription;
+    private long timestamp;
+    private DataType dataType;
+    private double value;
+    private float[] values = new float[8];
+    private int length;
+    private int sensorType;
+    private int accuracy;
+    private long eventTimestamp;
+    private String text;
+
+    /**
+     * Creates a new trace reader, and reads the trace header from the input stream.
+     * 
+     * @param input
+     *            Stream to read the trace from. The stream is closed when the reader is closed.
+     * @throws IOException
+     *             If the stream does not contain a trace with a supported version
+     */
+    public TraceReader(InputStream input) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a sensor data trace");
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported trace version: " + version);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * @return The accuracy of the current {@link #MOTION} record
+     */
+    public int getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @return The data type of the current {@link #SCALAR} or {@link #TEXT} record, or
+     *         {@link DataType#VECTOR} for the other records
+     */
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /**
+     * @return The hardware time stamp of the current {@link #MOTION} record, in nanoseconds
+     */
+    public long getEventTimestamp() {
+        return eventTimestamp;
+    }
+
+    /**
+     * @return The kind of the current record: {@link #SCALAR}, {@link #VECTOR}, {@link #MOTION} or
+     *         {@link #TEXT}
+     */
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * @return The number of values of the current {@link #VECTOR} or {@link #MOTION} record
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return The sensor description of the current record
+     */
+    public String getSensorDescription() {
+        return sensorDescription;
+    }
+
+    /**
+     * @return The sensor name of the current record
+     */
+    public String getSensorName() {
+        return sensorName;
+    }
+
+    /**
+     * @return The Android sensor type of the current {@link #MOTION} record
+     */
+    public int getSensorType() {
+        return sensorType;
+    }
+
+    /**
+     * @return The value of the current {@link #TEXT} record
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return The time stamp of the current record
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return The value of the current {@link #SCALAR} record
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return The values of the current {@link #VECTOR} or {@link #MOTION} record. Only the first
+     *         {@link #getLength()} values are valid, and the array is reused for the next record.
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * Reads the next record of the trace.
+     * 
+     * @return true if a record was read, false at the end of the trace
+     * @throws IOException
+     *             If the trace is corrupt or truncated
+     */
+    public boolean next() throws IOException {
+        int read = in.read();
+        if (read == -1) {
+            return false;
+        }
+        kind = read;
+        sensorName = readString();
+        sensorDescription = readString();
+        timestamp += readVarLong();
+
+        switch (kind) {
+        case SCALAR:
+            dataType = readDataType();
+            value = in.readDouble();
+            break;
+        case VECTOR:
+            dataType = DataType.VECTOR;
+            readFloats();
+            break;
+        case MOTION:
+            dataType = DataType.VECTOR;
+            sensorType = (int) readVarLong();
+            accuracy = (int) readVarLong();
+            eventTimestamp = in.readLong();
+            readFloats();
+            break;
+        case TEXT:
+            dataType = readDataType();
+            text = readUtf8();
+            break;
+        default:
+            throw new IOException("Unknown trace record: " + kind);
+        }
+        return true;
+    }
+
+    private DataType readDataType() throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= DATA_TYPES.length) {
+            throw new IOException("Unknown data type: " + ordinal);
+        }
+        return DATA_TYPES[ordinal];
+    }
+
+    private void readFloats() throws IOException {
+        length = (int) readVarLong();
+        if (length > values.length) {
+            values = new float[length];
+        }
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readFloat();
+        }
+    }
+
+    private String readString() throws IOException {
+        int ref = (int) readVarLong();
+        if (ref == 0) {
+            return null;
+        } else if (ref <= strings.size()) {
+            return strings.get(ref - 1);
+        } else if (ref == strings.size() + 1) {
+            String value = readUtf8();
+            strings.add(value);
+            return value;
+        } else {
+            throw new IOException("Invalid string reference: " + ref);
+        }
+    }
+
+    private String readUtf8() throws IOException {
+        byte[] bytes = new byte[(int) readVarLong()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Reads a zigzag-encoded variable length integer that was written by the {@link TraceWriter}.
+     */
+    private long readVarLong() throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+}
@@ -0,0 +1,115 @@
+package nl.sense_os.service.trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.SensorDataPoint;
+import nl.sense_os.service.shared.SynchronousDelivery;
+import android.util.Log;
+
+/**
+ * <p>
+ * Data processor that records all the data it receives in a trace file. The trace can be replayed
+ * later with a {@link TraceReplayer}, to run a processing pipeline on exactly the same input
+ * without the device's sensors, or to compare the output of a pipeline with a recorded reference.
+ * </p>
+ * <p>
+ * Example: record the noise data, and replay it through a window operator later.
+ * 
+ * <pre>
+ * TraceRecorder recorder = new TraceRecorder(new File(dir, &quot;noise.trace&quot;));
+ * senseService.subscribeDataProcessor(SensorNames.NOISE, recorder);
+ * ...
+ * senseService.unsubscribeDataProcessor(SensorNames.NOISE, recorder);
+ * recorder.close();
+ * </pre>
+ * 
+ * </p>
+ * <p>
+ * The recorder gets the data synchronously, so it sees pooled data points before they are
+ * recycled. The same recorder can be subscribed to several producers.
+ * </p>
+ */
+public class TraceRecorder implements DataProcessor, SynchronousDelivery {
+
+    private static final String TAG = "TraceRecorder";
+    private final TraceWriter writer;
+    private volatile boolean closed;
+    private int recorded;
+    private int skipped;
+
+    /**
+     * Creates a recorder that writes to a new trace file.
+     * 
+     * @param file
+     *            The trace file. An existing file is overwritten.
+     * @throws IOException
+     *             If the file could not be created
+     */
+    public TraceRecorder(File file) throws IOException {
+        this(new TraceWriter(new FileOutputStream(file)));
+    }
+
+    /**
+     * @param writer
+     *            Writer for the trace
+     */
+    public TraceRecorder(TraceWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Stops the recording and closes the trace. Data that arrives after this is ignored.
+     */
+    public void close() {
+        closed = true;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close the trace", e);
+        }
+        synchronized (this) {
+            Log.v(TAG, "Recorded " + recorded + " data points, skipped " + skipped);
+        }
+    }
+
+    /**
+     * @return The number of data points that were written to the trace
+     */
+    public synchronized int getRecordedCount() {
+        return recorded;
+    }
+
+    @Override
+    public boolean isSampleComplete() {
+        // never complete: the recorder wants all data
+        return false;
+    }
+
+    @Override
+    public void onNewData(SensorDataPoint dataPoint) {
+        if (closed) {
+            return;
+        }
+        try {
+            boolean written = writer.write(dataPoint);
+            synchronized (this) {
+                if (written) {
+                    recorded++;
+                } else {
+                    skipped++;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write to the trace, recording stopped", e);
+            close();
+        }
+    }
+
+    @Override
+    public void startNewSample() {
+        // nothing to do
+    }
+}
@@ -0,0 +1,236 @@
+package nl.sense_os.service.trace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import nl.sense_os.service.motion.MotionSample;
+import nl.sense_os.service.motion.MotionSamplePool;
+import nl.sense_os.service.shared.BaseDataProducer;
+import nl.sense_os.service.shared.Clock;
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.OverflowPolicy;
+import nl.sense_os.service.shared.ScalarDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint.DataType;
+import nl.sense_os.service.shared.VectorDataPoint;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.util.Log;
+
+/**
+ * <p>
+ * Data producer that replays a trace that was recorded by a {@link TraceRecorder}. Any processor
+ * or chain of stream operators can be subscribed to the replayer, just like to a real sensor.
+ * </p>
+ * <p>
+ * The trace can be replayed at the speed at which it was recorded, or as fast as possible. In
+ * both cases the data points keep their recorded time stamps. Processors that look at the current
+ * time should get the {@link #getClock() clock of the replayer}, which follows the time stamps of
+ * the trace, so they see the same time as during the recording:
+ * 
+ * <pre>
+ * TraceReplayer replayer = new TraceReplayer(context);
+ * FallDetector detector = new FallDetector(context);
+ * detector.setClock(replayer.getClock());
+ * replayer.addSubscriber(detector);
+ * replayer.replay(trace, false);
+ * </pre>
+ * 
+ * </p>
+ * <p>
+ * The clock is only used by the processors it is given to, so a replay does not affect the time
+ * of the other sensors of a running service. All subscribers of the replayer get the data
+ * synchronously, so no data is dropped and every replay of a trace gives the same result.
+ * </p>
+ * <p>
+ * Motion data is replayed as {@link MotionSample}s with the sensor of the same type on this
+ * device. Records of sensor types that this device does not have are skipped; override
+ * {@link #getSensor(int)} to provide other sensors.
+ * </p>
+ */
+public class TraceReplayer extends BaseDataProducer {
+
+    /**
+     * Clock that follows the time stamps of the replayed data. It is used for both the current
+     * time and the elapsed real time, because the recorded time stamps are monotonic per sensor.
+     */
+    private static class ReplayClock implements Clock {
+        private volatile long time;
+
+        @Override
+        public long elapsedRealtime() {
+            return time;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+
+    private static final String TAG = "TraceReplayer";
+    private final Context context;
+    private final MotionSamplePool samplePool = new MotionSamplePool();
+    private final ReplayClock clock = new ReplayClock();
+
+    /**
+     * @param context
+     *            Context for looking up the motion sensors, or null if the trace has no motion data
+     */
+    public TraceReplayer(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Adds a subscriber. The data is always delivered synchronously, whatever queue size is given,
+     * so that a fast replay does not drop any data.
+     */
+    @Override
+    public synchronized boolean addSubscriber(DataProcessor dataProcessor, int queueSize,
+            OverflowPolicy policy) {
+        return super.addSubscriber(dataProcessor, 0, policy);
+    }
+
+    /**
+     * Creates a data point for the current record of the trace.
+     * 
+     * @return The data point, or null if the record cannot be replayed
+     */
+    private SensorDataPoint createDataPoint(TraceReader reader) {
+        SensorDataPoint dataPoint;
+        switch (reader.getKind()) {
+        case TraceReader.SCALAR:
+            dataPoint = new ScalarDataPoint(reader.getValue());
+            dataPoint.setDataType(reader.getDataType());
+            break;
+        case TraceReader.VECTOR:
+            VectorDataPoint vector = new VectorDataPoint(reader.getLength());
+            vector.setValues(reader.getValues(), reader.getLength());
+            dataPoint = vector;
+            break;
+        case TraceReader.MOTION:
+            Sensor sensor = getSensor(reader.getSensorType());
+            if (null == sensor) {
+                return null;
+            }
+            dataPoint = samplePool.obtain(sensor, reader.getAccuracy(),
+                    reader.getEventTimestamp(), reader.getValues(), reader.getLength());
+            break;
+        case TraceReader.TEXT:
+            if (reader.getDataType() == DataType.JSON) {
+                try {
+                    dataPoint = new SensorDataPoint(new JSONObject(reader.getText()));
+                } catch (JSONException e) {
+                    Log.w(TAG, "Invalid JSON value in trace: " + e.getMessage());
+                    return null;
+                }
+            } else {
+                dataPoint = new SensorDataPoint(reader.getText());
+                dataPoint.setDataType(reader.getDataType());
+            }
+            break;
+        default:
+            return null;
+        }
+        dataPoint.sensorName = reader.getSensorName();
+        dataPoint.sensorDescription = reader.getSensorDescription();
+        dataPoint.timeStamp = reader.getTimestamp();
+        return dataPoint;
+    }
+
+    /**
+     * @return Clock with the time of the data point that is being replayed. Give it to the
+     *         processors with {@link BaseDataProducer#setClock(Clock)}.
+     */
+    @Override
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Looks up the sensor for replayed motion data.
+     * 
+     * @param type
+     *            The Android sensor type of the recorded data
+     * @return The default sensor of the given type, or null if there is no such sensor
+     */
+    protected Sensor getSensor(int type) {
+        if (null == context) {
+            return null;
+        }
+        SensorManager mgr = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        return mgr.getDefaultSensor(type);
+    }
+
+    /**
+     * Replays a trace file to the subscribers. Returns when the whole trace is replayed, or when
+     * the thread is interrupted.
+     * 
+     * @param file
+     *            The trace file
+     * @param realTime
+     *            true to replay the data at the speed at which it was recorded, false to replay it
+     *            as fast as possible
+     * @return The number of data points that were replayed
+     * @throws IOException
+     *             If the trace could not be read
+     */
+    public int replay(File file, boolean realTime) throws IOException {
+        TraceReader reader = new TraceReader(new FileInputStream(file));
+        try {
+            return replay(reader, realTime);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @see #replay(File, boolean)
+     */
+    public int replay(TraceReader reader, boolean realTime) throws IOException {
+        notifySubscribers();
+
+        int replayed = 0;
+        int skipped = 0;
+        long firstTimestamp = 0;
+        long startNanos = System.nanoTime();
+        while (reader.next()) {
+            if (realTime) {
+                if (replayed + skipped == 0) {
+                    firstTimestamp = reader.getTimestamp();
+                }
+                long delayMillis = reader.getTimestamp() - firstTimestamp
+                        - (System.nanoTime() - startNanos) / 1000000;
+                if (delayMillis > 0) {
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            SensorDataPoint dataPoint = createDataPoint(reader);
+            if (null == dataPoint) {
+                skipped++;
+                continue;
+            }
+            clock.time = dataPoint.timeStamp;
+            sendToSubscribers(dataPoint);
+            dataPoint.release();
+            replayed++;
+        }
+
+        if (skipped > 0) {
+            Log.w(TAG, "Skipped " + skipped + " data points that could not be replayed");
+        }
+        return replayed;
+    }
+}
@@ -0,0 +1,201 @@
+package nl.sense_os.service.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import nl.sense_os.service.motion.MotionSample;
+import nl.sense_os.service.shared.ScalarDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint.DataType;
+import nl.sense_os.service.shared.VectorDataPoint;
+import android.hardware.SensorEvent;
+
+/**
+ * <p>
+ * Writes sensor data points to a compact binary trace, which can be read back with a
+ * {@link TraceReader}.
+ * </p>
+ * <p>
+ * A trace starts with a magic number and a version. Every record after that starts with the kind
+ * of record, followed by the sensor name and description, the time stamp and the value. Sensor
+ * names and descriptions are written in full only the first time they are used; after that a
+ * record refers to them by index. Time stamps are written as the difference with the previous
+ * record, so a typical record header takes only a few bytes.
+ * </p>
+ * <p>
+ * Array list data points and data points without a value are not written.
+ * </p>
+ */
+public class TraceWriter implements Closeable {
+
+    private final DataOutputStream out;
+    private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+    private long lastTimestamp;
+
+    /**
+     * Creates a new trace writer, and writes the trace header to the output stream.
+     * 
+     * @param output
+     *            Stream to write the trace to. The stream is closed when the writer is closed.
+     * @throws IOException
+     *             If the header could not be written
+     */
+    public TraceWriter(OutputStream output) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(TraceReader.MAGIC);
+        out.writeShort(TraceReader.VERSION);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Writes any buffered records to the output stream.
+     * 
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes a data point to the trace.
+     * 
+     * @param dataPoint
+     *            The data point to write
+     * @return true if the data point was written, false if its type cannot be traced
+     * @throws IOException
+     */
+    public synchronized boolean write(SensorDataPoint dataPoint) throws IOException {
+        DataType dataType = dataPoint.getDataType();
+        if (dataPoint instanceof MotionSample) {
+            MotionSample sample = (MotionSample) dataPoint;
+            writeHeader(TraceReader.MOTION, dataPoint);
+            writeVarLong(sample.getSensor().getType());
+            writeVarLong(sample.getAccuracy());
+            out.writeLong(sample.getEventTimestamp());
+            writeFloats(sample.getValues(), sample.getLength());
+
+        } else if (dataPoint instanceof VectorDataPoint) {
+            VectorDataPoint vector = (VectorDataPoint) dataPoint;
+            writeHeader(TraceReader.VECTOR, dataPoint);
+            writeFloats(vector.getValues(), vector.getLength());
+
+        } else if (dataPoint instanceof ScalarDataPoint) {
+            writeHeader(TraceReader.SCALAR, dataPoint);
+            out.writeByte(dataType.ordinal());
+            out.writeDouble(((ScalarDataPoint) dataPoint).getValue());
+
+        } else {
+            switch (dataType) {
+            case INT:
+                writeScalar(dataPoint, dataPoint.getIntValue());
+                break;
+            case FLOAT:
+                writeScalar(dataPoint, dataPoint.getFloatValue());
+                break;
+            case DOUBLE:
+                writeScalar(dataPoint, dataPoint.getDoubleValue());
+                break;
+            case BOOL:
+                writeScalar(dataPoint, dataPoint.getBoolValue() ? 1 : 0);
+                break;
+            case JSON:
+            case STRING:
+            case JSONSTRING:
+            case FILE:
+                Object value = dataType == DataType.JSON ? dataPoint.getJSONValue() : dataPoint
+                        .getStringValue();
+                if (null == value) {
+                    return false;
+                }
+                writeText(dataPoint, value.toString());
+                break;
+            case SENSOREVENT:
+                SensorEvent event = dataPoint.getSensorEventValue();
+                writeHeader(TraceReader.MOTION, dataPoint);
+                writeVarLong(event.sensor.getType());
+                writeVarLong(event.accuracy);
+                out.writeLong(event.timestamp);
+                writeFloats(event.values, event.values.length);
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeFloats(float[] values, int length) throws IOException {
+        writeVarLong(length);
+        for (int i = 0; i < length; i++) {
+            out.writeFloat(values[i]);
+        }
+    }
+
+    private void writeHeader(int kind, SensorDataPoint dataPoint) throws IOException {
+        out.writeByte(kind);
+        writeString(dataPoint.sensorName);
+        writeString(dataPoint.sensorDescription);
+        writeVarLong(dataPoint.timeStamp - lastTimestamp);
+        lastTimestamp = dataPoint.timeStamp;
+    }
+
+    private void writeScalar(SensorDataPoint dataPoint, double value) throws IOException {
+        writeHeader(TraceReader.SCALAR, dataPoint);
+        out.writeByte(dataPoint.getDataType().ordinal());
+        out.writeDouble(value);
+    }
+
+    /**
+     * Writes a reference to a string: 0 for null, or the index in the string table plus one. A
+     * reference to the next free index is followed by the new string itself.
+     */
+    private void writeString(String value) throws IOException {
+        if (null == value) {
+            writeVarLong(0);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (null != index) {
+            writeVarLong(index + 1);
+        } else {
+            index = strings.size();
+            strings.put(value, index);
+            writeVarLong(index + 1);
+            writeUtf8(value);
+        }
+    }
+
+    private void writeText(SensorDataPoint dataPoint, String value) throws IOException {
+        writeHeader(TraceReader.TEXT, dataPoint);
+        out.writeByte(dataPoint.getDataType().ordinal());
+        writeUtf8(value);
+    }
+
+    private void writeUtf8(String value) throws IOException {
+        // not DataOutputStream.writeUTF, because that is limited to 64 kB
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a signed value as a zigzag-encoded variable length integer, so small positive and
+     * negative values take only one or two bytes.
+     */
+    private void writeVarLong(long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+}
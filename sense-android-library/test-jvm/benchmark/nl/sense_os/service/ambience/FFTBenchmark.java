@@ -0,0 +1,68 @@
+package nl.sense_os.service.ambience;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Fourier transform of an audio window. <code>forward</code> reuses one {@link FFT};
+ * <code>spectrum</code> does what the NoiseSensor does for every recording: create an FFT with
+ * linear averages, transform the window and read 100 bins of 10 Hz.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class FFTBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int BANDS = SAMPLE_RATE / 2 / 10;
+    private static final int BINS = 100;
+
+    @Param({ "1024", "16384" })
+    public int timeSize;
+
+    private float[] samples;
+    private float[] buffer;
+    private FFT fft;
+
+    @Benchmark
+    public float[] forward() {
+        System.arraycopy(samples, 0, buffer, 0, timeSize);
+        fft.forward(buffer);
+        return fft.getSpectrum();
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        samples = new float[timeSize];
+        for (int i = 0; i < timeSize; i++) {
+            // 440 Hz tone with noise
+            samples[i] = (float) (Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE) + 0.1 * random
+                    .nextGaussian());
+        }
+        buffer = new float[timeSize];
+        fft = new FFT(timeSize, SAMPLE_RATE);
+    }
+
+    @Benchmark
+    public double[] spectrum() {
+        FFT fft = new FFT(timeSize, SAMPLE_RATE);
+        fft.linAverages(BANDS);
+        System.arraycopy(samples, 0, buffer, 0, timeSize);
+        fft.forward(buffer);
+        double[] bins = new double[BINS];
+        for (int i = 0; i < BINS; i++) {
+            bins[i] = 10.0 * Math.log10(fft.getAvg(i));
+        }
+        return bins;
+    }
+}
@@ -0,0 +1,98 @@
+package nl.sense_os.service.commonsense;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compressing one upload batch of 10, 100 or 1000 accelerometer points with the reusable GZIP
+ * stream and with the stream that uses the {@link CompressionDictionary} of 50 sensors. The
+ * compressed bytes are only counted; the CompressionDictionaryTest compares the sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    /** Output stream that only counts the bytes */
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+    }
+
+    private static final int SENSORS = 50;
+
+    @Param({ "10", "100", "1000" })
+    public int points;
+
+    private final ReusableGzipOutputStream gzip = new ReusableGzipOutputStream();
+    private final ReusableDeflaterOutputStream deflater = new ReusableDeflaterOutputStream();
+    private final CountingStream out = new CountingStream();
+    private CompressionDictionary dictionary;
+    private byte[] batch;
+
+    @Setup
+    public void setUp() throws JSONException, IOException {
+        StringBuilder sensorList = new StringBuilder("[");
+        for (int i = 0; i < SENSORS; i++) {
+            if (i > 0) {
+                sensorList.append(',');
+            }
+            sensorList.append("{\"id\":\"").append(1000 + i).append("\",\"name\":\"sensor ")
+                    .append(i).append("\"}");
+        }
+        sensorList.append(']');
+        dictionary = new CompressionDictionary(sensorList.toString());
+
+        // same format as the SensorDataWriter
+        StringBuilder data = new StringBuilder(
+                "{\"sensors\":[{\"sensor_id\":\"1000\",\"sensor_name\":\"sensor 0\",\"data\":[");
+        for (int i = 0; i < points; i++) {
+            if (i > 0) {
+                data.append(',');
+            }
+            long timestamp = 1380000000000L + i * 250;
+            data.append("{\"date\":\"").append(timestamp / 1000).append('.')
+                    .append(Long.toString(timestamp % 1000 + 1000).substring(1))
+                    .append("\",\"value\":\"{\\\"x-axis\\\":0.12345,\\\"y-axis\\\":-9.81234,")
+                    .append("\\\"z-axis\\\":0.").append(i).append("}\"}");
+        }
+        data.append("]}]}");
+        batch = data.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public int dictionary() throws IOException {
+        deflater.reset(out, dictionary);
+        deflater.write(batch, 0, batch.length);
+        deflater.finish();
+        return deflater.getCompressedSize();
+    }
+
+    @Benchmark
+    public int gzip() throws IOException {
+        gzip.reset(out);
+        gzip.write(batch, 0, batch.length);
+        gzip.finish();
+        return gzip.getCompressedSize();
+    }
+}
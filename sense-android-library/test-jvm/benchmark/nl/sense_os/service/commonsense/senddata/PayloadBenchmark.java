@@ -0,0 +1,87 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.sense_os.service.commonsense.senddata.BufferTransmitHandler.SensorDataEntry;
+import nl.sense_os.service.constants.SensorData.DataPoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import android.database.MatrixCursor;
+
+/**
+ * Writing the payload of one upload batch of the BufferTransmitHandler: 1000 points of four
+ * sensors, read from a cursor and written to a stream that discards the bytes. With
+ * <code>fragments</code> the points have a prepared upload fragment, like points that were
+ * inserted by the current storage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class PayloadBenchmark {
+
+    /** Output stream that only counts the bytes */
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+    }
+
+    private static final int POINTS = 1000;
+    private static final String[] SENSORS = { "accelerometer", "noise_sensor", "position",
+            "battery sensor" };
+
+    @Param({ "false", "true" })
+    public boolean fragments;
+
+    private final SensorDataWriter writer = new SensorDataWriter();
+    private final CountingStream out = new CountingStream();
+
+    @Setup
+    public void setUp() {
+        MatrixCursor cursor = new MatrixCursor(new String[] { DataPoint.SENSOR_NAME,
+                DataPoint.TIMESTAMP, DataPoint.VALUE, DataPoint.UPLOAD_FRAGMENT }, POINTS);
+        List<SensorDataEntry> entries = new ArrayList<SensorDataEntry>();
+        for (int i = 0; i < SENSORS.length; i++) {
+            SensorDataEntry entry = new SensorDataEntry();
+            entry.sensorId = Integer.toString(1000 + i);
+            entry.sensorName = SENSORS[i];
+            entry.sensorDescription = SENSORS[i];
+            entries.add(entry);
+        }
+        for (int i = 0; i < POINTS; i++) {
+            long timestamp = 1380000000000L + i * 250;
+            String value = "{\"x-axis\":0.12345,\"y-axis\":-9.81234,\"z-axis\":0." + i + "}";
+            byte[] fragment = fragments ? writer.encodeFragment(timestamp, value) : null;
+            SensorDataEntry entry = entries.get(i % SENSORS.length);
+            cursor.addRow(new Object[] { entry.sensorName, timestamp, value, fragment });
+            entry.add(i, i, timestamp);
+        }
+        writer.set(cursor, cursor.getColumnIndexOrThrow(DataPoint.VALUE), entries);
+    }
+
+    @Benchmark
+    public long writeTo() throws IOException {
+        writer.writeTo(out);
+        return out.count;
+    }
+}
@@ -0,0 +1,68 @@
+package nl.sense_os.service.location;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Adding a location fix to the {@link TraveledDistanceEstimator}, and computing the distance of a
+ * track of fixes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class TraveledDistanceBenchmark {
+
+    /** Number of fixes in the track */
+    @Param({ "60", "600" })
+    public int fixes;
+
+    private double[][] track;
+    private TraveledDistanceEstimator estimator;
+    private TraveledDistanceEstimator filled;
+    private int next;
+
+    @Benchmark
+    public void addPoint() {
+        double[] fix = track[next];
+        estimator.addPoint(fix[0], fix[1], fix[2], fix[3]);
+        next++;
+        if (next == track.length) {
+            next = 0;
+            estimator.reset();
+        }
+    }
+
+    @Benchmark
+    public double getTraveledDistance() {
+        return filled.getTraveledDistance();
+    }
+
+    @Setup
+    public void setUp() {
+        // a walk through Rotterdam, one noisy fix per second
+        Random random = new Random(42);
+        track = new double[fixes][];
+        double lat = 51.9225;
+        double lon = 4.47917;
+        for (int i = 0; i < fixes; i++) {
+            lat += 0.00001 + 0.00002 * random.nextGaussian();
+            lon += 0.00001 + 0.00002 * random.nextGaussian();
+            track[i] = new double[] { 1380000000000.0 + i * 1000, lat, lon,
+                    5 + 20 * random.nextDouble() };
+        }
+        estimator = new TraveledDistanceEstimator();
+        filled = new TraveledDistanceEstimator();
+        for (double[] fix : track) {
+            filled.addPoint(fix[0], fix[1], fix[2], fix[3]);
+        }
+    }
+}
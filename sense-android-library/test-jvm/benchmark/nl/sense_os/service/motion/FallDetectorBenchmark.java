@@ -0,0 +1,67 @@
+package nl.sense_os.service.motion;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.sense_os.service.shared.Clock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import android.content.Context;
+import android.hardware.Sensor;
+
+/**
+ * State update of the fall detector for one accelerometer sample. The samples cycle through
+ * rest, free fall and impact, so all states of the detector are visited.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FallDetectorBenchmark {
+
+    /** Clock that moves 20 ms per sample, like an accelerometer at 50 Hz */
+    private static class SampleClock implements Clock {
+        long time = 1;
+
+        @Override
+        public long elapsedRealtime() {
+            return time;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+
+    private final SampleClock clock = new SampleClock();
+    private MotionSample[] samples;
+    private FallDetector detector;
+    private int next;
+
+    @Benchmark
+    public void onNewData() {
+        clock.time += 20;
+        detector.onNewData(samples[next]);
+        next = (next + 1) % samples.length;
+    }
+
+    @Setup
+    public void setUp() {
+        detector = new FallDetector(new Context());
+        detector.setClock(clock);
+        detector.demo = false;
+        Sensor sensor = new Sensor(Sensor.TYPE_ACCELEROMETER, "stub");
+        MotionSamplePool pool = new MotionSamplePool();
+        samples = new MotionSample[150];
+        for (int i = 0; i < samples.length; i++) {
+            float z = i >= 50 && i < 60 ? 0.5f : i >= 60 && i < 63 ? 30f : 9.81f;
+            samples[i] = pool.obtain(sensor, 3, i, new float[] { 0.1f, 0.2f, z }, 3);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package nl.sense_os.service.motion;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.sense_os.service.shared.Clock;
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.SensorDataPoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import android.content.Context;
+import android.hardware.Sensor;
+
+/**
+ * One complete motion burst: 3 seconds of gyroscope samples at 50 Hz, buffered by the
+ * {@link MotionBurstSensor} and serialized to its JSON time series. The gyroscope is used because
+ * the controller only looks at accelerometer bursts, which needs the real MotionSensor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MotionBurstBenchmark {
+
+    private static class SampleClock implements Clock {
+        long time = 1;
+
+        @Override
+        public long elapsedRealtime() {
+            return time;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+    }
+
+    private static final int SAMPLES = 151;
+
+    private final SampleClock clock = new SampleClock();
+    private MotionSample[] samples;
+    private MotionBurstSensor burst;
+
+    @Benchmark
+    public void burst() {
+        for (MotionSample sample : samples) {
+            clock.time += 20;
+            burst.onNewData(sample);
+        }
+    }
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        Context context = new Context() {
+            @Override
+            public android.content.ComponentName startService(android.content.Intent service) {
+                // do not keep the intents of every iteration
+                blackhole.consume(service);
+                return null;
+            }
+        };
+        burst = new MotionBurstSensor(context, Sensor.TYPE_GYROSCOPE, "gyroscope (burst-mode)");
+        burst.setClock(clock);
+        burst.addSubscriber(new DataProcessor() {
+            @Override
+            public boolean isSampleComplete() {
+                return false;
+            }
+
+            @Override
+            public void onNewData(SensorDataPoint dataPoint) {
+                blackhole.consume(dataPoint);
+            }
+
+            @Override
+            public void startNewSample() {
+                // nothing to do
+            }
+        });
+
+        Sensor sensor = new Sensor(Sensor.TYPE_GYROSCOPE, "stub");
+        MotionSamplePool pool = new MotionSamplePool();
+        samples = new MotionSample[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = pool.obtain(sensor, 3, i, new float[] { 0.01f * i, -0.02f * i,
+                    0.5f + 0.001f * i }, 3);
+            samples[i].timeStamp = 1380000000000L + i * 20;
+        }
+    }
+}
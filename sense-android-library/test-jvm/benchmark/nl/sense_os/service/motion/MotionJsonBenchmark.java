@@ -0,0 +1,36 @@
+package nl.sense_os.service.motion;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import android.hardware.Sensor;
+
+/**
+ * Conversion of an accelerometer sample to the JSON value that is stored and uploaded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class MotionJsonBenchmark {
+
+    private MotionSample sample;
+
+    @Benchmark
+    public JSONObject createJsonValue() {
+        return MotionSensorUtils.createJsonValue(sample);
+    }
+
+    @Setup
+    public void setUp() {
+        sample = new MotionSamplePool().obtain(new Sensor(Sensor.TYPE_ACCELEROMETER, "stub"), 3,
+                0, new float[] { 0.1234567f, -9.81234f, 0.5f }, 3);
+    }
+}
@@ -0,0 +1,103 @@
+package nl.sense_os.service.motion;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.shared.BaseDataProducer;
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.SensorDataPoint;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+
+/**
+ * Dispatch of one sensor event, copied into a pooled {@link MotionSample} like the MotionSensor
+ * does, or wrapped in a new {@link SensorDataPoint}. Run with <code>-prof gc</code> to see that
+ * the pooled path does not allocate. The pipeline metrics are off, so only the cost of the
+ * samples is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class MotionSampleBenchmark {
+
+    private static class Producer extends BaseDataProducer {
+        final MotionSamplePool pool = new MotionSamplePool();
+
+        void sendPooled(SensorEvent event) {
+            MotionSample sample = pool.obtain(event);
+            sample.sensorName = "accelerometer";
+            sendToSubscribers(sample);
+            sample.release();
+        }
+
+        void sendWrapped(SensorEvent event) {
+            SensorDataPoint dataPoint = new SensorDataPoint(event);
+            dataPoint.sensorName = "accelerometer";
+            sendToSubscribers(dataPoint);
+        }
+    }
+
+    private static class Sink implements DataProcessor {
+        private final Blackhole blackhole;
+
+        Sink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public boolean isSampleComplete() {
+            return false;
+        }
+
+        @Override
+        public void onNewData(SensorDataPoint dataPoint) {
+            blackhole.consume(dataPoint);
+        }
+
+        @Override
+        public void startNewSample() {
+            // nothing to do
+        }
+    }
+
+    private Producer producer;
+    private SensorEvent event;
+
+    @Benchmark
+    public void pooled() {
+        event.timestamp++;
+        producer.sendPooled(event);
+    }
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        PipelineMetrics.setEnabled(false);
+        producer = new Producer();
+        producer.addSubscriber(new Sink(blackhole));
+        event = new SensorEvent(3);
+        event.sensor = new Sensor(Sensor.TYPE_ACCELEROMETER, "stub");
+        event.values[2] = 9.81f;
+    }
+
+    @TearDown
+    public void tearDown() {
+        PipelineMetrics.setEnabled(true);
+    }
+
+    @Benchmark
+    public void wrapped() {
+        event.timestamp++;
+        producer.sendWrapped(event);
+    }
+}
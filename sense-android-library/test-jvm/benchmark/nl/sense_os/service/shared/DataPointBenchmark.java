@@ -0,0 +1,77 @@
+package nl.sense_os.service.shared;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Passing a float sample to a processor: boxed in a plain {@link SensorDataPoint}, or in a reused
+ * {@link ScalarDataPoint} via the typed callback. Run with <code>-prof gc</code> to see that the
+ * typed path does not allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DataPointBenchmark {
+
+    private static class Sum implements TypedDataProcessor {
+        double sum;
+
+        @Override
+        public boolean isSampleComplete() {
+            return false;
+        }
+
+        @Override
+        public void onNewData(SensorDataPoint dataPoint) {
+            sum += dataPoint.getFloatValue();
+        }
+
+        @Override
+        public void onNewScalar(ScalarDataPoint dataPoint) {
+            sum += dataPoint.getValue();
+        }
+
+        @Override
+        public void onNewVector(VectorDataPoint dataPoint) {
+            // not used
+        }
+
+        @Override
+        public void startNewSample() {
+            // nothing to do
+        }
+    }
+
+    private final Sum sum = new Sum();
+    private final ScalarDataPoint scalar = new ScalarDataPoint(0f);
+    private float value;
+
+    @Benchmark
+    public void boxed(Blackhole blackhole) {
+        value += 0.5f;
+        SensorDataPoint dataPoint = new SensorDataPoint(value);
+        dataPoint.deliverTo(sum);
+        blackhole.consume(sum.sum);
+    }
+
+    @Setup
+    public void setUp() {
+        value = 0;
+    }
+
+    @Benchmark
+    public void typed(Blackhole blackhole) {
+        value += 0.5f;
+        scalar.setValue(value);
+        scalar.deliverTo(sum);
+        blackhole.consume(sum.sum);
+    }
+}
@@ -0,0 +1,85 @@
+package nl.sense_os.service.shared;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Time that a producer spends to hand one data point to a subscriber, with synchronous delivery
+ * and with a queue. The subscriber does some work per point, so the synchronous time grows with
+ * the work, while the queued time should not.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SubscriberDeliveryBenchmark {
+
+    private static class Producer extends BaseDataProducer {
+        void send(SensorDataPoint dataPoint) {
+            sendToSubscribers(dataPoint);
+        }
+    }
+
+    private static class Worker implements DataProcessor {
+        private final long tokens;
+
+        Worker(long tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public boolean isSampleComplete() {
+            return false;
+        }
+
+        @Override
+        public void onNewData(SensorDataPoint dataPoint) {
+            Blackhole.consumeCPU(tokens);
+        }
+
+        @Override
+        public void startNewSample() {
+            // nothing to do
+        }
+    }
+
+    /** Units of work per data point in the subscriber */
+    @Param({ "0", "1000" })
+    public long work;
+
+    /** Size of the queue of the subscriber, 0 for synchronous delivery */
+    @Param({ "0", "128" })
+    public int queueSize;
+
+    private Producer producer;
+    private Worker worker;
+    private ScalarDataPoint dataPoint;
+
+    @Setup
+    public void setUp() {
+        producer = new Producer();
+        worker = new Worker(work);
+        producer.addSubscriber(worker, queueSize, OverflowPolicy.DROP_OLDEST);
+        dataPoint = new ScalarDataPoint(1.0);
+        dataPoint.sensorName = "benchmark";
+    }
+
+    @TearDown
+    public void tearDown() {
+        producer.removeSubscriber(worker);
+    }
+
+    @Benchmark
+    public void send() {
+        producer.send(dataPoint);
+    }
+}
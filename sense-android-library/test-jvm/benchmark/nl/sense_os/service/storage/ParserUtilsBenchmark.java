@@ -0,0 +1,60 @@
+package nl.sense_os.service.storage;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing of a typical selection of a local storage query: a sensor name, a description, a time
+ * range, a device and the transmit state.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class ParserUtilsBenchmark {
+
+    private static final String SELECTION = "sensor_name = 'accelerometer' AND"
+            + " sensor_description='BMA150 3-axis Accelerometer' AND timestamp >= 1380000000000"
+            + " AND timestamp< 1380003600000 AND device_uuid='35123456789' AND transmit_state=0";
+
+    private final Set<String> sensors = new HashSet<String>();
+
+    @Setup
+    public void setUp() {
+        String[] names = { "accelerometer", "orientation", "magnetic_field", "gyroscope",
+                "noise_sensor", "light", "position", "battery sensor", "screen activity",
+                "call state", "wifi scan", "bluetooth_discovery" };
+        for (String name : names) {
+            sensors.add(name);
+        }
+    }
+
+    @Benchmark
+    public String deviceUuid() {
+        return ParserUtils.getSelectedDeviceUuid(SELECTION, null);
+    }
+
+    @Benchmark
+    public List<String> sensors() {
+        return ParserUtils.getSelectedSensors(sensors, SELECTION, null);
+    }
+
+    @Benchmark
+    public long[] timeRange() {
+        return ParserUtils.getSelectedTimeRange(SELECTION, null);
+    }
+
+    @Benchmark
+    public int transmitState() {
+        return ParserUtils.getSelectedTransmitState(SELECTION, null);
+    }
+}
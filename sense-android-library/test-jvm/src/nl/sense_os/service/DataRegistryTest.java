@@ -0,0 +1,206 @@
+package nl.sense_os.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nl.sense_os.service.shared.BaseDataProducer;
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.OverflowPolicy;
+import nl.sense_os.service.shared.ScalarDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint;
+
+import org.junit.Test;
+
+public class DataRegistryTest {
+
+    private static class Producer extends BaseDataProducer {
+        void send(int value) {
+            sendToSubscribers(new ScalarDataPoint(value));
+        }
+    }
+
+    /**
+     * Remembers the threads that delivered data to it
+     */
+    private static class ThreadRecorder extends Processor {
+        final List<Thread> threads = new ArrayList<Thread>();
+        final CountDownLatch received;
+
+        ThreadRecorder(int count) {
+            received = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onNewData(SensorDataPoint dataPoint) {
+            synchronized (threads) {
+                threads.add(Thread.currentThread());
+            }
+            received.countDown();
+        }
+    }
+
+    private static class Processor implements DataProcessor {
+        @Override
+        public boolean isSampleComplete() {
+            return false;
+        }
+
+        @Override
+        public void onNewData(SensorDataPoint dataPoint) {
+            // not used
+        }
+
+        @Override
+        public void startNewSample() {
+            // not used
+        }
+    }
+
+    @Test
+    public void testConcurrentRegisterAndSubscribe() throws InterruptedException {
+        final DataRegistry registry = new DataRegistry();
+        final int count = 50;
+        final List<Producer> producers = new ArrayList<Producer>();
+        final List<Processor> processors = new ArrayList<Processor>();
+        for (int i = 0; i < count; i++) {
+            producers.add(new Producer());
+            processors.add(new Processor());
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread registering = new Thread() {
+            @Override
+            public void run() {
+                await(start);
+                for (int i = 0; i < count; i++) {
+                    registry.register("motion_" + i, producers.get(i));
+                }
+            }
+        };
+        Thread subscribing = new Thread() {
+            @Override
+            public void run() {
+                await(start);
+                for (int i = 0; i < count; i++) {
+                    registry.subscribe("motion*", processors.get(i));
+                }
+            }
+        };
+        registering.start();
+        subscribing.start();
+        start.countDown();
+        registering.join();
+        subscribing.join();
+
+        // no processor missed a producer, whatever the order was
+        for (Producer producer : producers) {
+            for (Processor processor : processors) {
+                assertTrue(producer.hasSubscriber(processor));
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void testMatches() {
+        assertTrue(DataRegistry.matches("light", "light"));
+        assertFalse(DataRegistry.matches("light", "lights"));
+        assertTrue(DataRegistry.matches("*", "anything"));
+        assertTrue(DataRegistry.matches("motion*", "motion"));
+        assertTrue(DataRegistry.matches("motion*", "motion energy"));
+        assertFalse(DataRegistry.matches("motion*", "accelerometer"));
+        assertTrue(DataRegistry.matches("*burst", "accelerometer burst"));
+        assertTrue(DataRegistry.matches("a*c*e", "abcde"));
+        assertFalse(DataRegistry.matches("a*c*e", "abdc"));
+        assertFalse(DataRegistry.matches("ab*ba", "aba"));
+    }
+
+    @Test
+    public void testRegisterAndSubscribe() {
+        DataRegistry registry = new DataRegistry();
+        Producer light = new Producer();
+        Producer energy = new Producer();
+        Processor all = new Processor();
+        Processor motion = new Processor();
+
+        assertTrue(registry.register("light", light));
+        assertFalse(registry.register("light", light));
+        assertTrue(registry.subscribe("*", all));
+        assertFalse(registry.subscribe("motion*", motion));
+
+        // a later producer gets the matching subscribers
+        assertTrue(registry.register("motion energy", energy));
+        assertTrue(light.hasSubscriber(all));
+        assertFalse(light.hasSubscriber(motion));
+        assertTrue(energy.hasSubscriber(all));
+        assertTrue(energy.hasSubscriber(motion));
+
+        assertEquals(2, registry.getProcessors("motion energy").size());
+        assertEquals(1, registry.getProducers("light").size());
+        assertNull(registry.getProducers("noise"));
+
+        registry.unregister("light", light);
+        assertFalse(registry.isRegistered("light", null));
+        assertTrue(light.hasSubscriber(all));
+    }
+
+    @Test
+    public void testSubscribeWithQueue() throws InterruptedException {
+        DataRegistry registry = new DataRegistry();
+        Producer existing = new Producer();
+        Producer later = new Producer();
+        ThreadRecorder queued = new ThreadRecorder(2);
+        ThreadRecorder direct = new ThreadRecorder(2);
+
+        registry.register("motion energy", existing);
+        registry.subscribe("motion*", queued, 10, OverflowPolicy.DROP_OLDEST);
+        registry.subscribe("motion*", direct);
+        registry.register("motion burst", later);
+        existing.send(1);
+        later.send(2);
+
+        // the queue settings also apply to the producer that registered later
+        assertTrue(queued.received.await(5, TimeUnit.SECONDS));
+        for (Thread thread : queued.threads) {
+            assertFalse(Thread.currentThread().equals(thread));
+        }
+        assertEquals(2, direct.threads.size());
+        for (Thread thread : direct.threads) {
+            assertEquals(Thread.currentThread(), thread);
+        }
+
+        registry.unsubscribe("motion*", queued);
+        registry.unsubscribe("motion*", direct);
+    }
+
+    @Test
+    public void testUnsubscribeKeepsOverlappingSubscription() {
+        DataRegistry registry = new DataRegistry();
+        Producer energy = new Producer();
+        Processor processor = new Processor();
+        registry.register("motion energy", energy);
+        registry.subscribe("motion*", processor);
+        registry.subscribe("motion energy", processor);
+
+        registry.unsubscribe("motion*", processor);
+        assertTrue(energy.hasSubscriber(processor));
+
+        registry.unsubscribe("motion energy", processor);
+        assertFalse(energy.hasSubscriber(processor));
+        assertNull(registry.getProcessors("motion energy"));
+    }
+}
@@ -0,0 +1,138 @@
+package nl.sense_os.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import nl.sense_os.service.metrics.Meter;
+import nl.sense_os.service.metrics.PipelineMetrics;
+
+import org.junit.Test;
+
+import android.os.SystemClock;
+
+/**
+ * Sends shuffled data points through the {@link ReorderBuffer} the way the MsgHandler does, and
+ * checks the order in which they would be stored.
+ */
+public class ReorderBufferTest {
+
+    private static final long SLACK = 1000;
+    private static final String[] SENSORS = { "accelerometer", "noise_sensor", "position" };
+
+    /** Sink that records the released points per sensor, like the local storage */
+    private static class Storage implements ReorderBuffer.Sink<String> {
+        final Map<String, List<Long>> stored = new HashMap<String, List<Long>>();
+
+        @Override
+        public void onRelease(String sensor, long timestamp) {
+            List<Long> timestamps = stored.get(sensor);
+            if (null == timestamps) {
+                timestamps = new ArrayList<Long>();
+                stored.put(sensor, timestamps);
+            }
+            timestamps.add(timestamp);
+        }
+
+        List<Long> get(String sensor) {
+            List<Long> timestamps = stored.get(sensor);
+            return null == timestamps ? Collections.<Long> emptyList() : timestamps;
+        }
+    }
+
+    private static void assertMonotonic(List<Long> timestamps) {
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue("stored " + timestamps.get(i) + " after " + timestamps.get(i - 1),
+                    timestamps.get(i) >= timestamps.get(i - 1));
+        }
+    }
+
+    @Test
+    public void testShuffledInputIsStoredInOrder() {
+        Storage storage = new Storage();
+        ReorderBuffer<String> buffer = new ReorderBuffer<String>(SLACK, 256, storage);
+        Meter late = PipelineMetrics.getMeter(PipelineMetrics.LATE);
+        long lateBefore = late.getCount();
+
+        // every sensor samples every 20 ms, the points arrive up to 500 ms out of order
+        Random random = new Random(42);
+        List<long[]> arrivals = new ArrayList<long[]>();
+        for (int s = 0; s < SENSORS.length; s++) {
+            for (int i = 0; i < 500; i++) {
+                long timestamp = 1380000000000L + i * 20;
+                long arrival = timestamp + random.nextInt(500);
+                arrivals.add(new long[] { arrival, s, timestamp });
+            }
+        }
+        Collections.sort(arrivals, new Comparator<long[]>() {
+
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+            }
+        });
+        for (long[] arrival : arrivals) {
+            String sensor = SENSORS[(int) arrival[1]];
+            buffer.add(sensor, arrival[2], sensor);
+        }
+        buffer.flush();
+
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, late.getCount() - lateBefore);
+        for (String sensor : SENSORS) {
+            List<Long> timestamps = storage.get(sensor);
+            assertEquals(500, timestamps.size());
+            assertMonotonic(timestamps);
+        }
+    }
+
+    @Test
+    public void testLatePointKeepsItsTimestamp() {
+        Storage storage = new Storage();
+        ReorderBuffer<String> buffer = new ReorderBuffer<String>(SLACK, 256, storage);
+        Meter late = PipelineMetrics.getMeter(PipelineMetrics.LATE);
+        long lateBefore = late.getCount();
+
+        buffer.add("a", 10000, "a");
+        buffer.add("a", 12000, "a");
+        assertEquals(1, storage.get("a").size());
+
+        // behind the watermark of 11000: stored right away, with its own time stamp
+        buffer.add("a", 10500, "a");
+        assertEquals(1, late.getCount() - lateBefore);
+        assertEquals(Long.valueOf(10500), storage.get("a").get(1));
+
+        // within the slack: still put in order
+        buffer.add("a", 11500, "a");
+        buffer.flush();
+        assertEquals(Long.valueOf(11500), storage.get("a").get(2));
+        assertEquals(Long.valueOf(12000), storage.get("a").get(3));
+        assertEquals(1, late.getCount() - lateBefore);
+    }
+
+    @Test
+    public void testCapacityAndExpiry() {
+        Storage storage = new Storage();
+        ReorderBuffer<String> buffer = new ReorderBuffer<String>(SLACK, 4, storage);
+
+        for (int i = 0; i < 6; i++) {
+            buffer.add("a", 1000 + i, "a");
+        }
+        // the buffer holds at most 4 points of a sensor
+        assertEquals(2, storage.get("a").size());
+
+        // the points that waited for the slack are released with the points before them
+        long next = buffer.expire(SystemClock.elapsedRealtime() + SLACK);
+        assertEquals(-1, next);
+        assertTrue(buffer.isEmpty());
+        assertEquals(6, storage.get("a").size());
+        assertMonotonic(storage.get("a"));
+    }
+}
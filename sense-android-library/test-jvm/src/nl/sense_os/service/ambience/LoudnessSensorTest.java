@@ -0,0 +1,70 @@
+package nl.sense_os.service.ambience;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import nl.sense_os.service.constants.SensorData.DataPoint;
+
+import org.junit.Test;
+
+import android.content.Context;
+import android.content.Intent;
+
+public class LoudnessSensorTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    /**
+     * Sends a sound level every 10 seconds
+     */
+    private static long sendNoise(LoudnessSensor sensor, long start, long end, double dB) {
+        long time = start;
+        for (; time < end; time += 10000) {
+            sensor.onNewNoise(time, dB);
+        }
+        return time;
+    }
+
+    @Test
+    public void testLoudnessIsUpdatedForEverySample() {
+        Context context = new Context();
+        LoudnessSensor sensor = new LoudnessSensor(context);
+
+        // 10 quiet minutes fill the first window, then it gets loud, then quiet again
+        long time = sendNoise(sensor, 0, 10 * MINUTE, 30);
+        time = sendNoise(sensor, time, 21 * MINUTE, 80);
+        time = sendNoise(sensor, time, 32 * MINUTE, 30);
+        sensor.onNewNoise(time, 30);
+
+        // nothing is sent before the first window is complete, or without dynamic range
+        List<Intent> sent = context.getStartedServices();
+        long first = sent.get(0).getLongExtra(DataPoint.TIMESTAMP, -1);
+        assertTrue(first > 10 * MINUTE);
+
+        // after that, every sample gives a new loudness
+        assertEquals((32 * MINUTE - first) / 10000 + 1, sent.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(first + i * 10000, sent.get(i).getLongExtra(DataPoint.TIMESTAMP, -1));
+        }
+
+        // loudest when all sounds in the window are loud, silent when all are quiet
+        int allLoud = (int) ((21 * MINUTE - 10000 - first) / 10000);
+        assertEquals(10, sent.get(allLoud).getFloatExtra(DataPoint.VALUE, -1), 0.001);
+        assertEquals(0, sent.get(sent.size() - 1).getFloatExtra(DataPoint.VALUE, -1), 0.001);
+    }
+
+    @Test
+    public void testZeroIsIgnored() {
+        Context context = new Context();
+        LoudnessSensor sensor = new LoudnessSensor(context);
+
+        long time = sendNoise(sensor, 0, 10 * MINUTE, 30);
+        time = sendNoise(sensor, time, 20 * MINUTE, 0);
+        sensor.onNewNoise(time, 30);
+
+        // only the windows with the quiet values, which have no dynamic range
+        assertEquals(0, context.getStartedServices().size());
+    }
+}
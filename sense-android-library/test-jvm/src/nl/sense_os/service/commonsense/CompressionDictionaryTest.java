@@ -0,0 +1,181 @@
+package nl.sense_os.service.commonsense;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compresses upload batches with the {@link CompressionDictionary} and decodes them again with a
+ * plain {@link Inflater}, the way the server does. The server side of the dictionary negotiation
+ * is played by the {@link LocalSenseServer}.
+ */
+public class CompressionDictionaryTest {
+
+    private static final String SENSOR_LIST = "[{\"id\":\"1001\",\"name\":\"accelerometer\"},"
+            + "{\"id\":\"1002\",\"name\":\"noise_sensor\"},"
+            + "{\"id\":\"1003\",\"name\":\"position\"}]";
+    private static final String OTHER_SENSOR_LIST =
+            "[{\"id\":\"2001\",\"name\":\"accelerometer\"}]";
+
+    private CompressionDictionary dictionary;
+    private LocalSenseServer server;
+
+    /**
+     * Creates an upload batch in the format of the SensorDataWriter
+     */
+    private static byte[] createBatch(int points) throws IOException {
+        StringBuilder batch = new StringBuilder("{\"sensors\":[");
+        String[][] sensors = { { "1001", "accelerometer" }, { "1002", "noise_sensor" } };
+        for (int s = 0; s < sensors.length; s++) {
+            if (s > 0) {
+                batch.append(',');
+            }
+            batch.append("{\"sensor_id\":\"").append(sensors[s][0]).append("\",\"sensor_name\":\"")
+                    .append(sensors[s][1]).append("\",\"data\":[");
+            for (int i = 0; i < points; i++) {
+                if (i > 0) {
+                    batch.append(',');
+                }
+                long timestamp = 1380000000000L + i * 250;
+                batch.append("{\"date\":\"").append(timestamp / 1000).append('.')
+                        .append(String.format("%03d", timestamp % 1000)).append("\",\"value\":");
+                if (s == 0) {
+                    batch.append("\"{\\\"x-axis\\\":0.").append(100 + i)
+                            .append(",\\\"y-axis\\\":-9.81,\\\"z-axis\\\":0.").append(i)
+                            .append("}\"}");
+                } else {
+                    batch.append("\"").append(40 + i % 7).append(".5\"}");
+                }
+            }
+            batch.append("]}");
+        }
+        batch.append("]}");
+        return batch.toString().getBytes("UTF-8");
+    }
+
+    private static byte[] deflate(ReusableDeflaterOutputStream stream, byte[] data,
+            CompressionDictionary dictionary) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream.reset(out, dictionary);
+        stream.write(data);
+        stream.finish();
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ReusableGzipOutputStream stream = new ReusableGzipOutputStream();
+        stream.reset(out);
+        stream.write(data);
+        stream.finish();
+        return out.toByteArray();
+    }
+
+    /**
+     * Posts compressed data to the server like the SenseApi does
+     */
+    private HttpURLConnection post(byte[] compressed, String dictionaryId) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                server.getUrl(LocalSenseServer.DATA_PATH)).openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        connection.setRequestProperty("Content-Encoding", "x-deflate-dict");
+        connection.setRequestProperty("X-Compression-Dictionary", dictionaryId);
+        connection.setFixedLengthStreamingMode(compressed.length);
+        OutputStream out = connection.getOutputStream();
+        out.write(compressed);
+        out.close();
+        return connection;
+    }
+
+    @Before
+    public void setUp() throws IOException, JSONException {
+        dictionary = new CompressionDictionary(SENSOR_LIST);
+        server = new LocalSenseServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testInflaterRoundTrip() throws IOException, DataFormatException {
+        byte[] batch = createBatch(10);
+        byte[] compressed = deflate(new ReusableDeflaterOutputStream(), batch, dictionary);
+
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] decoded = new byte[batch.length];
+        assertEquals(0, inflater.inflate(decoded));
+        assertTrue(inflater.needsDictionary());
+        assertEquals(dictionary.getId(), Long.toHexString(inflater.getAdler()));
+
+        byte[] bytes = dictionary.getBytes();
+        inflater.setDictionary(bytes, 0, bytes.length);
+        assertEquals(batch.length, inflater.inflate(decoded));
+        assertTrue(inflater.finished());
+        inflater.end();
+        assertArrayEquals(batch, decoded);
+    }
+
+    @Test
+    public void testReusedStream() throws IOException {
+        ReusableDeflaterOutputStream stream = new ReusableDeflaterOutputStream();
+        for (int points = 1; points <= 100; points *= 10) {
+            byte[] batch = createBatch(points);
+            byte[] compressed = deflate(stream, batch, dictionary);
+            assertEquals(compressed.length, stream.getCompressedSize());
+            assertArrayEquals(batch, LocalSenseServer.inflate(compressed, dictionary));
+        }
+    }
+
+    @Test
+    public void testSmallerThanGzip() throws IOException {
+        byte[] batch = createBatch(5);
+        int dictionarySize = deflate(new ReusableDeflaterOutputStream(), batch, dictionary).length;
+        int gzipSize = gzip(batch).length;
+        assertTrue("dictionary " + dictionarySize + " bytes, gzip " + gzipSize + " bytes",
+                dictionarySize < gzipSize);
+    }
+
+    @Test
+    public void testServerDecodesDictionaryUploads() throws IOException {
+        server.acceptDictionary(dictionary);
+        byte[] compressed = deflate(new ReusableDeflaterOutputStream(), createBatch(10),
+                dictionary);
+
+        HttpURLConnection connection = post(compressed, dictionary.getId());
+        assertEquals(201, connection.getResponseCode());
+        assertEquals(dictionary.getId(), connection.getHeaderField("X-Compression-Dictionary"));
+        assertEquals(20, server.getPoints().size());
+        assertEquals(1, server.getDictionaryRequestCount());
+    }
+
+    @Test
+    public void testServerRefusesUnknownDictionary() throws IOException, JSONException {
+        server.acceptDictionary(new CompressionDictionary(OTHER_SENSOR_LIST));
+        byte[] compressed = deflate(new ReusableDeflaterOutputStream(), createBatch(10),
+                dictionary);
+
+        HttpURLConnection connection = post(compressed, dictionary.getId());
+        assertEquals(415, connection.getResponseCode());
+        assertNull(connection.getHeaderField("X-Compression-Dictionary"));
+        assertEquals(0, server.getPoints().size());
+    }
+}
@@ -0,0 +1,293 @@
+package nl.sense_os.service.commonsense;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for the CommonSense sensor data API on a local port. It stores the points that are
+ * posted to {@link #DATA_PATH}, and like the real server it accepts a batch only once: a request
+ * with a batch ID (see the X-Client-Batch-Id header) that it accepted before is answered with 201
+ * without storing its points again.<br/>
+ * <br/>
+ * Files that are posted to {@link #FILE_PATH} are counted, but not stored. The server also counts
+ * the TCP connections of the clients, so tests can check that requests reuse kept-alive
+ * connections.<br/>
+ * <br/>
+ * The server decodes GZIP uploads. After {@link #acceptDictionary(CompressionDictionary)} it also
+ * takes part in the dictionary negotiation of the SenseApi: it echoes the ID of that dictionary
+ * when a client offers it, and decodes uploads that were compressed with it. Uploads with any
+ * other dictionary are refused with 415, like the real server does after its dictionary changed.
+ */
+public class LocalSenseServer {
+
+    /**
+     * Path of the endpoint for the data of several sensors
+     */
+    public static final String DATA_PATH = "/sensors/data.json";
+
+    /**
+     * Path of the endpoint for the files of a sensor
+     */
+    public static final String FILE_PATH = "/sensors/1/file.json";
+
+    private static final String HEADER_BATCH_ID = "X-Client-Batch-Id";
+    private static final String HEADER_DICTIONARY = "X-Compression-Dictionary";
+    private static final String ENCODING_DICTIONARY = "x-deflate-dict";
+
+    private final HttpServer server;
+    private final List<String> points = new ArrayList<String>();
+    private final Set<String> batches = new HashSet<String>();
+    private final Set<InetSocketAddress> connections = new HashSet<InetSocketAddress>();
+    private CompressionDictionary dictionary;
+    private int dictionaryRequests;
+    private int files;
+    private int requests;
+    private int lostResponses;
+
+    public LocalSenseServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(DATA_PATH, new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    onRequest(exchange);
+                    handleData(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext(FILE_PATH, new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    onRequest(exchange);
+                    readFully(exchange.getRequestBody());
+                    synchronized (LocalSenseServer.this) {
+                        files++;
+                    }
+                    exchange.sendResponseHeaders(201, -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the server accept uploads that are compressed with a dictionary.
+     * 
+     * @param dictionary
+     *            The dictionary to accept, or null to accept only GZIP
+     */
+    synchronized void acceptDictionary(CompressionDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Decodes ZLIB data that was compressed with a preset dictionary.
+     * 
+     * @param data
+     *            The compressed data
+     * @param dictionary
+     *            The dictionary to decode with
+     * @return The decoded data
+     * @throws IOException
+     *             If the data is invalid, or refers to another dictionary
+     */
+    static byte[] inflate(byte[] data, CompressionDictionary dictionary)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length > 0) {
+                    out.write(buffer, 0, length);
+                } else if (inflater.needsDictionary()) {
+                    // the ZLIB header refers to the dictionary by its Adler-32 checksum
+                    if (!Long.toHexString(inflater.getAdler()).equals(dictionary.getId())) {
+                        throw new IOException("unknown dictionary");
+                    }
+                    byte[] bytes = dictionary.getBytes();
+                    inflater.setDictionary(bytes, 0, bytes.length);
+                } else if (inflater.needsInput()) {
+                    throw new IOException("truncated data");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("invalid data: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return The number of TCP connections that clients opened to the server
+     */
+    public synchronized int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return The number of requests that were compressed with the dictionary
+     */
+    public synchronized int getDictionaryRequestCount() {
+        return dictionaryRequests;
+    }
+
+    /**
+     * @return The number of files that the server received
+     */
+    public synchronized int getFileCount() {
+        return files;
+    }
+
+    /**
+     * Makes the server store the points of the next requests as usual, but drop the connection
+     * instead of answering, like a response that times out.
+     * 
+     * @param count
+     *            Number of responses to lose
+     */
+    public synchronized void loseResponses(int count) {
+        lostResponses = count;
+    }
+
+    /**
+     * @return The stored points, as "sensor ID/date" strings, in the order they arrived
+     */
+    public synchronized List<String> getPoints() {
+        return Collections.unmodifiableList(new ArrayList<String>(points));
+    }
+
+    /**
+     * @return The number of requests that the server received
+     */
+    public synchronized int getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @param path
+     *            Path of an endpoint
+     * @return The URL of the endpoint
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private void handleData(HttpExchange exchange) throws IOException {
+        // read the whole body before decoding it, so the connection can be kept alive
+        byte[] data = readFully(exchange.getRequestBody());
+        Headers headers = exchange.getRequestHeaders();
+        String encoding = headers.getFirst("Content-Encoding");
+        CompressionDictionary dict;
+        synchronized (this) {
+            dict = dictionary;
+        }
+        boolean knownDictionary = null != dict
+                && dict.getId().equals(headers.getFirst(HEADER_DICTIONARY));
+
+        if (ENCODING_DICTIONARY.equals(encoding)) {
+            if (!knownDictionary) {
+                exchange.sendResponseHeaders(415, -1);
+                return;
+            }
+            data = inflate(data, dict);
+            synchronized (this) {
+                dictionaryRequests++;
+            }
+        } else if ("gzip".equals(encoding)) {
+            data = readFully(new GZIPInputStream(new ByteArrayInputStream(data)));
+        }
+        String body = new String(data, "UTF-8");
+        String batchId = headers.getFirst(HEADER_BATCH_ID);
+
+        boolean lose;
+        synchronized (this) {
+            if (null == batchId || batches.add(batchId)) {
+                try {
+                    store(new JSONObject(body));
+                } catch (JSONException e) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+            }
+            lose = lostResponses > 0;
+            if (lose) {
+                lostResponses--;
+            }
+        }
+
+        if (lose) {
+            // the points are stored, but the client never hears about it
+            throw new IOException("response lost on purpose");
+        }
+        if (knownDictionary) {
+            exchange.getResponseHeaders().set(HEADER_DICTIONARY, dict.getId());
+        }
+        exchange.sendResponseHeaders(201, -1);
+    }
+
+    private synchronized void onRequest(HttpExchange exchange) {
+        requests++;
+        // every connection has its own client port
+        connections.add(exchange.getRemoteAddress());
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void store(JSONObject transmission) throws JSONException {
+        JSONArray sensors = transmission.getJSONArray("sensors");
+        for (int i = 0; i < sensors.length(); i++) {
+            JSONObject sensor = sensors.getJSONObject(i);
+            JSONArray data = sensor.getJSONArray("data");
+            for (int j = 0; j < data.length(); j++) {
+                points.add(sensor.getString("sensor_id") + "/"
+                        + data.getJSONObject(j).getString("date"));
+            }
+        }
+    }
+}
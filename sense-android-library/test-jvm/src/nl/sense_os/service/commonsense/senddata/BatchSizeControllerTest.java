@@ -0,0 +1,91 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import nl.sense_os.service.commonsense.senddata.BatchSizeController.NetworkStats;
+import nl.sense_os.service.metrics.PipelineMetrics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+
+/**
+ * Checks the AIMD rules of the {@link BatchSizeController}. The test context has no connectivity
+ * service, so all uploads are registered for the "NONE" network.
+ */
+public class BatchSizeControllerTest {
+
+    private BatchSizeController controller;
+
+    @Before
+    public void setUp() {
+        controller = new BatchSizeController(new Context());
+    }
+
+    @Test
+    public void testHalveOnFailure() {
+        assertEquals(100, controller.getBatchSize());
+        controller.onFailure();
+        assertEquals(50, controller.getBatchSize());
+        controller.onFailure();
+        controller.onFailure();
+        controller.onFailure();
+        assertEquals(10, controller.getBatchSize());
+
+        NetworkStats stats = controller.getMetrics().get("NONE");
+        assertEquals(4, stats.getFailures());
+        assertEquals(0, stats.getSuccesses());
+    }
+
+    @Test
+    public void testGrowOnlyOnFullAndFastBatches() {
+        // no payload size known, so only the window counts
+        controller.onSuccess(100, 100, -1, 1000);
+        assertEquals(150, controller.getBatchSize());
+
+        // the batch was not full: there was no more data to send
+        controller.onSuccess(20, 150, -1, 1000);
+        assertEquals(150, controller.getBatchSize());
+
+        // full, but slower than the target time
+        controller.onSuccess(150, 150, -1, 8000);
+        assertEquals(150, controller.getBatchSize());
+
+        // much slower than the target time
+        controller.onSuccess(150, 150, -1, 20000);
+        assertEquals(75, controller.getBatchSize());
+    }
+
+    @Test
+    public void testCapByPayloadSize() {
+        // 1000 bytes per point at 10 kB/s: only 50 points fit in the target time of 5 seconds
+        controller.onSuccess(100, 100, 100000, 10000);
+        assertEquals(50, controller.getBatchSize());
+
+        // the window is not changed by the cap
+        NetworkStats stats = controller.getMetrics().get("NONE");
+        assertEquals(100, stats.getBatchSize());
+        assertEquals(1000, stats.getBytesPerPoint(), 0.001);
+        assertEquals(10000, stats.getThroughput(), 0.001);
+    }
+
+    @Test
+    public void testStatsInPipelineSnapshot() throws JSONException {
+        Context context = new Context();
+        BatchSizeController.getInstance(context).onFailure();
+
+        JSONObject snapshot = PipelineMetrics.getSnapshot(context);
+        JSONObject batchSizes = snapshot.getJSONObject("batch_sizes");
+        Map<String, NetworkStats> metrics = BatchSizeController.getInstance(context).getMetrics();
+        assertEquals(metrics.size(), batchSizes.length());
+        JSONObject none = batchSizes.getJSONObject("NONE");
+        assertEquals(metrics.get("NONE").getBatchSize(), none.getInt("batch_size"));
+        assertTrue(none.getInt("failures") >= 1);
+    }
+}
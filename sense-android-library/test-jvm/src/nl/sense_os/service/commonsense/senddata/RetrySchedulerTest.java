@@ -0,0 +1,90 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nl.sense_os.service.constants.SensePrefs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.app.AlarmManager;
+import android.content.Context;
+
+public class RetrySchedulerTest {
+
+    private static final String URL = "http://api.sense-os.nl/sensors/data.json";
+
+    private Context context;
+    private RetryScheduler scheduler;
+
+    /**
+     * Creates a scheduler with a half open circuit for the host of {@link #URL}: it was open, and
+     * the cool down has just passed.
+     */
+    @Before
+    public void setUp() {
+        context = new Context();
+        String circuits = "{\"api.sense-os.nl\":{\"failures\":5,\"open_until\":"
+                + (System.currentTimeMillis() - 1) + ",\"cool_down\":60000}}";
+        context.getSharedPreferences(SensePrefs.RETRY_PREFS, Context.MODE_PRIVATE).edit()
+                .putString("circuits", circuits).commit();
+        scheduler = new RetryScheduler(context);
+    }
+
+    @Test
+    public void testFailedTrialReopensCircuit() {
+        assertTrue(scheduler.isAllowed(URL));
+        scheduler.onFailure(URL);
+        scheduler.release(URL);
+
+        assertFalse(scheduler.isAllowed(URL));
+        AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        assertTrue(alarms.getAlarm(RetryScheduler.REQ_CODE) > System.currentTimeMillis());
+    }
+
+    @Test
+    public void testOnlyOneTrialAtATime() {
+        assertTrue(scheduler.isAllowed(URL));
+        assertFalse(scheduler.isAllowed(URL));
+    }
+
+    @Test
+    public void testReleaseByOtherThreadKeepsTrial() throws InterruptedException {
+        final AtomicBoolean allowed = new AtomicBoolean();
+        Thread trial = new Thread() {
+            @Override
+            public void run() {
+                allowed.set(scheduler.isAllowed(URL));
+            }
+        };
+        trial.start();
+        trial.join();
+        assertTrue(allowed.get());
+
+        // an attempt that was not allowed must not end the trial of another thread
+        scheduler.release(URL);
+        assertFalse(scheduler.isAllowed(URL));
+    }
+
+    @Test
+    public void testReleasedTrialWithoutResult() {
+        // e.g. a transmission that found nothing to send
+        assertTrue(scheduler.isAllowed(URL));
+        scheduler.release(URL);
+
+        assertTrue(scheduler.isAllowed(URL));
+    }
+
+    @Test
+    public void testSuccessfulTrialClosesCircuit() {
+        assertTrue(scheduler.isAllowed(URL));
+        scheduler.onSuccess(URL);
+        scheduler.release(URL);
+
+        assertTrue(scheduler.isAllowed(URL));
+        assertTrue(scheduler.isAllowed(URL));
+    }
+}
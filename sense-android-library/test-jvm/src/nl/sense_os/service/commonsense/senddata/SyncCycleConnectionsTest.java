@@ -0,0 +1,112 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import nl.sense_os.service.commonsense.LocalSenseServer;
+import nl.sense_os.service.commonsense.SenseApi;
+import nl.sense_os.service.commonsense.senddata.BufferTransmitHandler.SensorDataEntry;
+import nl.sense_os.service.constants.SensorData.DataPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+
+/**
+ * Measures the TCP handshakes of a sync cycle against a {@link LocalSenseServer}: the batches of
+ * buffered data and the sensor files are all sent over one kept-alive connection.
+ */
+public class SyncCycleConnectionsTest {
+
+    private static final int BATCHES = 10;
+    private static final int FILES = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Context context = new Context();
+    private LocalSenseServer server;
+
+    private File createFile(int size) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Sends one batch of buffered data like the BufferTransmitHandler
+     */
+    private String sendBatch(long firstRowId) throws IOException {
+        SensorDataEntry entry = new SensorDataEntry();
+        entry.sensorId = "1";
+        entry.sensorName = "noise_sensor";
+        entry.sensorDescription = "noise_sensor";
+        MatrixCursor cursor = new MatrixCursor(new String[] { DataPoint.VALUE });
+        for (int i = 0; i < 100; i++) {
+            long rowId = firstRowId + i;
+            cursor.addRow(new Object[] { "42.0" });
+            entry.add(i, rowId, 1380000000000L + rowId * 1000);
+        }
+        List<SensorDataEntry> entries = new ArrayList<SensorDataEntry>();
+        entries.add(entry);
+        SensorDataWriter writer = new SensorDataWriter();
+        writer.set(cursor, 0, entries);
+
+        Map<String, String> response = SenseApi.requestStreaming(context,
+                server.getUrl(LocalSenseServer.DATA_PATH), writer, "cookie");
+        return response.get("http response code");
+    }
+
+    /**
+     * Uploads a file like the FileTransmitHandler
+     */
+    private String sendFile(File file) throws IOException {
+        MultipartFileContent content = new MultipartFileContent(file.getPath());
+        Map<String, String> response = SenseApi.requestStreaming(context,
+                server.getUrl(LocalSenseServer.FILE_PATH), content, content.getContentLength(),
+                content.getContentType(), "cookie");
+        return response.get("http response code");
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalSenseServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testSyncCycleUsesOneConnection() throws IOException {
+        for (int i = 0; i < BATCHES; i++) {
+            assertEquals("201", sendBatch(i * 100));
+        }
+        for (int i = 0; i < FILES; i++) {
+            assertEquals("201", sendFile(createFile(10000 * (i + 1))));
+        }
+
+        assertEquals(BATCHES * 100, server.getPoints().size());
+        assertEquals(FILES, server.getFileCount());
+        assertEquals(BATCHES + FILES, server.getRequestCount());
+        assertEquals("handshakes per sync cycle", 1, server.getConnectionCount());
+    }
+}
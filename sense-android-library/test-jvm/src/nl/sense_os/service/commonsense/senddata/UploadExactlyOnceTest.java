@@ -0,0 +1,157 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import nl.sense_os.service.commonsense.LocalSenseServer;
+import nl.sense_os.service.commonsense.SenseApi;
+import nl.sense_os.service.commonsense.senddata.BufferTransmitHandler.SensorDataEntry;
+import nl.sense_os.service.commonsense.senddata.UploadManifests.Manifest;
+import nl.sense_os.service.constants.SensorData.DataPoint;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+
+/**
+ * Sends batches of buffered data to a {@link LocalSenseServer} the way the
+ * {@link BufferTransmitHandler} does: the manifest is stored before a batch is sent and removed
+ * after the server answered, and the batches of the remaining manifests are resent first in the
+ * next sync cycle. Checks that every point arrives exactly once, also when a response is lost.
+ */
+public class UploadExactlyOnceTest {
+
+    private static final String[] SENSORS = { "accelerometer", "noise_sensor" };
+
+    private final Context context = new Context();
+    private LocalSenseServer server;
+    private UploadManifests manifests;
+    private long nextRowId = 1;
+
+    /**
+     * Creates a batch with points for each sensor. The row IDs and time stamps are unique.
+     */
+    private List<SensorDataEntry> createBatch(int pointsPerSensor) {
+        List<SensorDataEntry> entries = new ArrayList<SensorDataEntry>();
+        for (String sensor : SENSORS) {
+            SensorDataEntry entry = new SensorDataEntry();
+            entry.sensorId = "id-" + sensor;
+            entry.sensorName = sensor;
+            entry.sensorDescription = sensor;
+            entries.add(entry);
+        }
+        int position = 0;
+        for (int i = 0; i < pointsPerSensor; i++) {
+            for (SensorDataEntry entry : entries) {
+                long rowId = nextRowId++;
+                entry.add(position++, rowId, 1380000000000L + rowId * 250);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Sends a batch like the sync cycle does.
+     * 
+     * @return true if the server accepted the batch
+     */
+    private boolean send(Manifest manifest, List<SensorDataEntry> entries) {
+        MatrixCursor cursor = new MatrixCursor(new String[] { DataPoint.VALUE });
+        for (SensorDataEntry entry : entries) {
+            for (int i = 0; i < entry.size; i++) {
+                cursor.addRow(new Object[] { "value " + entry.ids[i] });
+            }
+        }
+        SensorDataWriter writer = new SensorDataWriter();
+        writer.set(cursor, 0, entries);
+
+        Map<String, String> response;
+        try {
+            response = SenseApi.requestStreaming(context,
+                    server.getUrl(LocalSenseServer.DATA_PATH), writer, null,
+                    manifest.getHeaders());
+        } catch (IOException e) {
+            // timed out: the manifest stays, so the batch is resent
+            return false;
+        }
+        if ("201".equals(response.get("http response code"))) {
+            manifests.remove(manifest);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resends the batches of the remaining manifests, in the same order and with the same points.
+     */
+    private void resendPending(List<List<SensorDataEntry>> sent) {
+        for (Manifest manifest : manifests.getPending()) {
+            for (List<SensorDataEntry> entries : sent) {
+                if (entries.get(0).ids[0] == manifest.sensors.get(0).ids[0]) {
+                    send(manifest, entries);
+                }
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalSenseServer();
+        server.start();
+        manifests = new UploadManifests(context);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testLostResponseIsNotStoredTwice() {
+        List<List<SensorDataEntry>> sent = new ArrayList<List<SensorDataEntry>>();
+
+        // first cycle: the server stores the batch, but the response is lost
+        server.loseResponses(1);
+        List<SensorDataEntry> first = createBatch(5);
+        sent.add(first);
+        assertFalse(send(manifests.create(first), first));
+        assertEquals(1, manifests.getPending().size());
+
+        // second cycle: resend the lost batch, then send a new one
+        resendPending(sent);
+        assertTrue(manifests.getPending().isEmpty());
+        List<SensorDataEntry> second = createBatch(3);
+        sent.add(second);
+        assertTrue(send(manifests.create(second), second));
+
+        assertEquals(3, server.getRequestCount());
+        List<String> points = server.getPoints();
+        assertEquals(2 * (5 + 3), points.size());
+        assertEquals(points.size(), new HashSet<String>(points).size());
+        assertTrue(manifests.getPending().isEmpty());
+    }
+
+    @Test
+    public void testNewBatchesGetNewSequenceNumbers() {
+        List<SensorDataEntry> first = createBatch(2);
+        Manifest firstManifest = manifests.create(first);
+        List<SensorDataEntry> second = createBatch(2);
+        Manifest secondManifest = manifests.create(second);
+
+        assertEquals(firstManifest.firstSequence + firstManifest.points,
+                secondManifest.firstSequence);
+        assertTrue(send(firstManifest, first));
+        assertTrue(send(secondManifest, second));
+        assertEquals(8, server.getPoints().size());
+    }
+}
@@ -0,0 +1,95 @@
+package nl.sense_os.service.commonsense.senddata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.sense_os.service.commonsense.senddata.BufferTransmitHandler.SensorDataEntry;
+import nl.sense_os.service.commonsense.senddata.UploadManifests.Manifest;
+import nl.sense_os.service.constants.SensePrefs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+public class UploadManifestsTest {
+
+    private final Context context = new Context();
+
+    private UploadManifests manifests;
+
+    private static SensorDataEntry createEntry(String name, long... idsAndTimestamps) {
+        SensorDataEntry entry = new SensorDataEntry();
+        entry.sensorId = "id-" + name;
+        entry.sensorName = name;
+        entry.sensorDescription = name;
+        for (int i = 0; i < idsAndTimestamps.length; i += 2) {
+            entry.add(i / 2, idsAndTimestamps[i], idsAndTimestamps[i + 1]);
+        }
+        return entry;
+    }
+
+    private SharedPreferences getPrefs() {
+        return context.getSharedPreferences(SensePrefs.UPLOAD_MANIFEST_PREFS,
+                Context.MODE_PRIVATE);
+    }
+
+    @Before
+    public void setUp() {
+        manifests = new UploadManifests(context);
+    }
+
+    @Test
+    public void testKeepsRowIdsOfPointsWithEqualTimestamps() {
+        List<SensorDataEntry> entries = new ArrayList<SensorDataEntry>();
+        entries.add(createEntry("heart_rate", 11, 1000, 12, 1000, 13, 2000));
+        entries.add(createEntry("respiration", 14, 1000));
+        Manifest created = manifests.create(entries);
+
+        List<Manifest> pending = manifests.getPending();
+        assertEquals(1, pending.size());
+        Manifest manifest = pending.get(0);
+        assertEquals(created.batchId, manifest.batchId);
+        assertEquals(4, manifest.points);
+        assertEquals(2, manifest.sensors.size());
+        assertEquals("heart_rate", manifest.sensors.get(0).sensorName);
+        assertArrayEquals(new long[] { 11, 12, 13 }, manifest.sensors.get(0).ids);
+        assertArrayEquals(new long[] { 14 }, manifest.sensors.get(1).ids);
+    }
+
+    @Test
+    public void testSequenceNumbersContinue() {
+        List<SensorDataEntry> entries = new ArrayList<SensorDataEntry>();
+        entries.add(createEntry("heart_rate", 1, 1000, 2, 2000));
+        Manifest first = manifests.create(entries);
+        Manifest second = manifests.create(entries);
+
+        assertEquals(first.firstSequence + 2, second.firstSequence);
+        assertEquals(second.firstSequence + "-" + (second.firstSequence + 1), second.getHeaders()
+                .get(UploadManifests.HEADER_SEQUENCE));
+        List<Manifest> pending = manifests.getPending();
+        assertEquals(first.batchId, pending.get(0).batchId);
+        assertEquals(second.batchId, pending.get(1).batchId);
+
+        manifests.remove(first);
+        pending = manifests.getPending();
+        assertEquals(1, pending.size());
+        assertEquals(second.batchId, pending.get(0).batchId);
+    }
+
+    @Test
+    public void testDropsManifestWithoutRowIds() {
+        // manifests of older versions listed the time stamps of the points
+        String legacy = "{\"batch_id\":\"old\",\"first_sequence\":0,\"sensors\":["
+                + "{\"sensor_id\":\"1\",\"sensor_name\":\"light\",\"timestamps\":[1000,1000]}]}";
+        getPrefs().edit().putString("batch_old", legacy).commit();
+
+        assertTrue(manifests.getPending().isEmpty());
+        assertTrue(getPrefs().getAll().isEmpty());
+    }
+}
@@ -0,0 +1,146 @@
+package nl.sense_os.service.motion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nl.sense_os.service.shared.BaseDataProducer;
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.OverflowPolicy;
+import nl.sense_os.service.shared.SensorDataPoint;
+
+import org.junit.Test;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+
+public class MotionSampleTest {
+
+    /**
+     * Producer that copies sensor events into pooled samples, like the MotionSensor.
+     */
+    private static class EventProducer extends BaseDataProducer {
+        final MotionSamplePool pool = new MotionSamplePool();
+
+        void onSensorChanged(SensorEvent event) {
+            MotionSample sample = pool.obtain(event);
+            sample.sensorName = "accelerometer";
+            sendToSubscribers(sample);
+            sample.release();
+        }
+    }
+
+    private static SensorEvent createEvent(float x, float y, float z, long timestamp) {
+        SensorEvent event = new SensorEvent(3);
+        event.sensor = new Sensor(Sensor.TYPE_ACCELEROMETER, "stub");
+        event.accuracy = 3;
+        event.timestamp = timestamp;
+        event.values[0] = x;
+        event.values[1] = y;
+        event.values[2] = z;
+        return event;
+    }
+
+    @Test
+    public void testCopiesEvent() {
+        SensorEvent event = createEvent(1, 2, 3, 42);
+        MotionSample sample = new MotionSamplePool().obtain(event);
+
+        // Android reuses the event for the next values
+        event.values[0] = 9;
+        event.timestamp = 43;
+
+        assertSame(event.sensor, sample.getSensor());
+        assertEquals(3, sample.getAccuracy());
+        assertEquals(42, sample.getEventTimestamp());
+        assertEquals(3, sample.getLength());
+        assertEquals(1f, sample.get(0), 0);
+        assertEquals(3f, sample.get(2), 0);
+    }
+
+    @Test
+    public void testQueuedSamplesKeepTheirValues() throws InterruptedException {
+        EventProducer producer = new EventProducer();
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Float> received = new ArrayList<Float>();
+        final CountDownLatch done = new CountDownLatch(100);
+        DataProcessor slow = new DataProcessor() {
+            @Override
+            public boolean isSampleComplete() {
+                return false;
+            }
+
+            @Override
+            public void onNewData(SensorDataPoint dataPoint) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.add(((MotionSample) dataPoint).get(0));
+                done.countDown();
+            }
+
+            @Override
+            public void startNewSample() {
+                // nothing to do
+            }
+        };
+        producer.addSubscriber(slow, 128, OverflowPolicy.BLOCK);
+
+        SensorEvent event = createEvent(0, 0, 9.81f, 0);
+        for (int i = 0; i < 100; i++) {
+            event.values[0] = i;
+            event.timestamp = i;
+            producer.onSensorChanged(event);
+        }
+        gate.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, received.get(i), 0);
+        }
+    }
+
+    @Test
+    public void testRecycling() {
+        MotionSamplePool pool = new MotionSamplePool();
+        MotionSample first = pool.obtain(createEvent(1, 2, 3, 1));
+        first.retain();
+        first.release();
+
+        // still retained, so the pool must create a new sample
+        MotionSample second = pool.obtain(createEvent(4, 5, 6, 2));
+        assertNotSame(first, second);
+
+        first.release();
+        assertNull(first.getSensor());
+        MotionSample third = pool.obtain(createEvent(7, 8, 9, 3));
+        assertSame(first, third);
+        assertEquals(7f, third.get(0), 0);
+        assertEquals(3, third.getEventTimestamp());
+
+        third.release();
+        try {
+            third.release();
+            throw new AssertionError("released too often");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testValuesAreCapped() {
+        SensorEvent event = new SensorEvent(8);
+        event.sensor = new Sensor(Sensor.TYPE_ROTATION_VECTOR, "stub");
+        MotionSample sample = new MotionSamplePool().obtain(event);
+        assertEquals(MotionSample.MAX_VALUES, sample.getLength());
+    }
+}
@@ -0,0 +1,154 @@
+package nl.sense_os.service.shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nl.sense_os.service.metrics.PipelineMetrics;
+import nl.sense_os.service.shared.SubscriberQueueTest.Recorder;
+import nl.sense_os.service.shared.SubscriberQueueTest.TestProducer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class BaseDataProducerTest {
+
+    @Test
+    public void testAddAndRemove() {
+        TestProducer producer = new TestProducer();
+        Recorder first = new Recorder(true);
+        Recorder second = new Recorder(true);
+        assertFalse(producer.hasSubscribers());
+
+        assertTrue(producer.addSubscriber(first));
+        assertFalse(producer.addSubscriber(first));
+        assertTrue(producer.addSubscriber(second));
+        assertTrue(producer.hasSubscriber(first));
+        assertTrue(producer.hasSubscriber(second));
+
+        producer.send(1);
+        producer.removeSubscriber(first);
+        producer.removeSubscriber(first);
+        producer.send(2);
+
+        assertFalse(producer.hasSubscriber(first));
+        assertEquals(1, first.calls.size());
+        assertEquals(2, second.calls.size());
+        producer.removeSubscriber(second);
+        assertFalse(producer.hasSubscribers());
+    }
+
+    @Test
+    public void testMetricsPerInstance() {
+        // recording is on by default
+        TestProducer first = new TestProducer();
+        TestProducer second = new TestProducer();
+        first.addSubscriber(new Recorder(true));
+        second.addSubscriber(new Recorder(true));
+        first.send(1);
+        first.send(2);
+        second.send(3);
+
+        String firstName = PipelineMetrics.nameOf(first);
+        assertFalse(firstName.equals(PipelineMetrics.nameOf(second)));
+        assertEquals(firstName, PipelineMetrics.nameOf(first));
+        assertEquals(2, PipelineMetrics.getMeter("producer." + firstName).getCount());
+        assertEquals(1, PipelineMetrics.getMeter("producer." + PipelineMetrics.nameOf(second))
+                .getCount());
+    }
+
+    @Test
+    public void testMetricsRemovedWhenStopped() throws JSONException {
+        TestProducer first = new TestProducer();
+        TestProducer second = new TestProducer();
+        Recorder processor = new Recorder(true);
+        first.addSubscriber(processor, 8, OverflowPolicy.BLOCK);
+        second.addSubscriber(processor, 8, OverflowPolicy.BLOCK);
+        String producerName = "producer." + PipelineMetrics.nameOf(first);
+        String processorName = PipelineMetrics.nameOf(processor);
+
+        JSONObject snapshot = PipelineMetrics.getSnapshot();
+        assertTrue(snapshot.getJSONObject("meters").has(producerName));
+        assertTrue(snapshot.getJSONObject("timers").has("processor." + processorName));
+        assertTrue(snapshot.getJSONObject("queues").has(processorName));
+
+        // the processor is still subscribed to the second producer
+        first.removeSubscriber(processor);
+        snapshot = PipelineMetrics.getSnapshot();
+        assertFalse(snapshot.getJSONObject("meters").has(producerName));
+        assertTrue(snapshot.getJSONObject("timers").has("processor." + processorName));
+        assertTrue(snapshot.getJSONObject("queues").has(processorName));
+
+        second.removeSubscriber(processor);
+        snapshot = PipelineMetrics.getSnapshot();
+        assertFalse(snapshot.getJSONObject("timers").has("processor." + processorName));
+        assertFalse(snapshot.getJSONObject("queues").has(processorName));
+    }
+
+    @Test
+    public void testRemoveDuringDispatch() {
+        final TestProducer producer = new TestProducer();
+        final List<String> removed = new ArrayList<String>();
+        Recorder last = new Recorder(true);
+        producer.addSubscriber(new Recorder(true) {
+            @Override
+            public void onNewData(SensorDataPoint dataPoint) {
+                // unsubscribes itself during the dispatch
+                removed.add("first");
+                producer.removeSubscriber(this);
+            }
+        });
+        producer.addSubscriber(last);
+
+        producer.send(1);
+        producer.send(2);
+
+        // the subscribers of a dispatch are fixed when it starts
+        assertEquals(1, removed.size());
+        assertEquals(2, last.calls.size());
+    }
+
+    @Test
+    public void testSubscribeWhileDispatching() throws InterruptedException {
+        final TestProducer producer = new TestProducer();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread dispatcher = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (!stop.get()) {
+                        producer.send(1);
+                        producer.newSample();
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        dispatcher.start();
+
+        List<Recorder> recorders = new ArrayList<Recorder>();
+        for (int i = 0; i < 2000; i++) {
+            Recorder recorder = new Recorder(true);
+            producer.addSubscriber(recorder);
+            recorders.add(recorder);
+            if (i % 2 == 1) {
+                producer.removeSubscriber(recorders.get(i - 1));
+            }
+        }
+        stop.set(true);
+        dispatcher.join();
+
+        assertEquals(null, failure.get());
+        for (int i = 0; i < recorders.size(); i++) {
+            assertEquals(i % 2 == 1, producer.hasSubscriber(recorders.get(i)));
+        }
+    }
+}
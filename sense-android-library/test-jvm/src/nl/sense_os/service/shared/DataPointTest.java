@@ -0,0 +1,128 @@
+package nl.sense_os.service.shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.sense_os.service.shared.SensorDataPoint.DataType;
+
+import org.junit.Test;
+
+public class DataPointTest {
+
+    /**
+     * Records which callback got the data.
+     */
+    private static class TypedRecorder implements TypedDataProcessor {
+        final List<String> calls = new ArrayList<String>();
+
+        @Override
+        public boolean isSampleComplete() {
+            return false;
+        }
+
+        @Override
+        public void onNewData(SensorDataPoint dataPoint) {
+            calls.add("data " + dataPoint.getStringValue());
+        }
+
+        @Override
+        public void onNewScalar(ScalarDataPoint dataPoint) {
+            calls.add("scalar " + dataPoint.getValue());
+        }
+
+        @Override
+        public void onNewVector(VectorDataPoint dataPoint) {
+            calls.add("vector " + dataPoint.getLength());
+        }
+
+        @Override
+        public void startNewSample() {
+            // nothing to do
+        }
+    }
+
+    @Test
+    public void testLegacyPoints() {
+        assertEquals(3, new SensorDataPoint(3).getIntValue());
+        assertEquals(1.5f, new SensorDataPoint(1.5f).getFloatValue(), 0);
+        assertEquals(2.5, new SensorDataPoint(2.5).getDoubleValue(), 0);
+        assertEquals(Boolean.TRUE, new SensorDataPoint(true).getBoolValue());
+        assertEquals("text", new SensorDataPoint("text").getStringValue());
+        assertEquals(DataType.STRING, new SensorDataPoint("text").getDataType());
+    }
+
+    @Test
+    public void testScalarTypes() {
+        ScalarDataPoint intPoint = new ScalarDataPoint(7);
+        assertEquals(DataType.INT, intPoint.getDataType());
+        assertEquals(7, intPoint.getIntValue());
+        assertEquals("7", intPoint.getStringValue());
+
+        ScalarDataPoint floatPoint = new ScalarDataPoint(0.25f);
+        assertEquals(DataType.FLOAT, floatPoint.getDataType());
+        assertEquals(0.25f, floatPoint.getFloatValue(), 0);
+        assertEquals("0.25", floatPoint.getStringValue());
+
+        ScalarDataPoint boolPoint = new ScalarDataPoint(true);
+        assertEquals(DataType.BOOL, boolPoint.getDataType());
+        assertEquals(Boolean.TRUE, boolPoint.getBoolValue());
+        assertEquals("true", boolPoint.getStringValue());
+
+        ScalarDataPoint doublePoint = new ScalarDataPoint(1e-3);
+        doublePoint.setValue(2e-3);
+        assertEquals(DataType.DOUBLE, doublePoint.getDataType());
+        assertEquals(2e-3, doublePoint.getDoubleValue(), 0);
+        assertEquals(2e-3, doublePoint.getValue(), 0);
+    }
+
+    @Test
+    public void testTypedDispatch() {
+        TypedRecorder typed = new TypedRecorder();
+        new ScalarDataPoint(1.5).deliverTo(typed);
+        new VectorDataPoint(new float[] { 1, 2, 3 }).deliverTo(typed);
+        new SensorDataPoint("text").deliverTo(typed);
+
+        assertEquals("scalar 1.5", typed.calls.get(0));
+        assertEquals("vector 3", typed.calls.get(1));
+        assertEquals("data text", typed.calls.get(2));
+
+        // processors without the typed callbacks get the points via onNewData
+        final List<SensorDataPoint> plain = new ArrayList<SensorDataPoint>();
+        DataProcessor processor = new SubscriberQueueTest.Recorder(true) {
+            @Override
+            public void onNewData(SensorDataPoint dataPoint) {
+                plain.add(dataPoint);
+            }
+        };
+        ScalarDataPoint scalar = new ScalarDataPoint(4);
+        scalar.deliverTo(processor);
+        assertSame(scalar, plain.get(0));
+        assertEquals(4, plain.get(0).getIntValue());
+    }
+
+    @Test
+    public void testVector() {
+        VectorDataPoint vector = new VectorDataPoint(4);
+        assertEquals(4, vector.getLength());
+        vector.setValues(new float[] { 1, 2 }, 2);
+        assertEquals(2, vector.getLength());
+        assertEquals(2f, vector.get(1), 0);
+        assertEquals("[1,2]", vector.getStringValue().replace(".0", ""));
+        try {
+            vector.get(2);
+            throw new AssertionError("index beyond the length");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            vector.setValues(new float[5], 5);
+            throw new AssertionError("more values than the size");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("4"));
+        }
+    }
+}
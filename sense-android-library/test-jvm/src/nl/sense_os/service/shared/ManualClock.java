@@ -0,0 +1,32 @@
+package nl.sense_os.service.shared;
+
+/**
+ * Clock for tests, which only moves when it is told to. The elapsed real time and the current time
+ * are the same.
+ */
+public class ManualClock implements Clock {
+
+    private long time;
+
+    public ManualClock(long time) {
+        this.time = time;
+    }
+
+    public synchronized void advance(long millis) {
+        time += millis;
+    }
+
+    @Override
+    public synchronized long elapsedRealtime() {
+        return time;
+    }
+
+    @Override
+    public synchronized long getTime() {
+        return time;
+    }
+
+    public synchronized void set(long time) {
+        this.time = time;
+    }
+}
@@ -0,0 +1,185 @@
+package nl.sense_os.service.shared;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SubscriberQueueTest {
+
+    /**
+     * Producer that sends whatever the test tells it to.
+     */
+    static class TestProducer extends BaseDataProducer {
+        void newSample() {
+            notifySubscribers();
+        }
+
+        void send(int value) {
+            sendToSubscribers(new ScalarDataPoint(value));
+        }
+    }
+
+    /**
+     * Records the calls it gets, as "S" for a new sample and the value for data. The first data
+     * point can be held up until the test opens the gate.
+     */
+    static class Recorder implements DataProcessor {
+        final List<String> calls = new ArrayList<String>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger active = new AtomicInteger();
+        volatile boolean overlapped;
+
+        Recorder(boolean open) {
+            if (open) {
+                gate.countDown();
+            }
+        }
+
+        synchronized List<String> getCalls() {
+            return new ArrayList<String>(calls);
+        }
+
+        @Override
+        public boolean isSampleComplete() {
+            return false;
+        }
+
+        @Override
+        public void onNewData(SensorDataPoint dataPoint) {
+            if (active.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                calls.add(String.valueOf(dataPoint.getIntValue()));
+                threads.add(Thread.currentThread());
+            }
+            active.decrementAndGet();
+        }
+
+        @Override
+        public synchronized void startNewSample() {
+            calls.add("S");
+        }
+
+        /**
+         * Waits until the recorder got the given number of calls.
+         */
+        void waitFor(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            while (getCalls().size() < count && System.currentTimeMillis() < end) {
+                Thread.sleep(1);
+            }
+            assertEquals(count, getCalls().size());
+        }
+    }
+
+    /**
+     * Subscribes a recorder with a queue, and makes the pool thread wait in the delivery of the
+     * first data point, so the test can fill the queue.
+     */
+    private static Recorder startBlocked(TestProducer producer, int capacity,
+            OverflowPolicy policy) throws InterruptedException {
+        Recorder recorder = new Recorder(false);
+        producer.addSubscriber(recorder, capacity, policy);
+        producer.send(0);
+        assertTrue(recorder.entered.await(10, TimeUnit.SECONDS));
+        return recorder;
+    }
+
+    @Test
+    public void testDefaultIsSynchronous() {
+        TestProducer producer = new TestProducer();
+        Recorder recorder = new Recorder(true);
+        producer.addSubscriber(recorder);
+        for (int i = 0; i < 1000; i++) {
+            producer.send(i);
+        }
+        assertEquals(1000, recorder.calls.size());
+        assertSame(Thread.currentThread(), recorder.threads.get(999));
+    }
+
+    @Test
+    public void testDropNewestKeepsMarkers() throws InterruptedException {
+        TestProducer producer = new TestProducer();
+        Recorder recorder = startBlocked(producer, 3, OverflowPolicy.DROP_NEWEST);
+        producer.send(1);
+        producer.send(2);
+        producer.send(3);
+        producer.send(4); // dropped
+        producer.newSample(); // takes the place of 1
+        producer.send(5); // dropped
+        recorder.gate.countDown();
+
+        recorder.waitFor(4);
+        assertEquals(Arrays.asList("0", "2", "3", "S"), recorder.getCalls());
+    }
+
+    @Test
+    public void testDropOldestKeepsMarkers() throws InterruptedException {
+        TestProducer producer = new TestProducer();
+        Recorder recorder = startBlocked(producer, 4, OverflowPolicy.DROP_OLDEST);
+        producer.newSample();
+        producer.send(1);
+        producer.newSample();
+        producer.send(2);
+        producer.send(3); // drops 1
+        producer.send(4); // drops 2
+        producer.newSample(); // drops 3
+        producer.newSample(); // merged with the previous marker
+        recorder.gate.countDown();
+
+        recorder.waitFor(5);
+        assertEquals(Arrays.asList("0", "S", "S", "4", "S"), recorder.getCalls());
+    }
+
+    @Test
+    public void testNoConcurrentCallsFromTwoProducers() throws InterruptedException {
+        final TestProducer first = new TestProducer();
+        final TestProducer second = new TestProducer();
+        Recorder recorder = new Recorder(true);
+        first.addSubscriber(recorder, 16, OverflowPolicy.BLOCK);
+        second.addSubscriber(recorder, 16, OverflowPolicy.BLOCK);
+
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            final TestProducer producer = t == 0 ? first : second;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; i++) {
+                        producer.send(i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        recorder.waitFor(10000);
+        assertTrue("concurrent calls to the processor", !recorder.overlapped);
+
+        // the queue stays until the last producer is gone
+        first.removeSubscriber(recorder);
+        second.send(1);
+        recorder.waitFor(10001);
+    }
+}
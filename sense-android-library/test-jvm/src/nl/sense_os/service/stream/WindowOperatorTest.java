@@ -0,0 +1,112 @@
+package nl.sense_os.service.stream;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.ScalarDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint;
+
+import org.junit.Test;
+
+public class WindowOperatorTest {
+
+    /**
+     * Records the emitted values as "time stamp=value"
+     */
+    private static class Collector implements DataProcessor {
+        final List<String> values = new ArrayList<String>();
+
+        @Override
+        public boolean isSampleComplete() {
+            return false;
+        }
+
+        @Override
+        public void onNewData(SensorDataPoint dataPoint) {
+            values.add(dataPoint.timeStamp + "=" + dataPoint.getDoubleValue());
+        }
+
+        @Override
+        public void startNewSample() {
+            // nothing to do
+        }
+    }
+
+    private static void send(StreamOperator operator, long timestamp, double value) {
+        ScalarDataPoint dataPoint = new ScalarDataPoint(value);
+        dataPoint.sensorName = "test";
+        dataPoint.sensorDescription = "test";
+        dataPoint.timeStamp = timestamp;
+        operator.onNewScalar(dataPoint);
+    }
+
+    @Test
+    public void testCountWindows() {
+        WindowOperator window = WindowOperator.sliding(3, 2);
+        Collector collector = new Collector();
+        window.output(Aggregate.MAX).to(collector);
+        for (int i = 1; i <= 7; i++) {
+            send(window, i, i);
+        }
+
+        assertEquals(Arrays.asList("3=3.0", "5=5.0", "7=7.0"), collector.values);
+    }
+
+    @Test
+    public void testRollingWindow() {
+        WindowOperator window = WindowOperator.rolling(3000L, 64);
+        Collector collector = new Collector();
+        window.output(Aggregate.MEAN).to(collector);
+
+        // one value per second, with the seconds as value
+        for (int i = 0; i < 6; i++) {
+            send(window, i * 1000L, i);
+        }
+
+        // emitted for every value once 3 s have passed, with the last 3 s up to the value
+        assertEquals(Arrays.asList("3000=1.5", "4000=2.5", "5000=3.5"), collector.values);
+
+        // after a gap only the new value is left
+        send(window, 10000L, 10);
+        assertEquals("10000=10.0", collector.values.get(collector.values.size() - 1));
+    }
+
+    @Test
+    public void testSlidingWindowsAfterGap() {
+        WindowOperator window = WindowOperator.sliding(10000L, 2000L, 64);
+        Collector collector = new Collector();
+        window.output(Aggregate.MEAN).to(collector);
+
+        // one value per second, with the seconds as value, then nothing until 20 s
+        for (int i = 0; i < 10; i++) {
+            send(window, i * 1000L, i);
+        }
+        send(window, 20000L, 20);
+
+        // the windows that end at 12, 14, 16 and 18 s still have the last values
+        assertEquals(Arrays.asList("10000=4.5", "12000=5.5", "14000=6.5", "16000=7.5",
+                "18000=8.5"), collector.values);
+
+        // the window that ends at 20 s was empty, so the next one ends at 22 s
+        send(window, 22000L, 22);
+        assertEquals("22000=20.0", collector.values.get(collector.values.size() - 1));
+    }
+
+    @Test
+    public void testTumblingWindowsAfterGap() {
+        WindowOperator window = WindowOperator.tumbling(10000L, 64);
+        Collector collector = new Collector();
+        window.output(Aggregate.MAX).to(collector);
+
+        send(window, 0, 1);
+        send(window, 5000L, 2);
+        send(window, 35000L, 3);
+        send(window, 40000L, 4);
+
+        assertEquals(Arrays.asList("10000=2.0", "40000=3.0"), collector.values);
+    }
+}
@@ -0,0 +1,113 @@
+package nl.sense_os.service.trace;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Compares the text dump of a trace with a golden file in the <code>golden</code> directory of the
+ * harness. Run the tests with <code>-Dgolden.update=true</code> to write the golden files again
+ * after an intended change of the output.
+ */
+final class Golden {
+
+    private static final File DIR = new File(System.getProperty("golden.dir", "golden"));
+
+    /**
+     * Checks that the dump of a trace matches the golden file.
+     * 
+     * @param name
+     *            Name of the golden file
+     * @param trace
+     *            The bytes of the trace
+     */
+    static void assertTraceMatches(String name, byte[] trace) throws IOException {
+        String actual = dump(new TraceReader(new ByteArrayInputStream(trace)));
+        File file = new File(DIR, name);
+        if (Boolean.getBoolean("golden.update")) {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(actual.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            return;
+        }
+        assertEquals("output differs from " + file, read(file), actual);
+    }
+
+    /**
+     * Writes the records of a trace as text, one line per record.
+     */
+    static String dump(TraceReader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try {
+            while (reader.next()) {
+                sb.append(reader.getTimestamp()).append(' ').append(reader.getSensorName())
+                        .append(" (").append(reader.getSensorDescription()).append(") ");
+                switch (reader.getKind()) {
+                case TraceReader.SCALAR:
+                    sb.append(reader.getDataType()).append(' ').append(reader.getValue());
+                    break;
+                case TraceReader.MOTION:
+                    sb.append("type ").append(reader.getSensorType()).append(" accuracy ")
+                            .append(reader.getAccuracy()).append(" event ")
+                            .append(reader.getEventTimestamp()).append(' ');
+                    appendValues(sb, reader);
+                    break;
+                case TraceReader.VECTOR:
+                    appendValues(sb, reader);
+                    break;
+                case TraceReader.TEXT:
+                    sb.append(reader.getDataType()).append(' ').append(reader.getText());
+                    break;
+                default:
+                    sb.append("kind ").append(reader.getKind());
+                }
+                sb.append('\n');
+            }
+        } finally {
+            reader.close();
+        }
+        return sb.toString();
+    }
+
+    private static void appendValues(StringBuilder sb, TraceReader reader) {
+        float[] values = reader.getValues();
+        sb.append('[');
+        for (int i = 0; i < reader.getLength(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(String.format(Locale.US, "%.3f", values[i]));
+        }
+        sb.append(']');
+    }
+
+    private static String read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private Golden() {
+        // static methods only
+    }
+}
@@ -0,0 +1,231 @@
+package nl.sense_os.service.trace;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.sense_os.service.constants.SensorData.SensorNames;
+import nl.sense_os.service.motion.FallDetector;
+import nl.sense_os.service.motion.MotionSample;
+import nl.sense_os.service.motion.MotionSamplePool;
+import nl.sense_os.service.shared.DataProcessor;
+import nl.sense_os.service.shared.OverflowPolicy;
+import nl.sense_os.service.shared.ScalarDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint;
+import nl.sense_os.service.shared.SensorDataPoint.DataType;
+import nl.sense_os.service.shared.VectorDataPoint;
+
+import org.junit.Test;
+
+import android.content.Context;
+import android.hardware.Sensor;
+
+public class TraceReplayerTest {
+
+    /**
+     * Keeps a text copy of every data point, because pooled points are recycled after delivery.
+     */
+    private static class Collector implements DataProcessor {
+        final List<String> received = new ArrayList<String>();
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        @Override
+        public boolean isSampleComplete() {
+            return false;
+        }
+
+        @Override
+        public void onNewData(SensorDataPoint dataPoint) {
+            received.add(dataPoint.timeStamp + " " + dataPoint.sensorName + " "
+                    + dataPoint.getDataType() + " " + dataPoint.getStringValue());
+            threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void startNewSample() {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Replayer with a stand-in accelerometer, because there is no sensor manager on a plain JVM.
+     */
+    private static class AccelerometerReplayer extends TraceReplayer {
+        private final Sensor accelerometer = new Sensor(Sensor.TYPE_ACCELEROMETER, "stub");
+
+        AccelerometerReplayer() {
+            super(null);
+        }
+
+        @Override
+        protected Sensor getSensor(int type) {
+            return type == Sensor.TYPE_ACCELEROMETER ? accelerometer : null;
+        }
+    }
+
+    private static final long START = 1380000000000L;
+
+    /**
+     * Creates an accelerometer trace at 50 Hz: the phone lies still, drops for 400 ms, hits the
+     * floor and lies still again.
+     */
+    private static byte[] createFallTrace() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(bytes);
+        MotionSamplePool pool = new MotionSamplePool();
+        Sensor sensor = new Sensor(Sensor.TYPE_ACCELEROMETER, "stub");
+        for (int i = 0; i < 150; i++) {
+            long t = START + i * 20;
+            float z;
+            if (i >= 50 && i < 70) {
+                z = 0.5f;
+            } else if (i >= 70 && i < 73) {
+                z = 30f;
+            } else {
+                z = 9.81f;
+            }
+            MotionSample sample = pool.obtain(sensor, 3, t * 1000000L, new float[] { 0.1f, 0.2f,
+                    z }, 3);
+            sample.sensorName = SensorNames.ACCELEROMETER;
+            sample.sensorDescription = "stub";
+            sample.timeStamp = t;
+            writer.write(sample);
+            sample.release();
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replays a trace through a fall detector, and records the output of the detector.
+     */
+    private static byte[] replayFallDetector(byte[] trace) throws IOException {
+        TraceReplayer replayer = new AccelerometerReplayer();
+        FallDetector detector = new FallDetector(new Context());
+        detector.setClock(replayer.getClock());
+        replayer.addSubscriber(detector);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TraceRecorder recorder = new TraceRecorder(new TraceWriter(output));
+        detector.addSubscriber(recorder);
+
+        replayer.replay(new TraceReader(new ByteArrayInputStream(trace)), false);
+        recorder.close();
+        return output.toByteArray();
+    }
+
+    @Test
+    public void testFallDetectorReplayIsReproducible() throws IOException {
+        byte[] trace = createFallTrace();
+        byte[] first = replayFallDetector(trace);
+        byte[] second = replayFallDetector(trace);
+        assertArrayEquals(first, second);
+        Golden.assertTraceMatches("fall_detector.txt", first);
+    }
+
+    @Test
+    public void testQueuedSubscribersGetAllData() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(bytes);
+        for (int i = 0; i < 1000; i++) {
+            ScalarDataPoint dataPoint = new ScalarDataPoint(i);
+            dataPoint.sensorName = "counter";
+            dataPoint.timeStamp = START + i;
+            writer.write(dataPoint);
+        }
+        writer.close();
+
+        TraceReplayer replayer = new TraceReplayer(null);
+        Collector collector = new Collector();
+        replayer.addSubscriber(collector, 1, OverflowPolicy.DROP_OLDEST);
+        int replayed = replayer.replay(new TraceReader(new ByteArrayInputStream(bytes
+                .toByteArray())), false);
+
+        assertEquals(1000, replayed);
+        assertEquals(1000, collector.received.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((START + i) + " counter INT " + i, collector.received.get(i));
+            assertSame(Thread.currentThread(), collector.threads.get(i));
+        }
+    }
+
+    @Test
+    public void testReplayClockFollowsTrace() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(bytes);
+        for (int i = 0; i < 10; i++) {
+            ScalarDataPoint dataPoint = new ScalarDataPoint(i * 0.5);
+            dataPoint.sensorName = "light";
+            dataPoint.timeStamp = START + i * 1000;
+            writer.write(dataPoint);
+        }
+        writer.close();
+
+        final TraceReplayer replayer = new TraceReplayer(null);
+        final List<Long> times = new ArrayList<Long>();
+        replayer.addSubscriber(new Collector() {
+            @Override
+            public void onNewData(SensorDataPoint dataPoint) {
+                assertEquals(dataPoint.timeStamp, replayer.getClock().getTime());
+                assertEquals(dataPoint.timeStamp, replayer.getClock().elapsedRealtime());
+                times.add(dataPoint.timeStamp);
+            }
+        });
+        replayer.replay(new TraceReader(new ByteArrayInputStream(bytes.toByteArray())), false);
+
+        assertEquals(10, times.size());
+        assertEquals(START + 9000, replayer.getClock().getTime());
+        assertTrue(System.currentTimeMillis() - START > 9000);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(bytes);
+
+        ScalarDataPoint scalar = new ScalarDataPoint(21.5f);
+        scalar.sensorName = "temperature";
+        scalar.sensorDescription = "stub";
+        scalar.timeStamp = START;
+        writer.write(scalar);
+
+        VectorDataPoint vector = new VectorDataPoint(new float[] { 1, 2, 3 });
+        vector.sensorName = "vector";
+        vector.timeStamp = START + 10;
+        writer.write(vector);
+
+        MotionSample sample = new MotionSamplePool().obtain(new Sensor(
+                Sensor.TYPE_ACCELEROMETER, "stub"), 3, 123456789L, new float[] { 4, 5, 6 }, 3);
+        sample.sensorName = SensorNames.ACCELEROMETER;
+        sample.timeStamp = START + 20;
+        writer.write(sample);
+        sample.release();
+
+        SensorDataPoint text = new SensorDataPoint("hello");
+        text.sensorName = "text";
+        text.timeStamp = START + 5;
+        writer.write(text);
+
+        writer.close();
+
+        TraceReplayer replayer = new AccelerometerReplayer();
+        Collector collector = new Collector();
+        replayer.addSubscriber(collector);
+        assertEquals(4, replayer.replay(new TraceReader(new ByteArrayInputStream(bytes
+                .toByteArray())), false));
+
+        assertEquals(4, collector.received.size());
+        assertEquals(START + " temperature FLOAT 21.5", collector.received.get(0));
+        assertEquals((START + 10) + " vector " + DataType.VECTOR + " " + vector.getStringValue(),
+                collector.received.get(1));
+        assertTrue(collector.received.get(2).startsWith((START + 20) + " accelerometer "));
+        assertEquals((START + 5) + " text STRING hello", collector.received.get(3));
+    }
+}
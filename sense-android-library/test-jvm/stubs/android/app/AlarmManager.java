@@ -0,0 +1,42 @@
+package android.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for the Android alarm manager on a plain JVM. Alarms never go off; the trigger time of
+ * the last alarm of each request code is recorded, so the tests can check them.
+ */
+public class AlarmManager {
+
+    public static final int ELAPSED_REALTIME = 3;
+    public static final int ELAPSED_REALTIME_WAKEUP = 2;
+    public static final int RTC = 1;
+    public static final int RTC_WAKEUP = 0;
+
+    private final Map<Integer, Long> alarms = new LinkedHashMap<Integer, Long>();
+
+    public synchronized void cancel(PendingIntent operation) {
+        alarms.remove(operation.getRequestCode());
+    }
+
+    /**
+     * @param requestCode
+     *            Request code of the pending intent of the alarm
+     * @return The trigger time of the alarm, or -1 if there is no alarm. Not part of the Android
+     *         API.
+     */
+    public synchronized long getAlarm(int requestCode) {
+        Long time = alarms.get(requestCode);
+        return null != time ? time : -1;
+    }
+
+    public synchronized void set(int type, long triggerAtMillis, PendingIntent operation) {
+        alarms.put(operation.getRequestCode(), triggerAtMillis);
+    }
+
+    public synchronized void setRepeating(int type, long triggerAtMillis, long intervalMillis,
+            PendingIntent operation) {
+        alarms.put(operation.getRequestCode(), triggerAtMillis);
+    }
+}
@@ -0,0 +1,52 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Stand-in for an Android pending intent on a plain JVM. It only holds the intent, so the tests can
+ * check the alarms that were set.
+ */
+public final class PendingIntent {
+
+    public static final int FLAG_CANCEL_CURRENT = 0x10000000;
+    public static final int FLAG_NO_CREATE = 0x20000000;
+    public static final int FLAG_ONE_SHOT = 0x40000000;
+    public static final int FLAG_UPDATE_CURRENT = 0x08000000;
+
+    public static PendingIntent getBroadcast(Context context, int requestCode, Intent intent,
+            int flags) {
+        return new PendingIntent(requestCode, intent);
+    }
+
+    public static PendingIntent getService(Context context, int requestCode, Intent intent,
+            int flags) {
+        return new PendingIntent(requestCode, intent);
+    }
+
+    private final int requestCode;
+    private final Intent intent;
+
+    private PendingIntent(int requestCode, Intent intent) {
+        this.requestCode = requestCode;
+        this.intent = intent;
+    }
+
+    public void cancel() {
+        // nothing to cancel
+    }
+
+    /**
+     * @return The intent. Not part of the Android API.
+     */
+    public Intent getIntent() {
+        return intent;
+    }
+
+    /**
+     * @return The request code. Not part of the Android API.
+     */
+    public int getRequestCode() {
+        return requestCode;
+    }
+}
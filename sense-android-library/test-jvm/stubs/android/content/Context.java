@@ -0,0 +1,263 @@
+package android.content;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.app.AlarmManager;
+
+/**
+ * Stand-in for an Android context on a plain JVM. Shared preferences are kept in memory, and the
+ * intents that are sent to services and receivers are recorded, so the tests can check them.
+ * The only system service is a stand-in {@link AlarmManager}.
+ */
+public class Context {
+
+    /**
+     * Shared preferences in memory. Changes are applied immediately.
+     */
+    private static class MemoryPreferences implements SharedPreferences {
+
+        private class MemoryEditor implements Editor {
+            private final Map<String, Object> changes = new HashMap<String, Object>();
+            private boolean clear;
+
+            @Override
+            public void apply() {
+                commit();
+            }
+
+            @Override
+            public Editor clear() {
+                clear = true;
+                return this;
+            }
+
+            @Override
+            public boolean commit() {
+                synchronized (MemoryPreferences.this) {
+                    if (clear) {
+                        values.clear();
+                    }
+                    for (Map.Entry<String, Object> change : changes.entrySet()) {
+                        if (change.getValue() == this) {
+                            values.remove(change.getKey());
+                        } else {
+                            values.put(change.getKey(), change.getValue());
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putString(String key, String value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> value) {
+                changes.put(key, new HashSet<String>(value));
+                return this;
+            }
+
+            @Override
+            public Editor remove(String key) {
+                // the editor itself marks removed keys
+                changes.put(key, this);
+                return this;
+            }
+        }
+
+        private final Map<String, Object> values = new HashMap<String, Object>();
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor();
+        }
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<String, Object>(values);
+        }
+
+        @Override
+        public synchronized boolean getBoolean(String key, boolean defValue) {
+            Object value = values.get(key);
+            return null != value ? (Boolean) value : defValue;
+        }
+
+        @Override
+        public synchronized float getFloat(String key, float defValue) {
+            Object value = values.get(key);
+            return null != value ? (Float) value : defValue;
+        }
+
+        @Override
+        public synchronized int getInt(String key, int defValue) {
+            Object value = values.get(key);
+            return null != value ? (Integer) value : defValue;
+        }
+
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            Object value = values.get(key);
+            return null != value ? (Long) value : defValue;
+        }
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            Object value = values.get(key);
+            return null != value ? (String) value : defValue;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+            Object value = values.get(key);
+            return null != value ? (Set<String>) value : defValues;
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+            // changes are not reported
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {
+            // changes are not reported
+        }
+    }
+
+    public static final int MODE_PRIVATE = 0;
+    public static final int MODE_WORLD_READABLE = 1;
+    public static final int MODE_WORLD_WRITEABLE = 2;
+    public static final int MODE_MULTI_PROCESS = 4;
+
+    public static final String ALARM_SERVICE = "alarm";
+    public static final String CONNECTIVITY_SERVICE = "connectivity";
+    public static final String LOCATION_SERVICE = "location";
+    public static final String POWER_SERVICE = "power";
+    public static final String SENSOR_SERVICE = "sensor";
+    public static final String TELEPHONY_SERVICE = "phone";
+    public static final String WIFI_SERVICE = "wifi";
+
+    private final Map<String, SharedPreferences> preferences = new HashMap<String, SharedPreferences>();
+    private final List<Intent> broadcasts = new ArrayList<Intent>();
+    private final List<Intent> services = new ArrayList<Intent>();
+    private final AlarmManager alarmManager = new AlarmManager();
+    private final File filesDir;
+
+    public Context() {
+        this(new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * @param filesDir
+     *            Directory that is returned by {@link #getFilesDir()}. Not part of the Android API.
+     */
+    public Context(File filesDir) {
+        this.filesDir = filesDir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    /**
+     * @return The intents that were broadcast. Not part of the Android API.
+     */
+    public synchronized List<Intent> getBroadcasts() {
+        return Collections.unmodifiableList(new ArrayList<Intent>(broadcasts));
+    }
+
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    public String getPackageName() {
+        return "nl.sense_os.test";
+    }
+
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences prefs = preferences.get(name);
+        if (null == prefs) {
+            prefs = new MemoryPreferences();
+            preferences.put(name, prefs);
+        }
+        return prefs;
+    }
+
+    /**
+     * @return The intents that were sent with {@link #startService(Intent)}. Not part of the
+     *         Android API.
+     */
+    public synchronized List<Intent> getStartedServices() {
+        return Collections.unmodifiableList(new ArrayList<Intent>(services));
+    }
+
+    /**
+     * @return The name of the resource, because there are no resource values on a plain JVM
+     */
+    public String getString(int resId) {
+        return "res:" + Integer.toHexString(resId);
+    }
+
+    /**
+     * @return The alarm manager for {@link #ALARM_SERVICE}, otherwise null, because there are no
+     *         other system services on a plain JVM
+     */
+    public Object getSystemService(String name) {
+        return ALARM_SERVICE.equals(name) ? alarmManager : null;
+    }
+
+    public synchronized void sendBroadcast(Intent intent) {
+        broadcasts.add(intent);
+    }
+
+    public synchronized ComponentName startService(Intent service) {
+        services.add(service);
+        return null;
+    }
+
+    public boolean stopService(Intent service) {
+        return false;
+    }
+}
@@ -0,0 +1,128 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for an Android intent on a plain JVM, with an action and a map of extras.
+ */
+public class Intent {
+
+    private String action;
+    private String className;
+    private final Map<String, Object> extras = new HashMap<String, Object>();
+
+    public Intent() {
+        // empty intent
+    }
+
+    public Intent(Context context, Class<?> cls) {
+        className = cls.getName();
+    }
+
+    public Intent(Intent other) {
+        action = other.action;
+        className = other.className;
+        extras.putAll(other.extras);
+    }
+
+    public Intent(String action) {
+        this.action = action;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    /**
+     * @return The class name of the component, or null. Not part of the Android API.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    public double getDoubleExtra(String name, double defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Double ? (Double) value : defaultValue;
+    }
+
+    /**
+     * @return The value of the extra, or null. Not part of the Android API.
+     */
+    public Object getExtra(String name) {
+        return extras.get(name);
+    }
+
+    public float getFloatExtra(String name, float defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Float ? (Float) value : defaultValue;
+    }
+
+    public int getIntExtra(String name, int defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public long getLongExtra(String name, long defaultValue) {
+        Object value = extras.get(name);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public String getStringExtra(String name) {
+        Object value = extras.get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public boolean hasExtra(String name) {
+        return extras.containsKey(name);
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, double value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, float value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, int value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, long value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, String value) {
+        extras.put(name, value);
+        return this;
+    }
+
+    public void removeExtra(String name) {
+        extras.remove(name);
+    }
+
+    public Intent setAction(String action) {
+        this.action = action;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "Intent { act=" + action + " extras=" + extras + " }";
+    }
+}
@@ -0,0 +1,284 @@
+package android.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * Stand-in for the Android matrix cursor on a plain JVM: a cursor over rows in memory. Unlike the
+ * real class it implements {@link Cursor} directly, and observers are not supported.
+ */
+public class MatrixCursor implements Cursor {
+
+    private final String[] columnNames;
+    private final List<Object[]> rows;
+    private int position = -1;
+    private boolean closed;
+
+    public MatrixCursor(String[] columnNames) {
+        this(columnNames, 16);
+    }
+
+    public MatrixCursor(String[] columnNames, int initialCapacity) {
+        this.columnNames = columnNames;
+        this.rows = new ArrayList<Object[]>(Math.max(1, initialCapacity));
+    }
+
+    public void addRow(Iterable<?> columnValues) {
+        List<Object> row = new ArrayList<Object>();
+        for (Object value : columnValues) {
+            row.add(value);
+        }
+        addRow(row.toArray());
+    }
+
+    public void addRow(Object[] columnValues) {
+        if (columnValues.length != columnNames.length) {
+            throw new IllegalArgumentException("columnNames.length = " + columnNames.length
+                    + ", columnValues.length = " + columnValues.length);
+        }
+        rows.add(Arrays.copyOf(columnValues, columnValues.length));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deactivate() {
+        // nothing to do
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= columnNames.length) {
+            throw new IllegalArgumentException("Invalid column " + column);
+        }
+        if (position < 0 || position >= rows.size()) {
+            throw new IllegalStateException("Cursor is not on a row: " + position);
+        }
+        return rows.get(position)[column];
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return (byte[]) get(column);
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return columnNames[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public int getCount() {
+        return rows.size();
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        return null == value ? 0 : value instanceof Number ? ((Number) value).doubleValue()
+                : Double.parseDouble(value.toString());
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return null;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        return null == value ? 0 : value instanceof Number ? ((Number) value).longValue() : Long
+                .parseLong(value.toString());
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        return null == value ? null : value.toString();
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = get(column);
+        if (null == value) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        } else if (value instanceof Float || value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof Number) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls() {
+        return false;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return rows.isEmpty() || position >= rows.size();
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return rows.isEmpty() || position < 0;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean isFirst() {
+        return position == 0 && !rows.isEmpty();
+    }
+
+    @Override
+    public boolean isLast() {
+        return !rows.isEmpty() && position == rows.size() - 1;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return null == get(column);
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(position + offset);
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(rows.size() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(position + 1);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position >= rows.size()) {
+            this.position = rows.size();
+            return false;
+        }
+        if (position < 0) {
+            this.position = -1;
+            return false;
+        }
+        this.position = position;
+        return true;
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(position - 1);
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {
+        // not supported
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        // not supported
+    }
+
+    @Override
+    public boolean requery() {
+        return false;
+    }
+
+    @Override
+    public Bundle respond(Bundle extras) {
+        return null;
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver cr, Uri uri) {
+        // not supported
+    }
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {
+        // not supported
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        // not supported
+    }
+}
@@ -0,0 +1,68 @@
+package android.hardware;
+
+/**
+ * Stand-in for an Android sensor on a plain JVM. Unlike the real class, it can be created by the
+ * tests.
+ */
+public class Sensor {
+
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_ORIENTATION = 3;
+    public static final int TYPE_GYROSCOPE = 4;
+    public static final int TYPE_LIGHT = 5;
+    public static final int TYPE_PRESSURE = 6;
+    public static final int TYPE_TEMPERATURE = 7;
+    public static final int TYPE_PROXIMITY = 8;
+    public static final int TYPE_GRAVITY = 9;
+    public static final int TYPE_LINEAR_ACCELERATION = 10;
+    public static final int TYPE_ROTATION_VECTOR = 11;
+    public static final int TYPE_RELATIVE_HUMIDITY = 12;
+    public static final int TYPE_AMBIENT_TEMPERATURE = 13;
+    public static final int TYPE_ALL = -1;
+
+    private final int type;
+    private final String name;
+
+    public Sensor(int type, String name) {
+        this.type = type;
+        this.name = name;
+    }
+
+    public float getMaximumRange() {
+        return 0;
+    }
+
+    public int getMinDelay() {
+        return 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public float getPower() {
+        return 0;
+    }
+
+    public float getResolution() {
+        return 0;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getVendor() {
+        return "stub";
+    }
+
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public String toString() {
+        return "{Sensor name=\"" + name + "\", type=" + type + "}";
+    }
+}
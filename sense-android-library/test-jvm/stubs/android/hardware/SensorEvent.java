@@ -0,0 +1,17 @@
+package android.hardware;
+
+/**
+ * Stand-in for an Android sensor event on a plain JVM. Unlike the real class, it can be created by
+ * the tests.
+ */
+public class SensorEvent {
+
+    public final float[] values;
+    public Sensor sensor;
+    public int accuracy;
+    public long timestamp;
+
+    public SensorEvent(int valueSize) {
+        values = new float[valueSize];
+    }
+}
@@ -0,0 +1,46 @@
+package android.os;
+
+/**
+ * Stand-in for the Android build information on a plain JVM. It describes a device with the
+ * target platform of the library (API level 17), so the tests take the code paths of a current
+ * device, e.g. HTTP keep-alive in {@link nl.sense_os.service.commonsense.SenseApi}.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final String CODENAME = "REL";
+        public static final String INCREMENTAL = "jvm";
+        public static final String RELEASE = "4.2.2";
+        public static final int SDK_INT = VERSION_CODES.JELLY_BEAN_MR1;
+    }
+
+    public static class VERSION_CODES {
+        public static final int CUR_DEVELOPMENT = 10000;
+        public static final int BASE = 1;
+        public static final int BASE_1_1 = 2;
+        public static final int CUPCAKE = 3;
+        public static final int DONUT = 4;
+        public static final int ECLAIR = 5;
+        public static final int ECLAIR_0_1 = 6;
+        public static final int ECLAIR_MR1 = 7;
+        public static final int FROYO = 8;
+        public static final int GINGERBREAD = 9;
+        public static final int GINGERBREAD_MR1 = 10;
+        public static final int HONEYCOMB = 11;
+        public static final int HONEYCOMB_MR1 = 12;
+        public static final int HONEYCOMB_MR2 = 13;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int ICE_CREAM_SANDWICH_MR1 = 15;
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR1 = 17;
+    }
+
+    public static final String BOARD = "jvm";
+    public static final String BRAND = "jvm";
+    public static final String DEVICE = "jvm";
+    public static final String MANUFACTURER = "jvm";
+    public static final String MODEL = "jvm";
+    public static final String PRODUCT = "jvm";
+    public static final String SERIAL = "0123456789abcdef";
+    public static final String UNKNOWN = "unknown";
+}
@@ -0,0 +1,44 @@
+package android.os;
+
+/**
+ * Stand-in for the Android system clock on a plain JVM. The elapsed time is counted from the start
+ * of the JVM instead of the boot of the device.
+ */
+public final class SystemClock {
+
+    private static final long START_NANOS = System.nanoTime();
+
+    private SystemClock() {
+        // static methods only
+    }
+
+    public static long currentThreadTimeMillis() {
+        return uptimeMillis();
+    }
+
+    public static long elapsedRealtime() {
+        return (System.nanoTime() - START_NANOS) / 1000000;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return System.nanoTime() - START_NANOS;
+    }
+
+    public static void sleep(long ms) {
+        long end = uptimeMillis() + ms;
+        long left = ms;
+        while (left > 0) {
+            try {
+                Thread.sleep(left);
+            } catch (InterruptedException e) {
+                // like Android: keep sleeping, but keep the interrupt
+                Thread.currentThread().interrupt();
+            }
+            left = end - uptimeMillis();
+        }
+    }
+
+    public static long uptimeMillis() {
+        return elapsedRealtime();
+    }
+}
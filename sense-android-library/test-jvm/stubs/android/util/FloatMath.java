@@ -0,0 +1,35 @@
+package android.util;
+
+/**
+ * Stand-in for the Android float math functions on a plain JVM.
+ */
+public final class FloatMath {
+
+    private FloatMath() {
+        // static methods only
+    }
+
+    public static float ceil(float value) {
+        return (float) Math.ceil(value);
+    }
+
+    public static float cos(float angle) {
+        return (float) Math.cos(angle);
+    }
+
+    public static float exp(float value) {
+        return (float) Math.exp(value);
+    }
+
+    public static float floor(float value) {
+        return (float) Math.floor(value);
+    }
+
+    public static float sin(float angle) {
+        return (float) Math.sin(angle);
+    }
+
+    public static float sqrt(float value) {
+        return (float) Math.sqrt(value);
+    }
+}
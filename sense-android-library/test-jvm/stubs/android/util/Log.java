@@ -0,0 +1,106 @@
+package android.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Stand-in for the Android log on a plain JVM. Messages are dropped, unless the system property
+ * <code>sense.log</code> is set, in which case they are printed to the standard error stream.
+ */
+public final class Log {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    private static final boolean ENABLED = null != System.getProperty("sense.log");
+
+    private Log() {
+        // static methods only
+    }
+
+    public static int d(String tag, String msg) {
+        return println(DEBUG, tag, msg, null);
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return println(DEBUG, tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return println(ERROR, tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println(ERROR, tag, msg, tr);
+    }
+
+    public static String getStackTraceString(Throwable tr) {
+        if (null == tr) {
+            return "";
+        }
+        StringWriter sw = new StringWriter();
+        tr.printStackTrace(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    public static int i(String tag, String msg) {
+        return println(INFO, tag, msg, null);
+    }
+
+    public static int i(String tag, String msg, Throwable tr) {
+        return println(INFO, tag, msg, tr);
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return ENABLED;
+    }
+
+    public static int println(int priority, String tag, String msg) {
+        return println(priority, tag, msg, null);
+    }
+
+    private static int println(int priority, String tag, String msg, Throwable tr) {
+        if (!ENABLED) {
+            return 0;
+        }
+        String line = "VDIWEA".charAt(Math.max(0, Math.min(5, priority - VERBOSE))) + "/" + tag
+                + ": " + msg;
+        System.err.println(line);
+        if (null != tr) {
+            tr.printStackTrace();
+        }
+        return line.length();
+    }
+
+    public static int v(String tag, String msg) {
+        return println(VERBOSE, tag, msg, null);
+    }
+
+    public static int v(String tag, String msg, Throwable tr) {
+        return println(VERBOSE, tag, msg, tr);
+    }
+
+    public static int w(String tag, String msg) {
+        return println(WARN, tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println(WARN, tag, msg, tr);
+    }
+
+    public static int w(String tag, Throwable tr) {
+        return println(WARN, tag, "", tr);
+    }
+
+    public static int wtf(String tag, String msg) {
+        return println(ASSERT, tag, msg, null);
+    }
+
+    public static int wtf(String tag, String msg, Throwable tr) {
+        return println(ASSERT, tag, msg, tr);
+    }
+}
@@ -0,0 +1,42 @@
+package nl.sense_os.service.provider;
+
+/**
+ * Stand-in for the SNTP client of the library on a plain JVM. It never goes to the network: the
+ * time is the system time of the JVM. Tests that need a fixed time should give the code under test
+ * a {@link nl.sense_os.service.shared.Clock} instead.
+ */
+public class SNTP {
+
+    public static final String HOST_WORLDWIDE = "pool.ntp.org";
+    public static final String HOST_ASIA = "asia.pool.ntp.org";
+    public static final String HOST_EUROPE = "europe.pool.ntp.org";
+    public static final String HOST_NORTH_AMERICA = "north-america.pool.ntp.org";
+    public static final String HOST_SOUTH_AMERICA = "south-america.pool.ntp.org";
+    public static final String HOST_OCEANIA = "oceania.pool.ntp.org";
+
+    private static final SNTP INSTANCE = new SNTP();
+
+    public static SNTP getInstance() {
+        return INSTANCE;
+    }
+
+    public long getNtpTime() {
+        return System.currentTimeMillis();
+    }
+
+    public long getNtpTimeReference() {
+        return android.os.SystemClock.elapsedRealtime();
+    }
+
+    public long getRoundTripTime() {
+        return 0;
+    }
+
+    public long getTime() {
+        return System.currentTimeMillis();
+    }
+
+    public boolean requestTime(String host, int timeout) {
+        return false;
+    }
+}